@@ -0,0 +1,230 @@
+/**
+ * openHAB, the open Home Automation Bus.
+ * Copyright (C) 2010-2013, openHAB.org <admin@openhab.org>
+ *
+ * See the contributors.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation; either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ *
+ * Additional permission under GNU GPL version 3 section 7
+ *
+ * If you modify this Program, or any covered work, by linking or
+ * combining it with Eclipse (or a modified version of that library),
+ * containing parts covered by the terms of the Eclipse Public License
+ * (EPL), the licensors of this Program grant you additional permission
+ * to convey the resulting work.
+ */
+package org.openhab.binding.http.internal;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.openhab.binding.http.internal.HttpBinding.UrlMetrics;
+import org.openhab.core.events.EventPublisher;
+import org.openhab.core.library.items.StringItem;
+import org.openhab.core.library.types.StringType;
+import org.openhab.core.types.Command;
+import org.openhab.core.types.State;
+import org.openhab.io.net.http.HttpTestServer;
+import org.openhab.model.item.binding.BindingConfigParseException;
+
+
+/**
+ * Tests the polling of the {@link HttpBinding} against an embedded 
+ * {@link HttpTestServer}, which counts the requests it receives.
+ * 
+ * @author Kai Kreuzer
+ * @since 1.4.0
+ */
+public class HttpBindingTest {
+	
+	private static final long TIMEOUT = 5000;
+	
+	private HttpTestServer server;
+	
+	private HttpGenericBindingProvider provider;
+	
+	private HttpBinding binding;
+	
+	private RecordingEventPublisher eventPublisher;
+	
+	/** if set, the binding executes its polls with this executor */
+	private volatile ExecutorService executor;
+	
+	@Before
+	public void setup() throws IOException {
+		server = new HttpTestServer();
+		server.start();
+		
+		provider = new HttpGenericBindingProvider();
+		eventPublisher = new RecordingEventPublisher();
+		binding = new HttpBinding() {
+			@Override
+			ExecutorService getExecutor() {
+				return executor != null ? executor : super.getExecutor();
+			}
+		};
+		binding.setEventPublisher(eventPublisher);
+		binding.addBindingProvider(provider);
+	}
+	
+	@After
+	public void shutdown() throws IOException {
+		binding.deactivate();
+		server.shutdown();
+	}
+	
+	@Test
+	public void testSharedUrlsAreRequestedOnce() throws Exception {
+		addItem("Item1", server.getUrl("/hello"), 60000);
+		addItem("Item2", server.getUrl("/hello"), 60000);
+		
+		binding.execute();
+		eventPublisher.awaitUpdates(2);
+		
+		assertEquals(1, server.requests.get());
+		assertEquals(new StringType("Hello World"), eventPublisher.getState("Item1"));
+		assertEquals(new StringType("Hello World"), eventPublisher.getState("Item2"));
+	}
+	
+	@Test
+	public void testResponsesAreReusedWithinMinimumInterval() throws Exception {
+		Hashtable<String, String> config = new Hashtable<String, String>();
+		config.put("hello.url", server.getUrl("/hello"));
+		config.put("hello.updateInterval", "60000");
+		binding.updated(config);
+		addItem("Item1", "hello", 1);
+		
+		refreshUntil(server.getUrl("/hello"), 2);
+		eventPublisher.awaitUpdates(2);
+		
+		UrlMetrics metrics = binding.getMetrics().get(server.getUrl("/hello"));
+		assertEquals(1, server.requests.get());
+		assertEquals(1, metrics.getRequestCount());
+		assertEquals(1, metrics.getCoalescedCount());
+	}
+	
+	@Test
+	public void testNotModifiedResponsesReuseTheLastBody() throws Exception {
+		Hashtable<String, String> config = new Hashtable<String, String>();
+		config.put("conditional", "true");
+		binding.updated(config);
+		addItem("Item1", server.getUrl("/etag"), 1);
+		
+		refreshUntil(server.getUrl("/etag"), 2);
+		eventPublisher.awaitUpdates(2);
+		
+		assertEquals(2, server.requests.get());
+		assertEquals(1, server.notModified.get());
+		assertEquals(1, binding.getMetrics().get(server.getUrl("/etag")).getNotModifiedCount());
+		assertEquals(new StringType("Tagged"), eventPublisher.getState("Item1"));
+	}
+	
+	@Test
+	public void testItemsAreReleasedAfterErrors() throws Exception {
+		String url = server.getUrl("/hello");
+		server.shutdown();
+		addItem("Item1", url, 1);
+		
+		// the item is only polled again, if it has been released after the failed request
+		refreshUntil(url, 2);
+		assertEquals(2, binding.getMetrics().get(url).getErrorCount());
+		assertEquals(0, eventPublisher.updates.size());
+	}
+	
+	@Test
+	public void testItemsAreReleasedAfterRejections() throws Exception {
+		executor = Executors.newSingleThreadExecutor();
+		executor.shutdown();
+		addItem("Item1", server.getUrl("/hello"), 1);
+		
+		binding.execute();
+		assertEquals(0, binding.getMetrics().get(server.getUrl("/hello")).getRequestCount());
+		
+		// the item is only polled again, if it has been released after the rejection
+		executor = null;
+		refreshUntil(server.getUrl("/hello"), 1);
+		eventPublisher.awaitUpdates(1);
+		assertEquals(1, server.requests.get());
+	}
+	
+	private void addItem(String itemName, String url, int refreshInterval) throws BindingConfigParseException {
+		provider.processBindingConfiguration("test", new StringItem(itemName), 
+			"<[" + url + ":" + refreshInterval + ":REGEX((.*))]");
+	}
+	
+	/**
+	 * Refreshes the binding until the given url has been polled the given number of 
+	 * times, regardless whether a request has been sent or the last response was reused. 
+	 * Items which are still pending are skipped by the refreshes in between.
+	 */
+	private void refreshUntil(String url, int polls) throws InterruptedException {
+		long timeout = System.currentTimeMillis() + TIMEOUT;
+		while (System.currentTimeMillis() < timeout) {
+			Thread.sleep(10);
+			binding.execute();
+			UrlMetrics metrics = binding.getMetrics().get(url);
+			if (metrics != null && metrics.getRequestCount() + metrics.getCoalescedCount() >= polls) {
+				return;
+			}
+		}
+		throw new AssertionError("'" + url + "' has not been polled " + polls + " times");
+	}
+	
+	
+	/**
+	 * Records the updates posted by the binding.
+	 */
+	static class RecordingEventPublisher implements EventPublisher {
+		
+		final List<String> updates = new ArrayList<String>();
+		
+		private final Hashtable<String, State> states = new Hashtable<String, State>();
+
+		public void sendCommand(String itemName, Command command) {
+		}
+
+		public void postCommand(String itemName, Command command) {
+		}
+
+		public synchronized void postUpdate(String itemName, State newState) {
+			updates.add(itemName);
+			states.put(itemName, newState);
+			notifyAll();
+		}
+		
+		State getState(String itemName) {
+			return states.get(itemName);
+		}
+		
+		synchronized void awaitUpdates(int count) throws InterruptedException {
+			long timeout = System.currentTimeMillis() + TIMEOUT;
+			while (updates.size() < count && System.currentTimeMillis() < timeout) {
+				wait(timeout - System.currentTimeMillis());
+			}
+			assertEquals(count, updates.size());
+		}
+	}
+
+}
@@ -31,18 +31,33 @@ package org.openhab.binding.http.internal;
 import static org.apache.commons.lang.StringUtils.isNotBlank;
 import static org.openhab.binding.http.internal.HttpGenericBindingProvider.CHANGED_COMMAND_KEY;
 
+import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Collections;
 import java.util.Dictionary;
 import java.util.Enumeration;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import org.apache.commons.lang.StringUtils;
 import org.openhab.binding.http.HttpBindingProvider;
 import org.openhab.core.binding.AbstractActiveBinding;
+import org.openhab.core.binding.BindingProvider;
 import org.openhab.core.items.Item;
 import org.openhab.core.library.items.ContactItem;
 import org.openhab.core.library.items.NumberItem;
@@ -53,6 +68,7 @@ import org.openhab.core.library.types.OnOffType;
 import org.openhab.core.library.types.OpenClosedType;
 import org.openhab.core.library.types.PercentType;
 import org.openhab.core.library.types.StringType;
+import org.openhab.core.transform.TransformationArtifactCache;
 import org.openhab.core.transform.TransformationException;
 import org.openhab.core.transform.TransformationHelper;
 import org.openhab.core.transform.TransformationService;
@@ -60,6 +76,7 @@ import org.openhab.core.types.Command;
 import org.openhab.core.types.State;
 import org.openhab.core.types.Type;
 import org.openhab.core.types.TypeParser;
+import org.openhab.io.net.http.CachedHttpResponse;
 import org.openhab.io.net.http.HttpUtil;
 import org.osgi.service.cm.ConfigurationException;
 import org.osgi.service.cm.ManagedService;
@@ -85,8 +102,33 @@ public class HttpBinding extends AbstractActiveBinding<HttpBindingProvider> impl
 	/** the interval to find new refresh candidates (defaults to 1000 milliseconds)*/ 
 	private int granularity = 1000;
 	
+	/** the number of threads which execute the requests concurrently (defaults to 5) */
+	private int threads = 5;
+	
+	/** whether requests are sent as conditional requests, if the server supports them (defaults to false) */
+	private boolean conditional = false;
+	
+	/** the time after which an endpoint, which has not been polled anymore, is removed (one hour) */
+	private static final long ENDPOINT_EXPIRY = 3600000L;
+	
+	/** the interval in which the metrics are logged on debug level (one minute) */
+	private static final long METRICS_LOG_INTERVAL = 60000L;
+	
 	private Map<String, Long> lastUpdateMap = new HashMap<String, Long>();
 	
+	/** the items whose request is currently queued or running */
+	private Set<String> pendingItems = Collections.synchronizedSet(new HashSet<String>());
+	
+	/** all polled endpoints, keyed by url and http headers or the id of the cache item */
+	private Map<String, Endpoint> endpoints = new ConcurrentHashMap<String, Endpoint>();
+	
+	/** the last state of every polled item together with the response it has been created from */
+	private Map<String, PolledState> polledStates = new ConcurrentHashMap<String, PolledState>();
+	
+	private ExecutorService executor = null;
+	
+	private long lastMetricsLog = System.currentTimeMillis();
+	
 	/** RegEx to extract a parse a function String <code>'(.*?)\((.*)\)'</code> */
 	private static final Pattern EXTRACT_FUNCTION_PATTERN = Pattern.compile("(.*?)\\((.*)\\)");
 
@@ -136,105 +178,241 @@ public class HttpBinding extends AbstractActiveBinding<HttpBindingProvider> impl
 		formatAndExecute(itemName, command, command);
 	}
 	
+	/**
+	 * @{inheritDoc}
+	 */
+	@Override
+	public void deactivate() {
+		super.deactivate();
+		synchronized(this) {
+			if (executor != null) {
+				executor.shutdown();
+				executor = null;
+			}
+		}
+	}
+	
+	/**
+	 * @{inheritDoc}
+	 */
+	@Override
+	public void bindingChanged(BindingProvider provider, String itemName) {
+		super.bindingChanged(provider, itemName);
+		polledStates.remove(itemName);
+	}
+	
+	/**
+	 * @{inheritDoc}
+	 */
+	@Override
+	public void allBindingsChanged(BindingProvider provider) {
+		super.allBindingsChanged(provider);
+		polledStates.clear();
+	}
+	
 	/**
 	 * @{inheritDoc}
 	 */
 	@Override
 	public void execute() {
 		
+		long now = System.currentTimeMillis();
+		
+		// all items which are due are grouped by the endpoint they poll, so that 
+		// every endpoint is requested only once
+		Map<Endpoint, Poll> polls = new LinkedHashMap<Endpoint, Poll>();
+		
 		for (HttpBindingProvider provider : providers) {
 			for (String itemName : provider.getInBindingItemNames()) {
 				
-				String url = provider.getUrl(itemName);
-				url = String.format(url, Calendar.getInstance().getTime());
-
-				Properties headers = provider.getHttpHeaders(itemName);
 				int refreshInterval = provider.getRefreshInterval(itemName);
-				String transformation = provider.getTransformation(itemName);
 				
 				Long lastUpdateTimeStamp = lastUpdateMap.get(itemName);
 				if (lastUpdateTimeStamp == null) {
 					lastUpdateTimeStamp = 0L;
 				}
 				
-				long age = System.currentTimeMillis() - lastUpdateTimeStamp;
+				long age = now - lastUpdateTimeStamp;
 				boolean needsUpdate = age >= refreshInterval;
 				
-				if (needsUpdate) {
-					
-					String response = null;
+				// items whose last request is still queued or running are skipped
+				if (needsUpdate && pendingItems.add(itemName)) {
 					
-					// Check if special URL is used and data should get from
-					// cache rather than directly from server
-					CacheConfig cacheItem = itemCache.get(url);
-
-					if (cacheItem != null) {
-
-						long cacheAge = System.currentTimeMillis() - cacheItem.lastUpdate;
-						boolean cacheNeedsUpdate = cacheAge >= cacheItem.updateInterval;
-
-						if (cacheNeedsUpdate) {
-
-							// update and store data on cache
-							logger.debug("updating cache for '{}' ('{}')", url, cacheItem.url);
-							cacheItem.data = HttpUtil.executeUrl("GET", cacheItem.url, null, null, null, timeout);
-
-							if (cacheItem.data != null)
-								cacheItem.lastUpdate = System.currentTimeMillis();
-						}
-
-						logger.debug("item '{}' is fetched from cache", itemName);
-						response = cacheItem.data;
-						
-					} else {
-						
-						logger.debug("item '{}' is about to be refreshed now", itemName);
-						
-						response = HttpUtil.executeUrl("GET", url, headers, null, null, timeout);
-					}
+					String url = provider.getUrl(itemName);
+					url = String.format(url, Calendar.getInstance().getTime());
 					
-					if(response==null) {
-						logger.error("No response received from '{}'", url);
-					} else {
-						String transformedResponse;
-						
-						try {
-							String[] parts = splitTransformationConfig(transformation);
-							String transformationType = parts[0];
-							String transformationFunction = parts[1];
-							
-							TransformationService transformationService = 
-								TransformationHelper.getTransformationService(HttpActivator.getContext(), transformationType);
-							if (transformationService != null) {
-								transformedResponse = transformationService.transform(transformationFunction, response);
-							} else {
-								transformedResponse = response;
-								logger.warn("couldn't transform response because transformationService of type '{}' is unavailable", transformationType);
-							}
-						}
-						catch (TransformationException te) {
-							logger.error("transformation throws exception [transformation="
-									+ transformation + ", response=" + response + "]", te);
-							
-							// in case of an error we return the response without any
-							// transformation
-							transformedResponse = response;
-						}
-						
-						logger.debug("transformed response is '{}'", transformedResponse);
-						
-						Class<? extends Item> itemType = provider.getItemType(itemName);
-						State state = createState(itemType, transformedResponse);
-						
-						if (state != null) {
-							eventPublisher.postUpdate(itemName, state);
-						}
+					Endpoint endpoint = getEndpoint(url, provider.getHttpHeaders(itemName), now);
+					Poll poll = polls.get(endpoint);
+					if (poll == null) {
+						poll = new Poll(endpoint, now);
+						polls.put(endpoint, poll);
 					}
+					poll.add(provider, itemName);
 					
-					lastUpdateMap.put(itemName, System.currentTimeMillis());
-				}					
+					lastUpdateMap.put(itemName, now);
+				}
+			}
+		}
+		
+		ExecutorService executor = getExecutor();
+		for (Poll poll : polls.values()) {
+			try {
+				executor.execute(poll);
+			} catch (RejectedExecutionException e) {
+				// the executor has just been replaced because of a configuration update
+				logger.debug("refresh of '{}' has been rejected, retrying with the next refresh", poll.endpoint.url);
+				poll.release();
 			}
 		}
+		
+		removeExpiredEndpoints(now);
+		
+		if (logger.isDebugEnabled() && now - lastMetricsLog >= METRICS_LOG_INTERVAL) {
+			logger.debug("HTTP refresh metrics: {}", getMetrics());
+			lastMetricsLog = now;
+		}
+	}
+	
+	/**
+	 * Returns the endpoint for the given url and headers. If a cache item has been 
+	 * configured for the given url (see {@link CacheConfig}), the endpoint requests 
+	 * the url of the cache item instead.
+	 * 
+	 * @param url the formatted url of the item
+	 * @param headers the http headers of the item, might be <code>null</code>
+	 * @param now the current time
+	 * @return the endpoint, never <code>null</code>
+	 */
+	private Endpoint getEndpoint(String url, Properties headers, long now) {
+		CacheConfig cacheConfig = itemCache.get(url);
+		String key = cacheConfig != null ? url : url + "|" + headers;
+		
+		Endpoint endpoint = endpoints.get(key);
+		if (endpoint == null) {
+			if (cacheConfig != null) {
+				endpoint = new Endpoint(cacheConfig.url, null, cacheConfig.updateInterval);
+			} else {
+				endpoint = new Endpoint(url, headers, 0);
+			}
+			endpoints.put(key, endpoint);
+		}
+		endpoint.lastUsed = now;
+		return endpoint;
+	}
+	
+	/**
+	 * Removes the endpoints which have not been polled for an hour, as 
+	 * formatted urls (i.e. urls containing the current date) would otherwise 
+	 * create an unlimited number of endpoints.
+	 */
+	private void removeExpiredEndpoints(long now) {
+		Iterator<Endpoint> iterator = endpoints.values().iterator();
+		while (iterator.hasNext()) {
+			if (now - iterator.next().lastUsed > ENDPOINT_EXPIRY) {
+				iterator.remove();
+			}
+		}
+	}
+	
+	synchronized ExecutorService getExecutor() {
+		if (executor == null) {
+			executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+				private final AtomicInteger count = new AtomicInteger();
+				public Thread newThread(Runnable runnable) {
+					Thread thread = new Thread(runnable, "openHAB HTTP Refresh " + count.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		return executor;
+	}
+	
+	/**
+	 * @return the request metrics of all currently polled urls, keyed by url 
+	 */
+	public Map<String, UrlMetrics> getMetrics() {
+		Map<String, UrlMetrics> metrics = new HashMap<String, UrlMetrics>();
+		for (Endpoint endpoint : endpoints.values()) {
+			metrics.put(endpoint.url, endpoint.metrics);
+		}
+		return metrics;
+	}
+	
+	/**
+	 * Transforms the response for the given item and posts the resulting state. 
+	 * If the item has already been updated from the very same response (i.e. 
+	 * the response has not changed since the last request) and the file of the 
+	 * transformation has not changed either, the transformation is skipped and 
+	 * the previous state is posted again.
+	 * 
+	 * @param provider the binding provider of the item
+	 * @param itemName the name of the item to update
+	 * @param response the response of the item's endpoint
+	 */
+	private void updateItem(HttpBindingProvider provider, String itemName, Response response) {
+		String transformation = provider.getTransformation(itemName);
+		
+		State state;
+		long artifactModified = getArtifactModified(transformation);
+		PolledState polledState = polledStates.get(itemName);
+		if (polledState != null && polledState.response == response && polledState.transformation.equals(transformation)
+				&& polledState.artifactModified == artifactModified) {
+			logger.debug("response for item '{}' has not changed, skipping the transformation", itemName);
+			state = polledState.state;
+		} else {
+			String transformedResponse;
+			
+			try {
+				String[] parts = splitTransformationConfig(transformation);
+				String transformationType = parts[0];
+				String transformationFunction = parts[1];
+				
+				TransformationService transformationService = 
+					TransformationHelper.getTransformationService(HttpActivator.getContext(), transformationType);
+				if (transformationService != null) {
+					transformedResponse = transformationService.transform(transformationFunction, response.body);
+				} else {
+					transformedResponse = response.body;
+					logger.warn("couldn't transform response because transformationService of type '{}' is unavailable", transformationType);
+				}
+			}
+			catch (TransformationException te) {
+				logger.error("transformation throws exception [transformation="
+						+ transformation + ", response=" + response.body + "]", te);
+				
+				// in case of an error we return the response without any
+				// transformation
+				transformedResponse = response.body;
+			}
+			
+			logger.debug("transformed response is '{}'", transformedResponse);
+			
+			Class<? extends Item> itemType = provider.getItemType(itemName);
+			state = createState(itemType, transformedResponse);
+			polledStates.put(itemName, new PolledState(response, transformation, artifactModified, state));
+		}
+		
+		if (state != null) {
+			eventPublisher.postUpdate(itemName, state);
+		}
+	}
+	
+	/**
+	 * Returns the modification time of the file, which defines the given transformation 
+	 * (like a map or a stylesheet), so that changes of the file are applied, although 
+	 * the response has not changed.
+	 * 
+	 * @param transformation the transformation configuration of an item
+	 * @return the modification time of the file or <code>0</code>, if the transformation
+	 * is not defined by a file (like a regular expression)
+	 */
+	private long getArtifactModified(String transformation) {
+		Matcher matcher = EXTRACT_FUNCTION_PATTERN.matcher(transformation);
+		if (!matcher.matches()) {
+			return 0;
+		}
+		return TransformationArtifactCache.getTransformationFile(matcher.group(2)).lastModified();
 	}
 	
 	/**
@@ -358,6 +536,24 @@ public class HttpBinding extends AbstractActiveBinding<HttpBindingProvider> impl
 				granularity = Integer.parseInt(granularityString);
 			}
 			
+			String threadsString = (String) config.get("threads");
+			if (StringUtils.isNotBlank(threadsString)) {
+				int newThreads = Integer.parseInt(threadsString);
+				synchronized(this) {
+					if (newThreads != threads && executor != null) {
+						// running requests are finished, the next refresh creates a new executor
+						executor.shutdown();
+						executor = null;
+					}
+					threads = newThreads;
+				}
+			}
+			
+			String conditionalString = (String) config.get("conditional");
+			if (StringUtils.isNotBlank(conditionalString)) {
+				conditional = Boolean.parseBoolean(conditionalString);
+			}
+			
 			// Parse page cache config
 			
 			@SuppressWarnings("unchecked")
@@ -368,7 +564,8 @@ public class HttpBinding extends AbstractActiveBinding<HttpBindingProvider> impl
 
 				// the config-key enumeration contains additional keys that we
 				// don't want to process here ...
-				if ("service.pid".equals(key)) {
+				if ("service.pid".equals(key) || "timeout".equals(key) || "granularity".equals(key) 
+						|| "threads".equals(key) || "conditional".equals(key)) {
 					continue;
 				}
 
@@ -407,10 +604,237 @@ public class HttpBinding extends AbstractActiveBinding<HttpBindingProvider> impl
 				}
 
 			}
+			
+			// the endpoints are recreated with the new cache configuration
+			endpoints.clear();
 		}
 
 	}
 	
+	/**
+	 * A url (together with its http headers) which is polled by one or more items.
+	 * Concurrent requests for the same endpoint are serialized, and requests which 
+	 * are made within the minimum interval of the endpoint reuse the last response.
+	 */
+	class Endpoint {
+		
+		final String url;
+		
+		final Properties headers;
+		
+		/** the minimum age of the last response before the url is requested again */
+		final int minimumInterval;
+		
+		final UrlMetrics metrics = new UrlMetrics();
+		
+		final CachedHttpResponse cachedResponse = new CachedHttpResponse();
+		
+		/** the last successful response or <code>null</code>, if the last request failed */
+		Response lastResponse;
+		
+		/** the start time of the last successful request */
+		long lastFetch;
+		
+		/** the last time this endpoint has been polled by any item */
+		volatile long lastUsed;
+		
+		public Endpoint(String url, Properties headers, int minimumInterval) {
+			this.url = url;
+			this.headers = headers;
+			this.minimumInterval = minimumInterval;
+		}
+		
+		/**
+		 * Requests the url or returns the last response, if it has been requested after
+		 * the given time (i.e. by another poll, which was running at the same time) or if 
+		 * it is younger than the minimum interval of this endpoint. 
+		 * 
+		 * @param scheduled the time when the refresh has been scheduled
+		 * @return the response or <code>null</code> if the request went wrong
+		 */
+		synchronized Response fetch(long scheduled) {
+			long start = System.currentTimeMillis();
+			if (lastResponse != null && (lastFetch >= scheduled || start - lastFetch < minimumInterval)) {
+				logger.debug("reusing the last response of '{}'", url);
+				metrics.coalesced.incrementAndGet();
+				return lastResponse;
+			}
+			
+			logger.debug("'{}' is about to be refreshed now", url);
+			
+			String body;
+			if (conditional) {
+				body = HttpUtil.executeConditionalGet(url, headers, timeout, cachedResponse);
+			} else {
+				body = HttpUtil.executeUrl("GET", url, headers, null, null, timeout);
+			}
+			
+			long end = System.currentTimeMillis();
+			metrics.requests.incrementAndGet();
+			metrics.requestTime.addAndGet(end - start);
+			if (body == null) {
+				metrics.errors.incrementAndGet();
+				lastResponse = null;
+			} else {
+				if (conditional && cachedResponse.isNotModified()) {
+					metrics.notModified.incrementAndGet();
+				}
+				// an unchanged body keeps the same response object, so that the items 
+				// can skip their transformations
+				if (lastResponse == null || !body.equals(lastResponse.body)) {
+					lastResponse = new Response(body);
+				}
+				lastFetch = start;
+			}
+			return lastResponse;
+		}
+	}
+	
+	/**
+	 * The body of a response. A new instance is only created if the body has changed.
+	 */
+	static class Response {
+		
+		final String body;
+
+		public Response(String body) {
+			this.body = body;
+		}
+	}
+	
+	/**
+	 * The state of an item, together with the response and transformation it has been created by.
+	 */
+	static class PolledState {
+		
+		final Response response;
+		
+		final String transformation;
+		
+		/** the modification time of the transformation file, <code>0</code> if there is none */
+		final long artifactModified;
+		
+		final State state;
+
+		public PolledState(Response response, String transformation, long artifactModified, State state) {
+			this.response = response;
+			this.transformation = transformation;
+			this.artifactModified = artifactModified;
+			this.state = state;
+		}
+	}
+	
+	/**
+	 * The request for an endpoint together with all items, which are updated from its response.
+	 */
+	class Poll implements Runnable {
+		
+		final Endpoint endpoint;
+		
+		final long scheduled;
+		
+		final List<HttpBindingProvider> providers = new ArrayList<HttpBindingProvider>();
+		
+		final List<String> itemNames = new ArrayList<String>();
+		
+		public Poll(Endpoint endpoint, long scheduled) {
+			this.endpoint = endpoint;
+			this.scheduled = scheduled;
+		}
+		
+		void add(HttpBindingProvider provider, String itemName) {
+			providers.add(provider);
+			itemNames.add(itemName);
+		}
+		
+		void release() {
+			pendingItems.removeAll(itemNames);
+		}
+		
+		public void run() {
+			try {
+				Response response = endpoint.fetch(scheduled);
+				if (response == null) {
+					logger.error("No response received from '{}'", endpoint.url);
+				} else {
+					for (int i = 0; i < itemNames.size(); i++) {
+						updateItem(providers.get(i), itemNames.get(i), response);
+					}
+				}
+			} catch (RuntimeException e) {
+				logger.error("Error while refreshing '" + endpoint.url + "'", e);
+			} finally {
+				release();
+			}
+		}
+	}
+	
+	/**
+	 * Collects statistics about the requests of a single url
+	 */
+	public static class UrlMetrics {
+		
+		private final AtomicLong requests = new AtomicLong();
+		
+		private final AtomicLong requestTime = new AtomicLong();
+		
+		private final AtomicLong errors = new AtomicLong();
+		
+		private final AtomicLong notModified = new AtomicLong();
+		
+		private final AtomicLong coalesced = new AtomicLong();
+		
+		/**
+		 * @return the number of requests sent to this url
+		 */
+		public long getRequestCount() {
+			return requests.get();
+		}
+		
+		/**
+		 * @return the accumulated time of all requests in milliseconds
+		 */
+		public long getRequestTime() {
+			return requestTime.get();
+		}
+		
+		/**
+		 * @return the average time of a request in milliseconds
+		 */
+		public long getAverageLatency() {
+			long count = getRequestCount();
+			return count > 0 ? getRequestTime() / count : 0;
+		}
+		
+		/**
+		 * @return the number of requests, which have not been answered successfully
+		 */
+		public long getErrorCount() {
+			return errors.get();
+		}
+		
+		/**
+		 * @return the number of conditional requests, which have been answered with <code>304 Not Modified</code>
+		 */
+		public long getNotModifiedCount() {
+			return notModified.get();
+		}
+		
+		/**
+		 * @return the number of item refreshes, which have reused a recent response instead of sending a request
+		 */
+		public long getCoalescedCount() {
+			return coalesced.get();
+		}
+		
+		@Override
+		public String toString() {
+			return "requests=" + getRequestCount() + ", averageLatency=" + getAverageLatency() + 
+				"ms, errors=" + getErrorCount() + ", notModified=" + getNotModifiedCount() + 
+				", coalesced=" + getCoalescedCount();
+		}
+	}
+	
 	/**
 	 * Internal data structure for data cache purposes
 	 * 
@@ -426,12 +850,6 @@ public class HttpBinding extends AbstractActiveBinding<HttpBindingProvider> impl
 		/** Update interval for cache */
 		int updateInterval = 0;
 		
-		/** Variable to store cached data */
-		String data;
-		
-		/** Last time when data is updated */
-		long lastUpdate;
-		
 		public CacheConfig(String id) {
 			this.id = id;
 		}
@@ -0,0 +1,98 @@
+/**
+ * openHAB, the open Home Automation Bus.
+ * Copyright (C) 2010-2013, openHAB.org <admin@openhab.org>
+ *
+ * See the contributors.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation; either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ *
+ * Additional permission under GNU GPL version 3 section 7
+ *
+ * If you modify this Program, or any covered work, by linking or
+ * combining it with Eclipse (or a modified version of that library),
+ * containing parts covered by the terms of the Eclipse Public License
+ * (EPL), the licensors of this Program grant you additional permission
+ * to convey the resulting work.
+ */
+package org.openhab.core.library.types;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+import org.openhab.core.types.Command;
+import org.openhab.core.types.State;
+import org.openhab.core.types.TypeParser;
+import org.openhab.core.types.UnDefType;
+
+
+/**
+ * @author Kai Kreuzer
+ * @since 1.4.0
+ */
+public class TypeParserTest {
+
+	@Test
+	public void testParseState() {
+		List<Class<? extends State>> types = new ArrayList<Class<? extends State>>();
+		types.add(UnDefType.class);
+		types.add(OnOffType.class);
+		types.add(DecimalType.class);
+		types.add(StringType.class);
+		
+		assertEquals(UnDefType.UNDEF, TypeParser.parseState(types, "UNDEF"));
+		assertEquals(OnOffType.ON, TypeParser.parseState(types, "ON"));
+		assertEquals(new DecimalType("12.5"), TypeParser.parseState(types, "12.5"));
+		assertEquals(new StringType("on"), TypeParser.parseState(types, "on"));
+		assertEquals(new StringType("abc"), TypeParser.parseState(types, "abc"));
+		
+		types.remove(StringType.class);
+		assertNull(TypeParser.parseState(types, "abc"));
+		assertNull(TypeParser.parseState(types, null));
+	}
+
+	@Test
+	public void testParseStateOfAllLibraryTypes() {
+		assertEquals(OpenClosedType.CLOSED, parseState(OpenClosedType.class, "CLOSED"));
+		assertEquals(new PercentType(50), parseState(PercentType.class, "50"));
+		assertEquals(new HSBType("120,100,50"), parseState(HSBType.class, "120,100,50"));
+		assertEquals(UpDownType.DOWN, parseState(UpDownType.class, "DOWN"));
+		assertNotNull(parseState(DateTimeType.class, "2013-08-01T12:30:00"));
+		assertNull(parseState(PercentType.class, "150"));
+		assertNull(parseState(OnOffType.class, "OPEN"));
+	}
+
+	@Test
+	public void testParseCommand() {
+		List<Class<? extends Command>> types = new ArrayList<Class<? extends Command>>();
+		types.add(IncreaseDecreaseType.class);
+		types.add(StopMoveType.class);
+		types.add(PercentType.class);
+		
+		assertEquals(IncreaseDecreaseType.INCREASE, TypeParser.parseCommand(types, "INCREASE"));
+		assertEquals(StopMoveType.MOVE, TypeParser.parseCommand(types, "MOVE"));
+		assertEquals(new PercentType(10), TypeParser.parseCommand(types, "10"));
+		assertNull(TypeParser.parseCommand(types, "ON"));
+	}
+
+	private static State parseState(Class<? extends State> type, String s) {
+		List<Class<? extends State>> types = new ArrayList<Class<? extends State>>();
+		types.add(type);
+		return TypeParser.parseState(types, s);
+	}
+
+}
@@ -0,0 +1,121 @@
+/**
+ * openHAB, the open Home Automation Bus.
+ * Copyright (C) 2010-2013, openHAB.org <admin@openhab.org>
+ *
+ * See the contributors.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation; either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ *
+ * Additional permission under GNU GPL version 3 section 7
+ *
+ * If you modify this Program, or any covered work, by linking or
+ * combining it with Eclipse (or a modified version of that library),
+ * containing parts covered by the terms of the Eclipse Public License
+ * (EPL), the licensors of this Program grant you additional permission
+ * to convey the resulting work.
+ */
+package org.openhab.core.persistence;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Date;
+import java.util.List;
+
+import org.joda.time.DateMidnight;
+import org.junit.Test;
+import org.openhab.core.library.types.DecimalType;
+import org.openhab.core.library.types.OnOffType;
+import org.openhab.core.persistence.FilterCriteria.Aggregation;
+import org.openhab.core.persistence.FilterCriteria.Ordering;
+import org.openhab.core.persistence.test.TestPersistenceService;
+
+/**
+ * @author Kai Kreuzer
+ * @since 1.4.0
+ */
+public class AggregatorTest {
+
+	private QueryablePersistenceService service = new TestPersistenceService();
+
+	@Test
+	public void testAggregateRange() {
+		assertEquals("13", aggregate(Aggregation.COUNT).getState().toString());
+		assertEquals("26078", aggregate(Aggregation.SUM).getState().toString());
+		assertEquals("2006", aggregate(Aggregation.AVG).getState().toString());
+		assertEquals(OnOffType.ON, aggregate(Aggregation.CHANGED).getState());
+
+		HistoricItem min = aggregate(Aggregation.MIN);
+		assertEquals("2000", min.getState().toString());
+		assertEquals(new DateMidnight(2000, 1, 1).toDate(), min.getTimestamp());
+
+		HistoricItem max = aggregate(Aggregation.MAX);
+		assertEquals("2012", max.getState().toString());
+		assertEquals(new DateMidnight(2012, 1, 1).toDate(), max.getTimestamp());
+
+		assertEquals("2000", aggregate(Aggregation.FIRST).getState().toString());
+		assertEquals("2012", aggregate(Aggregation.LAST).getState().toString());
+	}
+
+	@Test
+	public void testAggregateBuckets() {
+		Aggregator aggregator = new Aggregator("Test", Aggregation.AVG, 20);
+		aggregator.add(Aggregator.createHistoricItem("Test", new DecimalType(1), new Date(0)));
+		aggregator.add(Aggregator.createHistoricItem("Test", new DecimalType(3), new Date(10)));
+		aggregator.add(Aggregator.createHistoricItem("Test", new DecimalType(5), new Date(45)));
+		aggregator.add(Aggregator.createHistoricItem("Test", new DecimalType(7), new Date(50)));
+
+		List<HistoricItem> result = aggregator.getResult(Ordering.DESCENDING);
+		assertEquals(2, result.size());
+		assertEquals("6", result.get(0).getState().toString());
+		assertEquals(new Date(45), result.get(0).getTimestamp());
+		assertEquals("2", result.get(1).getState().toString());
+		assertEquals(new Date(0), result.get(1).getTimestamp());
+	}
+
+	@Test
+	public void testAverageCountsDecimalValuesOnly() {
+		Aggregator aggregator = new Aggregator("Test", Aggregation.AVG, 0);
+		aggregator.add(Aggregator.createHistoricItem("Test", new DecimalType(2), new Date(0)));
+		aggregator.add(Aggregator.createHistoricItem("Test", OnOffType.ON, new Date(10)));
+		aggregator.add(Aggregator.createHistoricItem("Test", new DecimalType(4), new Date(20)));
+
+		HistoricItem average = aggregator.getResult().get(0);
+		assertEquals("3", average.getState().toString());
+		assertTrue(average instanceof HistoricAggregate);
+		assertEquals(2, ((HistoricAggregate) average).getCount());
+	}
+
+	@Test
+	public void testNotChanged() {
+		Aggregator aggregator = new Aggregator("Test", Aggregation.CHANGED, 0);
+		aggregator.add(Aggregator.createHistoricItem("Test", OnOffType.ON, new Date(0)));
+		aggregator.add(Aggregator.createHistoricItem("Test", OnOffType.ON, new Date(10)));
+		assertEquals(OnOffType.OFF, aggregator.getResult().get(0).getState());
+		
+		assertEquals(0, new Aggregator("Test", Aggregation.COUNT, 0).getResult().size());
+	}
+
+	private HistoricItem aggregate(Aggregation aggregation) {
+		FilterCriteria filter = new FilterCriteria()
+			.setItemName("Test")
+			.setBeginDate(new DateMidnight(2000, 1, 1).toDate())
+			.setAggregation(aggregation);
+		List<HistoricItem> result = Aggregator.aggregate(service, filter);
+		assertEquals(1, result.size());
+		return result.get(0);
+	}
+
+}
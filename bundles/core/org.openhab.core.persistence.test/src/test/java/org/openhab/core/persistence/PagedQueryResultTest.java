@@ -0,0 +1,107 @@
+/**
+ * openHAB, the open Home Automation Bus.
+ * Copyright (C) 2010-2013, openHAB.org <admin@openhab.org>
+ *
+ * See the contributors.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation; either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ *
+ * Additional permission under GNU GPL version 3 section 7
+ *
+ * If you modify this Program, or any covered work, by linking or
+ * combining it with Eclipse (or a modified version of that library),
+ * containing parts covered by the terms of the Eclipse Public License
+ * (EPL), the licensors of this Program grant you additional permission
+ * to convey the resulting work.
+ */
+package org.openhab.core.persistence;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+
+import org.junit.Test;
+import org.openhab.core.library.types.DecimalType;
+
+/**
+ * @author Kai Kreuzer
+ * @since 1.4.0
+ */
+public class PagedQueryResultTest {
+
+	private final List<HistoricItem> items = new ArrayList<HistoricItem>();
+	
+	private int fetches = 0;
+	
+	public PagedQueryResultTest() {
+		for (int i = 0; i < 25; i++) {
+			items.add(Aggregator.createHistoricItem("Test", new DecimalType(i), new Date(i)));
+		}
+	}
+	
+	@Test
+	public void testAllItems() {
+		List<HistoricItem> result = toList(createResult(new FilterCriteria(), 10));
+		assertEquals(25, result.size());
+		assertEquals(3, fetches);
+	}
+
+	@Test
+	public void testPage() {
+		QueryResult queryResult = createResult(new FilterCriteria().setPageSize(12).setPageNumber(1), 5);
+		assertEquals(0, fetches);
+		List<HistoricItem> result = toList(queryResult);
+		assertEquals(12, result.size());
+		assertEquals("12", result.get(0).getState().toString());
+		assertEquals("23", result.get(11).getState().toString());
+		assertEquals(3, fetches);
+	}
+
+	@Test
+	public void testClose() {
+		QueryResult queryResult = createResult(new FilterCriteria(), 10);
+		Iterator<HistoricItem> it = queryResult.iterator();
+		assertTrue(it.hasNext());
+		it.next();
+		queryResult.close();
+		assertFalse(it.hasNext());
+		assertEquals(1, fetches);
+	}
+	
+	private QueryResult createResult(FilterCriteria filter, int chunkSize) {
+		return new PagedQueryResult(filter, chunkSize) {
+			@Override
+			protected List<HistoricItem> fetch(HistoricItem last, long offset, int limit) {
+				fetches++;
+				int from = (int) Math.min(offset, items.size());
+				return items.subList(from, Math.min(from + limit, items.size()));
+			}
+		};
+	}
+	
+	private static List<HistoricItem> toList(Iterable<HistoricItem> iterable) {
+		List<HistoricItem> list = new ArrayList<HistoricItem>();
+		for (HistoricItem item : iterable) {
+			list.add(item);
+		}
+		return list;
+	}
+
+}
@@ -0,0 +1,221 @@
+/**
+ * openHAB, the open Home Automation Bus.
+ * Copyright (C) 2010-2013, openHAB.org <admin@openhab.org>
+ *
+ * See the contributors.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation; either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ *
+ * Additional permission under GNU GPL version 3 section 7
+ *
+ * If you modify this Program, or any covered work, by linking or
+ * combining it with Eclipse (or a modified version of that library),
+ * containing parts covered by the terms of the Eclipse Public License
+ * (EPL), the licensors of this Program grant you additional permission
+ * to convey the resulting work.
+ */
+package org.openhab.core.persistence.internal;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import org.junit.Test;
+import org.openhab.core.items.GenericItem;
+import org.openhab.core.items.Item;
+import org.openhab.core.library.types.DecimalType;
+import org.openhab.core.persistence.BatchPersistenceService;
+import org.openhab.core.persistence.PersistenceEntry;
+import org.openhab.core.types.Command;
+import org.openhab.core.types.State;
+import org.openhab.core.types.UnDefType;
+
+/**
+ * @author Kai Kreuzer
+ * @since 1.4.0
+ */
+public class WriteBehindQueueTest {
+
+	@Test
+	public void testFlushBySize() throws InterruptedException {
+		RecordingService service = new RecordingService();
+		WriteBehindQueue queue = new WriteBehindQueue(service, 100, 10, 60000);
+		queue.start();
+		
+		TestItem item = new TestItem("Test");
+		for(int i = 0; i < 25; i++) {
+			item.setState(new DecimalType(i));
+			queue.post(new PersistenceEntry(item, null, item.getState(), new Date()));
+		}
+		service.await(20);
+		assertEquals(2, service.batches.size());
+		assertEquals(10, service.batches.get(0).size());
+		
+		// the captured states are kept, although the item has changed meanwhile
+		assertEquals(new DecimalType(0), service.batches.get(0).get(0).getState());
+		assertEquals(new DecimalType(19), service.batches.get(1).get(9).getState());
+
+		// the remaining entries are stored on shutdown
+		queue.shutdown();
+		assertEquals(25, queue.getStoredEntryCount());
+		assertEquals(3, queue.getFlushCount());
+		assertEquals(0, queue.getQueueDepth());
+	}
+
+	@Test
+	public void testFlushByTime() throws InterruptedException {
+		RecordingService service = new RecordingService();
+		WriteBehindQueue queue = new WriteBehindQueue(service, 100, 10, 50);
+		queue.start();
+
+		TestItem item = new TestItem("Test");
+		queue.post(new PersistenceEntry(item, "Alias", new DecimalType(1), new Date()));
+		queue.post(new PersistenceEntry(item, "Alias", new DecimalType(2), new Date()));
+		service.await(2);
+		
+		assertEquals(1, service.batches.size());
+		assertEquals("Alias", service.batches.get(0).get(1).getName());
+		queue.shutdown();
+	}
+
+	@Test
+	public void testShutdownWaitsForWriter() throws InterruptedException {
+		RecordingService service = new RecordingService();
+		service.delay = 50;
+		WriteBehindQueue queue = new WriteBehindQueue(service, 100, 10, 60000);
+		queue.start();
+
+		TestItem item = new TestItem("Test");
+		for(int i = 0; i < 25; i++) {
+			assertTrue(queue.post(new PersistenceEntry(item, null, new DecimalType(i), new Date())));
+		}
+		queue.shutdown();
+		
+		// all entries have been stored by the writer thread, one batch after the other
+		assertFalse(queue.isAlive());
+		assertEquals(25, service.count);
+		assertEquals(1, service.maxConcurrentStores);
+		assertEquals(new DecimalType(24), service.batches.get(service.batches.size() - 1).get(4).getState());
+		
+		// entries are rejected after the shutdown
+		assertFalse(queue.post(new PersistenceEntry(item, null, new DecimalType(25), new Date())));
+		assertEquals(0, queue.getQueueDepth());
+	}
+
+	@Test
+	public void testShutdownWithoutWriter() {
+		RecordingService service = new RecordingService();
+		WriteBehindQueue queue = new WriteBehindQueue(service, 100, 10, 60000);
+
+		TestItem item = new TestItem("Test");
+		queue.post(new PersistenceEntry(item, null, new DecimalType(1), new Date()));
+		queue.shutdown();
+		assertEquals(1, service.count);
+	}
+
+	@Test
+	public void testFullQueueIsCountedOnEveryPost() {
+		RecordingService service = new RecordingService();
+		WriteBehindQueue queue = new WriteBehindQueue(service, 1, 10, 60000);
+
+		TestItem item = new TestItem("Test");
+		assertTrue(queue.post(new PersistenceEntry(item, null, new DecimalType(1), new Date())));
+		for(int i = 0; i < 3; i++) {
+			// an interrupted thread gives up waiting for space right away
+			Thread.currentThread().interrupt();
+			queue.post(new PersistenceEntry(item, null, new DecimalType(2), new Date()));
+			assertTrue(Thread.interrupted());
+		}
+		assertEquals(3, queue.getQueueFullCount());
+		assertEquals(3, queue.getDroppedEntryCount());
+		
+		queue.shutdown();
+		assertEquals(1, service.count);
+	}
+
+	
+	private static class RecordingService implements BatchPersistenceService {
+		
+		final List<List<PersistenceEntry>> batches = new ArrayList<List<PersistenceEntry>>();
+		
+		int count = 0;
+		
+		long delay = 0;
+		
+		int concurrentStores = 0;
+		
+		int maxConcurrentStores = 0;
+
+		public String getName() {
+			return "recording";
+		}
+
+		public void store(Item item) {
+			fail("Single items must not be stored");
+		}
+
+		public void store(Item item, String alias) {
+			fail("Single items must not be stored");
+		}
+
+		public void store(List<PersistenceEntry> entries) {
+			synchronized (this) {
+				concurrentStores++;
+				maxConcurrentStores = Math.max(maxConcurrentStores, concurrentStores);
+			}
+			try {
+				Thread.sleep(delay);
+			} catch (InterruptedException e) {
+				fail("The writer must not be interrupted while storing");
+			}
+			record(entries);
+		}
+		
+		private synchronized void record(List<PersistenceEntry> entries) {
+			concurrentStores--;
+			batches.add(new ArrayList<PersistenceEntry>(entries));
+			count += entries.size();
+			notifyAll();
+		}
+		
+		public synchronized void await(int entries) throws InterruptedException {
+			long timeout = System.currentTimeMillis() + 5000;
+			while(count < entries && System.currentTimeMillis() < timeout) {
+				wait(100);
+			}
+		}
+	}
+	
+	private static class TestItem extends GenericItem {
+
+		public TestItem(String name) {
+			super(name);
+		}
+
+		public List<Class<? extends State>> getAcceptedDataTypes() {
+			List<Class<? extends State>> types = new ArrayList<Class<? extends State>>();
+			types.add(DecimalType.class);
+			types.add(UnDefType.class);
+			return types;
+		}
+
+		public List<Class<? extends Command>> getAcceptedCommandTypes() {
+			return new ArrayList<Class<? extends Command>>();
+		}
+	}
+
+}
@@ -0,0 +1,60 @@
+/**
+ * openHAB, the open Home Automation Bus.
+ * Copyright (C) 2010-2013, openHAB.org <admin@openhab.org>
+ *
+ * See the contributors.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation; either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ *
+ * Additional permission under GNU GPL version 3 section 7
+ *
+ * If you modify this Program, or any covered work, by linking or
+ * combining it with Eclipse (or a modified version of that library),
+ * containing parts covered by the terms of the Eclipse Public License
+ * (EPL), the licensors of this Program grant you additional permission
+ * to convey the resulting work.
+ */
+package org.openhab.core.persistence;
+
+/**
+ * A queryable persistence service which is able to aggregate the stored data
+ * itself, so that the caller does not need to fetch all single entries.
+ * 
+ * @author Kai Kreuzer
+ * @since 1.4.0
+ */
+public interface AggregatingPersistenceService extends QueryablePersistenceService {
+
+	/**
+	 * Aggregates the data which matches the given filter criteria with the
+	 * {@link FilterCriteria.Aggregation} of the filter. 
+	 * 
+	 * <p>The result contains one entry per time bucket of the filter's bucket size 
+	 * (or a single entry, if the bucket size is 0), buckets without any matching 
+	 * data are omitted. The entries are sorted by the filter's ordering, paging 
+	 * is not applied. The timestamp of an entry is the one of the selected value for
+	 * MIN, MAX, FIRST and LAST, and the one of the first value of the bucket otherwise;
+	 * services which cannot tell the timestamp of a selected value use the latter as well.</p>
+	 * 
+	 * <p>Entries of SUM and AVG aggregations should be {@link HistoricAggregate}s, which tell 
+	 * the number of (decimal) values the entry has been computed from.</p>
+	 * 
+	 * @param filter the filter to apply, including the aggregation to use
+	 * @return the aggregated time series or <code>null</code>, if the service does not 
+	 * support the given aggregation
+	 */
+	Iterable<HistoricItem> aggregate(FilterCriteria filter);
+
+}
@@ -0,0 +1,326 @@
+/**
+ * openHAB, the open Home Automation Bus.
+ * Copyright (C) 2010-2013, openHAB.org <admin@openhab.org>
+ *
+ * See the contributors.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation; either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ *
+ * Additional permission under GNU GPL version 3 section 7
+ *
+ * If you modify this Program, or any covered work, by linking or
+ * combining it with Eclipse (or a modified version of that library),
+ * containing parts covered by the terms of the Eclipse Public License
+ * (EPL), the licensors of this Program grant you additional permission
+ * to convey the resulting work.
+ */
+package org.openhab.core.persistence;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import org.openhab.core.library.types.DecimalType;
+import org.openhab.core.library.types.OnOffType;
+import org.openhab.core.persistence.FilterCriteria.Aggregation;
+import org.openhab.core.persistence.FilterCriteria.Ordering;
+import org.openhab.core.types.State;
+
+/**
+ * This class aggregates a time series of historic items while it is iterated, so
+ * that the single entries do not need to be kept in memory. 
+ * 
+ * <p>It is used as a fallback for services which are not {@link AggregatingPersistenceService}s
+ * and by services which can only aggregate some of the values natively. The entries must be 
+ * passed in ascending order; the result follows the semantics described at 
+ * {@link AggregatingPersistenceService#aggregate(FilterCriteria)}.</p>
+ * 
+ * @author Kai Kreuzer
+ * @since 1.4.0
+ */
+public class Aggregator {
+
+	private final String name;
+	private final Aggregation aggregation;
+	private final long bucketSize;
+	
+	private final List<HistoricItem> result = new ArrayList<HistoricItem>();
+	
+	/** the index of the current bucket, if there are any entries in it */
+	private Long bucket = null;
+	private Date firstTimestamp;
+	private int count;
+	private BigDecimal sum;
+	private HistoricItem selected;
+	private State firstState;
+	private boolean changed;
+	
+	/**
+	 * Creates a new aggregator.
+	 * 
+	 * @param name the item name to use for the aggregated values
+	 * @param aggregation the aggregation function
+	 * @param bucketSize the size of the time buckets in milliseconds or 0 to aggregate all entries
+	 */
+	public Aggregator(String name, Aggregation aggregation, long bucketSize) {
+		if (aggregation == null) {
+			throw new IllegalArgumentException("An aggregation must be specified");
+		}
+		this.name = name;
+		this.aggregation = aggregation;
+		this.bucketSize = bucketSize;
+	}
+	
+	/**
+	 * Queries the given service with the filter and aggregates the result while iterating it.
+	 * The ordering of the filter is applied to the aggregated result, paging is not applied.
+	 * 
+	 * @param service the service to query
+	 * @param filter the filter including the aggregation
+	 * @return the aggregated time series
+	 */
+	public static List<HistoricItem> aggregate(QueryablePersistenceService service, FilterCriteria filter) {
+		FilterCriteria query = new FilterCriteria()
+			.setItemName(filter.getItemName())
+			.setBeginDate(filter.getBeginDate())
+			.setEndDate(filter.getEndDate())
+			.setOperator(filter.getOperator())
+			.setState(filter.getState())
+			.setOrdering(Ordering.ASCENDING);
+		// for the first or last entry of the whole range, a single entry is sufficient
+		boolean single = filter.getBucketSize() <= 0 
+				&& (filter.getAggregation() == Aggregation.FIRST || filter.getAggregation() == Aggregation.LAST);
+		if (single) {
+			query.setPageSize(1);
+			if (filter.getAggregation() == Aggregation.LAST) {
+				query.setOrdering(Ordering.DESCENDING);
+			}
+		}
+		Aggregator aggregator = new Aggregator(filter.getItemName(), filter.getAggregation(), filter.getBucketSize());
+		Iterable<HistoricItem> items = service.query(query);
+		for (HistoricItem item : items) {
+			aggregator.add(item);
+			if (single) {
+				break;
+			}
+		}
+		if (items instanceof QueryResult) {
+			((QueryResult) items).close();
+		}
+		return aggregator.getResult(filter.getOrdering());
+	}
+	
+	/**
+	 * Adds the next entry of the time series.
+	 * 
+	 * @param item the entry to add, which must not be older than the previous one
+	 */
+	public void add(HistoricItem item) {
+		long index = bucketSize > 0 ? floorDiv(item.getTimestamp().getTime(), bucketSize) : 0;
+		if (bucket == null || bucket.longValue() != index) {
+			closeBucket();
+			bucket = index;
+			firstTimestamp = item.getTimestamp();
+			firstState = item.getState();
+		}
+		count++;
+		State state = item.getState();
+		switch (aggregation) {
+			case MIN:
+			case MAX:
+				if (state instanceof DecimalType) {
+					if (selected == null) {
+						selected = item;
+					} else {
+						int cmp = ((DecimalType) state).compareTo((DecimalType) selected.getState());
+						if ((aggregation == Aggregation.MIN && cmp < 0) || (aggregation == Aggregation.MAX && cmp > 0)) {
+							selected = item;
+						}
+					}
+				}
+				break;
+			case AVG:
+			case SUM:
+				if (state instanceof DecimalType) {
+					BigDecimal value = ((DecimalType) state).toBigDecimal();
+					sum = sum == null ? value : sum.add(value);
+				} else {
+					// only decimal values are considered
+					count--;
+				}
+				break;
+			case FIRST:
+				if (selected == null) {
+					selected = item;
+				}
+				break;
+			case LAST:
+				selected = item;
+				break;
+			case CHANGED:
+				if (!changed && !state.equals(firstState)) {
+					changed = true;
+				}
+				break;
+			default:
+				break;
+		}
+	}
+	
+	/**
+	 * Returns the aggregated values in ascending order.
+	 * 
+	 * @return the aggregated time series
+	 */
+	public List<HistoricItem> getResult() {
+		return getResult(Ordering.ASCENDING);
+	}
+
+	/**
+	 * Returns the aggregated values in the given order.
+	 * 
+	 * @param ordering the ordering of the result
+	 * @return the aggregated time series
+	 */
+	public List<HistoricItem> getResult(Ordering ordering) {
+		closeBucket();
+		List<HistoricItem> items = new ArrayList<HistoricItem>(result);
+		if (ordering == Ordering.DESCENDING) {
+			Collections.reverse(items);
+		}
+		return items;
+	}
+	
+	/**
+	 * Creates a historic item for a value which has been aggregated from several values.
+	 * 
+	 * @param name the item name
+	 * @param state the aggregated state
+	 * @param timestamp the timestamp of the value
+	 * @param count the number of values the state has been aggregated from
+	 * @return a new historic aggregate
+	 */
+	public static HistoricAggregate createHistoricAggregate(final String name, final State state, final Date timestamp, final int count) {
+		return new HistoricAggregate() {
+			public Date getTimestamp() {
+				return timestamp;
+			}
+			
+			public State getState() {
+				return state;
+			}
+			
+			public String getName() {
+				return name;
+			}
+			
+			public int getCount() {
+				return count;
+			}
+			
+			@Override
+			public String toString() {
+				return timestamp + ": " + name + " -> " + state + " (" + count + " values)";
+			}
+		};
+	}
+	
+	/**
+	 * Creates a historic item for an aggregated value.
+	 * 
+	 * @param name the item name
+	 * @param state the aggregated state
+	 * @param timestamp the timestamp of the value
+	 * @return a new historic item
+	 */
+	public static HistoricItem createHistoricItem(final String name, final State state, final Date timestamp) {
+		return new HistoricItem() {
+			public Date getTimestamp() {
+				return timestamp;
+			}
+			
+			public State getState() {
+				return state;
+			}
+			
+			public String getName() {
+				return name;
+			}
+			
+			@Override
+			public String toString() {
+				return timestamp + ": " + name + " -> " + state;
+			}
+		};
+	}
+	
+	private void closeBucket() {
+		if (bucket == null) {
+			return;
+		}
+		State state = null;
+		Date timestamp = firstTimestamp;
+		boolean weighted = false;
+		switch (aggregation) {
+			case COUNT:
+				state = new DecimalType(count);
+				break;
+			case SUM:
+				if (sum != null) {
+					state = new DecimalType(sum);
+					weighted = true;
+				}
+				break;
+			case AVG:
+				if (sum != null) {
+					state = new DecimalType(sum.divide(new BigDecimal(count), MathContext.DECIMAL64));
+					weighted = true;
+				}
+				break;
+			case CHANGED:
+				state = changed ? OnOffType.ON : OnOffType.OFF;
+				break;
+			default:
+				if (selected != null) {
+					state = selected.getState();
+					timestamp = selected.getTimestamp();
+				}
+				break;
+		}
+		if (state != null) {
+			// sums and averages only cover the decimal values, which is what count holds for them
+			result.add(weighted ? createHistoricAggregate(name, state, timestamp, count) : createHistoricItem(name, state, timestamp));
+		}
+		bucket = null;
+		firstTimestamp = null;
+		count = 0;
+		sum = null;
+		selected = null;
+		firstState = null;
+		changed = false;
+	}
+	
+	private static long floorDiv(long x, long y) {
+		long q = x / y;
+		if ((x % y != 0) && ((x < 0) != (y < 0))) {
+			q--;
+		}
+		return q;
+	}
+	
+}
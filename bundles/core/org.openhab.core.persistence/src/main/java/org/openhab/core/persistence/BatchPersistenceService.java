@@ -0,0 +1,55 @@
+/**
+ * openHAB, the open Home Automation Bus.
+ * Copyright (C) 2010-2013, openHAB.org <admin@openhab.org>
+ *
+ * See the contributors.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation; either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ *
+ * Additional permission under GNU GPL version 3 section 7
+ *
+ * If you modify this Program, or any covered work, by linking or
+ * combining it with Eclipse (or a modified version of that library),
+ * containing parts covered by the terms of the Eclipse Public License
+ * (EPL), the licensors of this Program grant you additional permission
+ * to convey the resulting work.
+ */
+package org.openhab.core.persistence;
+
+import java.util.List;
+
+/**
+ * A persistence service which is able to store several item states at once.
+ * 
+ * <p>The persistence manager does not call such services on the thread which
+ * changed the item, but collects the states in a bounded queue and passes them
+ * in batches to {@link #store(List)}, once either enough entries have been 
+ * collected or a certain time has passed. The state and timestamp of each entry
+ * are the ones at the time of the event, not at the time of the call.</p>
+ * 
+ * @author Kai Kreuzer
+ * @since 1.4.0
+ */
+public interface BatchPersistenceService extends PersistenceService {
+
+	/**
+	 * Stores a batch of item states. The entries are given in the order of
+	 * their events.
+	 * 
+	 * @param entries the (unmodifiable) list of entries to store
+	 */
+	void store(List<PersistenceEntry> entries);
+
+}
@@ -42,6 +42,9 @@ import org.openhab.core.types.State;
  * <p>Additionally, the filter criteria supports ordering and paging of the result, so the
  * caller can ask to only return chunks of the result of a certain size (=pageSize) from a
  * starting index (pageNumber*pageSize).</p>
+ * <p>If an {@link Aggregation} is set, the filter can be passed to an
+ * {@link AggregatingPersistenceService}, which then returns aggregated values instead
+ * of the single entries. With a bucket size, the aggregation is done per time bucket.</p>
  * <p>All setter methods return the filter criteria instance, so that the methods can be
  * easily chained in order to define a filter.
  * 
@@ -75,6 +78,15 @@ public class FilterCriteria {
 		ASCENDING, DESCENDING
 	}
 	
+	/** 
+	 * Enumeration with all aggregation options. COUNT counts all entries, MIN, MAX, AVG and SUM
+	 * only consider entries with a decimal state, FIRST and LAST return the first and last entry
+	 * and CHANGED results in ON if the entries do not all have the same state, OFF otherwise.
+	 */
+	public enum Aggregation {
+		COUNT, MIN, MAX, AVG, SUM, FIRST, LAST, CHANGED
+	}
+	
 	/** filter result to only contain entries for the given item */
 	private String itemName;
 
@@ -98,6 +110,12 @@ public class FilterCriteria {
 
 	/** filter result to only contain entries that evaluate to true with the given operator and state */
 	private State state;
+	
+	/** aggregate the matching entries with this function (only evaluated by aggregating services) */
+	private Aggregation aggregation;
+	
+	/** aggregate per time bucket of this size in milliseconds, 0 aggregates the whole result */
+	private long bucketSize = 0;
 
 	public String getItemName() {
 		return itemName;
@@ -131,6 +149,14 @@ public class FilterCriteria {
 		return state;
 	}
 
+	public Aggregation getAggregation() {
+		return aggregation;
+	}
+
+	public long getBucketSize() {
+		return bucketSize;
+	}
+
 	public FilterCriteria setItemName(String itemName) {
 		this.itemName = itemName;
 		return this;
@@ -171,4 +197,14 @@ public class FilterCriteria {
 		return this;
 	}
 
+	public FilterCriteria setAggregation(Aggregation aggregation) {
+		this.aggregation = aggregation;
+		return this;
+	}
+
+	public FilterCriteria setBucketSize(long bucketSize) {
+		this.bucketSize = bucketSize;
+		return this;
+	}
+
 }
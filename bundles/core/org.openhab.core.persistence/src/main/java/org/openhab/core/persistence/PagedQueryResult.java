@@ -0,0 +1,141 @@
+/**
+ * openHAB, the open Home Automation Bus.
+ * Copyright (C) 2010-2013, openHAB.org <admin@openhab.org>
+ *
+ * See the contributors.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation; either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ *
+ * Additional permission under GNU GPL version 3 section 7
+ *
+ * If you modify this Program, or any covered work, by linking or
+ * combining it with Eclipse (or a modified version of that library),
+ * containing parts covered by the terms of the Eclipse Public License
+ * (EPL), the licensors of this Program grant you additional permission
+ * to convey the resulting work.
+ */
+package org.openhab.core.persistence;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Base class for {@link QueryResult}s, which fetches the items in chunks of a fixed
+ * size while iterating. It applies the paging of the {@link FilterCriteria}, so that
+ * at most <code>pageSize</code> items are returned, starting at the index
+ * <code>pageNumber*pageSize</code>.
+ * 
+ * <p>Subclasses only need to implement {@link #fetch(HistoricItem, long, int)}. A 
+ * chunk which contains less items than requested is regarded as the last one.</p>
+ * 
+ * @author Kai Kreuzer
+ * @since 1.4.0
+ */
+public abstract class PagedQueryResult implements QueryResult {
+
+	private final long offset;
+	private final int limit;
+	private final int chunkSize;
+	
+	private volatile boolean closed = false;
+	
+	/**
+	 * @param filter the filter of the query, whose paging is applied
+	 * @param chunkSize the maximum number of items to fetch at once
+	 */
+	protected PagedQueryResult(FilterCriteria filter, int chunkSize) {
+		this.offset = (long) filter.getPageNumber() * filter.getPageSize();
+		this.limit = filter.getPageSize();
+		this.chunkSize = Math.max(1, Math.min(chunkSize, limit));
+	}
+	
+	/**
+	 * Fetches the next chunk of items.
+	 * 
+	 * @param last the last item of the previous chunk or <code>null</code> for the first chunk;
+	 * services with a unique, sorted key can continue after this item instead of using the offset
+	 * @param offset the index of the first item to fetch within the whole (unpaged) result
+	 * @param limit the maximum number of items to fetch
+	 * @return the items, which must not be more than <code>limit</code>
+	 */
+	protected abstract List<HistoricItem> fetch(HistoricItem last, long offset, int limit);
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	public Iterator<HistoricItem> iterator() {
+		return new ChunkIterator();
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	public void close() {
+		closed = true;
+	}
+
+	/**
+	 * @return true, if this result has been closed
+	 */
+	protected boolean isClosed() {
+		return closed;
+	}
+	
+	private class ChunkIterator implements Iterator<HistoricItem> {
+
+		private List<HistoricItem> chunk = null;
+		private int requested = 0;
+		private int index = 0;
+		private int returned = 0;
+		private HistoricItem last = null;
+		
+		public boolean hasNext() {
+			if (closed) {
+				return false;
+			}
+			if (chunk != null) {
+				if (index < chunk.size()) {
+					return true;
+				}
+				// a chunk which has not been filled completely was the last one
+				if (chunk.size() < requested) {
+					return false;
+				}
+			}
+			if (returned >= limit) {
+				return false;
+			}
+			requested = Math.min(chunkSize, limit - returned);
+			chunk = fetch(last, offset + returned, requested);
+			index = 0;
+			return !chunk.isEmpty();
+		}
+
+		public HistoricItem next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			returned++;
+			last = chunk.get(index++);
+			return last;
+		}
+
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+	}
+
+}
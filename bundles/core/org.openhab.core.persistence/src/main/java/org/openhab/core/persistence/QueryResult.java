@@ -0,0 +1,50 @@
+/**
+ * openHAB, the open Home Automation Bus.
+ * Copyright (C) 2010-2013, openHAB.org <admin@openhab.org>
+ *
+ * See the contributors.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation; either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ *
+ * Additional permission under GNU GPL version 3 section 7
+ *
+ * If you modify this Program, or any covered work, by linking or
+ * combining it with Eclipse (or a modified version of that library),
+ * containing parts covered by the terms of the Eclipse Public License
+ * (EPL), the licensors of this Program grant you additional permission
+ * to convey the resulting work.
+ */
+package org.openhab.core.persistence;
+
+/**
+ * The result of a query to a {@link QueryablePersistenceService}, which does not 
+ * hold all historic items in memory, but fetches them in pages while it is iterated.
+ * 
+ * <p>Callers which stop iterating before the end of the result should {@link #close()}
+ * it, so that the service can release any resources which are kept between pages.
+ * Each call of {@link #iterator()} starts a new iteration from the beginning.</p>
+ * 
+ * @author Kai Kreuzer
+ * @since 1.4.0
+ */
+public interface QueryResult extends Iterable<HistoricItem> {
+
+	/**
+	 * Releases the resources of this result. Afterwards, iterators do not
+	 * return any further items.
+	 */
+	void close();
+	
+}
@@ -38,7 +38,10 @@ package org.openhab.core.persistence;
 public interface QueryablePersistenceService extends PersistenceService {
 		
 	/**
-	 * Queries the {@link PersistenceService} for data with a given filter criteria
+	 * Queries the {@link PersistenceService} for data with a given filter criteria.
+	 * Services should return a {@link QueryResult}, which only fetches the items 
+	 * while they are iterated, so that large time ranges do not need to be kept 
+	 * in memory.
 	 * 
 	 * @param filter the filter to apply to the query
 	 * @return a time series of items
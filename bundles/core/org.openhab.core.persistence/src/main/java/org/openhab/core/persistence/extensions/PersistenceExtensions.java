@@ -29,7 +29,6 @@
 package org.openhab.core.persistence.extensions;
 
 import java.util.Calendar;
-import java.util.Collections;
 import java.util.Date;
 import java.util.Dictionary;
 import java.util.HashMap;
@@ -39,10 +38,16 @@ import java.util.Map;
 import org.joda.time.base.AbstractInstant;
 import org.openhab.core.items.Item;
 import org.openhab.core.library.types.DecimalType;
+import org.openhab.core.library.types.OnOffType;
+import org.openhab.core.persistence.AggregatingPersistenceService;
+import org.openhab.core.persistence.Aggregator;
 import org.openhab.core.persistence.FilterCriteria;
+import org.openhab.core.persistence.HistoricAggregate;
 import org.openhab.core.persistence.HistoricItem;
 import org.openhab.core.persistence.PersistenceService;
+import org.openhab.core.persistence.QueryResult;
 import org.openhab.core.persistence.QueryablePersistenceService;
+import org.openhab.core.persistence.FilterCriteria.Aggregation;
 import org.openhab.core.persistence.FilterCriteria.Ordering;
 import org.openhab.core.types.State;
 import org.openhab.core.types.UnDefType;
@@ -141,11 +146,12 @@ public class PersistenceExtensions implements ManagedService {
 			filter.setPageSize(1);
 			filter.setOrdering(Ordering.DESCENDING);
 			Iterable<HistoricItem> result = qService.query(filter);
-			if(result.iterator().hasNext()) {
-				return result.iterator().next().getState();
-			} else {
-				return UnDefType.NULL;
+			Iterator<HistoricItem> it = result.iterator();
+			State state = it.hasNext() ? it.next().getState() : UnDefType.NULL;
+			if(result instanceof QueryResult) {
+				((QueryResult) result).close();
 			}
+			return state;
 		} else {
 			logger.warn("There is no queryable persistence service registered with the name '{}'", serviceName);
 			return UnDefType.UNDEF;
@@ -178,17 +184,17 @@ public class PersistenceExtensions implements ManagedService {
 	 * @return true, if item state had changed
 	 */
 	static public Boolean changedSince(Item item, AbstractInstant timestamp, String serviceName) {
-		Iterable<HistoricItem> result = getAllStatesSince(item, timestamp, serviceName);
-		Iterator<HistoricItem> it = result.iterator();
-		State state = historicState(item, timestamp);
-		while(it.hasNext()) {
-			HistoricItem hItem = it.next();
-			if(state!=null && !hItem.getState().equals(state)) {
-				return true;
-			}
-			state = hItem.getState();
+		HistoricItem first = aggregateSince(item, timestamp, serviceName, Aggregation.FIRST, true);
+		if(first==null) {
+			return false;
+		}
+		// the first state since the timestamp is a change, if it differs from the state before
+		State state = historicState(item, timestamp, serviceName);
+		if(!first.getState().equals(state)) {
+			return true;
 		}
-		return false;
+		HistoricItem changed = aggregateSince(item, timestamp, serviceName, Aggregation.CHANGED, true);
+		return changed!=null && OnOffType.ON.equals(changed.getState());
 	} 
 
 	/**
@@ -217,12 +223,8 @@ public class PersistenceExtensions implements ManagedService {
 	 * @return true, if item state was updated
 	 */
 	static public Boolean updatedSince(Item item, AbstractInstant timestamp, String serviceName) {
-		Iterable<HistoricItem> result = getAllStatesSince(item, timestamp, serviceName);
-		if(result.iterator().hasNext()) {
-			return true;
-		} else {
-			return false;
-		}
+		HistoricItem first = aggregateSince(item, timestamp, serviceName, Aggregation.FIRST, true);
+		return first!=null;
 	} 
 
 	/**
@@ -253,19 +255,14 @@ public class PersistenceExtensions implements ManagedService {
 	 * @return a historic item with the maximum state value since the given point in time
 	 */
 	static public HistoricItem maximumSince(final Item item, AbstractInstant timestamp, String serviceName) {
-		Iterable<HistoricItem> result = getAllStatesSince(item, timestamp, serviceName);
-		Iterator<HistoricItem> it = result.iterator();
 		HistoricItem maximumHistoricItem = null;
 		DecimalType maximum = (DecimalType) item.getStateAs(DecimalType.class);
-		while(it.hasNext()) {
-			HistoricItem historicItem = it.next();
-			State state = historicItem.getState();
-			if (state instanceof DecimalType) {
-				DecimalType value = (DecimalType) state;
-				if(maximum==null || value.compareTo(maximum)>0) {
-					maximum = value;
-					maximumHistoricItem = historicItem;
-				}
+		HistoricItem historicItem = aggregateSince(item, timestamp, serviceName, Aggregation.MAX, true);
+		if (historicItem!=null && historicItem.getState() instanceof DecimalType) {
+			DecimalType value = (DecimalType) historicItem.getState();
+			if(maximum==null || value.compareTo(maximum)>0) {
+				maximum = value;
+				maximumHistoricItem = historicItem;
 			}
 		}
 		if(maximumHistoricItem==null && maximum!=null) {
@@ -318,19 +315,14 @@ public class PersistenceExtensions implements ManagedService {
 	 * @return the historic item with the minimum state value since the given point in time
 	 */
 	static public HistoricItem minimumSince(final Item item, AbstractInstant timestamp, String serviceName) {
-		Iterable<HistoricItem> result = getAllStatesSince(item, timestamp, serviceName);
-		Iterator<HistoricItem> it = result.iterator();
 		HistoricItem minimumHistoricItem = null;
 		DecimalType minimum = (DecimalType) item.getStateAs(DecimalType.class);
-		while(it.hasNext()) {
-			HistoricItem historicItem = it.next();
-			State state = historicItem.getState();
-			if (state instanceof DecimalType) {
-				DecimalType value = (DecimalType) state;
-				if(minimum==null || value.compareTo(minimum)<0) {
-					minimum = value;
-					minimumHistoricItem = historicItem;
-				}
+		HistoricItem historicItem = aggregateSince(item, timestamp, serviceName, Aggregation.MIN, true);
+		if (historicItem!=null && historicItem.getState() instanceof DecimalType) {
+			DecimalType value = (DecimalType) historicItem.getState();
+			if(minimum==null || value.compareTo(minimum)<0) {
+				minimum = value;
+				minimumHistoricItem = historicItem;
 			}
 		}
 		if(minimumHistoricItem==null && minimum!=null) {
@@ -381,9 +373,6 @@ public class PersistenceExtensions implements ManagedService {
 	 * @return the average state value since the given point in time
 	 */
 	static public DecimalType averageSince(Item item, AbstractInstant timestamp, String serviceName) {
-		Iterable<HistoricItem> result = getAllStatesSince(item, timestamp, serviceName);
-		Iterator<HistoricItem> it = result.iterator();
-		
 		DecimalType value = (DecimalType) item.getStateAs(DecimalType.class);
 		if (value == null) {
 			value = DecimalType.ZERO;
@@ -391,31 +380,55 @@ public class PersistenceExtensions implements ManagedService {
 		
 		double average = value.doubleValue();
 		int quantity = 1;
-		while(it.hasNext()) {
-			State state = it.next().getState();
-			if (state instanceof DecimalType) {
-				value = (DecimalType) state;
-				average += value.doubleValue();
-				quantity++;
-			}
+		// the average and the number of decimal values it is based on come from the same query
+		HistoricItem historicAverage = aggregateSince(item, timestamp, serviceName, Aggregation.AVG, true);
+		if (historicAverage!=null && !(historicAverage instanceof HistoricAggregate)) {
+			// the service does not tell the number of values, so we aggregate the states ourselves
+			historicAverage = aggregateSince(item, timestamp, serviceName, Aggregation.AVG, false);
+		}
+		if (historicAverage instanceof HistoricAggregate && historicAverage.getState() instanceof DecimalType) {
+			int count = ((HistoricAggregate) historicAverage).getCount();
+			average += ((DecimalType) historicAverage.getState()).doubleValue() * count;
+			quantity += count;
 		}
 		average /= quantity;
 		
 		return new DecimalType(average);
 	} 
 	
-	static private Iterable<HistoricItem> getAllStatesSince(Item item, AbstractInstant timestamp, String serviceName) {
+	/**
+	 * Aggregates all states of the given <code>item</code> since a certain point in time. 
+	 * If the service does not support the aggregation natively, the states are queried 
+	 * and aggregated while iterating over them.
+	 * 
+	 * @param item the item to aggregate the states for
+	 * @param timestamp the point in time to start the aggregation
+	 * @param serviceName the name of the {@link PersistenceService} to use
+	 * @param aggregation the aggregation function
+	 * @param nativeAggregation false, if the states must be aggregated here even if the service supports aggregations
+	 * @return the aggregated value or <code>null</code>, if there are no states to aggregate
+	 */
+	static private HistoricItem aggregateSince(Item item, AbstractInstant timestamp, String serviceName, 
+			Aggregation aggregation, boolean nativeAggregation) {
 		PersistenceService service = services.get(serviceName);
 		if (service instanceof QueryablePersistenceService) {
-			QueryablePersistenceService qService = (QueryablePersistenceService) service;
 			FilterCriteria filter = new FilterCriteria();
 			filter.setBeginDate(timestamp.toDate());
 			filter.setItemName(item.getName());
 			filter.setOrdering(Ordering.ASCENDING);
-			return qService.query(filter);
+			filter.setAggregation(aggregation);
+			Iterable<HistoricItem> result = null;
+			if (nativeAggregation && service instanceof AggregatingPersistenceService) {
+				result = ((AggregatingPersistenceService) service).aggregate(filter);
+			}
+			if (result == null) {
+				result = Aggregator.aggregate((QueryablePersistenceService) service, filter);
+			}
+			Iterator<HistoricItem> it = result.iterator();
+			return it.hasNext() ? it.next() : null;
 		} else {
 			logger.warn("There is no queryable persistence service registered with the name '{}'", serviceName);
-			return Collections.emptySet();
+			return null;
 		}
 	}
 	
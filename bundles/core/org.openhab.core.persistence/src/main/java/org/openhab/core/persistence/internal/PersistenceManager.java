@@ -32,8 +32,11 @@ import static org.quartz.JobBuilder.newJob;
 import static org.quartz.TriggerBuilder.newTrigger;
 
 import java.text.DateFormat;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Date;
+import java.util.Dictionary;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -43,6 +46,7 @@ import java.util.Map.Entry;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 
+import org.apache.commons.lang.StringUtils;
 import org.eclipse.emf.ecore.EObject;
 import org.openhab.core.events.AbstractEventSubscriber;
 import org.openhab.core.items.GenericItem;
@@ -52,8 +56,10 @@ import org.openhab.core.items.ItemNotFoundException;
 import org.openhab.core.items.ItemRegistry;
 import org.openhab.core.items.ItemRegistryChangeListener;
 import org.openhab.core.items.StateChangeListener;
+import org.openhab.core.persistence.BatchPersistenceService;
 import org.openhab.core.persistence.FilterCriteria;
 import org.openhab.core.persistence.HistoricItem;
+import org.openhab.core.persistence.PersistenceEntry;
 import org.openhab.core.persistence.PersistenceService;
 import org.openhab.core.persistence.QueryablePersistenceService;
 import org.openhab.core.types.State;
@@ -69,6 +75,8 @@ import org.openhab.model.persistence.persistence.PersistenceConfiguration;
 import org.openhab.model.persistence.persistence.PersistenceModel;
 import org.openhab.model.persistence.persistence.Strategy;
 import org.openhab.model.persistence.scoping.GlobalStrategies;
+import org.osgi.service.cm.ConfigurationException;
+import org.osgi.service.cm.ManagedService;
 import org.quartz.CronScheduleBuilder;
 import org.quartz.Job;
 import org.quartz.JobDetail;
@@ -85,14 +93,28 @@ import org.slf4j.LoggerFactory;
  * This class is the central part of the persistence management and delegation. It reads the persistence
  * models, schedules timers and manages the invocation of {@link PersistenceService}s upon events.
  * 
+ * <p>To keep the handling of state events cheap, the persistence configurations are compiled into a
+ * routing table from item names to the services, aliases and strategies that apply to them. The table
+ * is rebuilt whenever persistence models, services or the whole set of items change, single added or 
+ * removed items only update their own entries. The table is read without any locking.</p>
+ * 
+ * <p>States for {@link BatchPersistenceService}s are not stored on the thread which changed the item, 
+ * but are passed to a {@link WriteBehindQueue} per service, which stores them in batches.</p>
+ * 
  * @author Kai Kreuzer
  * @since 1.0.0
  *
  */
-public class PersistenceManager extends AbstractEventSubscriber implements ModelRepositoryChangeListener, ItemRegistryChangeListener, StateChangeListener {
+public class PersistenceManager extends AbstractEventSubscriber implements ModelRepositoryChangeListener, ItemRegistryChangeListener, StateChangeListener, ManagedService {
 	
 	private static final Logger logger = LoggerFactory.getLogger(PersistenceManager.class);
 
+	private static final int DEFAULT_QUEUE_SIZE = 10000;
+
+	private static final int DEFAULT_BATCH_SIZE = 100;
+
+	private static final int DEFAULT_FLUSH_INTERVAL = 1000;
+
 	private static PersistenceManager instance;
 	
 	// the scheduler used for timer events
@@ -102,7 +124,7 @@ public class PersistenceManager extends AbstractEventSubscriber implements Model
 
 	private ItemRegistry itemRegistry;
 
-	/*default */ Map<String, PersistenceService> persistenceServices = new HashMap<String, PersistenceService>();
+	/*default */ Map<String, PersistenceService> persistenceServices = new ConcurrentHashMap<String, PersistenceService>();
 	
 	/** keeps a list of configurations for each persistence service */
 	protected Map<String, List<PersistenceConfiguration>> persistenceConfigurations = new ConcurrentHashMap<String, List<PersistenceConfiguration>>();
@@ -111,6 +133,24 @@ public class PersistenceManager extends AbstractEventSubscriber implements Model
 	protected Map<String, List<Strategy>> defaultStrategies = 
 			Collections.synchronizedMap(new HashMap<String, List<Strategy>>());
 	
+	/** maps item names to the persistence targets which apply to them; replaced as a whole on a rebuild */
+	private volatile Map<String, List<PersistenceTarget>> routingTable = new ConcurrentHashMap<String, List<PersistenceTarget>>();
+	
+	/** the lock which serializes rebuilds and updates of the routing table */
+	private final Object routingTableLock = new Object();
+	
+	/** the write-behind queues of all {@link BatchPersistenceService}s, keyed by service name */
+	private Map<String, WriteBehindQueue> writeBehindQueues = new ConcurrentHashMap<String, WriteBehindQueue>();
+	
+	/** the maximum number of entries in each write-behind queue */
+	private int queueSize = DEFAULT_QUEUE_SIZE;
+	
+	/** the maximum number of entries which are stored in one batch */
+	private int batchSize = DEFAULT_BATCH_SIZE;
+	
+	/** the maximum time in milliseconds an entry waits for further entries before it is stored */
+	private int flushInterval = DEFAULT_FLUSH_INTERVAL;
+	
 	
 	public PersistenceManager() {
 		PersistenceManager.instance = this;
@@ -130,6 +170,9 @@ public class PersistenceManager extends AbstractEventSubscriber implements Model
 	}
 	
 	public void deactivate() {
+		for(String serviceName : writeBehindQueues.keySet()) {
+			stopWriteBehindQueue(serviceName);
+		}
 	}
 	
 	
@@ -165,15 +208,45 @@ public class PersistenceManager extends AbstractEventSubscriber implements Model
 	public void addPersistenceService(PersistenceService persistenceService) {
 		logger.debug("Initializing {} persistence service.", persistenceService.getName());
 		persistenceServices.put(persistenceService.getName(), persistenceService);
+		if(persistenceService instanceof BatchPersistenceService) {
+			startWriteBehindQueue((BatchPersistenceService) persistenceService);
+		}
 		stopEventHandling(persistenceService.getName());
 		startEventHandling(persistenceService.getName());
 	}
 
 	public void removePersistenceService(PersistenceService persistenceService) {
 		stopEventHandling(persistenceService.getName());
+		stopWriteBehindQueue(persistenceService.getName());
 		persistenceServices.remove(persistenceService.getName());
 	}
 	
+	private synchronized void startWriteBehindQueue(BatchPersistenceService service) {
+		WriteBehindQueue queue = new WriteBehindQueue(service, queueSize, batchSize, flushInterval);
+		queue.start();
+		WriteBehindQueue oldQueue = writeBehindQueues.put(service.getName(), queue);
+		if(oldQueue!=null) {
+			oldQueue.shutdown();
+		}
+	}
+
+	private synchronized void stopWriteBehindQueue(String serviceName) {
+		WriteBehindQueue queue = writeBehindQueues.remove(serviceName);
+		if(queue!=null) {
+			queue.shutdown();
+		}
+	}
+
+	/**
+	 * Returns the write-behind queue of a persistence service, e.g. to read its statistics.
+	 * 
+	 * @param serviceName the name of the persistence service
+	 * @return the queue or <code>null</code>, if the service does not support batches
+	 */
+	public WriteBehindQueue getWriteBehindQueue(String serviceName) {
+		return writeBehindQueues.get(serviceName);
+	}
+	
 	
 	public void modelChanged(String modelName, EventType type) {
 		if(modelName.endsWith(".persist")) {
@@ -200,6 +273,7 @@ public class PersistenceManager extends AbstractEventSubscriber implements Model
 		if(model!=null) {
 			persistenceConfigurations.put(modelName, model.getConfigs());
 			defaultStrategies.put(modelName, model.getDefaults());
+			rebuildRoutingTable();
 			for(PersistenceConfiguration config : model.getConfigs()) {
 				if(hasStrategy(modelName, config, GlobalStrategies.RESTORE)) {
 					for(Item item : getAllItems(config)) {
@@ -219,6 +293,7 @@ public class PersistenceManager extends AbstractEventSubscriber implements Model
 	private void stopEventHandling(String modelName) {
 		persistenceConfigurations.remove(modelName);
 		defaultStrategies.remove(modelName);
+		rebuildRoutingTable();
 		removeTimers(modelName);
 	}
 
@@ -237,78 +312,219 @@ public class PersistenceManager extends AbstractEventSubscriber implements Model
 	 * @param onlyChanges true, if it has the change strategy, false otherwise
 	 */
 	private void handleStateEvent(Item item, boolean onlyChanges) {
-		synchronized (persistenceConfigurations) {
+		List<PersistenceTarget> targets = routingTable.get(item.getName());
+		if(targets==null) {
+			return;
+		}
+		for(PersistenceTarget target : targets) {
+			if(onlyChanges ? target.onChange : target.onUpdate) {
+				try {
+					store(target.serviceName, item, target.alias);
+				} catch (RuntimeException e) {
+					logger.error("Persistence service '{}' failed to store item '{}'", 
+							new Object[] { target.serviceName, item.getName(), e });
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Stores the current state of an item with a given persistence service. For 
+	 * {@link BatchPersistenceService}s, the state is captured and queued, for all 
+	 * other services it is stored directly.
+	 * 
+	 * @param serviceName the name of the persistence service to use
+	 * @param item the item to persist
+	 * @param alias the alias under which the item should be persisted, might be <code>null</code>
+	 */
+	/*default */ void store(String serviceName, Item item, String alias) {
+		WriteBehindQueue queue = writeBehindQueues.get(serviceName);
+		if(queue!=null) {
+			PersistenceEntry entry = new PersistenceEntry(item, alias, item.getState(), new Date());
+			if(!queue.post(entry)) {
+				// the queue has just been replaced by a new one
+				WriteBehindQueue newQueue = writeBehindQueues.get(serviceName);
+				if(newQueue!=null && newQueue!=queue) {
+					newQueue.post(entry);
+				}
+			}
+		} else {
+			PersistenceService service = persistenceServices.get(serviceName);
+			if(service!=null) {
+				service.store(item, alias);
+			}
+		}
+	}
+	
+	/**
+	 * Recomputes the routing table from the current persistence configurations and items.
+	 * The new table is published at once, so that event handling never sees a partial table.
+	 */
+	protected void rebuildRoutingTable() {
+		synchronized (routingTableLock) {
+			Map<String, List<PersistenceTarget>> table = new ConcurrentHashMap<String, List<PersistenceTarget>>();
 			for(Entry<String, List<PersistenceConfiguration>> entry : persistenceConfigurations.entrySet()) {
 				String serviceName = entry.getKey();
-				if(persistenceServices.containsKey(serviceName)) {				
-					for(PersistenceConfiguration config : entry.getValue()) {
-						if(hasStrategy(serviceName, config, onlyChanges ? GlobalStrategies.CHANGE : GlobalStrategies.UPDATE)) {
-							if(appliesToItem(config, item)) {
-								persistenceServices.get(serviceName).store(item, config.getAlias());
-							}
+				for(PersistenceConfiguration config : entry.getValue()) {
+					PersistenceTarget target = createTarget(serviceName, config);
+					for(String itemName : getAllItemNames(config)) {
+						List<PersistenceTarget> targets = table.get(itemName);
+						if(targets==null) {
+							targets = new ArrayList<PersistenceTarget>(1);
+							table.put(itemName, targets);
 						}
+						targets.add(target);
 					}
 				}
 			}
+			routingTable = table;
+		}
+	}
+
+	/**
+	 * Recomputes the routing table entries of a single item and, if it is a group, of all its
+	 * members. Items which are added or removed one by one thus do not cause a rebuild of
+	 * the whole table.
+	 * 
+	 * @param item the item which has been added or removed
+	 * @param removed true, if the item has been removed from the item registry
+	 */
+	private void updateRoutingTable(Item item, boolean removed) {
+		synchronized (routingTableLock) {
+			updateRoutes(item.getName(), removed ? null : item);
+			if(item instanceof GroupItem) {
+				for(Item member : ((GroupItem) item).getAllMembers()) {
+					updateRoutes(member.getName(), member);
+				}
+			}
 		}
 	}
 	
 	/**
-	 * Checks if a given persistence configuration entry has a certain strategy for the given service
+	 * Replaces the routing table entry of an item name.
 	 * 
-	 * @param serviceName the service to check the configuration for
-	 * @param config the persistence configuration entry
-	 * @param strategy the strategy to check for
-	 * @return true, if it has the given strategy
+	 * @param itemName the name of the item
+	 * @param item the item or <code>null</code>, if it does not exist
 	 */
-	protected boolean hasStrategy(String serviceName, PersistenceConfiguration config, Strategy strategy) {
-		if(defaultStrategies.get(serviceName).contains(strategy) && config.getStrategies().isEmpty()) {
-			return true;
-		} else {
-			for(Strategy s : config.getStrategies()) {
-				if(s.equals(strategy)) {
-					return true;
+	private void updateRoutes(String itemName, Item item) {
+		List<PersistenceTarget> targets = new ArrayList<PersistenceTarget>(1);
+		for(Entry<String, List<PersistenceConfiguration>> entry : persistenceConfigurations.entrySet()) {
+			String serviceName = entry.getKey();
+			for(PersistenceConfiguration config : entry.getValue()) {
+				if(matchesItem(config, itemName, item)) {
+					targets.add(createTarget(serviceName, config));
 				}
 			}
-			return false;
+		}
+		if(targets.isEmpty()) {
+			routingTable.remove(itemName);
+		} else {
+			routingTable.put(itemName, targets);
 		}
 	}
-
+	
+	private PersistenceTarget createTarget(String serviceName, PersistenceConfiguration config) {
+		return new PersistenceTarget(serviceName, config.getAlias(),
+				hasStrategy(serviceName, config, GlobalStrategies.CHANGE),
+				hasStrategy(serviceName, config, GlobalStrategies.UPDATE),
+				hasStrategy(serviceName, config, GlobalStrategies.RESTORE));
+	}
+	
 	/**
-	 * Checks if a given persistence configuration entry is relevant for an item
+	 * Checks if a persistence configuration entry applies to an item. This is the single item
+	 * counterpart of {@link #getAllItemNames(PersistenceConfiguration)}.
 	 * 
 	 * @param config the persistence configuration entry
-	 * @param item to check if the configuration applies to
+	 * @param itemName the name of the item
+	 * @param item the item or <code>null</code>, if it does not exist
 	 * @return true, if the configuration applies to the item
 	 */
-	protected boolean appliesToItem(PersistenceConfiguration config, Item item) {
+	private boolean matchesItem(PersistenceConfiguration config, String itemName, Item item) {
 		for(EObject itemCfg : config.getItems()) {
-			if (itemCfg instanceof AllConfig) {
-				return true;
-			}
 			if (itemCfg instanceof ItemConfig) {
-				ItemConfig singleItemConfig = (ItemConfig) itemCfg;
-				if(item.getName().equals(singleItemConfig.getItem())) {
+				if(itemName.equals(((ItemConfig) itemCfg).getItem())) {
+					return true;
+				}
+			} else if(item!=null && itemRegistry!=null) {
+				if (itemCfg instanceof AllConfig) {
+					return true;
+				}
+				// like GroupItem.getAllMembers(), only non-group items are members of a group configuration
+				if (itemCfg instanceof GroupConfig && !(item instanceof GroupItem) 
+						&& isMemberOf(item, ((GroupConfig) itemCfg).getGroup(), new HashSet<String>())) {
 					return true;
 				}
 			}
-			if (itemCfg instanceof GroupConfig) {
-				GroupConfig groupItemCfg = (GroupConfig) itemCfg;
-				String groupName = groupItemCfg.getGroup();
-				try {
-					Item gItem = itemRegistry.getItem(groupName);
-					if (gItem instanceof GroupItem) {
-						GroupItem groupItem = (GroupItem) gItem;
-						if(groupItem.getAllMembers().contains(item)) {
-							return true;
-						}
-					}
-				} catch (Exception e) {}
+		}
+		return false;
+	}
+	
+	/**
+	 * Checks if an item is a direct or indirect member of a group. Only the groups of the item
+	 * are looked up, so that the cost does not depend on the size of the group.
+	 */
+	private boolean isMemberOf(Item item, String groupName, Set<String> visitedGroups) {
+		for(String name : item.getGroupNames()) {
+			if(!visitedGroups.add(name)) {
+				continue;
+			}
+			try {
+				Item group = itemRegistry.getItem(name);
+				if(group instanceof GroupItem && (name.equals(groupName) || isMemberOf(group, groupName, visitedGroups))) {
+					return true;
+				}
+			} catch (ItemNotFoundException e) {
+				// the group does not exist (anymore)
 			}
 		}
 		return false;
 	}
 
+	/**
+	 * Retrieves the names of all items for which the persistence configuration applies to.
+	 * In contrast to {@link #getAllItems(PersistenceConfiguration)}, this also contains the
+	 * names of single items, which are configured, but do not exist (yet).
+	 * 
+	 * @param config the persistence configuration entry
+	 * @return the names of all items that this configuration applies to
+	 */
+	private Set<String> getAllItemNames(PersistenceConfiguration config) {
+		Set<String> itemNames = new HashSet<String>();
+		for(EObject itemCfg : config.getItems()) {
+			if (itemCfg instanceof ItemConfig) {
+				itemNames.add(((ItemConfig) itemCfg).getItem());
+			}
+		}
+		if(itemRegistry!=null) {
+			for(Item item : getAllItems(config)) {
+				itemNames.add(item.getName());
+			}
+		}
+		return itemNames;
+	}
+	
+	/**
+	 * Checks if a given persistence configuration entry has a certain strategy for the given service
+	 * 
+	 * @param serviceName the service to check the configuration for
+	 * @param config the persistence configuration entry
+	 * @param strategy the strategy to check for
+	 * @return true, if it has the given strategy
+	 */
+	protected boolean hasStrategy(String serviceName, PersistenceConfiguration config, Strategy strategy) {
+		List<Strategy> defaults = defaultStrategies.get(serviceName);
+		if(defaults!=null && defaults.contains(strategy) && config.getStrategies().isEmpty()) {
+			return true;
+		} else {
+			for(Strategy s : config.getStrategies()) {
+				if(s.equals(strategy)) {
+					return true;
+				}
+			}
+			return false;
+		}
+	}
+
 	/**
 	 * Retrieves all items for which the persistence configuration applies to.
 	 * 
@@ -353,12 +569,18 @@ public class PersistenceManager extends AbstractEventSubscriber implements Model
 	}
 
 	public void allItemsChanged(Collection<String> oldItemNames) {
+		rebuildRoutingTable();
 		for(Item item : itemRegistry.getItems()) {
-			itemAdded(item);
+			addItem(item);
 		}
 	}
 
 	public void itemAdded(Item item) {
+		updateRoutingTable(item, false);
+		addItem(item);
+	}
+
+	private void addItem(Item item) {
 		initialize(item);
 		if (item instanceof GenericItem) {
 			GenericItem genericItem = (GenericItem) item;
@@ -377,35 +599,34 @@ public class PersistenceManager extends AbstractEventSubscriber implements Model
 	protected void initialize(Item item) {
 		// get the last persisted state from the persistence service if no state is yet set
 		if(item.getState().equals(UnDefType.NULL) && item instanceof GenericItem) {
-			for(Entry<String, List<PersistenceConfiguration>> entry : persistenceConfigurations.entrySet()) {
-				String serviceName = entry.getKey();
-				for(PersistenceConfiguration config : entry.getValue()) {
-					if(hasStrategy(serviceName, config, GlobalStrategies.RESTORE)) {
-						if(appliesToItem(config, item)) {
-							PersistenceService service = persistenceServices.get(serviceName);
-							if(service instanceof QueryablePersistenceService) {
-								QueryablePersistenceService queryService = (QueryablePersistenceService) service;
-								FilterCriteria filter = new FilterCriteria().setItemName(item.getName()).setPageSize(1);
-								Iterable<HistoricItem> result = queryService.query(filter);
-								Iterator<HistoricItem> it = result.iterator();
-								if(it.hasNext()) {
-									HistoricItem historicItem = it.next();
-									GenericItem genericItem = (GenericItem) item;
-									genericItem.removeStateChangeListener(this);
-									genericItem.setState(historicItem.getState());
-									genericItem.addStateChangeListener(this);
-									logger.debug("Restored item state from '{}' for item '{}' -> '{}'", 
-											new Object[] { DateFormat.getDateTimeInstance().format(historicItem.getTimestamp()), 
-											item.getName(), historicItem.getState().toString() } );
-									return;
-								}
-							} else if(service!=null) {
-								logger.warn("Failed to restore item states as persistence service '{}' can not be queried.", serviceName);
-							}
+			List<PersistenceTarget> targets = routingTable.get(item.getName());
+			if(targets==null) {
+				return;
+			}
+			for(PersistenceTarget target : targets) {
+				if(target.onRestore) {
+					PersistenceService service = persistenceServices.get(target.serviceName);
+					if(service instanceof QueryablePersistenceService) {
+						QueryablePersistenceService queryService = (QueryablePersistenceService) service;
+						FilterCriteria filter = new FilterCriteria().setItemName(item.getName()).setPageSize(1);
+						Iterable<HistoricItem> result = queryService.query(filter);
+						Iterator<HistoricItem> it = result.iterator();
+						if(it.hasNext()) {
+							HistoricItem historicItem = it.next();
+							GenericItem genericItem = (GenericItem) item;
+							genericItem.removeStateChangeListener(this);
+							genericItem.setState(historicItem.getState());
+							genericItem.addStateChangeListener(this);
+							logger.debug("Restored item state from '{}' for item '{}' -> '{}'", 
+									new Object[] { DateFormat.getDateTimeInstance().format(historicItem.getTimestamp()), 
+									item.getName(), historicItem.getState().toString() } );
+							return;
 						}
+					} else if(service!=null) {
+						logger.warn("Failed to restore item states as persistence service '{}' can not be queried.", target.serviceName);
 					}
 				}
-			}	
+			}
 		}		
 	}
 
@@ -414,6 +635,7 @@ public class PersistenceManager extends AbstractEventSubscriber implements Model
 			GenericItem genericItem = (GenericItem) item;
 			genericItem.removeStateChangeListener(this);
 		}
+		updateRoutingTable(item, true);
 	}
 	
 	/**
@@ -478,6 +700,65 @@ public class PersistenceManager extends AbstractEventSubscriber implements Model
 			logger.warn("Failed to delete cron jobs of group '{}'", persistModelName);
 		}
 	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@SuppressWarnings("rawtypes")
+	public void updated(Dictionary config) throws ConfigurationException {
+		queueSize = DEFAULT_QUEUE_SIZE;
+		batchSize = DEFAULT_BATCH_SIZE;
+		flushInterval = DEFAULT_FLUSH_INTERVAL;
+		if(config!=null) {
+			queueSize = parseInt(config, "queuesize", DEFAULT_QUEUE_SIZE);
+			batchSize = parseInt(config, "batchsize", DEFAULT_BATCH_SIZE);
+			flushInterval = parseInt(config, "flushinterval", DEFAULT_FLUSH_INTERVAL);
+		}
+		
+		// replace running queues by ones with the new settings
+		for(PersistenceService service : persistenceServices.values()) {
+			if(service instanceof BatchPersistenceService) {
+				startWriteBehindQueue((BatchPersistenceService) service);
+			}
+		}
+	}
+
+	@SuppressWarnings("rawtypes")
+	private int parseInt(Dictionary config, String key, int defaultValue) throws ConfigurationException {
+		String value = (String) config.get(key);
+		if(StringUtils.isBlank(value)) {
+			return defaultValue;
+		}
+		try {
+			int intValue = Integer.parseInt(value.trim());
+			if(intValue <= 0) {
+				throw new ConfigurationException(key, "The value must be a positive number.");
+			}
+			return intValue;
+		} catch(NumberFormatException e) {
+			throw new ConfigurationException(key, "The value '" + value + "' is not a valid number.");
+		}
+	}
+	
+	/**
+	 * An entry of the routing table, i.e. a persistence configuration of a service 
+	 * together with its precomputed strategies.
+	 */
+	private static class PersistenceTarget {
+		final String serviceName;
+		final String alias;
+		final boolean onChange;
+		final boolean onUpdate;
+		final boolean onRestore;
+		
+		public PersistenceTarget(String serviceName, String alias, boolean onChange, boolean onUpdate, boolean onRestore) {
+			this.serviceName = serviceName;
+			this.alias = alias;
+			this.onChange = onChange;
+			this.onUpdate = onUpdate;
+			this.onRestore = onRestore;
+		}
+	}
 		
 
 }
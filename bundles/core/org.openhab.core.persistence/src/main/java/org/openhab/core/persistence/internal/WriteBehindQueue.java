@@ -0,0 +1,301 @@
+/**
+ * openHAB, the open Home Automation Bus.
+ * Copyright (C) 2010-2013, openHAB.org <admin@openhab.org>
+ *
+ * See the contributors.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation; either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ *
+ * Additional permission under GNU GPL version 3 section 7
+ *
+ * If you modify this Program, or any covered work, by linking or
+ * combining it with Eclipse (or a modified version of that library),
+ * containing parts covered by the terms of the Eclipse Public License
+ * (EPL), the licensors of this Program grant you additional permission
+ * to convey the resulting work.
+ */
+package org.openhab.core.persistence.internal;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.openhab.core.persistence.BatchPersistenceService;
+import org.openhab.core.persistence.PersistenceEntry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The WriteBehindQueue decouples the storage of item states in a
+ * {@link BatchPersistenceService} from the threads which change the items.
+ * Entries are collected in a bounded queue and are flushed to the service
+ * by a dedicated thread, as soon as either <code>batchSize</code> entries
+ * are available or <code>flushInterval</code> milliseconds have passed since
+ * the first entry of the batch has been queued.
+ * 
+ * <p>If the queue is full, posting an entry blocks until there is space
+ * again, so that no states get lost if the service cannot keep up.</p>
+ * 
+ * <p>The service is only ever called by the writer thread. On shutdown, no
+ * further entries are accepted and the writer thread stores the remaining
+ * entries before it terminates.</p>
+ * 
+ * @author Kai Kreuzer
+ * @since 1.4.0
+ */
+public class WriteBehindQueue extends Thread {
+
+	private static final Logger logger = 
+		LoggerFactory.getLogger(WriteBehindQueue.class);
+	
+	/** the time in milliseconds to wait for the writer thread on shutdown, in addition to the flush interval */
+	private static final long SHUTDOWN_TIMEOUT = 5000;
+	
+	/** the minimum time in milliseconds between two warnings about a full queue */
+	private static final long QUEUE_FULL_WARNING_INTERVAL = 60000L;
+	
+	private final BatchPersistenceService service;
+	
+	private final BlockingQueue<PersistenceEntry> queue;
+	
+	private final int queueSize;
+	
+	private final int batchSize;
+	
+	private final long flushInterval;
+	
+	/** guards {@link #running}, so that no entry can be queued after the writer has drained the queue */
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+	
+	private volatile boolean running = true;
+	
+	private final AtomicLong storedEntries = new AtomicLong();
+	
+	private final AtomicLong flushes = new AtomicLong();
+	
+	private final AtomicLong totalFlushTime = new AtomicLong();
+	
+	private final AtomicLong maxFlushTime = new AtomicLong();
+	
+	private final AtomicLong queueFullCount = new AtomicLong();
+	
+	private final AtomicLong lastQueueFullWarning = new AtomicLong();
+	
+	private final AtomicLong droppedEntries = new AtomicLong();
+	
+	
+	public WriteBehindQueue(BatchPersistenceService service, int queueSize, int batchSize, long flushInterval) {
+		super("openHAB Persistence Writer (" + service.getName() + ")");
+		this.service = service;
+		this.queue = new ArrayBlockingQueue<PersistenceEntry>(queueSize);
+		this.queueSize = queueSize;
+		this.batchSize = batchSize;
+		this.flushInterval = flushInterval;
+		setDaemon(true);
+	}
+	
+	/**
+	 * Queues an entry for storage. If the queue is full, this method blocks
+	 * until there is enough space available.
+	 * 
+	 * @param entry the entry to queue
+	 * @return <code>false</code>, if the entry has not been accepted because
+	 * the queue has been shut down
+	 */
+	public boolean post(PersistenceEntry entry) {
+		lock.readLock().lock();
+		try {
+			if(!running) {
+				logger.debug("The write-behind queue of persistence service '{}' has been shut down, rejecting entry '{}'", 
+						service.getName(), entry);
+				return false;
+			}
+			if(!queue.offer(entry)) {
+				warnQueueFull();
+				try {
+					queue.put(entry);
+				} catch (InterruptedException e) {
+					droppedEntries.incrementAndGet();
+					logger.debug("Interrupted while waiting for space in the write-behind queue, dropping entry '{}'", entry);
+					Thread.currentThread().interrupt();
+				}
+			}
+			return true;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+	
+	private void warnQueueFull() {
+		long count = queueFullCount.incrementAndGet();
+		long now = System.currentTimeMillis();
+		long lastWarning = lastQueueFullWarning.get();
+		if(now - lastWarning >= QUEUE_FULL_WARNING_INTERVAL && lastQueueFullWarning.compareAndSet(lastWarning, now)) {
+			logger.warn("The write-behind queue of persistence service '{}' has reached its capacity of {} entries " +
+					"({} times so far, {} entries dropped) - item updates will be slowed down.", 
+					new Object[] { service.getName(), queueSize, count, droppedEntries.get() });
+		}
+	}
+	
+	/**
+	 * Stops accepting entries and waits until the writer thread has stored all
+	 * entries that have been queued before. The writer is not interrupted, as it
+	 * might be in the middle of storing a batch.
+	 */
+	public void shutdown() {
+		lock.writeLock().lock();
+		try {
+			running = false;
+		} finally {
+			lock.writeLock().unlock();
+		}
+		if(Thread.currentThread()!=this) {
+			try {
+				join(flushInterval + SHUTDOWN_TIMEOUT);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		if(isAlive()) {
+			logger.warn("Write-behind queue of persistence service '{}' has not finished within {}ms, {} entries " +
+					"are still waiting to be stored", new Object[] { service.getName(), flushInterval + SHUTDOWN_TIMEOUT, 
+					queue.size() });
+			return;
+		}
+		// the writer has terminated (or has never been started), so we can safely store the rest ourselves
+		List<PersistenceEntry> batch = new ArrayList<PersistenceEntry>(batchSize);
+		while(queue.drainTo(batch, batchSize) > 0) {
+			flush(batch);
+		}
+		logger.debug("Write-behind queue of persistence service '{}' has been stopped after storing {} entries " +
+				"in {} batches (average flush time {}ms, max flush time {}ms)", new Object[] { service.getName(), 
+				getStoredEntryCount(), getFlushCount(), getAverageFlushTime(), getMaxFlushTime() });
+	}
+	
+	@Override
+	public void run() {
+		List<PersistenceEntry> batch = new ArrayList<PersistenceEntry>(batchSize);
+		while(true) {
+			try {
+				PersistenceEntry first = queue.poll(100, TimeUnit.MILLISECONDS);
+				if(first==null) {
+					// no more entries will be queued once we are not running anymore
+					if(!running) break;
+					continue;
+				}
+				batch.add(first);
+				long deadline = System.currentTimeMillis() + flushInterval;
+				while(batch.size() < batchSize) {
+					queue.drainTo(batch, batchSize - batch.size());
+					long wait = deadline - System.currentTimeMillis();
+					// do not wait for more entries when shutting down
+					if(batch.size() >= batchSize || wait <= 0 || !running) {
+						break;
+					}
+					PersistenceEntry entry = queue.poll(wait, TimeUnit.MILLISECONDS);
+					if(entry==null) {
+						break;
+					}
+					batch.add(entry);
+				}
+			} catch (InterruptedException e) {
+				logger.debug("Write-behind queue of persistence service '{}' has been interrupted", service.getName());
+			}
+			if(!batch.isEmpty()) {
+				flush(batch);
+			}
+		}
+	}
+
+	private void flush(List<PersistenceEntry> batch) {
+		long startTime = System.currentTimeMillis();
+		try {
+			service.store(Collections.unmodifiableList(batch));
+		} catch (RuntimeException e) {
+			logger.error("Persistence service '{}' failed to store {} entries", 
+					new Object[] { service.getName(), batch.size(), e });
+		}
+		
+		long flushTime = System.currentTimeMillis() - startTime;
+		totalFlushTime.addAndGet(flushTime);
+		long max = maxFlushTime.get();
+		while(flushTime > max && !maxFlushTime.compareAndSet(max, flushTime)) {
+			max = maxFlushTime.get();
+		}
+		storedEntries.addAndGet(batch.size());
+		flushes.incrementAndGet();
+		logger.trace("Storing {} entries with persistence service '{}' took {}ms",
+				new Object[] { batch.size(), service.getName(), flushTime });
+		batch.clear();
+	}
+	
+	/**
+	 * @return the number of entries which are currently waiting to be stored
+	 */
+	public int getQueueDepth() {
+		return queue.size();
+	}
+
+	/**
+	 * @return the total number of entries which have been passed to the service so far
+	 */
+	public long getStoredEntryCount() {
+		return storedEntries.get();
+	}
+
+	/**
+	 * @return the number of batches which have been passed to the service so far
+	 */
+	public long getFlushCount() {
+		return flushes.get();
+	}
+
+	/**
+	 * @return the average time in milliseconds the service took to store a batch
+	 */
+	public long getAverageFlushTime() {
+		long count = flushes.get();
+		return count > 0 ? totalFlushTime.get() / count : 0;
+	}
+
+	/**
+	 * @return the maximum time in milliseconds the service took to store a batch
+	 */
+	public long getMaxFlushTime() {
+		return maxFlushTime.get();
+	}
+
+	/**
+	 * @return the number of times an entry could not be queued immediately because the queue was full
+	 */
+	public long getQueueFullCount() {
+		return queueFullCount.get();
+	}
+
+	/**
+	 * @return the number of entries which have been dropped, because the posting thread
+	 * was interrupted while waiting for space in the queue
+	 */
+	public long getDroppedEntryCount() {
+		return droppedEntries.get();
+	}
+
+}
@@ -0,0 +1,217 @@
+/**
+ * openHAB, the open Home Automation Bus.
+ * Copyright (C) 2010-2013, openHAB.org <admin@openhab.org>
+ *
+ * See the contributors.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation; either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ *
+ * Additional permission under GNU GPL version 3 section 7
+ *
+ * If you modify this Program, or any covered work, by linking or
+ * combining it with Eclipse (or a modified version of that library),
+ * containing parts covered by the terms of the Eclipse Public License
+ * (EPL), the licensors of this Program grant you additional permission
+ * to convey the resulting work.
+ */
+package org.openhab.core.internal.events;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+import org.openhab.core.events.ItemEvent;
+import org.openhab.core.types.UnDefType;
+
+
+/**
+ * @author Kai Kreuzer
+ * @since 1.4.0
+ */
+public class EventDispatcherTest {
+	
+	private final List<String> delivered = Collections.synchronizedList(new ArrayList<String>());
+	
+	private EventDispatcher dispatcher;
+	
+	private EventDispatcher otherDispatcher;
+	
+	@After
+	public void shutdown() {
+		if(dispatcher!=null) {
+			dispatcher.shutdown();
+		}
+		if(otherDispatcher!=null) {
+			otherDispatcher.shutdown();
+		}
+	}
+	
+	@Test(timeout=10000)
+	public void testReentrantPostOnFullQueueDoesNotBlock() throws InterruptedException {
+		final CountDownLatch allDelivered = new CountDownLatch(4);
+		dispatcher = new EventDispatcher("test", 1, 1, new EventDispatcher.BatchHandler() {
+			public void dispatch(List<ItemEvent> events) {
+				for(ItemEvent event : events) {
+					delivered.add(event.getItemName());
+					if(event.getItemName().equals("A")) {
+						// the first event fits into the queue, the others have to be delivered right away
+						dispatcher.post(update("B"));
+						dispatcher.post(update("C"));
+						dispatcher.post(update("D"));
+					}
+					allDelivered.countDown();
+				}
+			}
+		});
+		dispatcher.start();
+		dispatcher.post(update("A"));
+		assertTrue(allDelivered.await(5, TimeUnit.SECONDS));
+		assertEquals(4, delivered.size());
+		assertEquals(2, dispatcher.getQueueFullCount());
+	}
+
+	@Test(timeout=10000)
+	public void testSendKeepsOrderWithPostedEvents() {
+		dispatcher = new EventDispatcher("test", 100, 10, new RecordingHandler());
+		dispatcher.start();
+		assertTrue(dispatcher.post(update("A")));
+		assertTrue(dispatcher.post(update("B")));
+		assertTrue(dispatcher.send(update("C")));
+		// send only returns after its own and thus all previously posted events have been delivered
+		assertEquals(3, delivered.size());
+		assertEquals("[A, B, C]", delivered.toString());
+	}
+
+	@Test(timeout=10000)
+	public void testShutdownDeliversQueuedEventsAndRejectsLaterPosts() {
+		final CountDownLatch release = new CountDownLatch(1);
+		dispatcher = new EventDispatcher("test", 100, 1, new RecordingHandler() {
+			@Override
+			public void dispatch(List<ItemEvent> events) {
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				super.dispatch(events);
+			}
+		});
+		dispatcher.start();
+		for(int i = 0; i < 10; i++) {
+			dispatcher.post(update("Item" + i));
+		}
+		release.countDown();
+		dispatcher.shutdown();
+		assertFalse(dispatcher.isAlive());
+		assertEquals(10, delivered.size());
+		assertFalse(dispatcher.post(update("Late")));
+		assertFalse(dispatcher.send(update("Late")));
+		assertEquals(10, delivered.size());
+	}
+	
+	@Test(timeout=10000)
+	public void testSendFromOtherDispatcherKeepsOrder() throws InterruptedException {
+		final CountDownLatch release = new CountDownLatch(1);
+		final CountDownLatch sent = new CountDownLatch(1);
+		dispatcher = new EventDispatcher("test", 100, 1, new RecordingHandler() {
+			@Override
+			public void dispatch(List<ItemEvent> events) {
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				super.dispatch(events);
+			}
+		});
+		otherDispatcher = new EventDispatcher("other", 100, 1, new EventDispatcher.BatchHandler() {
+			public void dispatch(List<ItemEvent> events) {
+				// must neither be delivered on this thread nor wait for the blocked dispatcher
+				dispatcher.send(update("B"));
+				sent.countDown();
+			}
+		});
+		dispatcher.start();
+		otherDispatcher.start();
+		
+		dispatcher.post(update("A"));
+		otherDispatcher.post(update("Trigger"));
+		assertTrue(sent.await(5, TimeUnit.SECONDS));
+		assertEquals(0, delivered.size());
+		
+		release.countDown();
+		dispatcher.shutdown();
+		assertEquals("[A, B]", delivered.toString());
+	}
+
+	@Test(timeout=10000)
+	public void testSendDoesNotHangWhenDispatcherDies() throws InterruptedException {
+		final CountDownLatch release = new CountDownLatch(1);
+		dispatcher = new EventDispatcher("test", 100, 1, new RecordingHandler() {
+			@Override
+			public void dispatch(List<ItemEvent> events) {
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				throw new Error("a broken subscriber");
+			}
+		});
+		dispatcher.setUncaughtExceptionHandler(new Thread.UncaughtExceptionHandler() {
+			public void uncaughtException(Thread t, Throwable e) {
+				// expected
+			}
+		});
+		dispatcher.start();
+		dispatcher.post(update("A"));
+		new Thread() {
+			public void run() {
+				try {
+					Thread.sleep(100);
+				} catch (InterruptedException e) {
+				}
+				release.countDown();
+			}
+		}.start();
+		
+		// the event is dropped when the dispatcher thread dies
+		assertFalse(dispatcher.send(update("B")));
+		dispatcher.join(5000);
+		assertFalse(dispatcher.isAlive());
+		assertFalse(dispatcher.post(update("C")));
+	}
+	
+	private ItemEvent update(String itemName) {
+		return ItemEvent.createUpdateEvent(itemName, UnDefType.UNDEF);
+	}
+	
+	class RecordingHandler implements EventDispatcher.BatchHandler {
+		public void dispatch(List<ItemEvent> events) {
+			for(ItemEvent event : events) {
+				delivered.add(event.getItemName());
+			}
+		}
+	}
+
+}
@@ -0,0 +1,194 @@
+/**
+ * openHAB, the open Home Automation Bus.
+ * Copyright (C) 2010-2013, openHAB.org <admin@openhab.org>
+ *
+ * See the contributors.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation; either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ *
+ * Additional permission under GNU GPL version 3 section 7
+ *
+ * If you modify this Program, or any covered work, by linking or
+ * combining it with Eclipse (or a modified version of that library),
+ * containing parts covered by the terms of the Eclipse Public License
+ * (EPL), the licensors of this Program grant you additional permission
+ * to convey the resulting work.
+ */
+package org.openhab.core.internal.items;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.openhab.core.items.GenericItem;
+import org.openhab.core.items.Item;
+import org.openhab.core.items.ItemNotFoundException;
+import org.openhab.core.items.ItemProvider;
+import org.openhab.core.items.ItemsChangeListener;
+import org.openhab.core.types.Command;
+import org.openhab.core.types.State;
+
+
+/**
+ * @author Kai Kreuzer
+ * @since 1.4.0
+ */
+public class ItemRegistryImplTest {
+	
+	private ItemRegistryImpl registry;
+	
+	private TestItemProvider provider;
+	
+	@Before
+	public void setup() {
+		registry = new ItemRegistryImpl();
+		provider = new TestItemProvider();
+		provider.items.add(new TestItem("Temperature_Living"));
+		provider.items.add(new TestItem("Temperature_Kitchen"));
+		provider.items.add(new TestItem("Light_Kitchen"));
+		registry.addItemProvider(provider);
+	}
+
+	@Test
+	public void testGetItem() throws ItemNotFoundException {
+		assertEquals("Light_Kitchen", registry.getItem("Light_Kitchen").getName());
+		// regular expressions are still supported for backward compatibility
+		assertEquals("Light_Kitchen", registry.getItem("Light_.*").getName());
+	}
+
+	@Test(expected=ItemNotFoundException.class)
+	public void testGetUnknownItem() throws ItemNotFoundException {
+		registry.getItem("Light");
+	}
+
+	@Test
+	public void testGetItemsByPattern() {
+		assertEquals(2, registry.getItems("Temperature_*").size());
+		assertEquals(2, registry.getItems("*_Kitchen").size());
+		assertEquals(0, registry.getItems("Switch*").size());
+	}
+
+	@Test
+	public void testRegularExpressionsAndSearchPatternsAreCachedSeparately() throws ItemNotFoundException {
+		// as a search pattern, "Light*" matches all items starting with "Light"
+		assertEquals(1, registry.getItems("Light*").size());
+		// as a regular expression, it only matches "Ligh", "Light", "Lightt", ...
+		try {
+			registry.getItem("Light*");
+			fail("the regular expression must not match any item");
+		} catch (ItemNotFoundException e) {
+			// expected
+		}
+		assertEquals(1, registry.getItems("Light*").size());
+	}
+
+	@Test
+	public void testIndexFollowsProviderChanges() throws ItemNotFoundException {
+		Item item = new TestItem("Switch_Garden");
+		registry.itemAdded(provider, item);
+		assertSame(item, registry.getItem("Switch_Garden"));
+		
+		registry.itemRemoved(provider, item);
+		assertEquals(0, registry.getItems("Switch_Garden").size());
+		
+		provider.items.clear();
+		provider.items.add(item);
+		registry.allItemsChanged(provider, null);
+		assertSame(item, registry.getItem("Switch_Garden"));
+		assertEquals(1, registry.getItems().size());
+		assertEquals(0, registry.getItems("Temperature_*").size());
+		
+		registry.removeItemProvider(provider);
+		assertEquals(0, registry.getItems("*").size());
+	}
+	
+	@Test
+	public void testLookupsFollowSeveralProviders() throws ItemNotFoundException {
+		TestItemProvider otherProvider = new TestItemProvider();
+		Item garden = new TestItem("Switch_Garden");
+		otherProvider.items.add(garden);
+		registry.addItemProvider(otherProvider);
+		assertSame(garden, registry.getItem("Switch_Garden"));
+		assertEquals(1, registry.getItems("Switch_*").size());
+		assertEquals(4, registry.getItems().size());
+		
+		// a reloaded item is a new instance with the same name
+		Item reloadedGarden = new TestItem("Switch_Garden");
+		otherProvider.items.clear();
+		otherProvider.items.add(reloadedGarden);
+		registry.allItemsChanged(otherProvider, null);
+		assertSame(reloadedGarden, registry.getItem("Switch_Garden"));
+		
+		// the cached search pattern must not return outdated results
+		Item terrace = new TestItem("Switch_Terrace");
+		registry.itemAdded(otherProvider, terrace);
+		assertEquals(2, registry.getItems("Switch_*").size());
+		
+		// removing a provider must only remove its own items
+		registry.removeItemProvider(otherProvider);
+		assertEquals(0, registry.getItems("Switch_*").size());
+		assertEquals("Light_Kitchen", registry.getItem("Light_Kitchen").getName());
+		assertEquals(3, registry.getItems().size());
+	}
+
+	@Test(expected=ItemNotFoundException.class)
+	public void testGetRemovedItem() throws ItemNotFoundException {
+		Item light = registry.getItem("Light_Kitchen");
+		registry.itemRemoved(provider, light);
+		registry.getItem("Light_Kitchen");
+	}
+	
+	class TestItemProvider implements ItemProvider {
+		
+		List<Item> items = new ArrayList<Item>();
+
+		public Collection<Item> getItems() {
+			return items;
+		}
+
+		public void addItemChangeListener(ItemsChangeListener listener) {
+		}
+
+		public void removeItemChangeListener(ItemsChangeListener listener) {
+		}
+		
+	}
+	
+	class TestItem extends GenericItem {
+
+		public TestItem(String name) {
+			super(name);
+		}
+
+		@Override
+		public List<Class<? extends State>> getAcceptedDataTypes() {
+			return null;
+		}
+
+		@Override
+		public List<Class<? extends Command>> getAcceptedCommandTypes() {
+			return null;
+		}
+		
+	}
+	
+
+}
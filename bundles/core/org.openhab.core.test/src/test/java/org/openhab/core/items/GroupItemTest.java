@@ -30,7 +30,12 @@ package org.openhab.core.items;
 
 import static org.junit.Assert.fail;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import junit.framework.Assert;
 
@@ -38,6 +43,7 @@ import org.junit.Before;
 import org.junit.Test;
 import org.openhab.core.types.Command;
 import org.openhab.core.types.State;
+import org.openhab.core.types.UnDefType;
 
 
 /**
@@ -47,13 +53,15 @@ public class GroupItemTest {
 	
 	private GroupItem rootGroupItem;
 	
+	private GroupItem subGroup;
+	
 	@Before
 	public void setup() {
 		rootGroupItem = new GroupItem("root");
 		rootGroupItem.addMember(new TestItem("member1"));
 		rootGroupItem.addMember(new TestItem("member2"));
 		rootGroupItem.addMember(new TestItem("member2"));
-		GroupItem subGroup = new GroupItem("subGroup1");
+		subGroup = new GroupItem("subGroup1");
 		subGroup.addMember(new TestItem("subGroup member 1"));
 		subGroup.addMember(new TestItem("subGroup member 2"));
 		subGroup.addMember(new TestItem("subGroup member 3"));
@@ -74,6 +82,101 @@ public class GroupItemTest {
 	}
 	
 	
+	@Test
+	public void testGetAllMembersAfterMembershipChange() {
+		Assert.assertEquals(5, rootGroupItem.getAllMembers().size());
+		subGroup.addMember(new TestItem("subGroup member 4"));
+		Assert.assertEquals(6, rootGroupItem.getAllMembers().size());
+		subGroup.removeMember(subGroup.getMembers().get(0));
+		Assert.assertEquals(5, rootGroupItem.getAllMembers().size());
+	}
+	
+	@Test
+	public void testCoalescedRecalculation() {
+		final AtomicInteger calculations = new AtomicInteger();
+		GroupItem group = new GroupItem("group", null, new GroupFunction.Equality() {
+			@Override
+			public State calculate(List<Item> items) {
+				calculations.incrementAndGet();
+				return super.calculate(items);
+			}
+		});
+		List<TestItem> members = new ArrayList<TestItem>();
+		for (int i = 0; i < 300; i++) {
+			TestItem member = new TestItem("member" + i);
+			members.add(member);
+			group.addMember(member);
+		}
+		
+		// the interval is long enough that the recalculation is only executed by the test itself
+		ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1);
+		GroupItem.setRecalculation(scheduler, TimeUnit.HOURS.toMillis(1));
+		try {
+			for (TestItem member : members) {
+				member.setState(UnDefType.UNDEF);
+			}
+			Assert.assertEquals(0, calculations.get());
+			Assert.assertEquals(1, scheduler.getQueue().size());
+			
+			scheduler.getQueue().peek().run();
+			Assert.assertEquals(1, calculations.get());
+			Assert.assertEquals(UnDefType.UNDEF, group.getState());
+		} finally {
+			GroupItem.setRecalculation(null, 0);
+			scheduler.shutdownNow();
+		}
+	}
+	
+	@Test
+	public void testOutdatedRecalculationIsNotPublished() throws InterruptedException {
+		final CountDownLatch firstCalculationStarted = new CountDownLatch(1);
+		final CountDownLatch secondCalculationDone = new CountDownLatch(1);
+		final AtomicInteger calculations = new AtomicInteger();
+		final GroupItem group = new GroupItem("group", null, new GroupFunction.Equality() {
+			@Override
+			public State calculate(List<Item> items) {
+				if (calculations.incrementAndGet() == 1) {
+					firstCalculationStarted.countDown();
+					try {
+						secondCalculationDone.await();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+					return TestState.OUTDATED;
+				}
+				return TestState.CURRENT;
+			}
+		});
+		final TestItem member1 = new TestItem("member1");
+		TestItem member2 = new TestItem("member2");
+		group.addMember(member1);
+		group.addMember(member2);
+		
+		Thread firstUpdate = new Thread() {
+			@Override
+			public void run() {
+				member1.setState(UnDefType.UNDEF);
+			}
+		};
+		firstUpdate.start();
+		firstCalculationStarted.await();
+		member2.setState(UnDefType.UNDEF);
+		Assert.assertEquals(TestState.CURRENT, group.getState());
+		secondCalculationDone.countDown();
+		firstUpdate.join();
+		
+		Assert.assertEquals(2, calculations.get());
+		Assert.assertEquals(TestState.CURRENT, group.getState());
+	}
+	
+	enum TestState implements State {
+		OUTDATED, CURRENT;
+		
+		public String format(String pattern) {
+			return name();
+		}
+	}
+	
 	class TestItem extends GenericItem {
 
 		public TestItem(String name) {
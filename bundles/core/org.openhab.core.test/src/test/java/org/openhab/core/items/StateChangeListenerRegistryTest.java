@@ -0,0 +1,143 @@
+/**
+ * openHAB, the open Home Automation Bus.
+ * Copyright (C) 2010-2013, openHAB.org <admin@openhab.org>
+ *
+ * See the contributors.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation; either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ *
+ * Additional permission under GNU GPL version 3 section 7
+ *
+ * If you modify this Program, or any covered work, by linking or
+ * combining it with Eclipse (or a modified version of that library),
+ * containing parts covered by the terms of the Eclipse Public License
+ * (EPL), the licensors of this Program grant you additional permission
+ * to convey the resulting work.
+ */
+package org.openhab.core.items;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+import org.openhab.core.types.State;
+import org.openhab.core.types.UnDefType;
+
+
+/**
+ * @author Kai Kreuzer
+ * @since 1.4.0
+ */
+public class StateChangeListenerRegistryTest {
+	
+	@Test
+	public void testNotifications() {
+		StateChangeListenerRegistry registry = new StateChangeListenerRegistry();
+		CountingListener listener = new CountingListener();
+		registry.add(listener);
+		registry.add(listener);
+		assertEquals(1, registry.size());
+		
+		registry.notifyListeners(null, UnDefType.NULL, UnDefType.UNDEF);
+		registry.notifyListeners(null, UnDefType.UNDEF, UnDefType.UNDEF);
+		assertEquals(2, listener.updates);
+		assertEquals(1, listener.changes);
+		assertEquals(2, registry.getNotificationCount());
+		
+		registry.remove(listener);
+		registry.notifyListeners(null, UnDefType.UNDEF, UnDefType.NULL);
+		assertEquals(0, registry.size());
+		assertEquals(2, listener.updates);
+	}
+	
+	@Test
+	public void testWeakListenerIsRemovedAfterGarbageCollection() {
+		StateChangeListenerRegistry registry = new StateChangeListenerRegistry();
+		CountingListener strongListener = new CountingListener();
+		registry.add(strongListener);
+		registry.addWeak(new CountingListener());
+		assertEquals(2, registry.size());
+		
+		registry.clearWeakReferences();
+		assertEquals(1, registry.getListeners().size());
+		
+		// the stale registration is only removed by the next notification
+		assertEquals(2, registry.size());
+		registry.notifyListeners(null, UnDefType.NULL, UnDefType.UNDEF);
+		assertEquals(1, registry.size());
+		assertEquals(1, strongListener.updates);
+	}
+	
+	@Test
+	public void testListenerIsNotifiedOnce() {
+		StateChangeListenerRegistry registry = new StateChangeListenerRegistry();
+		CountingListener listener = new CountingListener();
+		registry.add(listener);
+		registry.addWeak(listener);
+		assertEquals(1, registry.size());
+		
+		registry.notifyListeners(null, UnDefType.NULL, UnDefType.UNDEF);
+		assertEquals(1, listener.updates);
+		assertEquals(1, listener.changes);
+	}
+	
+	@Test
+	public void testRegistrationChangesDuringNotification() {
+		final StateChangeListenerRegistry registry = new StateChangeListenerRegistry();
+		final CountingListener lateListener = new CountingListener();
+		final CountingListener removedListener = new CountingListener();
+		CountingListener selfRemovingListener = new CountingListener() {
+			@Override
+			public void stateUpdated(Item item, State state) {
+				super.stateUpdated(item, state);
+				registry.remove(this);
+				registry.remove(removedListener);
+				registry.add(lateListener);
+			}
+		};
+		registry.add(selfRemovingListener);
+		registry.add(removedListener);
+		
+		// the running notification is not affected by the changes
+		registry.notifyListeners(null, UnDefType.NULL, UnDefType.UNDEF);
+		assertEquals(1, selfRemovingListener.updates);
+		assertEquals(1, selfRemovingListener.changes);
+		assertEquals(1, removedListener.updates);
+		assertEquals(0, lateListener.updates);
+		assertEquals(1, registry.size());
+		
+		registry.notifyListeners(null, UnDefType.UNDEF, UnDefType.NULL);
+		assertEquals(1, selfRemovingListener.updates);
+		assertEquals(1, removedListener.updates);
+		assertEquals(1, lateListener.updates);
+		assertEquals(1, lateListener.changes);
+	}
+	
+	class CountingListener implements StateChangeListener {
+		
+		int updates = 0;
+		
+		int changes = 0;
+
+		public void stateChanged(Item item, State oldState, State newState) {
+			changes++;
+		}
+
+		public void stateUpdated(Item item, State state) {
+			updates++;
+		}
+		
+	}
+
+}
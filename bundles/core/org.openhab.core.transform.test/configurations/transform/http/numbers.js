@@ -0,0 +1 @@
+input.replace(/[^0-9]/g, "");
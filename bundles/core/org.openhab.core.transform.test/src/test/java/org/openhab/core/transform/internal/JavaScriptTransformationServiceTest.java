@@ -0,0 +1,86 @@
+/**
+ * openHAB, the open Home Automation Bus.
+ * Copyright (C) 2010-2013, openHAB.org <admin@openhab.org>
+ *
+ * See the contributors.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation; either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ *
+ * Additional permission under GNU GPL version 3 section 7
+ *
+ * If you modify this Program, or any covered work, by linking or
+ * combining it with Eclipse (or a modified version of that library),
+ * containing parts covered by the terms of the Eclipse Public License
+ * (EPL), the licensors of this Program grant you additional permission
+ * to convey the resulting work.
+ */
+package org.openhab.core.transform.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assume.assumeNotNull;
+
+import java.io.File;
+import java.io.IOException;
+
+import javax.script.ScriptEngineManager;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.openhab.core.transform.TransformationArtifactCache;
+import org.openhab.core.transform.TransformationException;
+import org.openhab.core.transform.internal.service.JavaScriptTransformationService;
+
+
+/**
+ * @author Kai Kreuzer
+ * @since 1.4.0
+ */
+public class JavaScriptTransformationServiceTest {
+
+	private JavaScriptTransformationService processor;
+	
+	private File scriptFile = TransformationArtifactCache.getTransformationFile("changing.js");
+	
+	@Before
+	public void init() {
+		// not every runtime comes with a Java Script engine
+		assumeNotNull(new ScriptEngineManager().getEngineByName("javascript"));
+		processor = new JavaScriptTransformationService();
+	}
+	
+	@After
+	public void cleanup() {
+		scriptFile.delete();
+	}
+	
+	@Test
+	public void testTransformByJavaScript() throws TransformationException {
+		assertEquals("2142", processor.transform("http/numbers.js", "21.4 kW, 2 phases"));
+		// the compiled script is reused with a different input
+		assertEquals("8", processor.transform("http/numbers.js", "8 degrees"));
+	}
+
+	@Test
+	public void testScriptIsReloadedWhenChanged() throws TransformationException, IOException {
+		FileUtils.writeStringToFile(scriptFile, "input.toUpperCase();");
+		assertEquals("ON", processor.transform("changing.js", "on"));
+
+		FileUtils.writeStringToFile(scriptFile, "input.toLowerCase() + '!';");
+		assertEquals("on!", processor.transform("changing.js", "ON"));
+	}
+
+}
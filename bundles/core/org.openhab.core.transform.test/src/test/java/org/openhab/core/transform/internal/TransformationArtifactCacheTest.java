@@ -0,0 +1,135 @@
+/**
+ * openHAB, the open Home Automation Bus.
+ * Copyright (C) 2010-2013, openHAB.org <admin@openhab.org>
+ *
+ * See the contributors.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation; either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ *
+ * Additional permission under GNU GPL version 3 section 7
+ *
+ * If you modify this Program, or any covered work, by linking or
+ * combining it with Eclipse (or a modified version of that library),
+ * containing parts covered by the terms of the Eclipse Public License
+ * (EPL), the licensors of this Program grant you additional permission
+ * to convey the resulting work.
+ */
+package org.openhab.core.transform.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Test;
+import org.openhab.core.transform.TransformationArtifactCache;
+import org.openhab.core.transform.TransformationException;
+import org.openhab.core.transform.internal.service.MapTransformationService;
+
+
+/**
+ * @author Kai Kreuzer
+ * @since 1.4.0
+ */
+public class TransformationArtifactCacheTest {
+	
+	private File mapFile = TransformationArtifactCache.getTransformationFile("changing.map");
+	
+	@After
+	public void cleanup() {
+		mapFile.delete();
+	}
+
+	@Test
+	public void testArtifactsAreReused() throws TransformationException {
+		CountingCache cache = new CountingCache(2, false);
+		String first = cache.get("a");
+		assertSame(first, cache.get("a"));
+		assertEquals(1, cache.loads);
+		
+		cache.get("b");
+		cache.get("a");
+		// exceeds the size, so the least recently used artifact "b" is evicted
+		cache.get("c");
+		assertEquals(3, cache.loads);
+		assertSame(first, cache.get("a"));
+		cache.get("b");
+		assertEquals(4, cache.loads);
+	}
+
+	@Test
+	public void testFileArtifactsAreReloadedWhenChanged() throws TransformationException, IOException {
+		FileUtils.writeStringToFile(mapFile, "ON=on\n");
+		MapTransformationService service = new MapTransformationService();
+		assertEquals("on", service.transform("changing.map", "ON"));
+		assertEquals("", service.transform("changing.map", "OFF"));
+
+		FileUtils.writeStringToFile(mapFile, "ON=on\nOFF=off\n");
+		assertEquals("off", service.transform("changing.map", "OFF"));
+	}
+
+	@Test
+	public void testMissingFilesAreNotCached() {
+		CountingCache cache = new CountingCache(2, true);
+		for(int i = 0; i < 2; i++) {
+			try {
+				cache.get("changing.map");
+				fail("loading a missing file must fail");
+			} catch (TransformationException e) {
+				assertEquals(i + 1, cache.loads);
+			}
+		}
+	}
+
+	@Test
+	public void testFileArtifactsAreReusedUntilChanged() throws TransformationException, IOException {
+		FileUtils.writeStringToFile(mapFile, "ON=on\n");
+		CountingCache cache = new CountingCache(2, true);
+		String first = cache.get("changing.map");
+		assertSame(first, cache.get("changing.map"));
+		assertEquals(1, cache.loads);
+
+		FileUtils.writeStringToFile(mapFile, "ON=on\nOFF=off\n");
+		String second = cache.get("changing.map");
+		assertNotSame(first, second);
+		assertEquals(2, cache.loads);
+		assertSame(second, cache.get("changing.map"));
+		assertEquals(2, cache.loads);
+	}
+
+	private static class CountingCache extends TransformationArtifactCache<String> {
+		
+		int loads = 0;
+		
+		CountingCache(int maxSize, boolean fileBased) {
+			super(maxSize, fileBased);
+		}
+
+		@Override
+		protected String load(String key, File file) throws TransformationException {
+			loads++;
+			if(file!=null && !file.exists()) {
+				throw new TransformationException("missing file " + file);
+			}
+			return new String(key);
+		}
+	}
+
+}
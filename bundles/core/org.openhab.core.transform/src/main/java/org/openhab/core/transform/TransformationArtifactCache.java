@@ -0,0 +1,162 @@
+/**
+ * openHAB, the open Home Automation Bus.
+ * Copyright (C) 2010-2013, openHAB.org <admin@openhab.org>
+ *
+ * See the contributors.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation; either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ *
+ * Additional permission under GNU GPL version 3 section 7
+ *
+ * If you modify this Program, or any covered work, by linking or
+ * combining it with Eclipse (or a modified version of that library),
+ * containing parts covered by the terms of the Eclipse Public License
+ * (EPL), the licensors of this Program grant you additional permission
+ * to convey the resulting work.
+ */
+package org.openhab.core.transform;
+
+import java.io.File;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.openhab.config.core.ConfigDispatcher;
+import org.openhab.core.transform.internal.TransformationActivator;
+
+/**
+ * <p>
+ * A cache for the compiled artifacts of transformations, i.e. parsed maps, compiled stylesheets, expressions or
+ * scripts, which can be reused as long as their definition does not change.
+ * </p>
+ * <p>
+ * Artifacts are either defined by an expression (like a regular expression or an XPath) or by a file in the
+ * 'configurations/transform' folder. Artifacts read from files are checked against the modification time and
+ * size of their file on every access and are reloaded, as soon as the file has been changed. The cache keeps
+ * at most <code>maxSize</code> artifacts and evicts the least recently used ones.
+ * </p>
+ * <p>
+ * The cache itself is thread-safe, but it is up to the caller to make sure that the artifacts it returns can be
+ * used concurrently. If two threads request a missing artifact at the same time, it might be loaded twice.
+ * </p>
+ * 
+ * @author Kai Kreuzer
+ * @since 1.4.0
+ *
+ * @param <T> the type of the cached artifacts
+ */
+public abstract class TransformationArtifactCache<T> {
+
+	/** the default number of artifacts to keep */
+	public static final int DEFAULT_SIZE = 100;
+
+	private final boolean fileBased;
+
+	private final Map<String, CacheEntry<T>> entries;
+
+	/**
+	 * Creates a new cache.
+	 * 
+	 * @param maxSize the maximum number of artifacts to keep
+	 * @param fileBased <code>true</code>, if the keys of this cache are file names relative to the
+	 * 			transformation folder, <code>false</code> if they are expressions
+	 */
+	protected TransformationArtifactCache(final int maxSize, boolean fileBased) {
+		this.fileBased = fileBased;
+		this.entries = new LinkedHashMap<String, CacheEntry<T>>(16, 0.75f, true) {
+			private static final long serialVersionUID = 2839347512047650211L;
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, CacheEntry<T>> eldest) {
+				return size() > maxSize;
+			}
+		};
+	}
+
+	/**
+	 * Returns the artifact for the given key, loading it if it is not yet cached or if its file has changed.
+	 * 
+	 * @param key the expression or the file name of the transformation
+	 * @return the artifact, never <code>null</code>
+	 * @throws TransformationException if the artifact cannot be loaded
+	 */
+	public T get(String key) throws TransformationException {
+		File file = null;
+		long lastModified = 0;
+		long length = 0;
+		if(fileBased) {
+			file = getTransformationFile(key);
+			lastModified = file.lastModified();
+			length = file.length();
+		}
+		
+		CacheEntry<T> entry;
+		synchronized(entries) {
+			entry = entries.get(key);
+		}
+		if(entry!=null && entry.lastModified==lastModified && entry.length==length) {
+			return entry.artifact;
+		}
+		
+		T artifact = load(key, file);
+		if(lastModified!=0 || !fileBased) {
+			synchronized(entries) {
+				entries.put(key, new CacheEntry<T>(artifact, lastModified, length));
+			}
+		}
+		return artifact;
+	}
+
+	/**
+	 * Removes all artifacts from the cache.
+	 */
+	public void clear() {
+		synchronized(entries) {
+			entries.clear();
+		}
+	}
+
+	/**
+	 * Loads the artifact for the given key.
+	 * 
+	 * @param key the expression or the file name of the transformation
+	 * @param file the transformation file, if this is a file based cache, <code>null</code> otherwise
+	 * @return the artifact, must not be <code>null</code>
+	 * @throws TransformationException if the artifact cannot be loaded
+	 */
+	protected abstract T load(String key, File file) throws TransformationException;
+
+	/**
+	 * Resolves a file name against the transformation folder 'configurations/transform'.
+	 * 
+	 * @param filename the name of the file, which may contain subfolders
+	 * @return the transformation file
+	 */
+	public static File getTransformationFile(String filename) {
+		return new File(ConfigDispatcher.getConfigFolder() + File.separator 
+			+ TransformationActivator.TRANSFORM_FOLDER_NAME + File.separator + filename);
+	}
+
+	private static class CacheEntry<T> {
+		final T artifact;
+		final long lastModified;
+		final long length;
+
+		CacheEntry(T artifact, long lastModified, long length) {
+			this.artifact = artifact;
+			this.lastModified = lastModified;
+			this.length = length;
+		}
+	}
+
+}
@@ -30,19 +30,20 @@ package org.openhab.core.transform.internal.service;
 
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.Reader;
 
+import javax.script.Compilable;
+import javax.script.CompiledScript;
 import javax.script.ScriptEngine;
 import javax.script.ScriptEngineManager;
 import javax.script.ScriptException;
 
 import org.apache.commons.io.IOUtils;
-import org.openhab.config.core.ConfigDispatcher;
+import org.openhab.core.transform.TransformationArtifactCache;
 import org.openhab.core.transform.TransformationException;
 import org.openhab.core.transform.TransformationService;
-import org.openhab.core.transform.internal.TransformationActivator;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -57,6 +58,38 @@ public class JavaScriptTransformationService implements TransformationService {
 
 	static final Logger logger = 
 		LoggerFactory.getLogger(JavaScriptTransformationService.class);
+
+	/** the already compiled scripts, recompiled when their file is changed */
+	private final TransformationArtifactCache<Script> cache = 
+		new TransformationArtifactCache<Script>(TransformationArtifactCache.DEFAULT_SIZE, true) {
+			@Override
+			protected Script load(String filename, File file) throws TransformationException {
+				String script;
+				Reader reader = null;
+				try {
+					reader = new InputStreamReader(new FileInputStream(file));
+					script = IOUtils.toString(reader);
+				} catch (IOException e) {
+					throw new TransformationException("An error occured while loading script.", e);
+				} finally {
+					IOUtils.closeQuietly(reader);
+				}
+				
+				ScriptEngine engine = new ScriptEngineManager().getEngineByName("javascript");
+				if(engine==null) {
+					throw new TransformationException("There is no script engine available for Java Script.");
+				}
+				CompiledScript compiledScript = null;
+				if(engine instanceof Compilable) {
+					try {
+						compiledScript = ((Compilable) engine).compile(script);
+					} catch (ScriptException e) {
+						throw new TransformationException("An error occured while compiling script.", e);
+					}
+				}
+				return new Script(engine, script, compiledScript);
+			}
+		};
 	
 	/**
 	 * Transforms the input <code>source</code> by Java Script. It expects the
@@ -80,32 +113,24 @@ public class JavaScriptTransformationService implements TransformationService {
 
 		logger.debug("about to transform '{}' by the Java Script '{}'", source, filename);
 
-		Reader reader;
-
-		try {
-			String path = ConfigDispatcher.getConfigFolder() 
-				+ File.separator + TransformationActivator.TRANSFORM_FOLDER_NAME
-				+ File.separator + filename;
-			reader = new InputStreamReader(new FileInputStream(path));
-		} catch (FileNotFoundException e) {
-			throw new TransformationException("An error occured while loading script.", e);
-		}
-
-		ScriptEngineManager manager = new ScriptEngineManager();
-		
-		ScriptEngine engine = manager.getEngineByName("javascript");
-		engine.put("input", source);
+		Script script = cache.get(filename);
 
 		Object result = null;
 
 		long startTime = System.currentTimeMillis();
 
-		try {
-			result = engine.eval(reader);
-		} catch (ScriptException e) {
-			throw new TransformationException("An error occured while executing script.", e);
-		} finally {
-			IOUtils.closeQuietly(reader);
+		// every script has its own engine, whose 'input' variable must not be overwritten by another thread
+		synchronized(script) {
+			try {
+				script.engine.put("input", source);
+				if(script.compiledScript!=null) {
+					result = script.compiledScript.eval();
+				} else {
+					result = script.engine.eval(script.script);
+				}
+			} catch (ScriptException e) {
+				throw new TransformationException("An error occured while executing script.", e);
+			}
 		}
 
 		logger.trace("JavaScript execution elapsed {} ms", System.currentTimeMillis() - startTime);
@@ -113,4 +138,19 @@ public class JavaScriptTransformationService implements TransformationService {
 		return String.valueOf(result);
 	}
 
+	/**
+	 * A script file together with the engine it is executed by.
+	 */
+	private static class Script {
+		final ScriptEngine engine;
+		final String script;
+		final CompiledScript compiledScript;
+
+		Script(ScriptEngine engine, String script, CompiledScript compiledScript) {
+			this.engine = engine;
+			this.script = script;
+			this.compiledScript = compiledScript;
+		}
+	}
+
 }
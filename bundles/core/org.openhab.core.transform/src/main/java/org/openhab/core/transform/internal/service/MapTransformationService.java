@@ -35,10 +35,9 @@ import java.io.Reader;
 import java.util.Properties;
 
 import org.apache.commons.io.IOUtils;
-import org.openhab.config.core.ConfigDispatcher;
+import org.openhab.core.transform.TransformationArtifactCache;
 import org.openhab.core.transform.TransformationException;
 import org.openhab.core.transform.TransformationService;
-import org.openhab.core.transform.internal.TransformationActivator;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -54,6 +53,27 @@ public class MapTransformationService implements TransformationService {
 
 	static final Logger logger = LoggerFactory.getLogger(MapTransformationService.class);
 
+	/** the already parsed mapping files, reloaded when they are changed */
+	private final TransformationArtifactCache<Properties> cache = 
+		new TransformationArtifactCache<Properties>(TransformationArtifactCache.DEFAULT_SIZE, true) {
+			@Override
+			protected Properties load(String filename, File file) throws TransformationException {
+				Reader reader = null;
+				try {
+					Properties properties = new Properties();
+					reader = new FileReader(file);
+					properties.load(reader);
+					return properties;
+				} catch (IOException e) {
+					String message = "opening file '" + filename + "' throws exception";
+					logger.error(message, e);
+					throw new TransformationException(message, e);
+				} finally {
+					IOUtils.closeQuietly(reader);
+				}
+			}
+		};
+
 	/**
 	 * <p>
 	 * Transforms the input <code>source</code> by mapping it to another string. It expects the mappings to be read from a file which
@@ -76,26 +96,13 @@ public class MapTransformationService implements TransformationService {
 			throw new TransformationException("the given parameters 'filename' and 'source' must not be null");
 		}
 
-		Reader reader = null;
-		try {
-			String path = ConfigDispatcher.getConfigFolder() + File.separator + TransformationActivator.TRANSFORM_FOLDER_NAME + File.separator + filename;
-			Properties properties = new Properties();
-			reader = new FileReader(path);
-			properties.load(reader);
-			String target = properties.getProperty(source);
-			if(target!=null) {
-				logger.debug("transformation resulted in '{}'", target);
-				return target;
-			} else {
-				logger.warn("Could not find a mapping for '{}' in the file '{}'.", source, filename);
-				return "";
-			}
-		} catch (IOException e) {
-			String message = "opening file '" + filename + "' throws exception";
-			logger.error(message, e);
-			throw new TransformationException(message, e);
-		} finally {
-			IOUtils.closeQuietly(reader);
+		String target = cache.get(filename).getProperty(source);
+		if(target!=null) {
+			logger.debug("transformation resulted in '{}'", target);
+			return target;
+		} else {
+			logger.warn("Could not find a mapping for '{}' in the file '{}'.", source, filename);
+			return "";
 		}
 	}
 
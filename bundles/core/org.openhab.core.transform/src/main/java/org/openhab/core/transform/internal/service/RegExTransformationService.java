@@ -28,9 +28,11 @@
  */
 package org.openhab.core.transform.internal.service;
 
+import java.io.File;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import org.openhab.core.transform.TransformationArtifactCache;
 import org.openhab.core.transform.TransformationException;
 import org.openhab.core.transform.TransformationService;
 import org.slf4j.Logger;
@@ -50,6 +52,15 @@ public class RegExTransformationService implements TransformationService {
 
 	static final Logger logger = LoggerFactory.getLogger(RegExTransformationService.class);
 
+	/** the already compiled patterns, keyed by the regular expression as passed to {@link #transform(String, String)} */
+	private final TransformationArtifactCache<Pattern> cache = 
+		new TransformationArtifactCache<Pattern>(TransformationArtifactCache.DEFAULT_SIZE, false) {
+			@Override
+			protected Pattern load(String regExpression, File file) {
+				return Pattern.compile("^" + regExpression + "$", Pattern.DOTALL);
+			}
+		};
+
 	/**
 	 * @{inheritDoc
 	 */
@@ -61,7 +72,7 @@ public class RegExTransformationService implements TransformationService {
 
 		logger.debug("about to transform '{}' by the function '{}'", source, regExpression);
 
-		Matcher matcher = Pattern.compile("^" + regExpression + "$", Pattern.DOTALL).matcher(source.trim());
+		Matcher matcher = cache.get(regExpression).matcher(source.trim());
 		if (!matcher.matches()) {
 			logger.debug("the given regex '^{}$' doesn't match the given content '{}' -> couldn't compute transformation", regExpression, source);
 			return null;
@@ -28,15 +28,16 @@
  */
 package org.openhab.core.transform.internal.service;
 
+import java.io.File;
 import java.io.StringReader;
 
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.xpath.XPath;
 import javax.xml.xpath.XPathConstants;
 import javax.xml.xpath.XPathExpression;
 import javax.xml.xpath.XPathFactory;
 
+import org.openhab.core.transform.TransformationArtifactCache;
 import org.openhab.core.transform.TransformationException;
 import org.openhab.core.transform.TransformationService;
 import org.slf4j.Logger;
@@ -56,6 +57,28 @@ public class XPathTransformationService implements TransformationService {
 
 	static final Logger logger = LoggerFactory.getLogger(XPathTransformationService.class);
 
+	/** the factory for the document builders, guarded by itself as factories are not thread-safe */
+	private final DocumentBuilderFactory domFactory;
+
+	/** the already compiled expressions, keyed by the expression as passed to {@link #transform(String, String)} */
+	private final TransformationArtifactCache<XPathExpression> cache = 
+		new TransformationArtifactCache<XPathExpression>(TransformationArtifactCache.DEFAULT_SIZE, false) {
+			@Override
+			protected XPathExpression load(String xpathExpression, File file) throws TransformationException {
+				try {
+					return XPathFactory.newInstance().newXPath().compile(xpathExpression);
+				} catch (Exception e) {
+					throw new TransformationException("transformation throws exceptions", e);
+				}
+			}
+		};
+
+	public XPathTransformationService() {
+		domFactory = DocumentBuilderFactory.newInstance();
+		domFactory.setNamespaceAware(true);
+		domFactory.setValidating(false);
+	}
+
 	/**
 	 * @{inheritDoc
 	 */
@@ -67,13 +90,14 @@ public class XPathTransformationService implements TransformationService {
 
 		logger.debug("about to transform '{}' by the function '{}'", source, xpathExpression);
 
+		XPathExpression expr = cache.get(xpathExpression);
 		StringReader stringReader = null;
 
 		try {
-			DocumentBuilderFactory domFactory = DocumentBuilderFactory.newInstance();
-			domFactory.setNamespaceAware(true);
-			domFactory.setValidating(false);
-			DocumentBuilder builder = domFactory.newDocumentBuilder();
+			DocumentBuilder builder;
+			synchronized(domFactory) {
+				builder = domFactory.newDocumentBuilder();
+			}
 
 			stringReader = new StringReader(source);
 			InputSource inputSource = new InputSource(stringReader);
@@ -81,10 +105,11 @@ public class XPathTransformationService implements TransformationService {
 
 			Document doc = builder.parse(inputSource);
 
-			XPath xpath = XPathFactory.newInstance().newXPath();
-			XPathExpression expr = xpath.compile(xpathExpression);
-
-			String transformationResult = (String) expr.evaluate(doc, XPathConstants.STRING);
+			// compiled expressions must not be evaluated concurrently
+			String transformationResult;
+			synchronized(expr) {
+				transformationResult = (String) expr.evaluate(doc, XPathConstants.STRING);
+			}
 
 			logger.debug("transformation resulted in '{}'", transformationResult);
 
@@ -32,16 +32,14 @@ import java.io.File;
 import java.io.StringReader;
 import java.io.StringWriter;
 
-import javax.xml.transform.Source;
-import javax.xml.transform.Transformer;
+import javax.xml.transform.Templates;
 import javax.xml.transform.TransformerFactory;
 import javax.xml.transform.stream.StreamResult;
 import javax.xml.transform.stream.StreamSource;
 
-import org.openhab.config.core.ConfigDispatcher;
+import org.openhab.core.transform.TransformationArtifactCache;
 import org.openhab.core.transform.TransformationException;
 import org.openhab.core.transform.TransformationService;
-import org.openhab.core.transform.internal.TransformationActivator;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -57,6 +55,21 @@ public class XsltTransformationService implements TransformationService {
 
 	static final Logger logger = LoggerFactory.getLogger(XsltTransformationService.class);
 
+	/** the already compiled stylesheets, recompiled when their file is changed */
+	private final TransformationArtifactCache<Templates> cache = 
+		new TransformationArtifactCache<Templates>(TransformationArtifactCache.DEFAULT_SIZE, true) {
+			@Override
+			protected Templates load(String filename, File file) throws TransformationException {
+				try {
+					return TransformerFactory.newInstance().newTemplates(new StreamSource(file));
+				} catch (Exception e) {
+					String message = "opening file '" + filename + "' throws exception";
+					logger.error(message, e);
+					throw new TransformationException(message, e);
+				}
+			}
+		};
+
 	/**
 	 * <p>
 	 * Transforms the input <code>source</code> by XSLT. It expects the transformation rule to be read from a file which
@@ -79,28 +92,16 @@ public class XsltTransformationService implements TransformationService {
 			throw new TransformationException("the given parameters 'filename' and 'source' must not be null");
 		}
 
-		Source xsl = null;
+		Templates xsl = cache.get(filename);
 
-		try {
-			String path = ConfigDispatcher.getConfigFolder() + File.separator + TransformationActivator.TRANSFORM_FOLDER_NAME + File.separator + filename;
-			xsl = new StreamSource(new File(path));
-		} catch (Exception e) {
-			String message = "opening file '" + filename + "' throws exception";
-
-			logger.error(message, e);
-			throw new TransformationException(message, e);
-		}
-
-		logger.debug("about to transform '{}' by the function '{}'", source, xsl);
+		logger.debug("about to transform '{}' by the function '{}'", source, filename);
 
 		StringReader xml = new StringReader(source);
 		StringWriter out = new StringWriter();
 
-		Transformer transformer;
-
 		try {
-			transformer = TransformerFactory.newInstance().newTransformer(xsl);
-			transformer.transform(new StreamSource(xml), new StreamResult(out));
+			// compiled templates are thread-safe, but each transformation needs its own transformer
+			xsl.newTransformer().transform(new StreamSource(xml), new StreamResult(out));
 		} catch (Exception e) {
 			logger.error("transformation throws exception", e);
 			throw new TransformationException("transformation throws exception", e);
@@ -28,6 +28,7 @@
  */
 package org.openhab.core.events;
 
+import static org.openhab.core.events.EventConstants.BATCHED;
 import static org.openhab.core.events.EventConstants.TOPIC_PREFIX;
 import static org.openhab.core.events.EventConstants.TOPIC_SEPERATOR;
 
@@ -43,6 +44,9 @@ abstract public class AbstractEventSubscriber implements EventSubscriber, EventH
 	 * {@inheritDoc}
 	 */
 	public void handleEvent(Event event) {  
+		if(this instanceof BatchEventSubscriber && event.getProperty(BATCHED)!=null) {
+			return; // we have already received this event as part of a batch
+		}
 		String itemName = (String) event.getProperty("item");
 		
 		String topic = event.getTopic();
@@ -0,0 +1,64 @@
+/**
+ * openHAB, the open Home Automation Bus.
+ * Copyright (C) 2010-2013, openHAB.org <admin@openhab.org>
+ *
+ * See the contributors.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation; either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ *
+ * Additional permission under GNU GPL version 3 section 7
+ *
+ * If you modify this Program, or any covered work, by linking or
+ * combining it with Eclipse (or a modified version of that library),
+ * containing parts covered by the terms of the Eclipse Public License
+ * (EPL), the licensors of this Program grant you additional permission
+ * to convey the resulting work.
+ */
+package org.openhab.core.events;
+
+import java.util.List;
+
+/**
+ * A BatchEventSubscriber is an {@link EventSubscriber} which is able to
+ * process a whole batch of events at once. This is useful for subscribers
+ * that have a considerable per-event overhead (like opening a transaction)
+ * and which can be amortized over many events.
+ * 
+ * <p>Batches are only delivered if the event bus runs in asynchronous mode
+ * (configured through <code>eventbus:async=true</code>). In this mode,
+ * asynchronously posted events are passed in batches to all services which
+ * are registered with this interface. If the subscriber is an
+ * {@link AbstractEventSubscriber} at the same time, it will not receive
+ * the same events a second time through the single event callbacks.</p>
+ * 
+ * <p>The events of a batch are in the order in which they have been posted,
+ * so that subsequent events for the same item are never reordered. If several
+ * dispatcher threads are configured (<code>eventbus:threads</code>), batches
+ * with events of different items may be delivered concurrently.</p>
+ * 
+ * @author Kai Kreuzer
+ * @since 1.4.0
+ */
+public interface BatchEventSubscriber extends EventSubscriber {
+
+	/**
+	 * Callback method for a batch of events which has been posted on the event bus.
+	 * The list must not be modified and must not be kept after this method has returned.
+	 * 
+	 * @param events the events in the order in which they have been posted
+	 */
+	public void receiveEvents(List<ItemEvent> events);
+	
+}
@@ -39,5 +39,8 @@ public interface EventConstants {
 	public static final String TOPIC_PREFIX = "openhab";
 
 	public static final String TOPIC_SEPERATOR = "/";
+
+	/** marks events which have already been delivered to all {@link BatchEventSubscriber}s */
+	public static final String BATCHED = "batched";
 	
 }
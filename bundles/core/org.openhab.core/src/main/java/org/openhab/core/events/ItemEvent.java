@@ -0,0 +1,123 @@
+/**
+ * openHAB, the open Home Automation Bus.
+ * Copyright (C) 2010-2013, openHAB.org <admin@openhab.org>
+ *
+ * See the contributors.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation; either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ *
+ * Additional permission under GNU GPL version 3 section 7
+ *
+ * If you modify this Program, or any covered work, by linking or
+ * combining it with Eclipse (or a modified version of that library),
+ * containing parts covered by the terms of the Eclipse Public License
+ * (EPL), the licensors of this Program grant you additional permission
+ * to convey the resulting work.
+ */
+package org.openhab.core.events;
+
+import org.openhab.core.types.Command;
+import org.openhab.core.types.EventType;
+import org.openhab.core.types.State;
+import org.openhab.core.types.Type;
+
+/**
+ * An immutable representation of a single command or state update that has
+ * been sent on the openHAB event bus. Instances of this class are handed to
+ * {@link BatchEventSubscriber}s.
+ * 
+ * @author Kai Kreuzer
+ * @since 1.4.0
+ */
+public final class ItemEvent {
+
+	private final String itemName;
+	
+	private final EventType type;
+	
+	private final Type payload;
+	
+	private final long timestamp;
+
+	private ItemEvent(String itemName, EventType type, Type payload) {
+		this.itemName = itemName;
+		this.type = type;
+		this.payload = payload;
+		this.timestamp = System.currentTimeMillis();
+	}
+	
+	/**
+	 * Creates an event for a state update
+	 * 
+	 * @param itemName the item for which the update was sent
+	 * @param newState the state that was sent
+	 * @return the new event
+	 */
+	public static ItemEvent createUpdateEvent(String itemName, State newState) {
+		return new ItemEvent(itemName, EventType.UPDATE, newState);
+	}
+
+	/**
+	 * Creates an event for a command
+	 * 
+	 * @param itemName the item for which the command was sent
+	 * @param command the command that was sent
+	 * @return the new event
+	 */
+	public static ItemEvent createCommandEvent(String itemName, Command command) {
+		return new ItemEvent(itemName, EventType.COMMAND, command);
+	}
+	
+	/**
+	 * @return the name of the item this event is about
+	 */
+	public String getItemName() {
+		return itemName;
+	}
+
+	/**
+	 * @return whether this event is a command or a state update
+	 */
+	public EventType getType() {
+		return type;
+	}
+
+	/**
+	 * @return the state of this event or <code>null</code>, if it is a command
+	 */
+	public State getState() {
+		return type==EventType.UPDATE ? (State) payload : null;
+	}
+
+	/**
+	 * @return the command of this event or <code>null</code>, if it is a state update
+	 */
+	public Command getCommand() {
+		return type==EventType.COMMAND ? (Command) payload : null;
+	}
+
+	/**
+	 * @return the time in milliseconds at which this event has been created
+	 */
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+	@Override
+	public String toString() {
+		return itemName + " received " + type + " " + payload;
+	}
+
+}
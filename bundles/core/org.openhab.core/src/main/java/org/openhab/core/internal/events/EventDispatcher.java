@@ -0,0 +1,411 @@
+/**
+ * openHAB, the open Home Automation Bus.
+ * Copyright (C) 2010-2013, openHAB.org <admin@openhab.org>
+ *
+ * See the contributors.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation; either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ *
+ * Additional permission under GNU GPL version 3 section 7
+ *
+ * If you modify this Program, or any covered work, by linking or
+ * combining it with Eclipse (or a modified version of that library),
+ * containing parts covered by the terms of the Eclipse Public License
+ * (EPL), the licensors of this Program grant you additional permission
+ * to convey the resulting work.
+ */
+package org.openhab.core.internal.events;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.openhab.core.events.ItemEvent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The EventDispatcher decouples the publishers of asynchronous events from
+ * their delivery. Events are put into a bounded queue and are delivered in
+ * batches by the dispatcher thread, which guarantees that events are
+ * delivered in exactly the order in which they have been posted to this
+ * dispatcher.
+ * 
+ * <p>If the queue is full, posting an event blocks until there is space
+ * again, so that fast event producers are slowed down instead of events
+ * being dropped. The only exception are events which are posted by a
+ * subscriber while it is called by a dispatcher thread: blocking there could
+ * deadlock the event bus, so these events are queued beyond the capacity
+ * instead, which keeps their order.</p>
+ * 
+ * <p>Sending an event waits for its delivery, unless it is sent by a dispatcher
+ * thread: this dispatcher delivers its own events right away, while the events
+ * of other dispatchers are queued without waiting, as two dispatchers waiting
+ * for each other would deadlock.</p>
+ * 
+ * <p>Once {@link #shutdown()} has been called, no further events are accepted,
+ * and all events which have been queued before are still delivered.</p>
+ * 
+ * @author Kai Kreuzer
+ * @since 1.4.0
+ */
+public class EventDispatcher extends Thread {
+
+	private static final Logger logger = 
+		LoggerFactory.getLogger(EventDispatcher.class);
+	
+	/** the minimum time in milliseconds between two warnings about a full queue */
+	private static final long QUEUE_FULL_WARNING_INTERVAL = 60000L;
+	
+	/** the time in milliseconds to wait for the delivery of the remaining events on shutdown */
+	private static final long SHUTDOWN_TIMEOUT = 5000L;
+	
+	/** the maximum time in milliseconds to wait for the delivery of a sent event */
+	private static final long SEND_TIMEOUT = 10000L;
+	
+	/**
+	 * The callback which is responsible for the actual delivery of a batch of events.
+	 */
+	public interface BatchHandler {
+		
+		/**
+		 * Delivers a batch of events to all subscribers.
+		 * 
+		 * @param events the (unmodifiable) batch of events to deliver
+		 */
+		void dispatch(List<ItemEvent> events);
+	}
+
+	/** the events to deliver; its capacity is enforced by {@link #enqueue(QueuedEvent)}, so that
+	 * dispatcher threads can exceed it without losing the order of the events */
+	private final BlockingQueue<QueuedEvent> queue = new LinkedBlockingQueue<QueuedEvent>();
+	
+	/** the monitor on which producers wait for space in the queue */
+	private final Object space = new Object();
+	
+	private final int queueSize;
+	
+	private final int batchSize;
+	
+	private final BatchHandler handler;
+
+	/** guards {@link #running}, so that no event can be queued after the dispatcher has drained its queue */
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+	
+	private volatile boolean running = true;
+	
+	/** is set once the dispatcher thread has stopped, so that no producer waits for space anymore */
+	private volatile boolean stopped = false;
+	
+	private final AtomicLong dispatchedEvents = new AtomicLong();
+	
+	private final AtomicLong dispatchedBatches = new AtomicLong();
+	
+	private final AtomicLong totalLatency = new AtomicLong();
+	
+	private final AtomicLong maxLatency = new AtomicLong();
+
+	private final AtomicLong queueFullCount = new AtomicLong();
+	
+	private final AtomicLong lastQueueFullWarning = new AtomicLong();
+	
+	
+	public EventDispatcher(String name, int queueSize, int batchSize, BatchHandler handler) {
+		super(name);
+		this.queueSize = queueSize;
+		this.batchSize = batchSize;
+		this.handler = handler;
+		setDaemon(true);
+	}
+	
+	/**
+	 * Queues an event for delivery. If the queue is full, this method blocks
+	 * until there is enough space available, unless it is called by a
+	 * dispatcher thread, in which case the event is queued nevertheless.
+	 * 
+	 * @param event the event to queue
+	 * @return <code>false</code>, if the event has not been accepted because
+	 * the dispatcher has been shut down
+	 */
+	public boolean post(ItemEvent event) {
+		return enqueue(new QueuedEvent(event, null));
+	}
+	
+	/**
+	 * Queues an event for delivery and waits until it has been delivered. If 
+	 * this is called by this dispatcher's own thread, which would wait for itself, 
+	 * the event is delivered right away. If it is called by another dispatcher 
+	 * thread, the event is queued without waiting for its delivery.
+	 * 
+	 * @param event the event to deliver
+	 * @return <code>false</code>, if the event has not been accepted because
+	 * the dispatcher has been shut down, or if it has been dropped because the
+	 * dispatcher thread has stopped before delivering it
+	 */
+	public boolean send(ItemEvent event) {
+		if(Thread.currentThread()==this) {
+			if(!running) {
+				logger.debug("Event dispatcher '{}' has been shut down, rejecting event '{}'", getName(), event);
+				return false;
+			}
+			dispatchDirectly(event);
+			return true;
+		}
+		if(Thread.currentThread() instanceof EventDispatcher) {
+			return enqueue(new QueuedEvent(event, null));
+		}
+		QueuedEvent queuedEvent = new QueuedEvent(event, new CountDownLatch(1));
+		if(!enqueue(queuedEvent)) {
+			return false;
+		}
+		try {
+			if(!queuedEvent.delivered.await(SEND_TIMEOUT, TimeUnit.MILLISECONDS)) {
+				logger.warn("Event '{}' has not been delivered within {}ms", event, SEND_TIMEOUT);
+			}
+		} catch (InterruptedException e) {
+			logger.debug("Interrupted while waiting for the delivery of event '{}'", event);
+			Thread.currentThread().interrupt();
+		}
+		return !queuedEvent.dropped;
+	}
+	
+	private boolean enqueue(QueuedEvent queuedEvent) {
+		boolean dispatcherThread = Thread.currentThread() instanceof EventDispatcher;
+		lock.readLock().lock();
+		try {
+			if(!running) {
+				logger.debug("Event dispatcher '{}' has been shut down, rejecting event '{}'", getName(), queuedEvent.event);
+				return false;
+			}
+			synchronized(space) {
+				if(queue.size() >= queueSize) {
+					warnQueueFull();
+					// we must not wait for our own queue (or the one of another dispatcher, which might wait for us)
+					while(!dispatcherThread && !stopped && queue.size() >= queueSize) {
+						try {
+							space.wait();
+						} catch (InterruptedException e) {
+							logger.debug("Interrupted while waiting for space in the event queue, dropping event '{}'", queuedEvent.event);
+							Thread.currentThread().interrupt();
+							return true;
+						}
+					}
+				}
+				queue.add(queuedEvent);
+			}
+			return true;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+	
+	private void warnQueueFull() {
+		long count = queueFullCount.incrementAndGet();
+		long now = System.currentTimeMillis();
+		long lastWarning = lastQueueFullWarning.get();
+		if(now - lastWarning >= QUEUE_FULL_WARNING_INTERVAL && lastQueueFullWarning.compareAndSet(lastWarning, now)) {
+			logger.warn("The event queue has reached its capacity of {} events ({} times so far) - " +
+					"event producers will be slowed down.", queueSize, count);
+		}
+	}
+	
+	/**
+	 * Stops accepting events and waits until the dispatcher thread has delivered
+	 * all events that have been queued before.
+	 */
+	public void shutdown() {
+		lock.writeLock().lock();
+		try {
+			running = false;
+		} finally {
+			lock.writeLock().unlock();
+		}
+		if(Thread.currentThread()!=this) {
+			try {
+				join(SHUTDOWN_TIMEOUT);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		if(isAlive()) {
+			logger.warn("Event dispatcher '{}' has not finished within {}ms, {} events are still waiting for their delivery", 
+					new Object[] { getName(), SHUTDOWN_TIMEOUT, queue.size() });
+		} else {
+			logger.debug("Event dispatcher '{}' has been stopped after dispatching {} events in {} batches " +
+					"(average latency {}ms, max latency {}ms)", new Object[] { getName(), getDispatchedEventCount(), 
+					dispatchedBatches.get(), getAverageDispatchLatency(), getMaxDispatchLatency() });
+		}
+	}
+	
+	@Override
+	public void run() {
+		List<QueuedEvent> batch = new ArrayList<QueuedEvent>(batchSize);
+		try {
+			while(true) {
+				try {
+					QueuedEvent queuedEvent = queue.poll(100, TimeUnit.MILLISECONDS);
+					if(queuedEvent==null) {
+						// no more events will be queued once we are not running anymore
+						if(!running) break;
+						continue;
+					}
+					batch.add(queuedEvent);
+					queue.drainTo(batch, batchSize - 1);
+					synchronized(space) {
+						space.notifyAll();
+					}
+					dispatch(batch);
+				} catch (InterruptedException e) {
+					logger.debug("Event dispatcher '{}' has been interrupted", getName());
+				}
+			}
+		} finally {
+			dropQueuedEvents();
+		}
+	}
+	
+	/**
+	 * Releases the events, which are still queued when the dispatcher thread stops 
+	 * unexpectedly, so that neither their senders nor waiting producers hang forever.
+	 */
+	private void dropQueuedEvents() {
+		// waiting producers hold the read lock, so they have to be released first
+		stopped = true;
+		synchronized(space) {
+			space.notifyAll();
+		}
+		lock.writeLock().lock();
+		try {
+			running = false;
+		} finally {
+			lock.writeLock().unlock();
+		}
+		List<QueuedEvent> dropped = new ArrayList<QueuedEvent>();
+		queue.drainTo(dropped);
+		for(QueuedEvent queuedEvent : dropped) {
+			queuedEvent.dropped = true;
+			if(queuedEvent.delivered!=null) {
+				queuedEvent.delivered.countDown();
+			}
+		}
+		if(!dropped.isEmpty()) {
+			logger.error("Event dispatcher '{}' has stopped, dropping {} events", getName(), dropped.size());
+		}
+	}
+
+	private void dispatch(List<QueuedEvent> batch) {
+		List<ItemEvent> events = new ArrayList<ItemEvent>(batch.size());
+		for(QueuedEvent queuedEvent : batch) {
+			events.add(queuedEvent.event);
+		}
+		try {
+			deliver(events);
+		} finally {
+			for(QueuedEvent queuedEvent : batch) {
+				if(queuedEvent.delivered!=null) {
+					queuedEvent.delivered.countDown();
+				}
+			}
+			batch.clear();
+		}
+	}
+	
+	private void dispatchDirectly(ItemEvent event) {
+		deliver(Collections.singletonList(event));
+	}
+
+	private void deliver(List<ItemEvent> events) {
+		try {
+			handler.dispatch(Collections.unmodifiableList(events));
+		} catch (RuntimeException e) {
+			logger.error("Error while dispatching events", e);
+		}
+		
+		long now = System.currentTimeMillis();
+		for(ItemEvent event : events) {
+			long latency = now - event.getTimestamp();
+			totalLatency.addAndGet(latency);
+			long max = maxLatency.get();
+			while(latency > max && !maxLatency.compareAndSet(max, latency)) {
+				max = maxLatency.get();
+			}
+		}
+		dispatchedEvents.addAndGet(events.size());
+		dispatchedBatches.incrementAndGet();
+	}
+	
+	/**
+	 * @return the number of events which are currently waiting for their delivery
+	 */
+	public int getQueueDepth() {
+		return queue.size();
+	}
+
+	/**
+	 * @return the total number of events which have been dispatched so far
+	 */
+	public long getDispatchedEventCount() {
+		return dispatchedEvents.get();
+	}
+
+	/**
+	 * @return the average time in milliseconds between posting and delivering an event
+	 */
+	public long getAverageDispatchLatency() {
+		long count = dispatchedEvents.get();
+		return count > 0 ? totalLatency.get() / count : 0;
+	}
+
+	/**
+	 * @return the maximum time in milliseconds between posting and delivering an event
+	 */
+	public long getMaxDispatchLatency() {
+		return maxLatency.get();
+	}
+
+	/**
+	 * @return the number of times an event could not be queued immediately because the queue was full
+	 */
+	public long getQueueFullCount() {
+		return queueFullCount.get();
+	}
+
+	/**
+	 * An event in the queue, together with a latch for those callers
+	 * which wait for its delivery.
+	 */
+	private static class QueuedEvent {
+		
+		final ItemEvent event;
+		
+		final CountDownLatch delivered;
+		
+		/** whether the event has been dropped without being delivered */
+		volatile boolean dropped = false;
+		
+		QueuedEvent(ItemEvent event, CountDownLatch delivered) {
+			this.event = event;
+			this.delivered = delivered;
+		}
+	}
+
+}
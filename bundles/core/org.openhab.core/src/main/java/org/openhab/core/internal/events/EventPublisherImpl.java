@@ -31,13 +31,24 @@ package org.openhab.core.internal.events;
 import static org.openhab.core.events.EventConstants.TOPIC_PREFIX;
 import static org.openhab.core.events.EventConstants.TOPIC_SEPERATOR;
 
+import java.util.Collection;
 import java.util.Dictionary;
 import java.util.Hashtable;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArraySet;
 
+import org.apache.commons.lang.StringUtils;
+import org.openhab.core.events.BatchEventSubscriber;
+import org.openhab.core.events.EventConstants;
 import org.openhab.core.events.EventPublisher;
+import org.openhab.core.events.ItemEvent;
 import org.openhab.core.types.Command;
 import org.openhab.core.types.EventType;
 import org.openhab.core.types.State;
+import org.osgi.service.cm.ConfigurationException;
+import org.osgi.service.cm.ManagedService;
 import org.osgi.service.event.Event;
 import org.osgi.service.event.EventAdmin;
 import org.slf4j.Logger;
@@ -48,16 +59,49 @@ import org.slf4j.LoggerFactory;
  * Through it, openHAB events can be sent to the OSGi EventAdmin service
  * in order to broadcast them.
  * 
+ * <p>Optionally (<code>eventbus:async=true</code>), events are not directly
+ * handed to the EventAdmin, but are queued and delivered in batches by
+ * {@link EventDispatcher}s. All events of an item, commands as well as
+ * updates, go through the same dispatcher, so that they are never reordered;
+ * with several dispatcher threads (<code>eventbus:threads</code>), events
+ * of different items may be delivered concurrently. In this mode, 
+ * {@link BatchEventSubscriber}s receive whole batches of events at once.</p>
+ * 
  * @author Kai Kreuzer
  *
  */
-public class EventPublisherImpl implements EventPublisher {
+public class EventPublisherImpl implements EventPublisher, ManagedService, EventDispatcher.BatchHandler {
 
 	private static final Logger logger = 
 		LoggerFactory.getLogger(EventPublisherImpl.class);
+	
+	/** the default capacity of the event queue in asynchronous mode */
+	private static final int DEFAULT_QUEUE_SIZE = 10000;
+
+	/** the default maximum number of events which are delivered in one batch */
+	private static final int DEFAULT_BATCH_SIZE = 100;
+
+	/** the default number of dispatcher threads in asynchronous mode */
+	private static final int DEFAULT_THREADS = 1;
 		
 	private EventAdmin eventAdmin;
 	
+	/** all subscribers which want to receive events in batches */
+	private Collection<BatchEventSubscriber> batchSubscribers = new CopyOnWriteArraySet<BatchEventSubscriber>();
+	
+	/** the dispatchers for asynchronous events; <code>null</code>, if events are directly passed to the EventAdmin */
+	private volatile EventDispatcher[] dispatchers;
+	
+	/** caches the (interned) topics per item, so that they do not have to be concatenated for every event */
+	private final ConcurrentMap<String, String> updateTopics = new ConcurrentHashMap<String, String>();
+	private final ConcurrentMap<String, String> commandTopics = new ConcurrentHashMap<String, String>();
+	
+	
+	public void deactivate() {
+		stopDispatchers();
+		updateTopics.clear();
+		commandTopics.clear();
+	}
 	
 	public void setEventAdmin(EventAdmin eventAdmin) {
 		this.eventAdmin = eventAdmin;
@@ -67,13 +111,25 @@ public class EventPublisherImpl implements EventPublisher {
 		this.eventAdmin = null;
 	}
 	
+	public void addBatchEventSubscriber(BatchEventSubscriber subscriber) {
+		batchSubscribers.add(subscriber);
+	}
+
+	public void removeBatchEventSubscriber(BatchEventSubscriber subscriber) {
+		batchSubscribers.remove(subscriber);
+	}
+	
 
 	/* (non-Javadoc)
 	 * @see org.openhab.core.internal.events.EventPublisher#sendCommand(org.openhab.core.items.GenericItem, org.openhab.core.datatypes.DataType)
 	 */
 	public void sendCommand(String itemName, Command command) {
 		if (command != null) {
-			if(eventAdmin!=null) eventAdmin.sendEvent(createCommandEvent(itemName, command));
+			EventDispatcher dispatcher = getDispatcher(itemName);
+			if(dispatcher!=null && dispatcher.send(ItemEvent.createCommandEvent(itemName, command))) {
+				return;
+			}
+			if(eventAdmin!=null) eventAdmin.sendEvent(createCommandEvent(itemName, command, false));
 		} else {
 			logger.warn("given command is NULL, couldn't send command to '{}'", itemName);
 		}
@@ -84,7 +140,11 @@ public class EventPublisherImpl implements EventPublisher {
 	 */
 	public void postCommand(String itemName, Command command) {
 		if (command != null) {
-			if(eventAdmin!=null) eventAdmin.postEvent(createCommandEvent(itemName, command));
+			EventDispatcher dispatcher = getDispatcher(itemName);
+			if(dispatcher!=null && dispatcher.post(ItemEvent.createCommandEvent(itemName, command))) {
+				return;
+			}
+			if(eventAdmin!=null) eventAdmin.postEvent(createCommandEvent(itemName, command, false));
 		} else {
 			logger.warn("given command is NULL, couldn't post command to '{}'", itemName);
 		}
@@ -95,29 +155,149 @@ public class EventPublisherImpl implements EventPublisher {
 	 */
 	public void postUpdate(String itemName, State newState) {
 		if (newState != null) {
-			if(eventAdmin!=null) eventAdmin.postEvent(createUpdateEvent(itemName, newState));
+			EventDispatcher dispatcher = getDispatcher(itemName);
+			if(dispatcher!=null && dispatcher.post(ItemEvent.createUpdateEvent(itemName, newState))) {
+				return;
+			}
+			if(eventAdmin!=null) eventAdmin.postEvent(createUpdateEvent(itemName, newState, false));
 		} else {
 			logger.warn("given new state is NULL, couldn't post update for '{}'", itemName);
 		}
 	}
 	
-	private Event createUpdateEvent(String itemName, State newState) {
-		Dictionary<String, Object> properties = new Hashtable<String, Object>();
+	/**
+	 * {@inheritDoc}
+	 * 
+	 * The batch is first passed to all {@link BatchEventSubscriber}s, afterwards
+	 * each event is synchronously sent to all other subscribers. As all events of
+	 * an item are handled by the same dispatcher thread, their order is preserved.
+	 */
+	public void dispatch(List<ItemEvent> events) {
+		for(BatchEventSubscriber subscriber : batchSubscribers) {
+			try {
+				subscriber.receiveEvents(events);
+			} catch (RuntimeException e) {
+				logger.error("Batch event subscriber '" + subscriber.getClass().getSimpleName() + "' threw an exception", e);
+			}
+		}
+		EventAdmin eventAdmin = this.eventAdmin;
+		if(eventAdmin!=null) {
+			boolean batched = !batchSubscribers.isEmpty();
+			for(ItemEvent event : events) {
+				if(event.getType()==EventType.UPDATE) {
+					eventAdmin.sendEvent(createUpdateEvent(event.getItemName(), event.getState(), batched));
+				} else {
+					eventAdmin.sendEvent(createCommandEvent(event.getItemName(), event.getCommand(), batched));
+				}
+			}
+		}
+	}
+	
+	private Event createUpdateEvent(String itemName, State newState, boolean batched) {
+		Dictionary<String, Object> properties = new Hashtable<String, Object>(4);
 		properties.put("item", itemName);
 		properties.put("state", newState);
-		return new Event(createTopic(EventType.UPDATE, itemName), properties);
+		if(batched) properties.put(EventConstants.BATCHED, Boolean.TRUE);
+		return new Event(getTopic(updateTopics, EventType.UPDATE, itemName), properties);
 	}
 
-	private Event createCommandEvent(String itemName, Command command) {
-		Dictionary<String, Object> properties = new Hashtable<String, Object>();
+	private Event createCommandEvent(String itemName, Command command, boolean batched) {
+		Dictionary<String, Object> properties = new Hashtable<String, Object>(4);
 		properties.put("item", itemName);
 		properties.put("command", command);
-		return new Event(createTopic(EventType.COMMAND, itemName) , properties);
+		if(batched) properties.put(EventConstants.BATCHED, Boolean.TRUE);
+		return new Event(getTopic(commandTopics, EventType.COMMAND, itemName), properties);
+	}
+
+	private String getTopic(ConcurrentMap<String, String> topics, EventType type, String itemName) {
+		String topic = topics.get(itemName);
+		if(topic==null) {
+			topic = createTopic(type, itemName).intern();
+			topics.put(itemName, topic);
+		}
+		return topic;
 	}
 
 	private String createTopic(EventType type, String itemName) {
 		return TOPIC_PREFIX + TOPIC_SEPERATOR + type + TOPIC_SEPERATOR + itemName;
 	}
 	
+	private void startDispatchers(int queueSize, int batchSize, int threads) {
+		stopDispatchers();
+		EventDispatcher[] newDispatchers = new EventDispatcher[threads];
+		for(int i = 0; i < threads; i++) {
+			String name = threads==1 ? "openHAB Event Dispatcher" : "openHAB Event Dispatcher " + (i + 1);
+			newDispatchers[i] = new EventDispatcher(name, queueSize, batchSize, this);
+			newDispatchers[i].start();
+		}
+		dispatchers = newDispatchers;
+		logger.debug("Started asynchronous event dispatching (queue size {}, batch size {}, threads {})", 
+				new Object[] { queueSize, batchSize, threads });
+	}
+
+	private void stopDispatchers() {
+		EventDispatcher[] oldDispatchers = dispatchers;
+		if(oldDispatchers!=null) {
+			// events which are posted from now on are passed to the EventAdmin directly
+			dispatchers = null;
+			for(EventDispatcher oldDispatcher : oldDispatchers) {
+				oldDispatcher.shutdown();
+			}
+		}
+	}
+	
+	/**
+	 * Returns the dispatcher which is responsible for the events of the given item.
+	 * 
+	 * @param itemName the name of the item
+	 * @return the asynchronous event dispatcher, which provides queue and
+	 * latency metrics; <code>null</code>, if asynchronous mode is not active
+	 */
+	public EventDispatcher getDispatcher(String itemName) {
+		EventDispatcher[] dispatchers = this.dispatchers;
+		if(dispatchers==null) {
+			return null;
+		}
+		return dispatchers[(itemName.hashCode() & Integer.MAX_VALUE) % dispatchers.length];
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@SuppressWarnings("rawtypes")
+	public void updated(Dictionary config) throws ConfigurationException {
+		boolean async = false;
+		int queueSize = DEFAULT_QUEUE_SIZE;
+		int batchSize = DEFAULT_BATCH_SIZE;
+		int threads = DEFAULT_THREADS;
+		if(config!=null) {
+			async = "true".equalsIgnoreCase((String) config.get("async"));
+			queueSize = parseInt(config, "queuesize", DEFAULT_QUEUE_SIZE);
+			batchSize = parseInt(config, "batchsize", DEFAULT_BATCH_SIZE);
+			threads = parseInt(config, "threads", DEFAULT_THREADS);
+		}
+		if(async) {
+			startDispatchers(queueSize, batchSize, threads);
+		} else {
+			stopDispatchers();
+		}
+	}
+
+	@SuppressWarnings("rawtypes")
+	private int parseInt(Dictionary config, String key, int defaultValue) throws ConfigurationException {
+		String value = (String) config.get(key);
+		if(StringUtils.isBlank(value)) {
+			return defaultValue;
+		}
+		try {
+			int intValue = Integer.parseInt(value.trim());
+			if(intValue <= 0) {
+				throw new ConfigurationException(key, "The value must be a positive number.");
+			}
+			return intValue;
+		} catch (NumberFormatException e) {
+			throw new ConfigurationException(key, "The value '" + value + "' is not a valid number.");
+		}
+	}
 	
 }
@@ -30,12 +30,22 @@ package org.openhab.core.internal.items;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Dictionary;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.regex.Pattern;
 
+import org.apache.commons.lang.StringUtils;
 import org.openhab.core.events.EventPublisher;
 import org.openhab.core.items.GenericItem;
 import org.openhab.core.items.GroupItem;
@@ -46,6 +56,8 @@ import org.openhab.core.items.ItemProvider;
 import org.openhab.core.items.ItemRegistry;
 import org.openhab.core.items.ItemRegistryChangeListener;
 import org.openhab.core.items.ItemsChangeListener;
+import org.osgi.service.cm.ConfigurationException;
+import org.osgi.service.cm.ManagedService;
 import org.osgi.service.component.ComponentContext;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -60,16 +72,37 @@ import org.slf4j.LoggerFactory;
  * @since 0.1.0
  *
  */
-public class ItemRegistryImpl implements ItemRegistry, ItemsChangeListener {
+public class ItemRegistryImpl implements ItemRegistry, ItemsChangeListener, ManagedService {
 	
 	private static final Logger logger = LoggerFactory.getLogger(ItemRegistryImpl.class);
 
+	/** the pattern all valid item names must comply with */
+	private static final Pattern VALID_ITEM_NAME_PATTERN = Pattern.compile("[a-zA-Z0-9_]*");
+	
+	/** the maximum number of compiled search patterns which are kept in the pattern cache */
+	private static final int PATTERN_CACHE_SIZE = 100;
+
 	/** if an EventPublisher service is available, we provide it to all items, so that they can communicate over the bus */
 	protected EventPublisher eventPublisher;
 	
 	/** this is our local map in which we store all our items */
 	protected Map<ItemProvider, Collection<Item>> itemMap = new ConcurrentHashMap<ItemProvider, Collection<Item>>();
 	
+	/** an index of all registered items by their name, which allows constant time lookups */
+	protected ConcurrentMap<String, Item> itemsByName = new ConcurrentHashMap<String, Item>();
+	
+	/** a LRU cache of already compiled search patterns, keyed by their regular expression */
+	private final Map<String, Pattern> patternCache = new LinkedHashMap<String, Pattern>(16, 0.75f, true) {
+		private static final long serialVersionUID = -1847252364296744632L;
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Pattern> eldest) {
+			return size() > PATTERN_CACHE_SIZE;
+		}
+	};
+	
+	/** the scheduler for coalesced group state recalculations; <code>null</code>, if coalescing is not active */
+	private ScheduledExecutorService recalculationScheduler;
+	
 	/** to keep track of all item change listeners */
 	protected Collection<ItemRegistryChangeListener> listeners = new CopyOnWriteArraySet<ItemRegistryChangeListener>();
 
@@ -83,6 +116,8 @@ public class ItemRegistryImpl implements ItemRegistry, ItemsChangeListener {
 		}
 		// then release all items
 		itemMap.clear();
+		itemsByName.clear();
+		configureGroupRecalculation(0);
     }
 
 	/* (non-Javadoc)
@@ -90,10 +125,17 @@ public class ItemRegistryImpl implements ItemRegistry, ItemsChangeListener {
 	 */
     @Override
 	public Item getItem(String name) throws ItemNotFoundException {
-		for(Collection<Item> items : itemMap.values()) {
-			for(Item item : items) {
-				if(item.getName().matches(name)) {
-					return item;
+		Item item = itemsByName.get(name);
+		if(item!=null) {
+			return item;
+		}
+		// a valid item name can only ever match itself, but for backward
+		// compatibility we still accept regular expressions here
+		if(!isValidItemName(name)) {
+			Pattern pattern = getCompiledPattern(name);
+			for(Item candidate : itemsByName.values()) {
+				if(pattern.matcher(candidate.getName()).matches()) {
+					return candidate;
 				}
 			}
 		}
@@ -136,22 +178,41 @@ public class ItemRegistryImpl implements ItemRegistry, ItemsChangeListener {
 	 */
     @Override
 	public Collection<Item> getItems(String pattern) {
-		String regex = pattern.replace("?", ".?").replace("*", ".*?");
+		Pattern regex = getCompiledPattern(pattern.replace("?", ".?").replace("*", ".*?"));
 		Collection<Item> matchedItems = new ArrayList<Item>();
-		for(Collection<Item> items : itemMap.values()) {
-			for(Item item : items) {
-				if(item.getName().matches(regex)) {
-					matchedItems.add(item);
-				}
+		for(Item item : itemsByName.values()) {
+			if(regex.matcher(item.getName()).matches()) {
+				matchedItems.add(item);
 			}
 		}
         return matchedItems;
 	}
+	
+	/**
+	 * Returns the compiled form of the given regular expression. Compiled
+	 * patterns are kept in a LRU cache, so that repeated queries for the
+	 * same pattern do not need to recompile it. The cache is keyed by the
+	 * regular expression itself, as the same search string is interpreted
+	 * differently by {@link #getItem(String)} and {@link #getItems(String)}.
+	 * 
+	 * @param regex the regular expression to compile
+	 * @return the compiled pattern
+	 */
+	private Pattern getCompiledPattern(String regex) {
+		synchronized(patternCache) {
+			Pattern pattern = patternCache.get(regex);
+			if(pattern==null) {
+				pattern = Pattern.compile(regex);
+				patternCache.put(regex, pattern);
+			}
+			return pattern;
+		}
+	}
 
 	public void addItemProvider(ItemProvider itemProvider) {
 		// only add this provider if it does not already exist
 		if(!itemMap.containsKey(itemProvider)) {
-			Collection<Item> items = new CopyOnWriteArraySet<Item>(itemProvider.getItems());
+			Collection<Item> items = new CopyOnWriteArrayList<Item>(itemProvider.getItems());
 			itemProvider.addItemChangeListener(this);
         	itemMap.put(itemProvider, items);
 			logger.debug("Item provider '{}' has been added.", itemProvider.getClass().getSimpleName());
@@ -161,19 +222,20 @@ public class ItemRegistryImpl implements ItemRegistry, ItemsChangeListener {
 
     @Override
 	public boolean isValidItemName(String name) {
-		return name.matches("[a-zA-Z0-9_]*");
+		return VALID_ITEM_NAME_PATTERN.matcher(name).matches();
 	}
 
 	public void removeItemProvider(ItemProvider itemProvider) {
 		if(itemMap.containsKey(itemProvider)) {
 			allItemsChanged(itemProvider, null);
 
-			for(Item item : itemMap.get(itemProvider)) {
+			Collection<Item> items = itemMap.remove(itemProvider);
+			for(Item item : items) {
 				if(item instanceof GenericItem) {
 					((GenericItem) item).dispose();
 				}
 			}
-			itemMap.remove(itemProvider);
+			removeFromIndex(items);
 
 			itemProvider.removeItemChangeListener(this);
 			logger.debug("Item provider '{}' has been removed.", itemProvider.getClass().getSimpleName());
@@ -198,10 +260,9 @@ public class ItemRegistryImpl implements ItemRegistry, ItemsChangeListener {
 	public void allItemsChanged(ItemProvider provider, Collection<String> oldItemNames) {
 		// if the provider did not provide any old item names, we check if we
 		// know them and pass them further on to our listeners
+		Collection<Item> oldItems = itemMap.get(provider);
 		if(oldItemNames==null || oldItemNames.isEmpty()) {
 			oldItemNames = new HashSet<String>();
-            Collection<Item> oldItems;
-            oldItems = itemMap.get(provider);
 			if(oldItems!=null && oldItems.size() > 0) {
 				for(Item oldItem : oldItems) {
 					oldItemNames.add(oldItem.getName());
@@ -211,11 +272,18 @@ public class ItemRegistryImpl implements ItemRegistry, ItemsChangeListener {
 
 		Collection<Item> items = new CopyOnWriteArrayList<Item>();
     	itemMap.put(provider, items);
+    	if(oldItems!=null) {
+    		removeFromIndex(oldItems);
+    	}
+		// collect the items first, so that we copy them only once into the copy-on-write list
+		Collection<Item> initializedItems = new ArrayList<Item>();
 		for(Item item : provider.getItems()) {
 			if(initializeItem(item)) {
-				items.add(item);
+				initializedItems.add(item);
+				itemsByName.put(item.getName(), item);
 			}
 		}
+		items.addAll(initializedItems);
 
 		for(ItemRegistryChangeListener listener : listeners) {
 			listener.allItemsChanged(oldItemNames);
@@ -229,6 +297,7 @@ public class ItemRegistryImpl implements ItemRegistry, ItemsChangeListener {
 		if(items!=null) {
 			if(initializeItem(item)) {
 				items.add(item);
+				itemsByName.put(item.getName(), item);
 			} else {
 				return;
 			}
@@ -244,6 +313,7 @@ public class ItemRegistryImpl implements ItemRegistry, ItemsChangeListener {
         items = itemMap.get(provider);
 		if(items!=null) {
 			items.remove(item);
+			removeFromIndex(Collections.singleton(item));
 		}
 		for(ItemRegistryChangeListener listener : listeners) {
 			listener.itemRemoved(item);
@@ -260,6 +330,77 @@ public class ItemRegistryImpl implements ItemRegistry, ItemsChangeListener {
 		listeners.remove(listener);
 	}
 
+	/**
+	 * {@inheritDoc}
+	 */
+	@SuppressWarnings("rawtypes")
+	public void updated(Dictionary config) throws ConfigurationException {
+		long recalculationInterval = 0;
+		if(config!=null) {
+			String value = (String) config.get("groupinterval");
+			if(StringUtils.isNotBlank(value)) {
+				try {
+					recalculationInterval = Long.parseLong(value.trim());
+				} catch (NumberFormatException e) {
+					throw new ConfigurationException("groupinterval", "The value '" + value + "' is not a valid number.");
+				}
+			}
+		}
+		configureGroupRecalculation(recalculationInterval);
+	}
+
+	/**
+	 * Activates or deactivates the coalescing of group state recalculations. The
+	 * scheduler thread only exists while coalescing is active; recalculations
+	 * which are still pending on deactivation are executed before it terminates.
+	 * 
+	 * @param interval the coalescing interval in milliseconds, 0 to deactivate coalescing
+	 */
+	private synchronized void configureGroupRecalculation(long interval) {
+		if(interval > 0) {
+			if(recalculationScheduler==null) {
+				recalculationScheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+					public Thread newThread(Runnable runnable) {
+						Thread thread = new Thread(runnable, "openHAB Group State Calculator");
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+			}
+			GroupItem.setRecalculation(recalculationScheduler, interval);
+		} else {
+			GroupItem.setRecalculation(null, 0);
+			if(recalculationScheduler!=null) {
+				recalculationScheduler.shutdown();
+				recalculationScheduler = null;
+			}
+		}
+	}
+
+	/**
+	 * Removes the given items from the name index. If another provider still
+	 * provides an item with the same name, this one is indexed instead.
+	 * 
+	 * @param items the items to remove from the index
+	 */
+	private void removeFromIndex(Collection<Item> items) {
+		Set<String> removedNames = new HashSet<String>();
+		for(Item item : items) {
+			if(itemsByName.remove(item.getName(), item)) {
+				removedNames.add(item.getName());
+			}
+		}
+		if(!removedNames.isEmpty()) {
+			for(Collection<Item> providedItems : itemMap.values()) {
+				for(Item item : providedItems) {
+					if(removedNames.contains(item.getName())) {
+						itemsByName.putIfAbsent(item.getName(), item);
+					}
+				}
+			}
+		}
+	}
+
 	/**
 	 * an item should be initialized, which means that the event publisher is
 	 * injected and its implementation is notified that it has just been created,
@@ -278,7 +419,7 @@ public class ItemRegistryImpl implements ItemRegistry, ItemsChangeListener {
 			
 			if(item instanceof GroupItem) {
 				// fill group with its members 
-				for(Item i : getItems()) {
+				for(Item i : itemsByName.values()) {
 					if(i.getGroupNames().contains(item.getName())) {
 						((GroupItem)item).addMember(i);
 					}
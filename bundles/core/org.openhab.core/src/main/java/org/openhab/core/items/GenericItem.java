@@ -29,11 +29,7 @@
 package org.openhab.core.items;
 
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
-import java.util.Set;
-import java.util.WeakHashMap;
-import java.util.concurrent.CopyOnWriteArraySet;
 
 import org.openhab.core.events.EventPublisher;
 import org.openhab.core.types.Command;
@@ -53,7 +49,7 @@ abstract public class GenericItem implements Item {
 	
 	protected EventPublisher eventPublisher;
 
-	protected Set<StateChangeListener> listeners = new CopyOnWriteArraySet<StateChangeListener>(Collections.newSetFromMap(new WeakHashMap<StateChangeListener, Boolean>()));
+	protected final StateChangeListenerRegistry listeners = new StateChangeListenerRegistry();
 	
 	protected List<String> groupNames = new ArrayList<String>();
 	
@@ -121,17 +117,7 @@ abstract public class GenericItem implements Item {
 	}
 
 	private void notifyListeners(State oldState, State newState) {
-		// if nothing has changed, we send update notifications
-		Set<StateChangeListener> clonedListeners = null;
-		clonedListeners = new CopyOnWriteArraySet<StateChangeListener>(listeners);
-		for(StateChangeListener listener : clonedListeners) {
-			listener.stateUpdated(this, newState);
-		}
-		if(!oldState.equals(newState)) {
-			for(StateChangeListener listener : clonedListeners) {
-				listener.stateChanged(this, oldState, newState);
-			}
-		}
+		listeners.notifyListeners(this, oldState, newState);
 	}
 		
 	/**
@@ -144,16 +130,49 @@ abstract public class GenericItem implements Item {
 			"State=" + getState() + ")";
 	}
 
+	/**
+	 * Registers a listener for state updates and changes of this item. 
+	 * 
+	 * @param listener the listener to add
+	 */
 	public void addStateChangeListener(StateChangeListener listener) {
-		synchronized(listeners) {
-			listeners.add(listener);
-		}
+		listeners.add(listener);
+	}
+	
+	/**
+	 * Registers a listener for state updates and changes of this item, which
+	 * is only weakly referenced. This allows short-living listeners to be
+	 * garbage collected without being explicitly removed.
+	 * 
+	 * @param listener the listener to add
+	 */
+	public void addWeakStateChangeListener(StateChangeListener listener) {
+		listeners.addWeak(listener);
 	}
 	
 	public void removeStateChangeListener(StateChangeListener listener) {
-		synchronized(listeners) {
-			listeners.remove(listener);
-		}
+		listeners.remove(listener);
+	}
+	
+	/**
+	 * @return the number of listeners which are currently registered for this item
+	 */
+	public int getStateChangeListenerCount() {
+		return listeners.size();
+	}
+	
+	/**
+	 * @return the number of state updates that have been notified to the listeners of this item
+	 */
+	public long getNotificationCount() {
+		return listeners.getNotificationCount();
+	}
+
+	/**
+	 * @return the estimated accumulated time in nanoseconds that has been spent in the listeners of this item
+	 */
+	public long getNotificationTime() {
+		return listeners.getNotificationTime();
 	}
 	
 
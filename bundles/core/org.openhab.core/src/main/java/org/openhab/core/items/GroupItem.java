@@ -29,10 +29,16 @@
 package org.openhab.core.items;
 
 import java.util.ArrayList;
-import java.util.HashSet;
+import java.util.Collections;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Set;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.commons.collections.ListUtils;
 import org.openhab.core.types.Command;
@@ -44,11 +50,26 @@ public class GroupItem extends GenericItem implements StateChangeListener {
 	
 	private static final Logger logger = LoggerFactory.getLogger(GroupItem.class);
 	
+	/** the settings for coalesced recalculations; <code>null</code>, if the state is recalculated on every member update */
+	private static volatile Recalculation recalculation;
+	
 	protected final GenericItem baseItem;
 	
 	protected final List<Item> members;
 	
 	protected GroupFunction function;
+	
+	/** the cached result of {@link #getAllMembers()}; <code>null</code> if it needs to be recalculated */
+	private volatile List<Item> allMembers;
+	
+	/** whether a coalesced recalculation of the group state has already been scheduled */
+	private final AtomicBoolean recalculationPending = new AtomicBoolean(false);
+	
+	/** counts the member updates, so that a calculation never overwrites the result of a more recent one */
+	private final AtomicLong memberUpdates = new AtomicLong();
+	
+	/** the number of member updates the current group state is based on */
+	private long publishedUpdates = 0;
 
 	public GroupItem(String name) {
 		this(name, null);
@@ -90,28 +111,48 @@ public class GroupItem extends GenericItem implements StateChangeListener {
 	 * Returns the direct members of this {@link GroupItem} and recursively all
 	 * members of the potentially contained {@link GroupItem}s as well. The 
 	 * {@link GroupItem}s itself aren't contained. The returned items are unique.
+	 * The result is cached until the members of this group or of one of the
+	 * contained groups change; the returned list must therefore not be modified.
 	 * 
 	 * @return all members of this and all contained {@link GroupItem}s
 	 */
 	public List<Item> getAllMembers() {
-		Set<Item> allMembers = new HashSet<Item>();
-		collectMembers(allMembers, members);
-		return new ArrayList<Item>(allMembers);
+		List<Item> result = allMembers;
+		if (result == null) {
+			Set<Item> collectedMembers = new LinkedHashSet<Item>();
+			for (Item member : members) {
+				if (member instanceof GroupItem) {
+					collectedMembers.addAll(((GroupItem) member).getAllMembers());
+				}
+				else {
+					collectedMembers.add(member);
+				}
+			}
+			result = Collections.unmodifiableList(new ArrayList<Item>(collectedMembers));
+			allMembers = result;
+		}
+		return result;
 	}
 	
-	private void collectMembers(Set<Item> allMembers, List<Item> members) {
-		for (Item member : members) {
-			if (member instanceof GroupItem) {
-				collectMembers(allMembers, ((GroupItem) member).members);
-			}
-			else {
-				allMembers.add(member);
+	/**
+	 * Discards the cached members of this group and of all groups this
+	 * group is (directly or indirectly) a member of.
+	 */
+	private void invalidateAllMembers() {
+		if (allMembers != null) {
+			allMembers = null;
+			// parent groups are registered as listeners on their members
+			for (StateChangeListener listener : listeners.getListeners()) {
+				if (listener instanceof GroupItem) {
+					((GroupItem) listener).invalidateAllMembers();
+				}
 			}
 		}
 	}
 
 	public void addMember(Item item) {
 		members.add(item);
+		invalidateAllMembers();
 		if (item instanceof GenericItem) {
 			GenericItem genericItem = (GenericItem) item;
 			genericItem.addStateChangeListener(this);
@@ -120,6 +161,7 @@ public class GroupItem extends GenericItem implements StateChangeListener {
 	
 	public void removeMember(Item item) {
 		members.remove(item);
+		invalidateAllMembers();
 		if (item instanceof GenericItem) {
 			GenericItem genericItem = (GenericItem) item;
 			genericItem.removeStateChangeListener(this);
@@ -230,13 +272,91 @@ public class GroupItem extends GenericItem implements StateChangeListener {
 	 * @{inheritDoc
 	 */
 	public void stateChanged(Item item, State oldState, State newState) {
-		setState(function.calculate(members));
+		// nothing to do here, as every change has already been
+		// notified through stateUpdated() before
 	}
 
 	/**
 	 * @{inheritDoc
 	 */
 	public void stateUpdated(Item item, State state) {
-		setState(function.calculate(members));
+		memberUpdates.incrementAndGet();
+		Recalculation recalculation = GroupItem.recalculation;
+		if (recalculation != null) {
+			// a burst of member updates only leads to a single recalculation
+			if (recalculationPending.compareAndSet(false, true)) {
+				try {
+					recalculation.scheduler.schedule(new Runnable() {
+						public void run() {
+							recalculationPending.set(false);
+							recalculateState();
+						}
+					}, recalculation.interval, TimeUnit.MILLISECONDS);
+				} catch (RejectedExecutionException e) {
+					// coalescing has just been deactivated
+					recalculationPending.set(false);
+					recalculateState();
+				}
+			}
+		} else {
+			recalculateState();
+		}
+	}
+	
+	private void recalculateState() {
+		// the member states read by the calculation are at least as recent as this update count
+		long updates = memberUpdates.get();
+		try {
+			State newState = function.calculate(members);
+			synchronized (this) {
+				if (updates < publishedUpdates) {
+					// a concurrent calculation has already published a more recent state
+					return;
+				}
+				publishedUpdates = updates;
+				setState(newState);
+			}
+		} catch (RuntimeException e) {
+			logger.error("Error while calculating the state of group '" + getName() + "'", e);
+		}
+	}
+	
+	/**
+	 * Configures whether member updates should be coalesced. If a scheduler is given
+	 * and the interval is greater than 0, the group state is recalculated at most once
+	 * within this interval, no matter how many member updates have been received in the
+	 * meantime. This considerably reduces the load for big groups whose members are
+	 * updated in bursts (e.g. by polling bindings), at the cost of a slightly delayed
+	 * group state.
+	 * 
+	 * <p>The scheduler is owned by the caller, which has to shut it down once it
+	 * deactivates coalescing again.</p>
+	 * 
+	 * @param scheduler the scheduler which executes the recalculations, <code>null</code>
+	 * to recalculate on every member update
+	 * @param interval the interval in milliseconds, 0 to recalculate on every member update
+	 */
+	public static void setRecalculation(ScheduledExecutorService scheduler, long interval) {
+		if (scheduler != null && interval > 0) {
+			recalculation = new Recalculation(scheduler, interval);
+		} else {
+			recalculation = null;
+		}
+	}
+	
+	/**
+	 * The scheduler and interval for coalesced recalculations, which are
+	 * kept together so that they are always read consistently.
+	 */
+	private static class Recalculation {
+		
+		final ScheduledExecutorService scheduler;
+		
+		final long interval;
+		
+		Recalculation(ScheduledExecutorService scheduler, long interval) {
+			this.scheduler = scheduler;
+			this.interval = interval;
+		}
 	}
 }
@@ -0,0 +1,256 @@
+/**
+ * openHAB, the open Home Automation Bus.
+ * Copyright (C) 2010-2013, openHAB.org <admin@openhab.org>
+ *
+ * See the contributors.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation; either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ *
+ * Additional permission under GNU GPL version 3 section 7
+ *
+ * If you modify this Program, or any covered work, by linking or
+ * combining it with Eclipse (or a modified version of that library),
+ * containing parts covered by the terms of the Eclipse Public License
+ * (EPL), the licensors of this Program grant you additional permission
+ * to convey the resulting work.
+ */
+package org.openhab.core.items;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import org.openhab.core.types.State;
+
+/**
+ * Keeps track of the {@link StateChangeListener}s of a single item. 
+ * 
+ * <p>Listeners are kept in an array which is replaced on every registration
+ * change, so that listeners can be notified by iterating over an immutable
+ * snapshot without any allocation or locking.</p>
+ * 
+ * <p>Listeners can also be registered weakly, so that the registration does
+ * not prevent them from being garbage collected. Such registrations are
+ * removed lazily, once a notification comes across a collected listener.</p>
+ * 
+ * <p>Additionally, the registry counts the notifications and estimates the
+ * time spent in the listeners. As reading the system timer is not for free,
+ * only every {@link #TIME_SAMPLING_RATE}th notification is actually measured.</p>
+ * 
+ * @author Kai Kreuzer
+ * @since 1.4.0
+ */
+public final class StateChangeListenerRegistry {
+
+	private static final StateChangeListener[] NO_LISTENERS = new StateChangeListener[0];
+	
+	/** the notification time is measured for every n-th notification only (must be a power of 2) */
+	static final int TIME_SAMPLING_RATE = 8;
+	
+	private volatile StateChangeListener[] listeners = NO_LISTENERS;
+	
+	/** is set, if a notification came across a weak listener that has been garbage collected */
+	private volatile boolean containsStaleReferences = false;
+	
+	private volatile long notificationCount = 0;
+	
+	private volatile long notificationTime = 0;
+	
+
+	/**
+	 * Registers a listener. Nothing happens, if the listener is already registered.
+	 * 
+	 * @param listener the listener to add
+	 */
+	public void add(StateChangeListener listener) {
+		add(listener, listener);
+	}
+	
+	/**
+	 * Registers a listener, which is only weakly referenced. Nothing happens, if the 
+	 * listener is already registered.
+	 * 
+	 * @param listener the listener to add
+	 */
+	public void addWeak(StateChangeListener listener) {
+		add(listener, new WeakStateChangeListener(listener));
+	}
+
+	private synchronized void add(StateChangeListener listener, StateChangeListener registration) {
+		List<StateChangeListener> newListeners = copyWithout(null);
+		for(StateChangeListener existingRegistration : newListeners) {
+			if(listener.equals(unwrap(existingRegistration))) {
+				return;
+			}
+		}
+		newListeners.add(registration);
+		setListeners(newListeners);
+	}
+	
+	/**
+	 * Unregisters a listener, regardless whether it has been registered weakly or not.
+	 * 
+	 * @param listener the listener to remove
+	 */
+	public synchronized void remove(StateChangeListener listener) {
+		setListeners(copyWithout(listener));
+	}
+	
+	/**
+	 * @return all currently registered listeners
+	 */
+	public Collection<StateChangeListener> getListeners() {
+		StateChangeListener[] snapshot = listeners;
+		Collection<StateChangeListener> result = new ArrayList<StateChangeListener>(snapshot.length);
+		for(StateChangeListener registration : snapshot) {
+			StateChangeListener listener = unwrap(registration);
+			if(listener!=null) {
+				result.add(listener);
+			}
+		}
+		return result;
+	}
+	
+	/**
+	 * @return the number of currently registered listeners; weakly registered listeners
+	 * which have been garbage collected are counted until the next notification
+	 */
+	public int size() {
+		return listeners.length;
+	}
+	
+	/**
+	 * Notifies all listeners about a state update and, if the state
+	 * has changed, about the state change as well.
+	 * 
+	 * @param item the item whose state has been updated
+	 * @param oldState the previous state
+	 * @param newState the new state
+	 */
+	public void notifyListeners(Item item, State oldState, State newState) {
+		// we do not care about lost updates of these statistics in case of concurrent notifications
+		long count = notificationCount++;
+		boolean measure = (count & (TIME_SAMPLING_RATE - 1)) == 0;
+		long start = measure ? System.nanoTime() : 0;
+		
+		StateChangeListener[] snapshot = listeners;
+		for(StateChangeListener listener : snapshot) {
+			listener.stateUpdated(item, newState);
+		}
+		if(!oldState.equals(newState)) {
+			for(StateChangeListener listener : snapshot) {
+				listener.stateChanged(item, oldState, newState);
+			}
+		}
+		if(measure) {
+			notificationTime += (System.nanoTime() - start) * TIME_SAMPLING_RATE;
+		}
+		
+		if(containsStaleReferences) {
+			purge();
+		}
+	}
+	
+	/**
+	 * @return the number of notifications that have been sent so far
+	 */
+	public long getNotificationCount() {
+		return notificationCount;
+	}
+
+	/**
+	 * @return the (estimated) accumulated time in nanoseconds that has been spent for notifying listeners
+	 */
+	public long getNotificationTime() {
+		return notificationTime;
+	}
+
+	/**
+	 * Clears the references of all weakly registered listeners, just like the garbage
+	 * collector would do once the listeners are not strongly referenced anymore.
+	 * This is only meant to be used by tests.
+	 */
+	void clearWeakReferences() {
+		for(StateChangeListener registration : listeners) {
+			if(registration instanceof WeakStateChangeListener) {
+				((WeakStateChangeListener) registration).clear();
+			}
+		}
+	}
+
+	private synchronized void purge() {
+		containsStaleReferences = false;
+		setListeners(copyWithout(null));
+	}
+
+	/**
+	 * Copies all registrations except the ones of the given listener and of
+	 * weak listeners which have been garbage collected.
+	 */
+	private List<StateChangeListener> copyWithout(StateChangeListener listener) {
+		List<StateChangeListener> copy = new ArrayList<StateChangeListener>(listeners.length + 1);
+		for(StateChangeListener registration : listeners) {
+			StateChangeListener existingListener = unwrap(registration);
+			if(existingListener!=null && !existingListener.equals(listener)) {
+				copy.add(registration);
+			}
+		}
+		return copy;
+	}
+
+	private void setListeners(List<StateChangeListener> newListeners) {
+		listeners = newListeners.isEmpty() ? NO_LISTENERS : newListeners.toArray(new StateChangeListener[newListeners.size()]);
+	}
+	
+	private static StateChangeListener unwrap(StateChangeListener registration) {
+		if(registration instanceof WeakStateChangeListener) {
+			return ((WeakStateChangeListener) registration).get();
+		} else {
+			return registration;
+		}
+	}
+	
+	
+	/**
+	 * Delegates all notifications to a weakly referenced listener.
+	 */
+	private class WeakStateChangeListener extends WeakReference<StateChangeListener> implements StateChangeListener {
+
+		public WeakStateChangeListener(StateChangeListener listener) {
+			super(listener);
+		}
+
+		public void stateChanged(Item item, State oldState, State newState) {
+			StateChangeListener listener = get();
+			if(listener!=null) {
+				listener.stateChanged(item, oldState, newState);
+			} else {
+				containsStaleReferences = true;
+			}
+		}
+
+		public void stateUpdated(Item item, State state) {
+			StateChangeListener listener = get();
+			if(listener!=null) {
+				listener.stateUpdated(item, state);
+			} else {
+				containsStaleReferences = true;
+			}
+		}
+		
+	}
+
+}
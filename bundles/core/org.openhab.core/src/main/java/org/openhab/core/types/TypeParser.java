@@ -30,17 +30,29 @@ package org.openhab.core.types;
 
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * This is a helper class that helps parsing a string into an openHAB type (state or command).
  * 
+ * <p>The parse function of every type is resolved only once and then kept in a registry.
+ * Enum types (like OnOffType) are parsed by a lookup in a map of their constants, so
+ * that no reflection and no exceptions are involved for them at all.</p>
+ * 
  * @author Kai Kreuzer
  * @since 0.1.0
  *
  */
 public class TypeParser {
 
+	/** the registry of parsers, keyed by the type class */
+	private static final ConcurrentMap<Class<?>, ValueParser> parsers = new ConcurrentHashMap<Class<?>, ValueParser>();
+
 	/**
 	 * <p>Determines a state from a string. Possible state types are passed as a parameter.
 	 * Note that the order matters here; the first type that accepts the string as a valid
@@ -55,15 +67,8 @@ public class TypeParser {
 	 */
 	public static State parseState(List<Class<? extends State>> types, String s) {
 		for(Class<? extends Type> type : types) {
-			try {									
-				Method valueOf = type.getMethod("valueOf", String.class);
-				State state = (State) valueOf.invoke(type, s);
-				if(state!=null) return state;
-			} catch (NoSuchMethodException e) {
-			} catch (IllegalArgumentException e) {
-			} catch (IllegalAccessException e) {
-			} catch (InvocationTargetException e) {
-			}
+			Object state = getParser(type).parse(s);
+			if(state instanceof State) return (State) state;
 		}
 		return null;
 	}
@@ -82,16 +87,99 @@ public class TypeParser {
 	 */
 	public static Command parseCommand(List<Class<? extends Command>> types, String s) {
 		for(Class<? extends Command> type : types) {
-			try {									
-				Method valueOf = type.getMethod("valueOf", String.class);
-				Command value = (Command) valueOf.invoke(type, s);
-				if(value!=null) return value;
-			} catch (NoSuchMethodException e) {
+			Object value = getParser(type).parse(s);
+			if(value instanceof Command) return (Command) value;
+		}
+		return null;
+	}
+
+	/**
+	 * Returns the parser for a given type class, resolving it on first use.
+	 * 
+	 * @param type the type class
+	 * @return the parser for this type, never <code>null</code>
+	 */
+	private static ValueParser getParser(Class<?> type) {
+		ValueParser parser = parsers.get(type);
+		if(parser==null) {
+			parser = createParser(type);
+			parsers.putIfAbsent(type, parser);
+		}
+		return parser;
+	}
+
+	private static ValueParser createParser(Class<?> type) {
+		if(type.isEnum()) {
+			return new EnumParser(type.getEnumConstants());
+		}
+		try {
+			Method valueOf = type.getMethod("valueOf", String.class);
+			if(Modifier.isStatic(valueOf.getModifiers())) {
+				return new MethodParser(valueOf);
+			}
+		} catch (NoSuchMethodException e) {
+		} catch (SecurityException e) {
+		}
+		return NO_PARSER;
+	}
+
+	/**
+	 * A parse function of a single type.
+	 */
+	private interface ValueParser {
+		
+		/**
+		 * @param s the string to parse
+		 * @return the parsed value or <code>null</code>, if the string is not valid for this type
+		 */
+		Object parse(String s);
+	}
+
+	/** the parser for types which do not provide a valueOf method */
+	private static final ValueParser NO_PARSER = new ValueParser() {
+		public Object parse(String s) {
+			return null;
+		}
+	};
+
+	/**
+	 * Parses enum types by a lookup of the constant names; this is equivalent 
+	 * to <code>Enum.valueOf()</code>, but does not throw exceptions for unknown names.
+	 */
+	private static class EnumParser implements ValueParser {
+		
+		private final Map<String, Object> constants = new HashMap<String, Object>();
+		
+		public EnumParser(Object[] enumConstants) {
+			for(Object constant : enumConstants) {
+				constants.put(((Enum<?>) constant).name(), constant);
+			}
+		}
+		
+		public Object parse(String s) {
+			return constants.get(s);
+		}
+	}
+
+	/**
+	 * Parses types through their static <code>valueOf(String)</code> method.
+	 */
+	private static class MethodParser implements ValueParser {
+
+		private final Method valueOf;
+
+		public MethodParser(Method valueOf) {
+			this.valueOf = valueOf;
+		}
+
+		public Object parse(String s) {
+			try {
+				return valueOf.invoke(null, s);
 			} catch (IllegalArgumentException e) {
 			} catch (IllegalAccessException e) {
 			} catch (InvocationTargetException e) {
-			}		
+			}
+			return null;
 		}
-		return null;
 	}
 }
@@ -0,0 +1,189 @@
+/**
+ * openHAB, the open Home Automation Bus.
+ * Copyright (C) 2010-2013, openHAB.org <admin@openhab.org>
+ *
+ * See the contributors.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation; either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ *
+ * Additional permission under GNU GPL version 3 section 7
+ *
+ * If you modify this Program, or any covered work, by linking or
+ * combining it with Eclipse (or a modified version of that library),
+ * containing parts covered by the terms of the Eclipse Public License
+ * (EPL), the licensors of this Program grant you additional permission
+ * to convey the resulting work.
+ */
+package org.openhab.io.net.http;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * A minimal HTTP/1.1 server for tests, which keeps connections alive and counts
+ * the connections and requests it receives. It serves the following resources:
+ * <ul>
+ * <li><code>/hello</code>: the text "Hello World"</li>
+ * <li><code>/slow</code>: the text "Slow" after 100ms</li>
+ * <li><code>/large</code>: {@link #LARGE_BODY_SIZE} bytes</li>
+ * <li><code>/etag</code>: the text "Tagged" with an ETag, or <code>304 Not Modified</code>
+ * for a conditional request with that ETag</li>
+ * </ul>
+ * All other resources are answered with <code>500 Internal Server Error</code>.
+ * 
+ * @author Kai Kreuzer
+ * @since 1.4.0
+ */
+public class HttpTestServer extends Thread {
+	
+	public static final int LARGE_BODY_SIZE = 5 * 1024 * 1024;
+	
+	private final ServerSocket serverSocket;
+	
+	private final List<Socket> sockets = new ArrayList<Socket>();
+	
+	public final AtomicInteger connections = new AtomicInteger();
+	
+	public final AtomicInteger requests = new AtomicInteger();
+	
+	public final AtomicInteger concurrentRequests = new AtomicInteger();
+	
+	public final AtomicInteger maxConcurrentRequests = new AtomicInteger();
+	
+	public final AtomicInteger notModified = new AtomicInteger();
+	
+	public HttpTestServer() throws IOException {
+		serverSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+		setDaemon(true);
+	}
+	
+	public int getPort() {
+		return serverSocket.getLocalPort();
+	}
+	
+	public String getUrl(String path) {
+		return "http://127.0.0.1:" + getPort() + path;
+	}
+
+	@Override
+	public void run() {
+		while (true) {
+			try {
+				final Socket socket = serverSocket.accept();
+				socket.setTcpNoDelay(true);
+				connections.incrementAndGet();
+				synchronized (sockets) {
+					sockets.add(socket);
+				}
+				Thread connection = new Thread() {
+					public void run() {
+						try {
+							serve(socket);
+						} catch (IOException e) {
+							// the client has closed the connection
+						}
+					}
+				};
+				connection.setDaemon(true);
+				connection.start();
+			} catch (IOException e) {
+				return;
+			}
+		}
+	}
+	
+	/**
+	 * Stops the server and closes all open connections.
+	 */
+	public void shutdown() throws IOException {
+		serverSocket.close();
+		synchronized (sockets) {
+			for (Socket socket : sockets) {
+				socket.close();
+			}
+		}
+	}
+
+	private void serve(Socket socket) throws IOException {
+		BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), "ISO-8859-1"));
+		OutputStream out = socket.getOutputStream();
+		String requestLine;
+		while ((requestLine = in.readLine()) != null) {
+			Map<String, String> headers = new HashMap<String, String>();
+			String line;
+			while ((line = in.readLine()) != null && line.length() > 0) {
+				int colon = line.indexOf(':');
+				headers.put(line.substring(0, colon).trim().toLowerCase(), line.substring(colon + 1).trim());
+			}
+			requests.incrementAndGet();
+			String path = requestLine.split(" ")[1];
+			
+			if (path.equals("/hello")) {
+				respond(out, "200 OK", "", "Hello World".getBytes());
+			} else if (path.equals("/slow")) {
+				int concurrent = concurrentRequests.incrementAndGet();
+				synchronized (maxConcurrentRequests) {
+					maxConcurrentRequests.set(Math.max(maxConcurrentRequests.get(), concurrent));
+				}
+				try {
+					Thread.sleep(100);
+				} catch (InterruptedException e) {
+				}
+				concurrentRequests.decrementAndGet();
+				respond(out, "200 OK", "", "Slow".getBytes());
+			} else if (path.equals("/large")) {
+				byte[] body = new byte[LARGE_BODY_SIZE];
+				respond(out, "200 OK", "", body);
+			} else if (path.equals("/etag")) {
+				if ("\"1\"".equals(headers.get("if-none-match"))) {
+					notModified.incrementAndGet();
+					respond(out, "304 Not Modified", "ETag: \"1\"\r\n", null);
+				} else {
+					respond(out, "200 OK", "ETag: \"1\"\r\n", "Tagged".getBytes());
+				}
+			} else {
+				respond(out, "500 Internal Server Error", "", "Error".getBytes());
+			}
+		}
+	}
+	
+	private void respond(OutputStream out, String status, String headers, byte[] body) throws IOException {
+		StringBuilder response = new StringBuilder("HTTP/1.1 ").append(status).append("\r\n").append(headers);
+		if (body != null) {
+			response.append("Content-Type: text/plain\r\nContent-Length: ").append(body.length).append("\r\n");
+		}
+		response.append("\r\n");
+		byte[] head = response.toString().getBytes("ISO-8859-1");
+		byte[] message = new byte[head.length + (body != null ? body.length : 0)];
+		System.arraycopy(head, 0, message, 0, head.length);
+		if (body != null) {
+			System.arraycopy(body, 0, message, head.length, body.length);
+		}
+		out.write(message);
+		out.flush();
+	}
+
+}
@@ -0,0 +1,196 @@
+/**
+ * openHAB, the open Home Automation Bus.
+ * Copyright (C) 2010-2013, openHAB.org <admin@openhab.org>
+ *
+ * See the contributors.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation; either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ *
+ * Additional permission under GNU GPL version 3 section 7
+ *
+ * If you modify this Program, or any covered work, by linking or
+ * combining it with Eclipse (or a modified version of that library),
+ * containing parts covered by the terms of the Eclipse Public License
+ * (EPL), the licensors of this Program grant you additional permission
+ * to convey the resulting work.
+ */
+package org.openhab.io.net.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Future;
+
+import org.apache.commons.httpclient.HttpClient;
+import org.apache.commons.httpclient.HttpMethod;
+import org.apache.commons.httpclient.methods.GetMethod;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+
+/**
+ * Tests the shared connection pool of {@link HttpUtil} against an embedded 
+ * {@link HttpTestServer}, which counts the connections it accepts.
+ * 
+ * @author Kai Kreuzer
+ * @since 1.4.0
+ */
+public class PooledHttpUtilTest {
+	
+	private HttpTestServer server;
+	
+	@Before
+	public void setup() throws IOException {
+		server = new HttpTestServer();
+		server.start();
+	}
+	
+	@After
+	public void shutdown() throws IOException {
+		server.shutdown();
+	}
+
+	@Test
+	public void testConnectionsAreReused() {
+		for (int i = 0; i < 20; i++) {
+			assertEquals("Hello World", HttpUtil.executeUrl("GET", server.getUrl("/hello"), 5000));
+		}
+		assertEquals(20, server.requests.get());
+		assertEquals(1, server.connections.get());
+	}
+	
+	@Test
+	public void testPooledRequestsReuseConnections() throws IOException {
+		int requests = 20;
+		for (int i = 0; i < requests; i++) {
+			HttpClient client = new HttpClient();
+			HttpMethod method = new GetMethod(server.getUrl("/hello"));
+			try {
+				client.executeMethod(method);
+				method.getResponseBodyAsString();
+			} finally {
+				method.releaseConnection();
+			}
+		}
+		// every new client opens a connection of its own
+		assertEquals(requests, server.connections.get());
+		
+		for (int i = 0; i < requests; i++) {
+			assertEquals("Hello World", HttpUtil.executeUrl("GET", server.getUrl("/hello"), 5000));
+		}
+		// whereas all pooled requests are sent over a single connection
+		assertEquals(2 * requests, server.requests.get());
+		assertEquals(requests + 1, server.connections.get());
+		assertEquals(requests, HttpUtil.getMetrics().get("127.0.0.1:" + server.getPort()).getRequestCount());
+	}
+
+	@Test
+	public void testConnectionsPerHostAreLimited() throws Exception {
+		List<Future<String>> responses = new ArrayList<Future<String>>();
+		for (int i = 0; i < 30; i++) {
+			responses.add(HttpUtil.executeUrlAsync("GET", server.getUrl("/slow"), null, null, null, 5000));
+		}
+		for (Future<String> response : responses) {
+			assertEquals("Slow", response.get());
+		}
+		assertTrue(server.maxConcurrentRequests.get() > 1);
+		assertTrue(server.maxConcurrentRequests.get() <= 10);
+		assertTrue(server.connections.get() <= 10);
+	}
+
+	@Test
+	public void testResponseIsStreamed() {
+		Integer size = HttpUtil.executeUrl("GET", server.getUrl("/large"), null, null, null, 5000, 
+			new HttpResponseHandler<Integer>() {
+				public Integer handleResponse(HttpMethod method) throws IOException {
+					InputStream body = method.getResponseBodyAsStream();
+					byte[] buffer = new byte[8192];
+					int size = 0;
+					int read;
+					while ((read = body.read(buffer)) != -1) {
+						size += read;
+					}
+					return size;
+				}
+			});
+		assertEquals(HttpTestServer.LARGE_BODY_SIZE, size.intValue());
+		
+		// the connection can be used again after the body has been consumed
+		assertEquals("Hello World", HttpUtil.executeUrl("GET", server.getUrl("/hello"), 5000));
+		assertEquals(1, server.connections.get());
+	}
+
+	@Test
+	public void testConditionalGet() {
+		CachedHttpResponse cachedResponse = new CachedHttpResponse();
+		assertEquals("Tagged", HttpUtil.executeConditionalGet(server.getUrl("/etag"), null, 5000, cachedResponse));
+		assertFalse(cachedResponse.isNotModified());
+		
+		assertEquals("Tagged", HttpUtil.executeConditionalGet(server.getUrl("/etag"), null, 5000, cachedResponse));
+		assertTrue(cachedResponse.isNotModified());
+		assertEquals(1, server.notModified.get());
+	}
+
+	@Test
+	public void testHostMetrics() {
+		HttpUtil.executeUrl("GET", server.getUrl("/hello"), 5000);
+		HttpUtil.executeUrl("GET", server.getUrl("/error"), 5000);
+		
+		HttpUtil.HostMetrics metrics = HttpUtil.getMetrics().get("127.0.0.1:" + server.getPort());
+		assertEquals(2, metrics.getRequestCount());
+		assertEquals(1, metrics.getErrorCount());
+	}
+
+	@Test
+	public void testShutdownStopsSharedThreads() throws Exception {
+		assertEquals("Hello World", HttpUtil.executeUrlAsync("GET", server.getUrl("/hello"), null, null, null, 5000).get());
+		HttpUtil.shutdown();
+		
+		long timeout = System.currentTimeMillis() + 5000;
+		while (isThreadAlive("openHAB HTTP ")) {
+			assertTrue("the shared threads have not been stopped", System.currentTimeMillis() < timeout);
+			Thread.sleep(10);
+		}
+		
+		// the shared connections are set up again by the next request
+		assertEquals("Hello World", HttpUtil.executeUrl("GET", server.getUrl("/hello"), 5000));
+		assertEquals(2, server.connections.get());
+	}
+
+	@Test
+	public void testUnreachableHost() throws IOException {
+		String url = server.getUrl("/hello");
+		server.shutdown();
+		assertNull(HttpUtil.executeUrl("GET", url, 1000));
+		assertEquals(1, HttpUtil.getMetrics().get("127.0.0.1:" + server.getPort()).getErrorCount());
+	}
+	
+	private boolean isThreadAlive(String namePrefix) {
+		for (Thread thread : Thread.getAllStackTraces().keySet()) {
+			if (thread.isAlive() && thread.getName().startsWith(namePrefix)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+}
@@ -0,0 +1,84 @@
+/**
+ * openHAB, the open Home Automation Bus.
+ * Copyright (C) 2010-2013, openHAB.org <admin@openhab.org>
+ *
+ * See the contributors.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation; either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ *
+ * Additional permission under GNU GPL version 3 section 7
+ *
+ * If you modify this Program, or any covered work, by linking or
+ * combining it with Eclipse (or a modified version of that library),
+ * containing parts covered by the terms of the Eclipse Public License
+ * (EPL), the licensors of this Program grant you additional permission
+ * to convey the resulting work.
+ */
+package org.openhab.io.net.http;
+
+/**
+ * Keeps the body and the validators (<code>ETag</code> and <code>Last-Modified</code>)
+ * of the last response for a URL, so that repeated GET requests can be sent as
+ * conditional requests by {@link HttpUtil#executeConditionalGet(String, java.util.Properties, int, CachedHttpResponse)}.
+ * If the server answers with <code>304 Not Modified</code>, the cached body is used
+ * again.
+ * 
+ * @author Kai Kreuzer
+ * @since 1.4.0
+ */
+public class CachedHttpResponse {
+
+	String body;
+	
+	String etag;
+	
+	String lastModified;
+	
+	boolean notModified = false;
+
+	/**
+	 * @return the body of the last successful response or <code>null</code>, if there is none
+	 */
+	public String getBody() {
+		return body;
+	}
+
+	/**
+	 * @return <code>true</code>, if the server has answered the last request with 
+	 * <code>304 Not Modified</code>, so that the cached body has been used
+	 */
+	public boolean isNotModified() {
+		return notModified;
+	}
+	
+	/**
+	 * @return <code>true</code>, if the last response provided an <code>ETag</code> 
+	 * or a <code>Last-Modified</code> header
+	 */
+	boolean hasValidators() {
+		return body != null && (etag != null || lastModified != null);
+	}
+
+	/**
+	 * Forgets the last response, so that the next request is sent unconditionally.
+	 */
+	void clear() {
+		body = null;
+		etag = null;
+		lastModified = null;
+		notModified = false;
+	}
+
+}
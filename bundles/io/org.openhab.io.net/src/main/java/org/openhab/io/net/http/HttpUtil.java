@@ -32,7 +32,18 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.Collections;
+import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -43,6 +54,7 @@ import org.apache.commons.httpclient.HttpClient;
 import org.apache.commons.httpclient.HttpException;
 import org.apache.commons.httpclient.HttpMethod;
 import org.apache.commons.httpclient.HttpStatus;
+import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
 import org.apache.commons.httpclient.URIException;
 import org.apache.commons.httpclient.UsernamePasswordCredentials;
 import org.apache.commons.httpclient.auth.AuthScope;
@@ -52,7 +64,9 @@ import org.apache.commons.httpclient.methods.GetMethod;
 import org.apache.commons.httpclient.methods.InputStreamRequestEntity;
 import org.apache.commons.httpclient.methods.PostMethod;
 import org.apache.commons.httpclient.methods.PutMethod;
+import org.apache.commons.httpclient.params.HttpConnectionManagerParams;
 import org.apache.commons.httpclient.params.HttpMethodParams;
+import org.apache.commons.httpclient.util.IdleConnectionTimeoutThread;
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang.StringUtils;
 import org.slf4j.Logger;
@@ -73,6 +87,103 @@ public class HttpUtil {
 	/** {@link Pattern} which matches the credentials out of an URL */ 
 	private static final Pattern URL_CREDENTIALS_PATTERN = Pattern.compile("http://(.*?):(.*?)@.*");
 	
+	/** the maximum number of connections which are kept open to a single host */
+	private static final int MAX_CONNECTIONS_PER_HOST = 10;
+	
+	/** the maximum number of connections which are kept open to all hosts */
+	private static final int MAX_TOTAL_CONNECTIONS = 100;
+	
+	/** the time in milliseconds after which an unused connection is closed */
+	private static final long IDLE_CONNECTION_TIMEOUT = 30000L;
+	
+	/** the connections which are shared (and kept alive) by all requests; created on first use */
+	private static MultiThreadedHttpConnectionManager connectionManager = null;
+	
+	/** closes the connections which haven't been used for {@link #IDLE_CONNECTION_TIMEOUT} */
+	private static IdleConnectionTimeoutThread idleConnectionTimeoutThread = null;
+	
+	/** executes the asynchronous requests, the number of concurrent requests is limited by the connection manager */
+	private static ExecutorService asyncExecutor = null;
+	
+	private static final ConcurrentMap<String, HostMetrics> metrics = new ConcurrentHashMap<String, HostMetrics>();
+	
+	/** reads the whole response body into a String */
+	private static final HttpResponseHandler<String> STRING_RESPONSE_HANDLER = new HttpResponseHandler<String>() {
+		public String handleResponse(HttpMethod method) throws IOException {
+			if (method.getStatusCode() != HttpStatus.SC_OK) {
+				logger.warn("Method failed: " + method.getStatusLine());
+			}
+
+			InputStream responseStream = method.getResponseBodyAsStream();
+			String responseBody = responseStream != null ? IOUtils.toString(responseStream) : "";
+			if (!responseBody.isEmpty()) {
+				logger.debug(responseBody);
+			}
+			
+			return responseBody;
+		}
+	};
+	
+	/**
+	 * Returns the shared connection manager and starts the thread which closes its 
+	 * idle connections, if this has not been done yet.
+	 * 
+	 * @return the connection manager for all requests
+	 */
+	private static synchronized MultiThreadedHttpConnectionManager getConnectionManager() {
+		if (connectionManager == null) {
+			connectionManager = new MultiThreadedHttpConnectionManager();
+			HttpConnectionManagerParams params = connectionManager.getParams();
+			params.setDefaultMaxConnectionsPerHost(MAX_CONNECTIONS_PER_HOST);
+			params.setMaxTotalConnections(MAX_TOTAL_CONNECTIONS);
+			
+			idleConnectionTimeoutThread = new IdleConnectionTimeoutThread();
+			idleConnectionTimeoutThread.setName("openHAB HTTP Idle Connection Timeout");
+			idleConnectionTimeoutThread.addConnectionManager(connectionManager);
+			idleConnectionTimeoutThread.setConnectionTimeout(IDLE_CONNECTION_TIMEOUT);
+			idleConnectionTimeoutThread.setTimeoutInterval(IDLE_CONNECTION_TIMEOUT / 2);
+			idleConnectionTimeoutThread.start();
+		}
+		return connectionManager;
+	}
+	
+	/**
+	 * @return the executor for asynchronous requests, which is created on first use
+	 */
+	private static synchronized ExecutorService getAsyncExecutor() {
+		if (asyncExecutor == null) {
+			asyncExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+				private final AtomicInteger count = new AtomicInteger();
+				public Thread newThread(Runnable runnable) {
+					Thread thread = new Thread(runnable, "openHAB HTTP Request " + count.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		return asyncExecutor;
+	}
+	
+	/**
+	 * Stops the threads and closes the connections, which are shared by all requests. 
+	 * This is called when the bundle is stopped, so that no thread outlives it; any 
+	 * later request starts them again.
+	 */
+	public static synchronized void shutdown() {
+		if (idleConnectionTimeoutThread != null) {
+			idleConnectionTimeoutThread.shutdown();
+			idleConnectionTimeoutThread = null;
+		}
+		if (asyncExecutor != null) {
+			asyncExecutor.shutdown();
+			asyncExecutor = null;
+		}
+		if (connectionManager != null) {
+			connectionManager.shutdown();
+			connectionManager = null;
+		}
+	}
+	
 
 	/**
 	 * Executes the given <code>url</code> with the given <code>httpMethod</code>.
@@ -124,6 +235,110 @@ public class HttpUtil {
 	 * @return the response body or <code>NULL</code> when the request went wrong
 	 */
 	public static String executeUrl(String httpMethod, String url, Properties httpHeaders, InputStream content, String contentType, int timeout) {
+		return executeUrl(httpMethod, url, httpHeaders, content, contentType, timeout, STRING_RESPONSE_HANDLER);
+	}
+	
+	/**
+	 * Executes the given <code>url</code> with the given <code>httpMethod</code> 
+	 * asynchronously on a shared pool of threads.
+	 * Furthermore the <code>http.proxyXXX</code> System variables are read and
+	 * set into the {@link HttpClient}.
+	 * 
+	 * @param httpMethod the HTTP method to use
+	 * @param url the url to execute
+	 * @param httpHeaders optional http request headers which has to be sent within request 
+	 * @param content the content to be send to the given <code>url</code> or 
+	 * <code>null</code> if no content should be send.
+	 * @param contentType the content type of the given <code>content</code>
+	 * @param timeout the socket timeout to wait for data
+	 * 
+	 * @return a future for the response body, whose result is <code>NULL</code> when the request went wrong
+	 */
+	public static Future<String> executeUrlAsync(final String httpMethod, final String url, final Properties httpHeaders, 
+			final InputStream content, final String contentType, final int timeout) {
+		return getAsyncExecutor().submit(new Callable<String>() {
+			public String call() {
+				return executeUrl(httpMethod, url, httpHeaders, content, contentType, timeout);
+			}
+		});
+	}
+	
+	/**
+	 * Executes a GET request for the given <code>url</code>, which is sent as a
+	 * conditional request (<code>If-None-Match</code> and <code>If-Modified-Since</code>),
+	 * if the last response kept in <code>cachedResponse</code> provided validators for it.
+	 * If the server answers with <code>304 Not Modified</code>, the cached body is returned
+	 * and {@link CachedHttpResponse#isNotModified()} returns <code>true</code>.
+	 * Furthermore the <code>http.proxyXXX</code> System variables are read and
+	 * set into the {@link HttpClient}.
+	 * 
+	 * @param url the url to execute
+	 * @param httpHeaders optional http request headers which has to be sent within request 
+	 * @param timeout the socket timeout to wait for data
+	 * @param cachedResponse the last response for this url, which is updated by this call
+	 * 
+	 * @return the response body or <code>NULL</code> when the request went wrong
+	 */
+	public static String executeConditionalGet(String url, Properties httpHeaders, int timeout, final CachedHttpResponse cachedResponse) {
+		Properties conditionalHeaders = new Properties();
+		if (httpHeaders != null) {
+			for (String httpHeaderKey : httpHeaders.stringPropertyNames()) {
+				conditionalHeaders.setProperty(httpHeaderKey, httpHeaders.getProperty(httpHeaderKey));
+			}
+		}
+		final boolean conditional = cachedResponse.hasValidators();
+		if (conditional) {
+			if (cachedResponse.etag != null) {
+				conditionalHeaders.setProperty("If-None-Match", cachedResponse.etag);
+			}
+			if (cachedResponse.lastModified != null) {
+				conditionalHeaders.setProperty("If-Modified-Since", cachedResponse.lastModified);
+			}
+		}
+		
+		String responseBody = executeUrl("GET", url, conditionalHeaders, null, null, timeout, new HttpResponseHandler<String>() {
+			public String handleResponse(HttpMethod method) throws IOException {
+				if (conditional && method.getStatusCode() == HttpStatus.SC_NOT_MODIFIED) {
+					logger.debug("'{}' has not been modified", method.getPath());
+					cachedResponse.notModified = true;
+					return cachedResponse.body;
+				}
+				String responseBody = STRING_RESPONSE_HANDLER.handleResponse(method);
+				cachedResponse.clear();
+				if (method.getStatusCode() == HttpStatus.SC_OK) {
+					cachedResponse.body = responseBody;
+					cachedResponse.etag = getResponseHeaderValue(method, "ETag");
+					cachedResponse.lastModified = getResponseHeaderValue(method, "Last-Modified");
+				}
+				return responseBody;
+			}
+		});
+		
+		if (responseBody == null) {
+			cachedResponse.clear();
+		}
+		return responseBody;
+	}
+	
+	/**
+	 * Executes the given <code>url</code> with the given <code>httpMethod</code> and
+	 * passes the response to the given <code>handler</code>, so that large responses 
+	 * can be processed while they are received.
+	 * Furthermore the <code>http.proxyXXX</code> System variables are read and
+	 * set into the {@link HttpClient}.
+	 * 
+	 * @param httpMethod the HTTP method to use
+	 * @param url the url to execute
+	 * @param httpHeaders optional http request headers which has to be sent within request 
+	 * @param content the content to be send to the given <code>url</code> or 
+	 * <code>null</code> if no content should be send.
+	 * @param contentType the content type of the given <code>content</code>
+	 * @param timeout the socket timeout to wait for data
+	 * @param handler the handler which processes the response
+	 * 
+	 * @return the result of the handler or <code>NULL</code> when the request went wrong
+	 */
+	public static <T> T executeUrl(String httpMethod, String url, Properties httpHeaders, InputStream content, String contentType, int timeout, HttpResponseHandler<T> handler) {
 		String proxySet = System.getProperty("http.proxySet");
 		
 		String proxyHost = null;
@@ -147,7 +362,7 @@ public class HttpUtil {
 			nonProxyHosts = System.getProperty("http.nonProxyHosts");
 		}
 		
-		return executeUrl(httpMethod, url, httpHeaders, content, contentType, timeout, proxyHost, proxyPort, proxyUser, proxyPassword, nonProxyHosts);
+		return executeUrl(httpMethod, url, httpHeaders, content, contentType, timeout, proxyHost, proxyPort, proxyUser, proxyPassword, nonProxyHosts, handler);
 
 	}
 	
@@ -169,8 +384,15 @@ public class HttpUtil {
 	 * @return the response body or <code>NULL</code> when the request went wrong
 	 */
 	public static String executeUrl(String httpMethod, String url, Properties httpHeaders, InputStream content, String contentType, int timeout, String proxyHost, Integer proxyPort, String proxyUser, String proxyPassword, String nonProxyHosts) {
+		return executeUrl(httpMethod, url, httpHeaders, content, contentType, timeout, proxyHost, proxyPort, proxyUser, proxyPassword, nonProxyHosts, STRING_RESPONSE_HANDLER);
+	}
+	
+	private static <T> T executeUrl(String httpMethod, String url, Properties httpHeaders, InputStream content, String contentType, int timeout, String proxyHost, Integer proxyPort, String proxyUser, String proxyPassword, String nonProxyHosts, HttpResponseHandler<T> handler) {
 		
-		HttpClient client = new HttpClient();
+		// the client is cheap and keeps the credentials and the proxy of this request, 
+		// while the connections are shared by all requests
+		HttpClient client = new HttpClient(getConnectionManager());
+		client.getParams().setConnectionManagerTimeout(timeout);
 		
 		// only configure a proxy if a host is provided
 		if (StringUtils.isNotBlank(proxyHost) && proxyPort != null && shouldUseProxy(url, nonProxyHosts)) {
@@ -210,19 +432,15 @@ public class HttpUtil {
 			}
 		}
 
+		HostMetrics hostMetrics = getHostMetrics(url);
+		long start = System.currentTimeMillis();
+		boolean failed = true;
 		try {
 			
 			int statusCode = client.executeMethod(method);
-			if (statusCode != HttpStatus.SC_OK) {
-				logger.warn("Method failed: " + method.getStatusLine());
-			}
-
-			String responseBody = IOUtils.toString(method.getResponseBodyAsStream());
-			if (!responseBody.isEmpty()) {
-				logger.debug(responseBody);
-			}
-			
-			return responseBody;
+			T result = handler.handleResponse(method);
+			failed = statusCode >= HttpStatus.SC_BAD_REQUEST;
+			return result;
 		}
 		catch (HttpException he) {
 			logger.error("Fatal protocol violation: {}", he.toString());
@@ -232,10 +450,48 @@ public class HttpUtil {
 		}
 		finally {
 			method.releaseConnection();
+			hostMetrics.requests.incrementAndGet();
+			hostMetrics.requestTime.addAndGet(System.currentTimeMillis() - start);
+			if (failed) {
+				hostMetrics.errors.incrementAndGet();
+			}
 		}
 		
 		return null;
 	}
+	
+	/**
+	 * @return the request metrics of all hosts which have been requested so far, keyed by 
+	 * <code>host:port</code>
+	 */
+	public static Map<String, HostMetrics> getMetrics() {
+		return Collections.unmodifiableMap(metrics);
+	}
+	
+	private static HostMetrics getHostMetrics(String url) {
+		String host;
+		try {
+			URL parsedUrl = new URL(url);
+			int port = parsedUrl.getPort() != -1 ? parsedUrl.getPort() : parsedUrl.getDefaultPort();
+			host = parsedUrl.getHost() + ":" + port;
+		} catch (MalformedURLException e) {
+			host = url;
+		}
+		HostMetrics hostMetrics = metrics.get(host);
+		if (hostMetrics == null) {
+			hostMetrics = new HostMetrics();
+			HostMetrics existingMetrics = metrics.putIfAbsent(host, hostMetrics);
+			if (existingMetrics != null) {
+				hostMetrics = existingMetrics;
+			}
+		}
+		return hostMetrics;
+	}
+	
+	private static String getResponseHeaderValue(HttpMethod method, String headerName) {
+		Header header = method.getResponseHeader(headerName);
+		return header != null ? header.getValue() : null;
+	}
 
 	/**
 	 * Determines whether the list of <code>nonProxyHosts</code> contains the
@@ -348,4 +604,43 @@ public class HttpUtil {
 		}
 	}
 
+	/**
+	 * Collects statistics about the requests to a single host
+	 */
+	public static class HostMetrics {
+		
+		private final AtomicLong requests = new AtomicLong();
+		
+		private final AtomicLong requestTime = new AtomicLong();
+		
+		private final AtomicLong errors = new AtomicLong();
+		
+		/**
+		 * @return the number of requests sent to this host
+		 */
+		public long getRequestCount() {
+			return requests.get();
+		}
+		
+		/**
+		 * @return the accumulated time of all requests in milliseconds
+		 */
+		public long getRequestTime() {
+			return requestTime.get();
+		}
+		
+		/**
+		 * @return the number of requests, which failed or have been answered with an error status
+		 */
+		public long getErrorCount() {
+			return errors.get();
+		}
+		
+		@Override
+		public String toString() {
+			return "requests=" + getRequestCount() + ", requestTime=" + getRequestTime() + 
+				"ms, errors=" + getErrorCount();
+		}
+	}
+
 }
@@ -88,6 +88,20 @@ public class GeneralBroadcaster extends JerseyBroadcaster {
 		}
 
 	}
+	
+	/**
+	 * Returns the listener that observes the items of the broadcasted resource.
+	 * 
+	 * @return the listener or <code>null</code>, if none has been added yet
+	 */
+	public ResourceStateChangeListener getStateChangeListener(){
+		synchronized (listeners) {
+			for(ResourceStateChangeListener listener : listeners) {
+				return listener;
+			}
+			return null;
+		}
+	}
 
 
 }
@@ -29,6 +29,13 @@
 package org.openhab.io.rest.internal.filter;
 
 
+import java.math.BigInteger;
+import java.security.MessageDigest;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+
 import javax.servlet.http.HttpServletRequest;
 
 import org.atmosphere.cpr.AtmosphereResource;
@@ -42,6 +49,11 @@ import org.slf4j.LoggerFactory;
 
 /**
  * This Filter prevents duplicate broadcasts   
+ * 
+ * Instead of serializing the current and the previous response of a client for every
+ * broadcast, it compares content hashes. As the response objects are shared by all clients,
+ * the hash of a response object is only calculated once. Only the hashes of the most
+ * recently served clients are remembered, so that disconnected clients do not pile up.
  *  
  * @author Oliver Mazur
  * @since 1.0
@@ -52,6 +64,25 @@ public class DuplicateBroadcastProtectionFilter implements PerRequestBroadcastFi
 
 	private static final Logger logger = LoggerFactory.getLogger(DuplicateBroadcastProtectionFilter.class);
 	
+	/* the mapper is thread-safe, so all filters can share a single instance */
+	private static final ObjectMapper mapper = new ObjectMapper();
+	
+	/* the content hashes of the recently broadcasted response objects */
+	private static final Map<Object, String> contentHashes = Collections.synchronizedMap(new WeakHashMap<Object, String>());
+	
+	/* the maximum number of clients whose last response hash is remembered */
+	private static final int MAX_TRACKED_CLIENTS = 1000;
+	
+	/* the content hash of the last response for each client, in the order of their last broadcast */
+	private static final Map<String, String> firedHashes = Collections.synchronizedMap(new LinkedHashMap<String, String>(16, 0.75f, true) {
+		private static final long serialVersionUID = -6315227145340287523L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+			return size() > MAX_TRACKED_CLIENTS;
+		}
+	});
+	
 	@Override
 	public BroadcastAction filter(Object arg0, Object message) {
 		return new BroadcastAction(ACTION.CONTINUE, message);
@@ -83,17 +114,38 @@ public class DuplicateBroadcastProtectionFilter implements PerRequestBroadcastFi
 		if(clientId == null || clientId.isEmpty()){
 			return false;
 		}
-		ObjectMapper mapper = new ObjectMapper();
+		ResourceStateChangeListener.getMap().put(clientId, responseEntity);
 		try{
-			String firedResponse =  mapper.writeValueAsString(ResourceStateChangeListener.getMap().put(clientId, responseEntity)); 
-			String responseValue =  mapper.writeValueAsString(responseEntity);
-            if(responseValue.equals(firedResponse)) {
+			String responseHash = getContentHash(responseEntity);
+			String firedHash = firedHashes.put(clientId, responseHash);
+            if(responseHash.equals(firedHash)) {
             	return true;
 			}
 		} catch (Exception e) {
+			firedHashes.remove(clientId);
 			logger.error(e.getMessage());
 		} 
         return false;
 	}
 
+	/**
+	 * Calculates a hash of the JSON representation of a response object.
+	 * 
+	 * @param responseEntity the response object
+	 * @return the hash of the response content
+	 * @throws Exception if the object cannot be serialized
+	 */
+	private String getContentHash(Object responseEntity) throws Exception {
+		if(responseEntity==null) {
+			return "";
+		}
+		String hash = contentHashes.get(responseEntity);
+		if(hash==null) {
+			MessageDigest digest = MessageDigest.getInstance("MD5");
+			hash = new BigInteger(1, digest.digest(mapper.writeValueAsBytes(responseEntity))).toString(16);
+			contentHashes.put(responseEntity, hash);
+		}
+		return hash;
+	}
+
 }
@@ -40,6 +40,7 @@ import org.openhab.core.items.Item;
 import org.openhab.io.rest.internal.broadcaster.GeneralBroadcaster;
 import org.openhab.io.rest.internal.resources.ResponseTypeHelper;
 import org.openhab.io.rest.internal.resources.beans.PageBean;
+import org.openhab.io.rest.internal.resources.beans.PageUpdateBean;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -67,7 +68,7 @@ public class PollingDelayFilter implements PerRequestBroadcastFilter {
 		final  HttpServletRequest request = resource.getRequest();
 		try {	
 			// delay first broadcast for long-polling and other polling transports
-			if(!ResponseTypeHelper.isStreamingTransport(request) && message instanceof PageBean && originalMessage instanceof Item) {
+			if(!ResponseTypeHelper.isStreamingTransport(request) && (message instanceof PageBean || message instanceof PageUpdateBean) && originalMessage instanceof Item) {
 				final String delayedBroadcasterName = resource.getRequest().getPathInfo();
 				Executors.newSingleThreadExecutor().submit(new Runnable() {
 		            public void run() {
@@ -89,7 +89,7 @@ public class SendPageUpdateFilter implements PerRequestBroadcastFilter {
 					}
 				}
 				// remove the widgets
-				if (originalMessage instanceof PageBean){
+				if (originalMessage instanceof PageBean && message instanceof PageBean){
 					PageBean originalBean = (PageBean) message ;
 	        		PageBean responseBeam = new PageBean();
 	        		responseBeam.icon = originalBean.icon;
@@ -30,13 +30,18 @@ package org.openhab.io.rest.internal.listeners;
 
 
 
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.servlet.http.HttpServletRequest;
 
 import org.atmosphere.cpr.AtmosphereResource;
+import org.atmosphere.cpr.BroadcastFilter.BroadcastAction;
 import org.atmosphere.cpr.BroadcastFilter.BroadcastAction.ACTION;
 import org.atmosphere.cpr.PerRequestBroadcastFilter;
 import org.openhab.core.items.GenericItem;
@@ -51,6 +56,7 @@ import org.openhab.io.rest.internal.filter.PollingDelayFilter;
 import org.openhab.io.rest.internal.filter.ResponseObjectFilter;
 import org.openhab.io.rest.internal.filter.SendPageUpdateFilter;
 import org.openhab.io.rest.internal.resources.ItemResource;
+import org.openhab.io.rest.internal.resources.ResponseTypeHelper;
 
 /**
  * This is an abstract super class which adds Broadcaster config, lifecycle and filters to its derived classes and registers listeners to subscribed resources.   
@@ -65,6 +71,26 @@ abstract public class ResourceStateChangeListener {
 	private Set<String> relevantItems = null;
 	private StateChangeListener stateChangeListener;
 	private GeneralBroadcaster broadcaster;
+	
+	/* the response objects for the current item states, so that they are only created once for all clients */
+	private volatile ConcurrentMap<String, Object> responseCache = new ConcurrentHashMap<String, Object>();
+	
+	/* the number of item changes that are remembered for sending only the changes to clients */
+	private static final int MAX_TRACKED_CHANGES = 100;
+	
+	/* the revision of the resource, which is increased with every change; it starts at an arbitrary 
+	 * value, so that the revisions of different listeners for the same resource cannot be mixed up */
+	private final AtomicLong revision = new AtomicLong(System.currentTimeMillis());
+	
+	/* the names of the items that have changed with each of the recent revisions */
+	private final Map<Long, String> changedItems = new LinkedHashMap<Long, String>() {
+		private static final long serialVersionUID = 3436458165541236578L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Long, String> eldest) {
+			return size() > MAX_TRACKED_CHANGES;
+		}
+	};
 
 	public ResourceStateChangeListener(){}
 
@@ -97,7 +123,7 @@ abstract public class ResourceStateChangeListener {
 			@Override
 			public BroadcastAction filter(AtmosphereResource resource, Object originalMessage, Object message) {
 				 HttpServletRequest request = resource.getRequest();
-				 return new BroadcastAction(ACTION.CONTINUE,  getResponseObject(request));
+				 return getBroadcastAction(request);
 			}
 		});
 		
@@ -119,6 +145,7 @@ abstract public class ResourceStateChangeListener {
 				if(item instanceof GroupItem) {
 					GroupItem gItem = (GroupItem) item;
 					if(gItem.getBaseItem()!=null) {
+						itemChanged(item);
 						if(!broadcaster.getAtmosphereResources().isEmpty()) {
 							broadcaster.broadcast(item);
 						}
@@ -127,6 +154,7 @@ abstract public class ResourceStateChangeListener {
 			}
 			
 			public void stateChanged(final Item item, State oldState, State newState) {	
+				itemChanged(item);
 				if(!broadcaster.getAtmosphereResources().isEmpty()) {
 					broadcaster.broadcast(item);
 				}
@@ -137,6 +165,106 @@ abstract public class ResourceStateChangeListener {
 	
 	public void unregisterItems(){
 		unregisterStateChangeListenerOnRelevantItems();
+		clearResponseCache();
+	}
+	
+	/**
+	 * Determines what to broadcast to a single client. By default, this is the 
+	 * response content for its request.
+	 * 
+	 * @param request the HttpServletRequest of the client
+	 * @return the action for the broadcast filter chain
+	 */
+	protected BroadcastAction getBroadcastAction(final HttpServletRequest request) {
+		return new BroadcastAction(ACTION.CONTINUE,  getCachedResponseObject(request));
+	}
+	
+	/**
+	 * Records the change of a relevant item by increasing the revision of the resource.
+	 * 
+	 * @param item the item that has changed
+	 */
+	protected void itemChanged(Item item) {
+		// the cache is cleared first, so that a client never gets a revision that is newer than the content
+		clearResponseCache();
+		synchronized(changedItems) {
+			changedItems.put(revision.incrementAndGet(), item.getName());
+		}
+	}
+	
+	/**
+	 * Returns the current revision of the resource.
+	 * 
+	 * @return the revision of the resource
+	 */
+	public long getRevision() {
+		return revision.get();
+	}
+	
+	/**
+	 * Returns the names of all items that have changed after a given revision.
+	 * 
+	 * @param sinceRevision the revision that is known to the client
+	 * @return the names of the changed items or <code>null</code>, if the changes
+	 * since this revision are not known (anymore)
+	 */
+	public Set<String> getChangedItemNames(long sinceRevision) {
+		synchronized(changedItems) {
+			long currentRevision = revision.get();
+			if(sinceRevision > currentRevision || currentRevision - sinceRevision > changedItems.size()) {
+				return null;
+			}
+			Set<String> itemNames = new HashSet<String>();
+			for(Map.Entry<Long, String> entry : changedItems.entrySet()) {
+				if(entry.getKey() > sinceRevision) {
+					itemNames.add(entry.getValue());
+				}
+			}
+			return itemNames;
+		}
+	}
+	
+	/**
+	 * Returns the response content for an HTTP request. As all clients of a broadcaster
+	 * request the same resource, the response content is only determined once after each 
+	 * state change and then shared by all clients with the same kind of request.
+	 * 
+	 * @param request the HttpServletRequest
+	 * @return the response content
+	 */
+	protected Object getCachedResponseObject(final HttpServletRequest request) {
+		// the cache is replaced on state changes, so we keep on working with the current one
+		ConcurrentMap<String, Object> cache = responseCache;
+		String key = getResponseCacheKey(request);
+		Object responseObject = cache.get(key);
+		if(responseObject==null) {
+			responseObject = getResponseObject(request);
+			if(responseObject!=null) {
+				Object cachedObject = cache.putIfAbsent(key, responseObject);
+				if(cachedObject!=null) {
+					responseObject = cachedObject;
+				}
+			}
+		}
+		return responseObject;
+	}
+	
+	/**
+	 * Determines the parts of an HTTP request that the response content depends on.
+	 * 
+	 * @param request the HttpServletRequest
+	 * @return a key for the response content of the request 
+	 */
+	protected String getResponseCacheKey(final HttpServletRequest request) {
+		return request.getPathInfo() + "|" + (new ResponseTypeHelper()).getResponseType(request) + "|" 
+			+ request.getScheme() + "://" + request.getServerName() + ":" + request.getServerPort() + request.getContextPath();
+	}
+	
+	/**
+	 * Discards all response contents as they do not reflect the current item states anymore.
+	 */
+	protected void clearResponseCache() {
+		responseCache = new ConcurrentHashMap<String, Object>();
 	}
     
 
@@ -30,6 +30,7 @@ package org.openhab.io.rest.internal.listeners;
 
 import java.net.URI;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
@@ -37,11 +38,14 @@ import java.util.Set;
 import javax.servlet.http.HttpServletRequest;
 import javax.ws.rs.core.UriBuilder;
 
+import org.atmosphere.cpr.BroadcastFilter.BroadcastAction;
+import org.atmosphere.cpr.BroadcastFilter.BroadcastAction.ACTION;
 import org.openhab.core.items.Item;
 import org.openhab.io.rest.internal.RESTApplication;
 import org.openhab.io.rest.internal.resources.ResponseTypeHelper;
 import org.openhab.io.rest.internal.resources.SitemapResource;
 import org.openhab.io.rest.internal.resources.beans.PageBean;
+import org.openhab.io.rest.internal.resources.beans.PageUpdateBean;
 import org.openhab.io.rest.internal.resources.beans.WidgetBean;
 import org.openhab.io.rest.internal.resources.beans.WidgetListBean;
 import org.openhab.model.sitemap.Frame;
@@ -55,6 +59,10 @@ import org.slf4j.LoggerFactory;
  * This is the {@link ResourceStateChangeListener} implementation for sitemap REST requests.
  * Note: We only support suspended requests for page requests, not for complete sitemaps.
  * 
+ * Clients can request to only receive the changed widgets of a page by adding the query 
+ * parameters "updates=delta" and "revision=&lt;the last received revision&gt;". If the
+ * changes since this revision are not known, the complete page is sent instead.
+ * 
  * @author Kai Kreuzer
  * @author Oliver Mazur
  * @since 0.9.0
@@ -64,6 +72,10 @@ public class SitemapStateChangeListener extends ResourceStateChangeListener {
 
 	private static final Logger logger = LoggerFactory.getLogger(ResourceStateChangeListener.class);
 	
+	public static final String PARAM_UPDATES = "updates";
+	public static final String PARAM_REVISION = "revision";
+	public static final String UPDATES_DELTA = "delta";
+	
 	@Override
 	protected Object getResponseObject(HttpServletRequest request) {
 		PageBean pageBean = getPageBean(request);
@@ -75,15 +87,74 @@ public class SitemapStateChangeListener extends ResourceStateChangeListener {
 		
 	@Override
 	protected Object getSingleResponseObject(Item item, HttpServletRequest request) {
-		PageBean pageBean = getPageBean(request);
+		Object responseObject = getCachedResponseObject(request);
 		WidgetListBean responseBeam ;
-		if(pageBean!=null) {
-			responseBeam = new WidgetListBean( getItemsOnPage(pageBean.widgets, item));
+		if(responseObject instanceof PageBean) {
+			PageBean pageBean = (PageBean) responseObject;
+			responseBeam = new WidgetListBean( getItemsOnPage(pageBean.widgets, Collections.singleton(item.getName())));
 			return responseBeam;
 	    	
     	}
 		return null;
 	}
+	
+	@Override
+	protected BroadcastAction getBroadcastAction(HttpServletRequest request) {
+		if(isDeltaRequest(request)) {
+			PageUpdateBean pageUpdate = getPageUpdateBean(request);
+			if(pageUpdate!=null && pageUpdate.page==null && pageUpdate.widgets.isEmpty()) {
+				// nothing has changed on this page since the last update of the client
+				return new BroadcastAction(ACTION.ABORT, pageUpdate);
+			}
+			return new BroadcastAction(ACTION.CONTINUE, pageUpdate);
+		}
+		return super.getBroadcastAction(request);
+	}
+	
+	/**
+	 * Determines the changes of a page since the revision that the client has sent with its request.
+	 * 
+	 * @param request the HttpServletRequest
+	 * @return the changed widgets or the complete page, if the changes are not known 
+	 */
+	public PageUpdateBean getPageUpdateBean(HttpServletRequest request) {
+		// the revision has to be determined before the page, as the page must not be older
+		long currentRevision = getRevision();
+		Set<String> changedItemNames = null;
+		String clientRevision = (new ResponseTypeHelper()).getQueryParam(request, PARAM_REVISION);
+		if(clientRevision!=null) {
+			try {
+				changedItemNames = getChangedItemNames(Long.parseLong(clientRevision));
+			} catch (NumberFormatException e) {
+				logger.debug("Received invalid page revision '{}'", clientRevision);
+			}
+		}
+		
+		Object responseObject = getCachedResponseObject(request);
+		if(responseObject instanceof PageBean) {
+			PageBean pageBean = (PageBean) responseObject;
+			PageUpdateBean pageUpdate = new PageUpdateBean();
+			pageUpdate.id = pageBean.id;
+			pageUpdate.revision = currentRevision;
+			if(changedItemNames!=null) {
+				pageUpdate.widgets.addAll(getItemsOnPage(pageBean.widgets, changedItemNames));
+			} else {
+				pageUpdate.page = pageBean;
+			}
+			return pageUpdate;
+		}
+		return null;
+	}
+	
+	/**
+	 * Checks whether a client only wants to receive the changes of a page.
+	 * 
+	 * @param request the HttpServletRequest
+	 * @return true, if the client has requested delta updates
+	 */
+	public static boolean isDeltaRequest(HttpServletRequest request) {
+		return UPDATES_DELTA.equals((new ResponseTypeHelper()).getQueryParam(request, PARAM_UPDATES));
+	}
 
 
 	@Override
@@ -156,16 +227,16 @@ public class SitemapStateChangeListener extends ResourceStateChangeListener {
 		
 	}
 	
-	private List <WidgetBean> getItemsOnPage(List<WidgetBean> widgets, Item searchItem){
+	private List <WidgetBean> getItemsOnPage(List<WidgetBean> widgets, Set<String> itemNames){
 		List <WidgetBean> foundWidgets = new ArrayList <WidgetBean>();
 		try{
 		for(WidgetBean widget : widgets) {	
-			if(widget.item !=null && widget.item.name.equals(searchItem.getName())){
+			if(widget.item !=null && itemNames.contains(widget.item.name)){
 				foundWidgets.add(widget);
 			}
 			else{
 				if (!widget.widgets.isEmpty()){
-					List <WidgetBean> tmpWidgets =  getItemsOnPage(widget.widgets, searchItem);
+					List <WidgetBean> tmpWidgets =  getItemsOnPage(widget.widgets, itemNames);
 					if(!tmpWidgets.isEmpty()) {
 						foundWidgets.addAll(tmpWidgets); }
 					
@@ -173,7 +244,7 @@ public class SitemapStateChangeListener extends ResourceStateChangeListener {
 			}
 			
 			if (widget.linkedPage != null && widget.linkedPage.widgets != null) {
-				List <WidgetBean> tmpWidgets =  getItemsOnPage(widget.linkedPage.widgets, searchItem);
+				List <WidgetBean> tmpWidgets =  getItemsOnPage(widget.linkedPage.widgets, itemNames);
 				if(!tmpWidgets.isEmpty()) {
 					foundWidgets.addAll(tmpWidgets); }
 			}			
@@ -59,9 +59,11 @@ import org.eclipse.emf.ecore.EObject;
 import org.openhab.core.items.Item;
 import org.openhab.io.rest.internal.RESTApplication;
 import org.openhab.io.rest.internal.broadcaster.GeneralBroadcaster;
+import org.openhab.io.rest.internal.listeners.ResourceStateChangeListener;
 import org.openhab.io.rest.internal.listeners.SitemapStateChangeListener;
 import org.openhab.io.rest.internal.resources.beans.MappingBean;
 import org.openhab.io.rest.internal.resources.beans.PageBean;
+import org.openhab.io.rest.internal.resources.beans.PageUpdateBean;
 import org.openhab.io.rest.internal.resources.beans.SitemapBean;
 import org.openhab.io.rest.internal.resources.beans.SitemapListBean;
 import org.openhab.io.rest.internal.resources.beans.WidgetBean;
@@ -168,6 +170,23 @@ public class SitemapResource {
 		}
 		GeneralBroadcaster sitemapBroadcaster = (GeneralBroadcaster) BroadcasterFactory.getDefault().lookup(GeneralBroadcaster.class, resource.getRequest().getPathInfo(), true); 
 		sitemapBroadcaster.addStateChangeListener(new SitemapStateChangeListener());
+		if(SitemapStateChangeListener.isDeltaRequest(resource.getRequest()) && !ResponseTypeHelper.isStreamingTransport(resource.getRequest())) {
+			// a polling client might have missed changes while it was not connected, so we answer right away
+			ResourceStateChangeListener listener = sitemapBroadcaster.getStateChangeListener();
+			if(listener instanceof SitemapStateChangeListener) {
+				PageUpdateBean pageUpdate = ((SitemapStateChangeListener) listener).getPageUpdateBean(resource.getRequest());
+				if(pageUpdate!=null && (pageUpdate.page!=null || !pageUpdate.widgets.isEmpty())) {
+					String responseType = MediaTypeHelper.getResponseMediaType(headers.getAcceptableMediaTypes(), type);
+					if(responseType!=null) {
+				    	Object responseObject = responseType.equals(MediaTypeHelper.APPLICATION_X_JAVASCRIPT) ?
+				    			new JSONWithPadding(pageUpdate, callback) : pageUpdate;
+				    	throw new WebApplicationException(Response.ok(responseObject, responseType).build());
+					} else {
+						throw new WebApplicationException(Response.notAcceptable(null).build());
+					}
+				}
+			}
+		}
 		return new SuspendResponse.SuspendResponseBuilder<Response>()
 			.scope(SCOPE.REQUEST)
 			.resumeOnBroadcast(!ResponseTypeHelper.isStreamingTransport(resource.getRequest()))
@@ -0,0 +1,99 @@
+/**
+ * openHAB, the open Home Automation Bus.
+ * Copyright (C) 2010-2013, openHAB.org <admin@openhab.org>
+ *
+ * See the contributors.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation; either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ *
+ * Additional permission under GNU GPL version 3 section 7
+ *
+ * If you modify this Program, or any covered work, by linking or
+ * combining it with Eclipse (or a modified version of that library),
+ * containing parts covered by the terms of the Eclipse Public License
+ * (EPL), the licensors of this Program grant you additional permission
+ * to convey the resulting work.
+ */
+package org.openhab.model.rule.internal.engine;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+import org.openhab.model.rule.internal.engine.RuleExecutor.OverflowPolicy;
+
+/**
+ * @author Kai Kreuzer
+ * @since 1.4.0
+ */
+public class RuleExecutorTest {
+	
+	private RuleExecutor executor = new RuleExecutor(1, 10, OverflowPolicy.BLOCK);
+	
+	@After
+	public void shutdown() {
+		executor.shutdown(1000);
+	}
+
+	@Test
+	public void testErrorsDoNotStopTheLane() throws InterruptedException {
+		final CountDownLatch executed = new CountDownLatch(1);
+		assertTrue(executor.execute("lane", "Failing", new Runnable() {
+			public void run() {
+				throw new AssertionError("a broken rule");
+			}
+		}));
+		assertTrue(executor.execute("lane", "Working", new Runnable() {
+			public void run() {
+				executed.countDown();
+			}
+		}));
+		
+		assertTrue(executed.await(5, TimeUnit.SECONDS));
+		assertEquals(0, executor.getQueueSize());
+		assertEquals(1, executor.getMetrics().get("Failing").getExecutionCount());
+	}
+
+	@Test
+	public void testLaneIsReusedAfterError() throws InterruptedException {
+		assertTrue(executor.execute("lane", "Failing", new Runnable() {
+			public void run() {
+				throw new StackOverflowError();
+			}
+		}));
+		waitForExecutions("Failing", 1);
+		
+		// the lane has been released, so that a new execution starts it again
+		final CountDownLatch executed = new CountDownLatch(1);
+		assertTrue(executor.execute("lane", "Working", new Runnable() {
+			public void run() {
+				executed.countDown();
+			}
+		}));
+		assertTrue(executed.await(5, TimeUnit.SECONDS));
+	}
+	
+	private void waitForExecutions(String ruleName, long count) throws InterruptedException {
+		long timeout = System.currentTimeMillis() + 5000;
+		while(executor.getMetrics().get(ruleName).getExecutionCount() < count) {
+			assertTrue(System.currentTimeMillis() < timeout);
+			Thread.sleep(10);
+		}
+	}
+
+}
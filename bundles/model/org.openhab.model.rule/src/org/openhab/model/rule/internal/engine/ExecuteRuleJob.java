@@ -29,9 +29,6 @@
 package org.openhab.model.rule.internal.engine;
 
 import org.eclipse.emf.ecore.EObject;
-import org.openhab.core.scriptengine.Script;
-import org.openhab.core.scriptengine.ScriptEngine;
-import org.openhab.core.scriptengine.ScriptExecutionException;
 import org.openhab.model.core.ModelRepository;
 import org.openhab.model.rule.internal.RuleModelActivator;
 import org.openhab.model.rule.rules.Rule;
@@ -44,7 +41,8 @@ import org.slf4j.LoggerFactory;
 
 /**
  * Implementation of Quartz {@link Job}-Interface. It takes a rule
- * and simply executes it.
+ * and passes it to the {@link RuleEngine}, which queues its execution
+ * in the same way as for all other triggers.
  * 
  * @author Kai Kreuzer
  * @since 0.9.0
@@ -55,27 +53,24 @@ public class ExecuteRuleJob implements Job {
 		
 	public static final String JOB_DATA_RULEMODEL = "model";
 	public static final String JOB_DATA_RULENAME = "rule";
+	public static final String JOB_DATA_RULEENGINE = "engine";
 	
 	public void execute(JobExecutionContext context) throws JobExecutionException {
 		String modelName = (String) context.getJobDetail().getJobDataMap().get(JOB_DATA_RULEMODEL);				
 		String ruleName = (String) context.getJobDetail().getJobDataMap().get(JOB_DATA_RULENAME);
 		
+		RuleEngine ruleEngine = (RuleEngine) context.getJobDetail().getJobDataMap().get(JOB_DATA_RULEENGINE);
+		
 		ModelRepository modelRepository = RuleModelActivator.modelRepositoryTracker.getService();
-		ScriptEngine scriptEngine = RuleModelActivator.scriptEngineTracker.getService();
 		
-		if(modelRepository!=null && scriptEngine!=null) {
+		if(modelRepository!=null && ruleEngine!=null) {
 			EObject model = modelRepository.getModel(modelName);
 			if (model instanceof RuleModel) {
 				RuleModel ruleModel = (RuleModel) model;
 				Rule rule = getRule(ruleModel, ruleName);
 				if(rule!=null) {
-					Script script = scriptEngine.newScriptFromXExpression(rule.getScript());
 					logger.debug("Executing scheduled rule '{}'", rule.getName());
-					try {
-						script.execute(RuleContextHelper.getContext(rule));
-					} catch (ScriptExecutionException e) {
-						logger.error("Error during the execution of rule {}", rule.getName(), e.getCause());
-					}
+					ruleEngine.executeScheduledRule(rule);
 				} else {
 					logger.debug("Scheduled rule '{}' does not exist", ruleName);
 				}
@@ -38,8 +38,11 @@ import static org.openhab.model.rule.internal.engine.RuleTriggerManager.TriggerT
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Dictionary;
 import java.util.List;
 
+import org.apache.commons.lang.StringUtils;
 import org.eclipse.emf.ecore.EObject;
 import org.eclipse.xtext.naming.QualifiedName;
 import org.openhab.core.items.GenericItem;
@@ -51,14 +54,16 @@ import org.openhab.core.items.StateChangeListener;
 import org.openhab.core.scriptengine.Script;
 import org.openhab.core.scriptengine.ScriptEngine;
 import org.openhab.core.scriptengine.ScriptExecutionException;
-import org.openhab.core.scriptengine.ScriptExecutionThread;
 import org.openhab.core.types.Command;
 import org.openhab.core.types.EventType;
 import org.openhab.core.types.State;
 import org.openhab.model.core.ModelRepository;
 import org.openhab.model.core.ModelRepositoryChangeListener;
+import org.openhab.model.rule.internal.engine.RuleExecutor.OverflowPolicy;
 import org.openhab.model.rule.rules.Rule;
 import org.openhab.model.rule.rules.RuleModel;
+import org.osgi.service.cm.ConfigurationException;
+import org.osgi.service.cm.ManagedService;
 import org.osgi.service.event.Event;
 import org.osgi.service.event.EventHandler;
 import org.slf4j.Logger;
@@ -77,18 +82,37 @@ import com.google.common.collect.Lists;
  *
  */
 @SuppressWarnings("restriction")
-public class RuleEngine implements EventHandler, ItemRegistryChangeListener, StateChangeListener, ModelRepositoryChangeListener {
+public class RuleEngine implements EventHandler, ItemRegistryChangeListener, StateChangeListener, ModelRepositoryChangeListener, ManagedService {
 
 		static private final Logger logger = LoggerFactory.getLogger(RuleEngine.class);
 		
+		/** the default number of threads which execute rules */
+		static private final int DEFAULT_THREADS = 10;
+
+		/** the default maximum number of rule executions waiting for a free thread */
+		static private final int DEFAULT_QUEUE_SIZE = 1000;
+
+		/** the time in milliseconds to wait for running rules on shutdown */
+		static private final long SHUTDOWN_TIMEOUT = 5000;
+		
 		private ItemRegistry itemRegistry;
 		private ModelRepository modelRepository;
 		private ScriptEngine scriptEngine;
 
 		private RuleTriggerManager triggerManager;
+		
+		private volatile RuleExecutor ruleExecutor;
+		
+		private int threads = DEFAULT_THREADS;
+		private int queueSize = DEFAULT_QUEUE_SIZE;
+		private OverflowPolicy overflowPolicy = OverflowPolicy.BLOCK;
+		
+		/** if true, there is one execution lane per item instead of one per rule */
+		private boolean itemLanes = false;
 						
 		public void activate() {
-			triggerManager = new RuleTriggerManager();
+			triggerManager = new RuleTriggerManager(this);
+			ruleExecutor = new RuleExecutor(threads, queueSize, overflowPolicy);
 
 			if(!isEnabled()) {
 				logger.info("Rule engine is disabled.");
@@ -120,6 +144,9 @@ public class RuleEngine implements EventHandler, ItemRegistryChangeListener, Sta
 			executeRules(triggerManager.getRules(SHUTDOWN));
 			triggerManager.clearAll();
 			triggerManager = null;
+			ruleExecutor.shutdown(SHUTDOWN_TIMEOUT);
+			logger.debug("Rule executions: {}", ruleExecutor.getMetrics());
+			ruleExecutor = null;
 		}
 		
 		public void setItemRegistry(ItemRegistry itemRegistry) {
@@ -186,9 +213,7 @@ public class RuleEngine implements EventHandler, ItemRegistryChangeListener, Sta
 		public void stateChanged(Item item, State oldState, State newState) {			
 			if(triggerManager!=null) {
 				Iterable<Rule> rules = triggerManager.getRules(CHANGE, item, oldState, newState);
-				RuleEvaluationContext context = new RuleEvaluationContext();
-				context.newValue(QualifiedName.create(RuleContextHelper.VAR_PREVIOUS_STATE), oldState);
-				executeRules(rules, context);
+				executeRules(rules, item, RuleContextHelper.VAR_PREVIOUS_STATE, oldState);
 			}
 		}
 
@@ -198,7 +223,7 @@ public class RuleEngine implements EventHandler, ItemRegistryChangeListener, Sta
 		public void stateUpdated(Item item, State state) {
 			if(triggerManager!=null) {
 				Iterable<Rule> rules = triggerManager.getRules(UPDATE, item, state);
-				executeRules(rules);
+				executeRules(rules, item, null, null);
 			}
 		}
 
@@ -207,9 +232,7 @@ public class RuleEngine implements EventHandler, ItemRegistryChangeListener, Sta
 				try {
 					Item item = itemRegistry.getItem(itemName);
 					Iterable<Rule> rules = triggerManager.getRules(COMMAND, item, command);
-					RuleEvaluationContext context = new RuleEvaluationContext();
-					context.newValue(QualifiedName.create(RuleContextHelper.VAR_RECEIVED_COMMAND), command);
-					executeRules(rules, context);
+					executeRules(rules, item, RuleContextHelper.VAR_RECEIVED_COMMAND, command);
 				} catch (ItemNotFoundException e) {
 					// ignore commands for non-existent items
 				}
@@ -295,28 +318,143 @@ public class RuleEngine implements EventHandler, ItemRegistryChangeListener, Sta
 			}
 		}
 
-		protected synchronized void executeRule(Rule rule) {
-			executeRule(rule, new RuleEvaluationContext());
+		protected void executeRules(Iterable<Rule> rules) {
+			executeRules(rules, null, null, null);
 		}
-			
-		protected synchronized void executeRule(Rule rule, RuleEvaluationContext context) {
-			Script script = scriptEngine.newScriptFromXExpression(rule.getScript());
-			
-			logger.debug("Executing rule '{}'", rule.getName());
-			
-			context.setGlobalContext(RuleContextHelper.getContext(rule));
-			
-			ScriptExecutionThread thread = new ScriptExecutionThread(rule.getName(), script, context);
-			thread.start();
+		
+		/**
+		 * Queues the given rules for their execution by the {@link RuleExecutor}.
+		 * 
+		 * @param rules the rules to execute
+		 * @param item the item which has triggered the rules, may be <code>null</code>
+		 * @param variableName the name of an implicit variable to provide to the rules, may be <code>null</code>
+		 * @param value the value of the implicit variable
+		 */
+		protected void executeRules(Iterable<Rule> rules, Item item, String variableName, Object value) {
+			if(ruleExecutor==null) {
+				return;
+			}
+			for(Rule rule : rules) {
+				// every rule needs its own context, as the global context differs per rule
+				final RuleEvaluationContext context = new RuleEvaluationContext();
+				if(variableName!=null) {
+					context.newValue(QualifiedName.create(variableName), value);
+				}
+				context.setGlobalContext(RuleContextHelper.getContext(rule));
+				
+				final Script script = scriptEngine.newScriptFromXExpression(rule.getScript());
+				final String ruleName = rule.getName();
+				String laneKey = itemLanes && item!=null ? "item:" + item.getName() : "rule:" + ruleName;
+				
+				logger.debug("Executing rule '{}'", ruleName);
+				execute(laneKey, ruleName, new Runnable() {
+					public void run() {
+						try {
+							script.execute(context);
+						} catch (ScriptExecutionException e) {
+							String msg = e.getCause().getMessage();
+							if (msg==null) {
+								logger.error("Error during the execution of rule '{}'", ruleName, e.getCause());
+							} else {
+								logger.error("Error during the execution of rule '{}': {}", new String[] { ruleName, msg });
+							}
+						}
+					}
+				});
+			}
 		}
-
-		protected synchronized void executeRules(Iterable<Rule> rules) {
-			executeRules(rules, new RuleEvaluationContext());
+		
+		/**
+		 * Queues a rule execution. If the executor is replaced by a reconfiguration
+		 * in the meantime, the execution is handed over to the new executor.
+		 */
+		private void execute(String laneKey, String ruleName, Runnable execution) {
+			RuleExecutor executor = ruleExecutor;
+			while(executor!=null && !executor.execute(laneKey, ruleName, execution)) {
+				RuleExecutor currentExecutor = ruleExecutor;
+				if(currentExecutor==executor) {
+					// the execution has been rejected by the current executor
+					return;
+				}
+				executor = currentExecutor;
+			}
 		}
 		
-		protected synchronized void executeRules(Iterable<Rule> rules, RuleEvaluationContext context) {
-			for(Rule rule : rules) {
-				executeRule(rule, context);
+		/**
+		 * Queues the execution of a rule which has been triggered by a timer. 
+		 * It runs in the lane of the rule, just like all other executions.
+		 * 
+		 * @param rule the rule to execute
+		 */
+		public void executeScheduledRule(Rule rule) {
+			executeRules(Collections.singletonList(rule));
+		}
+
+		/**
+		 * @return the executor which runs the triggered rules and provides metrics about them
+		 */
+		public RuleExecutor getRuleExecutor() {
+			return ruleExecutor;
+		}
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@SuppressWarnings("rawtypes")
+		public void updated(Dictionary config) throws ConfigurationException {
+			threads = DEFAULT_THREADS;
+			queueSize = DEFAULT_QUEUE_SIZE;
+			overflowPolicy = OverflowPolicy.BLOCK;
+			itemLanes = false;
+			if(config!=null) {
+				threads = parseInt(config, "threads", DEFAULT_THREADS);
+				queueSize = parseInt(config, "queuesize", DEFAULT_QUEUE_SIZE);
+				
+				String overflowString = (String) config.get("overflow");
+				if(StringUtils.isNotBlank(overflowString)) {
+					if("block".equalsIgnoreCase(overflowString.trim())) {
+						overflowPolicy = OverflowPolicy.BLOCK;
+					} else if("discard".equalsIgnoreCase(overflowString.trim())) {
+						overflowPolicy = OverflowPolicy.DISCARD;
+					} else if("discardoldest".equalsIgnoreCase(overflowString.trim())) {
+						overflowPolicy = OverflowPolicy.DISCARD_OLDEST;
+					} else {
+						throw new ConfigurationException("overflow", "Unknown overflow policy '" + overflowString + "'.");
+					}
+				}
+				
+				String lanesString = (String) config.get("lanes");
+				if(StringUtils.isNotBlank(lanesString)) {
+					if("item".equalsIgnoreCase(lanesString.trim())) {
+						itemLanes = true;
+					} else if(!"rule".equalsIgnoreCase(lanesString.trim())) {
+						throw new ConfigurationException("lanes", "Unknown lane type '" + lanesString + "', valid values are 'rule' and 'item'.");
+					}
+				}
+			}
+			
+			// replace a running executor by one with the new settings
+			RuleExecutor oldExecutor = ruleExecutor;
+			if(oldExecutor!=null) {
+				ruleExecutor = new RuleExecutor(threads, queueSize, overflowPolicy);
+				oldExecutor.shutdown(SHUTDOWN_TIMEOUT);
+			}
+		}
+
+		@SuppressWarnings("rawtypes")
+		private int parseInt(Dictionary config, String key, int defaultValue) throws ConfigurationException {
+			String value = (String) config.get(key);
+			if(StringUtils.isBlank(value)) {
+				return defaultValue;
+			}
+			try {
+				int intValue = Integer.parseInt(value.trim());
+				if(intValue <= 0) {
+					throw new ConfigurationException(key, "The value must be a positive number.");
+				}
+				return intValue;
+			} catch (NumberFormatException e) {
+				throw new ConfigurationException(key, "The value '" + value + "' is not a valid number.");
 			}
 		}
 				
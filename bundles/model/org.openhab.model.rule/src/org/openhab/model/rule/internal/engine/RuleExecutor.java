@@ -0,0 +1,390 @@
+/**
+ * openHAB, the open Home Automation Bus.
+ * Copyright (C) 2010-2013, openHAB.org <admin@openhab.org>
+ *
+ * See the contributors.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation; either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ *
+ * Additional permission under GNU GPL version 3 section 7
+ *
+ * If you modify this Program, or any covered work, by linking or
+ * combining it with Eclipse (or a modified version of that library),
+ * containing parts covered by the terms of the Eclipse Public License
+ * (EPL), the licensors of this Program grant you additional permission
+ * to convey the resulting work.
+ */
+package org.openhab.model.rule.internal.engine;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The RuleExecutor runs triggered rules on a bounded pool of worker threads
+ * instead of starting a new thread for every single rule execution.
+ * 
+ * <p>Executions are queued in serial lanes, so that the executions of the
+ * same lane never run concurrently and are processed in the order in which
+ * they have been triggered. Depending on the configuration, there is one
+ * lane per rule (default; a rule thus never runs concurrently with itself)
+ * or one lane per triggering item (a rule which is triggered by several
+ * items can then run concurrently for different items).</p>
+ * 
+ * <p>The total number of queued executions is limited. If the limit is
+ * reached, the configured {@link OverflowPolicy} decides what happens.</p>
+ * 
+ * @author Kai Kreuzer
+ * @since 1.4.0
+ */
+public class RuleExecutor {
+
+	private static final Logger logger = LoggerFactory.getLogger(RuleExecutor.class);
+	
+	/**
+	 * Defines what happens, if a rule is triggered while the queue is full.
+	 */
+	public enum OverflowPolicy {
+		/** the new execution is rejected */
+		DISCARD,
+		/** the oldest queued execution of the same lane is dropped in favour of the new one */
+		DISCARD_OLDEST,
+		/** the triggering thread waits until there is space in the queue (unless it is a rule execution itself) */
+		BLOCK
+	}
+	
+	private final ExecutorService executor;
+	
+	private final int maxQueueSize;
+	
+	private final OverflowPolicy overflowPolicy;
+	
+	/** all lanes which currently have queued or running executions */
+	private final Map<String, Lane> lanes = new HashMap<String, Lane>();
+	
+	/** the number of queued (not yet running) executions over all lanes */
+	private int queueSize = 0;
+	
+	private final ConcurrentMap<String, RuleMetrics> metrics = new ConcurrentHashMap<String, RuleMetrics>();
+	
+	/** is set for the worker threads, which must never wait for space in the queue as this could deadlock the executor */
+	private final ThreadLocal<Boolean> isWorkerThread = new ThreadLocal<Boolean>();
+	
+	
+	public RuleExecutor(int threads, int maxQueueSize, OverflowPolicy overflowPolicy) {
+		this.maxQueueSize = maxQueueSize;
+		this.overflowPolicy = overflowPolicy;
+		this.executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+			private final AtomicInteger count = new AtomicInteger();
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "openHAB Rule Executor " + count.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+	
+	/**
+	 * Queues the execution of a rule.
+	 * 
+	 * @param laneKey the key of the lane in which the execution is queued
+	 * @param ruleName the name of the rule (used for logging and metrics)
+	 * @param execution the actual rule execution
+	 * @return true, if the execution has been queued, false if it has been rejected
+	 * because the queue is full or the executor has been shut down
+	 */
+	public boolean execute(String laneKey, String ruleName, Runnable execution) {
+		RuleMetrics ruleMetrics = getMetrics(ruleName);
+		Execution queuedExecution = new Execution(ruleName, execution, ruleMetrics);
+		synchronized(lanes) {
+			if(executor.isShutdown()) {
+				logger.debug("The rule executor has been shut down, execution of rule '{}' has been rejected.", ruleName);
+				return false;
+			}
+			Lane lane = lanes.get(laneKey);
+			while(queueSize >= maxQueueSize) {
+				if(overflowPolicy==OverflowPolicy.BLOCK && isWorkerThread.get()!=null) {
+					// a rule has triggered another rule, we let the queue grow beyond its limit
+					break;
+				} else if(overflowPolicy==OverflowPolicy.BLOCK) {
+					try {
+						lanes.wait();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						return reject(queuedExecution);
+					}
+					lane = lanes.get(laneKey);
+				} else if(overflowPolicy==OverflowPolicy.DISCARD_OLDEST && lane!=null && !lane.executions.isEmpty()) {
+					Execution droppedExecution = lane.executions.removeFirst();
+					droppedExecution.metrics.queued.decrementAndGet();
+					reject(droppedExecution);
+					queueSize--;
+				} else {
+					return reject(queuedExecution);
+				}
+			}
+			if(lane==null) {
+				lane = new Lane(laneKey);
+				lanes.put(laneKey, lane);
+			}
+			lane.executions.addLast(queuedExecution);
+			queueSize++;
+			ruleMetrics.queued.incrementAndGet();
+			if(!lane.running) {
+				boolean submitted = false;
+				try {
+					executor.execute(lane);
+					lane.running = true;
+					submitted = true;
+				} catch (RejectedExecutionException e) {
+					logger.debug("The rule executor has been shut down, execution of rule '{}' has been rejected.", ruleName);
+					return false;
+				} finally {
+					if(!submitted) {
+						// the executor has been shut down concurrently, so we roll back the queued execution
+						lane.executions.removeLast();
+						queueSize--;
+						ruleMetrics.queued.decrementAndGet();
+						if(lane.executions.isEmpty()) {
+							lanes.remove(laneKey);
+						}
+						lanes.notifyAll();
+					}
+				}
+			}
+			return true;
+		}
+	}
+	
+	private boolean reject(Execution execution) {
+		execution.metrics.rejected.incrementAndGet();
+		logger.warn("The rule executor queue is full, execution of rule '{}' has been rejected.", execution.ruleName);
+		return false;
+	}
+	
+	/**
+	 * Stops the executor after the queued executions have been processed
+	 * 
+	 * @param timeout the maximum time in milliseconds to wait for the executions to finish
+	 */
+	public void shutdown(long timeout) {
+		executor.shutdown();
+		try {
+			if(!executor.awaitTermination(timeout, TimeUnit.MILLISECONDS)) {
+				logger.warn("Not all rules have finished their execution within {}ms.", timeout);
+				executor.shutdownNow();
+			}
+		} catch (InterruptedException e) {
+			executor.shutdownNow();
+			Thread.currentThread().interrupt();
+		}
+	}
+	
+	/**
+	 * @return the total number of executions which are waiting to be processed
+	 */
+	public int getQueueSize() {
+		synchronized(lanes) {
+			return queueSize;
+		}
+	}
+	
+	/**
+	 * @return the metrics for all rules which have been triggered so far, keyed by rule name
+	 */
+	public Map<String, RuleMetrics> getMetrics() {
+		return Collections.unmodifiableMap(metrics);
+	}
+	
+	private RuleMetrics getMetrics(String ruleName) {
+		RuleMetrics ruleMetrics = metrics.get(ruleName);
+		if(ruleMetrics==null) {
+			ruleMetrics = new RuleMetrics();
+			RuleMetrics existingMetrics = metrics.putIfAbsent(ruleName, ruleMetrics);
+			if(existingMetrics!=null) {
+				ruleMetrics = existingMetrics;
+			}
+		}
+		return ruleMetrics;
+	}
+	
+	
+	/**
+	 * Processes the executions of one lane, one after the other.
+	 */
+	private class Lane implements Runnable {
+		
+		private final String key;
+		
+		private final LinkedList<Execution> executions = new LinkedList<Execution>();
+		
+		/** whether this lane is currently processed by a worker thread */
+		private boolean running = false;
+
+		public Lane(String key) {
+			this.key = key;
+		}
+
+		public void run() {
+			isWorkerThread.set(Boolean.TRUE);
+			boolean finished = false;
+			try {
+				while(true) {
+					Execution execution;
+					synchronized(lanes) {
+						execution = executions.poll();
+						if(execution==null) {
+							running = false;
+							lanes.remove(key);
+							finished = true;
+							return;
+						}
+						queueSize--;
+						lanes.notifyAll();
+					}
+					execution.run();
+				}
+			} finally {
+				if(!finished) {
+					release();
+				}
+			}
+		}
+		
+		/**
+		 * Releases a lane whose processing has been aborted unexpectedly, so that 
+		 * its remaining executions are not stuck in the queue forever.
+		 */
+		private void release() {
+			synchronized(lanes) {
+				running = false;
+				if(!executions.isEmpty()) {
+					try {
+						executor.execute(this);
+						running = true;
+						return;
+					} catch (RejectedExecutionException e) {
+						logger.debug("The rule executor has been shut down, dropping {} executions of lane '{}'.", executions.size(), key);
+					}
+					for(Execution execution : executions) {
+						execution.metrics.queued.decrementAndGet();
+					}
+					queueSize -= executions.size();
+					executions.clear();
+				}
+				lanes.remove(key);
+				lanes.notifyAll();
+			}
+		}
+		
+	}
+	
+	/**
+	 * A single queued rule execution
+	 */
+	private static class Execution {
+		
+		private final String ruleName;
+		
+		private final Runnable runnable;
+		
+		private final RuleMetrics metrics;
+		
+		public Execution(String ruleName, Runnable runnable, RuleMetrics metrics) {
+			this.ruleName = ruleName;
+			this.runnable = runnable;
+			this.metrics = metrics;
+		}
+		
+		public void run() {
+			metrics.queued.decrementAndGet();
+			String threadName = Thread.currentThread().getName();
+			Thread.currentThread().setName(threadName + " (" + ruleName + ")");
+			long start = System.currentTimeMillis();
+			try {
+				runnable.run();
+			} catch (Throwable t) {
+				// errors must not escape, as they would stop the processing of the whole lane
+				logger.error("Error during the execution of rule '" + ruleName + "'", t);
+			} finally {
+				metrics.executions.incrementAndGet();
+				metrics.executionTime.addAndGet(System.currentTimeMillis() - start);
+				Thread.currentThread().setName(threadName);
+			}
+		}
+	}
+	
+	/**
+	 * Collects statistics about the executions of a single rule
+	 */
+	public static class RuleMetrics {
+		
+		private final AtomicInteger queued = new AtomicInteger();
+		
+		private final AtomicLong executions = new AtomicLong();
+		
+		private final AtomicLong executionTime = new AtomicLong();
+		
+		private final AtomicLong rejected = new AtomicLong();
+
+		/**
+		 * @return the number of executions of this rule which are currently waiting to be processed
+		 */
+		public int getQueueSize() {
+			return queued.get();
+		}
+		
+		/**
+		 * @return the number of finished executions of this rule
+		 */
+		public long getExecutionCount() {
+			return executions.get();
+		}
+
+		/**
+		 * @return the accumulated execution time of this rule in milliseconds
+		 */
+		public long getExecutionTime() {
+			return executionTime.get();
+		}
+
+		/**
+		 * @return the number of executions of this rule which have been rejected because the queue was full
+		 */
+		public long getRejectedCount() {
+			return rejected.get();
+		}
+		
+		@Override
+		public String toString() {
+			return "queued=" + getQueueSize() + ", executions=" + getExecutionCount() + 
+				", executionTime=" + getExecutionTime() + "ms, rejected=" + getRejectedCount();
+		}
+	}
+
+}
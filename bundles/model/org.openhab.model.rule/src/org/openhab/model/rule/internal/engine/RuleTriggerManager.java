@@ -37,12 +37,17 @@ import static org.openhab.model.rule.internal.engine.RuleTriggerManager.TriggerT
 import static org.quartz.JobBuilder.newJob;
 import static org.quartz.TriggerBuilder.newTrigger;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import org.eclipse.emf.ecore.util.EcoreUtil;
 import org.openhab.core.items.Item;
@@ -61,6 +66,7 @@ import org.openhab.model.rule.rules.TimerTrigger;
 import org.openhab.model.rule.rules.UpdateEventTrigger;
 import org.quartz.CronScheduleBuilder;
 import org.quartz.Job;
+import org.quartz.JobDataMap;
 import org.quartz.JobDetail;
 import org.quartz.JobKey;
 import org.quartz.Scheduler;
@@ -71,16 +77,16 @@ import org.quartz.impl.matchers.GroupMatcher;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.google.common.collect.Iterables;
-import com.google.common.collect.Lists;
-import com.google.common.collect.Maps;
-import com.google.common.collect.Sets;
-
 /**
  * This is a helper class which deals with everything about rule triggers.
  * It keeps lists of which rule must be executed for which trigger and takes
  * over the evaluation of states and trigger conditions for the rule engine.
  * 
+ * <p>Event triggers are compiled into an index by item name, so that the rules
+ * for an event are found by a single lookup. The states and commands of the
+ * triggers are parsed only once (per set of accepted data types of the item) 
+ * instead of on every event.</p>
+ * 
  * @author Kai Kreuzer
  * @since 0.9.0
  *
@@ -98,18 +104,22 @@ public class RuleTriggerManager {
 		TIMER		// fires at a given time
 	}
 	
-	// lookup maps for different triggering conditions
-	private Map<String, Set<Rule>> updateEventTriggeredRules = Maps.newHashMap();
-	private Map<String, Set<Rule>> changedEventTriggeredRules = Maps.newHashMap();
-	private Map<String, Set<Rule>> commandEventTriggeredRules = Maps.newHashMap();
-	private List<Rule> systemStartupTriggeredRules = Lists.newArrayList();
-	private List<Rule> systemShutdownTriggeredRules = Lists.newArrayList();
-	private List<Rule> timerEventTriggeredRules = Lists.newArrayList();
+	// lookup maps for different triggering conditions, keyed by item name
+	private ConcurrentMap<String, List<CompiledTrigger>> updateEventTriggers = new ConcurrentHashMap<String, List<CompiledTrigger>>();
+	private ConcurrentMap<String, List<CompiledTrigger>> changedEventTriggers = new ConcurrentHashMap<String, List<CompiledTrigger>>();
+	private ConcurrentMap<String, List<CompiledTrigger>> commandEventTriggers = new ConcurrentHashMap<String, List<CompiledTrigger>>();
+	private List<Rule> systemStartupTriggeredRules = new CopyOnWriteArrayList<Rule>();
+	private List<Rule> systemShutdownTriggeredRules = new CopyOnWriteArrayList<Rule>();
+	private List<Rule> timerEventTriggeredRules = new CopyOnWriteArrayList<Rule>();
 
 	// the scheduler used for timer events
 	private Scheduler scheduler;
 	
-	public RuleTriggerManager() {
+	// the rule engine which executes the rules triggered by timer events
+	private final RuleEngine ruleEngine;
+	
+	public RuleTriggerManager(RuleEngine ruleEngine) {
+		this.ruleEngine = ruleEngine;
 		 try {
 			scheduler = StdSchedulerFactory.getDefaultScheduler();
 		} catch (SchedulerException e) {
@@ -124,17 +134,25 @@ public class RuleTriggerManager {
 	 * @return rules with triggers of the given type
 	 */
 	public Iterable<Rule> getRules(TriggerTypes type) {
-		Iterable<Rule> result;
 		switch(type) {
-			case STARTUP:  result = systemStartupTriggeredRules; break;
-			case SHUTDOWN: result = systemShutdownTriggeredRules; break;
-			case TIMER:    result = timerEventTriggeredRules; break;
-			case UPDATE:   result = Iterables.concat(updateEventTriggeredRules.values()); break;
-			case CHANGE:   result = Iterables.concat(changedEventTriggeredRules.values()); break;
-			case COMMAND:  result = Iterables.concat(commandEventTriggeredRules.values()); break;
-			default:       result = Sets.newHashSet();
+			case STARTUP:  return systemStartupTriggeredRules;
+			case SHUTDOWN: return systemShutdownTriggeredRules;
+			case TIMER:    return timerEventTriggeredRules;
+			case UPDATE:   return getAllRules(updateEventTriggers);
+			case CHANGE:   return getAllRules(changedEventTriggers);
+			case COMMAND:  return getAllRules(commandEventTriggers);
+			default:       return Collections.emptySet();
 		}
-		return result;
+	}
+
+	private Set<Rule> getAllRules(Map<String, List<CompiledTrigger>> index) {
+		Set<Rule> rules = new LinkedHashSet<Rule>();
+		for(List<CompiledTrigger> triggers : index.values()) {
+			for(CompiledTrigger trigger : triggers) {
+				rules.add(trigger.rule);
+			}
+		}
+		return rules;
 	}
 
 	/**
@@ -174,93 +192,26 @@ public class RuleTriggerManager {
 		return internalGetRules(triggerType, item, null, command);
 	}
 
-	private Iterable<Rule> getAllRules(TriggerTypes type, String itemName) {
-		switch(type) {
+	private Iterable<Rule> internalGetRules(TriggerTypes triggerType, Item item, Type oldType, Type newType) {
+		List<CompiledTrigger> triggers;
+		switch(triggerType) {
 			case STARTUP:  return systemStartupTriggeredRules;
 			case SHUTDOWN: return systemShutdownTriggeredRules;
-			case UPDATE:   return updateEventTriggeredRules.get(itemName);
-			case CHANGE:   return changedEventTriggeredRules.get(itemName);
-			case COMMAND:  return commandEventTriggeredRules.get(itemName);
-			default:       return Sets.newHashSet();
+			case TIMER :   return timerEventTriggeredRules;
+			case UPDATE:   triggers = updateEventTriggers.get(item.getName()); break;
+			case CHANGE:   triggers = changedEventTriggers.get(item.getName()); break;
+			case COMMAND:  triggers = commandEventTriggers.get(item.getName()); break;
+			default:       triggers = null;
 		}
-	}
-
-	private Iterable<Rule> internalGetRules(TriggerTypes triggerType, Item item, Type oldType, Type newType) {
-		List<Rule> result = Lists.newArrayList();
-		Iterable<Rule> rules = getAllRules(triggerType, item.getName());
-		if(rules==null) {
-			rules = Lists.newArrayList();
+		if(triggers==null || triggers.isEmpty()) {
+			return Collections.emptyList();
 		}
-		switch(triggerType) {
-		case STARTUP:  return systemStartupTriggeredRules;
-		case SHUTDOWN: return systemShutdownTriggeredRules;
-		case TIMER :   return timerEventTriggeredRules;
-		case UPDATE:   
-			if(newType instanceof State) {
-				State state = (State) newType;
-				for(Rule rule : rules) {
-					for(EventTrigger t : rule.getEventtrigger()) {
-						if (t instanceof UpdateEventTrigger) {
-							UpdateEventTrigger ut = (UpdateEventTrigger) t;
-							if(ut.getItem().equals(item.getName())) {
-								if(ut.getState()!=null) {
-									State triggerState = TypeParser.parseState(item.getAcceptedDataTypes(), ut.getState());
-									if(!state.equals(triggerState)) {
-										continue;
-									}
-								}
-								result.add(rule);
-							}
-						}
-					}
-				}
-			}
-			break;
-		case CHANGE:
-			if(newType instanceof State && oldType instanceof State) {
-				State newState = (State) newType;
-				State oldState = (State) oldType;
-				for(Rule rule : rules) {
-					for(EventTrigger t : rule.getEventtrigger()) {
-						if (t instanceof ChangedEventTrigger) {
-							ChangedEventTrigger ct = (ChangedEventTrigger) t;						
-							if(ct.getItem().equals(item.getName())) {
-								if(ct.getOldState()!=null) {
-									State triggerOldState = TypeParser.parseState(item.getAcceptedDataTypes(), ct.getOldState());
-									if(!oldState.equals(triggerOldState)) {
-										continue;
-									}								
-								}
-								if(ct.getNewState()!=null) {
-									State triggerNewState = TypeParser.parseState(item.getAcceptedDataTypes(), ct.getNewState());
-									if(!newState.equals(triggerNewState)) {
-										continue;
-									}								
-								}
-								result.add(rule);
-							}
-						}
-					}
-				}
-			}
-			break;
-		case COMMAND:  
-			if(newType instanceof Command) {
-				Command command = (Command) newType;
-				for(Rule rule : rules) {
-					for(EventTrigger t : rule.getEventtrigger()) {
-						if (t instanceof CommandEventTrigger) {
-							CommandEventTrigger ct = (CommandEventTrigger) t;
-							Command triggerCommand = TypeParser.parseCommand(item.getAcceptedCommandTypes(), ct.getCommand());
-							if(ct.getItem().equals(item.getName()) &&
-									(triggerCommand==null || command.equals(triggerCommand))) {
-								result.add(rule);
-							}
-						}
-					}
-				}
+		
+		List<Rule> result = new ArrayList<Rule>(triggers.size());
+		for(CompiledTrigger trigger : triggers) {
+			if(!result.contains(trigger.rule) && trigger.matches(item, triggerType==COMMAND, oldType, newType)) {
+				result.add(trigger.rule);
 			}
-			break;
 		}
 		return result;
 	}
@@ -274,9 +225,9 @@ public class RuleTriggerManager {
 		switch(type) {
 			case STARTUP:  	systemStartupTriggeredRules.clear(); break;
 			case SHUTDOWN: 	systemShutdownTriggeredRules.clear(); break;
-			case UPDATE:   	updateEventTriggeredRules.clear(); break;
-			case CHANGE:   	changedEventTriggeredRules.clear(); break;
-			case COMMAND:  	commandEventTriggeredRules.clear(); break;
+			case UPDATE:   	updateEventTriggers.clear(); break;
+			case CHANGE:   	changedEventTriggers.clear(); break;
+			case COMMAND:  	commandEventTriggers.clear(); break;
 			case TIMER:    	for(Rule rule : timerEventTriggeredRules) {
 								removeTimerRule(rule);
 							}
@@ -310,28 +261,13 @@ public class RuleTriggerManager {
 				systemShutdownTriggeredRules.add(rule);
 			} else if(t instanceof CommandEventTrigger) {
 				CommandEventTrigger ceTrigger = (CommandEventTrigger) t;
-				Set<Rule> rules = commandEventTriggeredRules.get(ceTrigger.getItem());
-				if(rules==null) {
-					rules = new HashSet<Rule>();
-					commandEventTriggeredRules.put(ceTrigger.getItem(), rules);
-				}
-				rules.add(rule);
+				addTrigger(commandEventTriggers, ceTrigger.getItem(), new CompiledTrigger(rule, null, ceTrigger.getCommand()));
 			} else if(t instanceof UpdateEventTrigger) {
 				UpdateEventTrigger ueTrigger = (UpdateEventTrigger) t;
-				Set<Rule> rules = updateEventTriggeredRules.get(ueTrigger.getItem());
-				if(rules==null) {
-					rules = new HashSet<Rule>();
-					updateEventTriggeredRules.put(ueTrigger.getItem(), rules);
-				}
-				rules.add(rule);
+				addTrigger(updateEventTriggers, ueTrigger.getItem(), new CompiledTrigger(rule, null, ueTrigger.getState()));
 			} else if(t instanceof ChangedEventTrigger) {
 				ChangedEventTrigger ceTrigger = (ChangedEventTrigger) t;
-				Set<Rule> rules = changedEventTriggeredRules.get(ceTrigger.getItem());
-				if(rules==null) {
-					rules = new HashSet<Rule>();
-					changedEventTriggeredRules.put(ceTrigger.getItem(), rules);
-				}
-				rules.add(rule);
+				addTrigger(changedEventTriggers, ceTrigger.getItem(), new CompiledTrigger(rule, ceTrigger.getOldState(), ceTrigger.getNewState()));
 			} else if(t instanceof TimerTrigger) {
 				timerEventTriggeredRules.add(rule);
 				try {
@@ -342,6 +278,15 @@ public class RuleTriggerManager {
 			}
 		}
 	}
+	
+	private void addTrigger(ConcurrentMap<String, List<CompiledTrigger>> index, String itemName, CompiledTrigger trigger) {
+		List<CompiledTrigger> triggers = index.get(itemName);
+		if(triggers==null) {
+			triggers = new CopyOnWriteArrayList<CompiledTrigger>();
+			index.put(itemName, triggers);
+		}
+		triggers.add(trigger);
+	}
 		
 	/**
 	 * Removes a given rule from the mapping tables of a certain trigger type
@@ -349,13 +294,14 @@ public class RuleTriggerManager {
 	 * @param type the trigger type for which the rule should be removed
 	 * @param rule the rule to add
 	 */
-	public void removeRule(TriggerTypes type, Rule rule) {
+	public synchronized void removeRule(TriggerTypes type, Rule rule) {
+		Set<Rule> rules = Collections.singleton(rule);
 		switch(type) {
 			case STARTUP:  	systemStartupTriggeredRules.remove(rule); break;
 			case SHUTDOWN: 	systemShutdownTriggeredRules.remove(rule); break;
-			case UPDATE:   	updateEventTriggeredRules.remove(rule); break;
-			case CHANGE:   	changedEventTriggeredRules.remove(rule); break;
-			case COMMAND:  	commandEventTriggeredRules.remove(rule); break;
+			case UPDATE:   	removeTriggers(updateEventTriggers, rules); break;
+			case CHANGE:   	removeTriggers(changedEventTriggers, rules); break;
+			case COMMAND:  	removeTriggers(commandEventTriggers, rules); break;
 			case TIMER:    	timerEventTriggeredRules.remove(rule); 
 							removeTimerRule(rule);
 							break;
@@ -378,35 +324,56 @@ public class RuleTriggerManager {
 	 * 
 	 * @param ruleModel the rule model
 	 */
-	public void removeRuleModel(RuleModel ruleModel) {
-		removeRules(UPDATE, updateEventTriggeredRules.values(), ruleModel);
-		removeRules(CHANGE, changedEventTriggeredRules.values(), ruleModel);
-		removeRules(COMMAND, commandEventTriggeredRules.values(), ruleModel);
-		removeRules(STARTUP, Collections.singletonList(systemStartupTriggeredRules), ruleModel);
-		removeRules(SHUTDOWN, Collections.singletonList(systemShutdownTriggeredRules), ruleModel);		
-		removeRules(TIMER, Collections.singletonList(timerEventTriggeredRules), ruleModel);		
+	public synchronized void removeRuleModel(RuleModel ruleModel) {
+		Set<Rule> rules = new HashSet<Rule>();
+		if(ruleModel!=null) {
+			rules.addAll(ruleModel.getRules());
+		}
+		removeTriggers(updateEventTriggers, rules);
+		removeTriggers(changedEventTriggers, rules);
+		removeTriggers(commandEventTriggers, rules);
+		removeRules(STARTUP, systemStartupTriggeredRules, rules);
+		removeRules(SHUTDOWN, systemShutdownTriggeredRules, rules);		
+		removeRules(TIMER, timerEventTriggeredRules, rules);		
 	}
 
-	private void removeRules(TriggerTypes type, Collection<? extends Collection<Rule>> ruleSets, RuleModel model) {
-		for(Collection<Rule> ruleSet : ruleSets) {
-			// first remove all rules of the model, if not null (=non-existent)
-			if(model!=null) {
-				for(Rule rule : model.getRules()) {
-					ruleSet.remove(rule);
-					if(type==TIMER) {
-						removeTimerRule(rule);
-					}
+	/**
+	 * Removes all triggers of the given rules and of all proxified rules from an index
+	 */
+	private void removeTriggers(ConcurrentMap<String, List<CompiledTrigger>> index, Set<Rule> rules) {
+		for(Map.Entry<String, List<CompiledTrigger>> entry : index.entrySet()) {
+			List<CompiledTrigger> triggers = entry.getValue();
+			List<CompiledTrigger> obsoleteTriggers = new ArrayList<CompiledTrigger>();
+			for(CompiledTrigger trigger : triggers) {
+				if(rules.contains(trigger.rule) || trigger.rule.eIsProxy()) {
+					obsoleteTriggers.add(trigger);
 				}
 			}
+			if(!obsoleteTriggers.isEmpty()) {
+				triggers.removeAll(obsoleteTriggers);
+				if(triggers.isEmpty()) {
+					index.remove(entry.getKey(), triggers);
+				}
+			}
+		}
+	}
 
-			// now also remove all proxified rules from the set
-			Set<Rule> clonedSet = new HashSet<Rule>(ruleSet);
-			for(Rule rule : clonedSet) {
-				if(rule.eIsProxy()) {
-					ruleSet.remove(rule);
-					if(type==TIMER) {
-						removeTimerRule(rule);
-					}
+	private void removeRules(TriggerTypes type, Collection<Rule> ruleSet, Set<Rule> rules) {
+		// first remove all given rules, then also all proxified rules from the set
+		List<Rule> obsoleteRules = new ArrayList<Rule>();
+		for(Rule rule : ruleSet) {
+			if(rules.contains(rule) || rule.eIsProxy()) {
+				obsoleteRules.add(rule);
+			}
+		}
+		ruleSet.removeAll(obsoleteRules);
+		if(type==TIMER) {
+			for(Rule rule : rules) {
+				removeTimerRule(rule);
+			}
+			for(Rule rule : obsoleteRules) {
+				if(!rules.contains(rule)) {
+					removeTimerRule(rule);
 				}
 			}
 		}
@@ -444,9 +411,12 @@ public class RuleTriggerManager {
 		String jobIdentity = getJobIdentityString(rule, trigger);
 
 		try {
+	        JobDataMap jobData = new JobDataMap();
+	        jobData.put(ExecuteRuleJob.JOB_DATA_RULEMODEL, rule.eResource().getURI().path());
+	        jobData.put(ExecuteRuleJob.JOB_DATA_RULENAME, rule.getName());
+	        jobData.put(ExecuteRuleJob.JOB_DATA_RULEENGINE, ruleEngine);
 	        JobDetail job = newJob(ExecuteRuleJob.class)
-	        	.usingJobData(ExecuteRuleJob.JOB_DATA_RULEMODEL, rule.eResource().getURI().path())
-	        	.usingJobData(ExecuteRuleJob.JOB_DATA_RULENAME, rule.getName())
+	        	.usingJobData(jobData)
 	            .withIdentity(jobIdentity)
 	            .build();
 	        Trigger quartzTrigger = newTrigger()
@@ -494,4 +464,95 @@ public class RuleTriggerManager {
 		}
 		return jobIdentity;
 	}
+	
+	
+	/**
+	 * An event trigger of a rule. The state or command strings of the trigger are
+	 * parsed on first use and then kept for all further events, as long as the
+	 * accepted types of the item do not change.
+	 */
+	private static class CompiledTrigger {
+		
+		private final Rule rule;
+		
+		/** the old state of a change trigger or <code>null</code> if there is no such condition */
+		private final String oldValueString;
+		
+		/** the (new) state or the command of the trigger or <code>null</code> if there is no such condition */
+		private final String newValueString;
+		
+		private volatile ParsedValues parsedValues;
+		
+		public CompiledTrigger(Rule rule, String oldValueString, String newValueString) {
+			this.rule = rule;
+			this.oldValueString = oldValueString;
+			this.newValueString = newValueString;
+		}
+		
+		/**
+		 * Checks whether the trigger condition is true for the given event
+		 */
+		public boolean matches(Item item, boolean command, Type oldValue, Type newValue) {
+			if(command) {
+				if(newValueString==null) {
+					return true;
+				}
+				ParsedValues values = getParsedValues(item, item.getAcceptedCommandTypes(), true);
+				// a command which cannot be parsed for the item has always matched any command
+				return values.newValue==null || newValue.equals(values.newValue);
+			} else {
+				if(oldValueString==null && newValueString==null) {
+					return true;
+				}
+				ParsedValues values = getParsedValues(item, item.getAcceptedDataTypes(), false);
+				if(oldValueString!=null && !oldValue.equals(values.oldValue)) {
+					return false;
+				}
+				return newValueString==null || newValue.equals(values.newValue);
+			}
+		}
+		
+		@SuppressWarnings("unchecked")
+		private ParsedValues getParsedValues(Item item, List<? extends Class<? extends Type>> types, boolean command) {
+			ParsedValues values = parsedValues;
+			if(values==null || values.command!=command || !values.types.equals(types)) {
+				Type oldValue = null;
+				Type newValue = null;
+				if(command) {
+					newValue = TypeParser.parseCommand((List<Class<? extends Command>>) types, newValueString);
+					if(newValue==null) {
+						logger.warn("Command '{}' of the trigger of rule '{}' is not valid for item '{}' - the rule is triggered by any command", 
+							new Object[] { newValueString, rule.getName(), item.getName() });
+					}
+				} else {
+					if(oldValueString!=null) {
+						oldValue = TypeParser.parseState((List<Class<? extends State>>) types, oldValueString);
+					}
+					if(newValueString!=null) {
+						newValue = TypeParser.parseState((List<Class<? extends State>>) types, newValueString);
+					}
+				}
+				values = new ParsedValues(types, command, oldValue, newValue);
+				parsedValues = values;
+			}
+			return values;
+		}
+	}
+	
+	/**
+	 * The parsed values of a trigger for a certain list of accepted types
+	 */
+	private static class ParsedValues {
+		private final List<?> types;
+		private final boolean command;
+		private final Type oldValue;
+		private final Type newValue;
+
+		public ParsedValues(List<?> types, boolean command, Type oldValue, Type newValue) {
+			this.types = types;
+			this.command = command;
+			this.oldValue = oldValue;
+			this.newValue = newValue;
+		}
+	}
 }
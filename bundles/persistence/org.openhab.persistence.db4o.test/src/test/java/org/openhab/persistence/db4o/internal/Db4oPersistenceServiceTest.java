@@ -31,6 +31,7 @@ package org.openhab.persistence.db4o.internal;
 import java.io.File;
 import java.io.IOException;
 import java.util.Arrays;
+import java.util.Hashtable;
 
 import junit.framework.Assert;
 
@@ -38,6 +39,11 @@ import org.apache.commons.io.FileUtils;
 import org.junit.Before;
 import org.junit.Test;
 import org.openhab.persistence.db4o.internal.Db4oPersistenceService.BackupJob;
+import org.osgi.service.cm.ConfigurationException;
+import org.quartz.CronTrigger;
+import org.quartz.SchedulerException;
+import org.quartz.TriggerKey;
+import org.quartz.impl.StdSchedulerFactory;
 
 
 /**
@@ -85,5 +91,24 @@ public class Db4oPersistenceServiceTest {
 		}
 	}
 
+	@Test
+	public void testRetentionJobIsRescheduledWhenIntervalChanges() throws ConfigurationException, SchedulerException {
+		// the default scheduler is not started, so the jobs are never executed
+		Db4oPersistenceService service = new Db4oPersistenceService();
+		String formerInterval = Db4oConfiguration.retentionInterval;
+		service.scheduleJob();
+		try {
+			Hashtable<String, Object> config = new Hashtable<String, Object>();
+			config.put("retentioninterval", "0 0 3 * * ?");
+			new Db4oConfiguration().updated(config);
+			
+			CronTrigger trigger = (CronTrigger) StdSchedulerFactory.getDefaultScheduler()
+				.getTrigger(TriggerKey.triggerKey("Retention_DB", "DB4O_SchedulerGroup"));
+			Assert.assertEquals("0 0 3 * * ?", trigger.getCronExpression());
+		} finally {
+			service.cancelAllJobs();
+			Db4oConfiguration.retentionInterval = formerInterval;
+		}
+	}
 
 }
@@ -59,6 +59,18 @@ public class Db4oConfiguration implements ManagedService {
 	/** the amount of backup files allowed in DB_FOLDER_NAME (optional, defaults to '7') */
 	public static int maxBackups = 7;
 	
+	/** the retention interval as Cron-Expression (optional, defaults to '0 30 1 * * ?' which means every morning at 1:30) */
+	public static volatile String retentionInterval = "0 30 1 * * ?";
+	
+	/** the age in days after which stored states are removed (optional, defaults to '0' which means keep forever) */
+	public static volatile int maxAge = 0;
+	
+	/** the age in days after which stored states are downsampled (optional, defaults to '0' which disables downsampling) */
+	public static volatile int downsampleAge = 0;
+	
+	/** the resolution in minutes of downsampled states, i.e. only the first state per item and interval is kept (optional, defaults to '60') */
+	public static volatile int downsampleInterval = 60;
+	
 	
 	/**
 	 * {@inheritDoc}
@@ -90,7 +102,32 @@ public class Db4oConfiguration implements ManagedService {
 					logger.warn("couldn't parse '{}' to an integer");
 				}
 			}
+			
+			String retentionIntervalString = (String) config.get("retentioninterval");
+			if (StringUtils.isNotBlank(retentionIntervalString) && !retentionIntervalString.equals(retentionInterval)) {
+				retentionInterval = retentionIntervalString;
+				// the retention job might already have been scheduled with the former interval
+				Db4oPersistenceService.rescheduleRetentionJob();
+			}
+			
+			maxAge = parseInt(config, "maxage", maxAge);
+			downsampleAge = parseInt(config, "downsampleage", downsampleAge);
+			downsampleInterval = parseInt(config, "downsampleinterval", downsampleInterval);
+		}
+	}
+	
+	@SuppressWarnings("rawtypes")
+	private static int parseInt(Dictionary config, String key, int defaultValue) {
+		String value = (String) config.get(key);
+		if (StringUtils.isNotBlank(value)) {
+			try {
+				return Integer.valueOf(value.trim());
+			}
+			catch (IllegalArgumentException iae) {
+				logger.warn("couldn't parse '{}' of '{}' to an integer", value, key);
+			}
 		}
+		return defaultValue;
 	}
 	
 	
@@ -34,7 +34,7 @@ import java.util.Date;
 import org.openhab.core.persistence.HistoricItem;
 import org.openhab.core.types.State;
 
-import com.db4o.config.Configuration;
+import com.db4o.config.CommonConfiguration;
 
 /**
  * This is a Java bean used to persist item states with timestamps in the database.
@@ -78,7 +78,15 @@ public class Db4oItem implements HistoricItem {
 		return DateFormat.getDateTimeInstance().format(timestamp) + ": " + name + " -> "+ state.toString();
 	}
 
-	static /* default */ void configure(Configuration config) {
+	/**
+	 * Declares the field indexes and cascading behaviour of {@link Db4oItem}. This
+	 * must be applied to the configuration <i>before</i> the database file is opened,
+	 * since db4o only creates (missing) field indexes when the class metadata is
+	 * initialised.
+	 * 
+	 * @param config the configuration used to open the database
+	 */
+	static /* default */ void configure(CommonConfiguration config) {
 		config.objectClass(Db4oItem.class).objectField("name").indexed(true);
 		config.objectClass(Db4oItem.class).objectField("timestamp").indexed(true);
 
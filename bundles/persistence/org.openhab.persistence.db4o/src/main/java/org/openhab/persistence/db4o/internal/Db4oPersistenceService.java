@@ -30,7 +30,11 @@ package org.openhab.persistence.db4o.internal;
 
 import static org.openhab.persistence.db4o.internal.Db4oConfiguration.backupInterval;
 import static org.openhab.persistence.db4o.internal.Db4oConfiguration.commitInterval;
+import static org.openhab.persistence.db4o.internal.Db4oConfiguration.downsampleAge;
+import static org.openhab.persistence.db4o.internal.Db4oConfiguration.downsampleInterval;
+import static org.openhab.persistence.db4o.internal.Db4oConfiguration.maxAge;
 import static org.openhab.persistence.db4o.internal.Db4oConfiguration.maxBackups;
+import static org.openhab.persistence.db4o.internal.Db4oConfiguration.retentionInterval;
 import static org.quartz.JobBuilder.newJob;
 import static org.quartz.SimpleScheduleBuilder.repeatSecondlyForever;
 import static org.quartz.TriggerBuilder.newTrigger;
@@ -43,14 +47,18 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Set;
 
 import org.openhab.core.items.Item;
+import org.openhab.core.persistence.AggregatingPersistenceService;
+import org.openhab.core.persistence.Aggregator;
 import org.openhab.core.persistence.FilterCriteria;
+import org.openhab.core.persistence.FilterCriteria.Aggregation;
 import org.openhab.core.persistence.FilterCriteria.Ordering;
 import org.openhab.core.persistence.HistoricItem;
 import org.openhab.core.persistence.PersistenceService;
-import org.openhab.core.persistence.QueryablePersistenceService;
 import org.quartz.CronScheduleBuilder;
 import org.quartz.CronTrigger;
 import org.quartz.DisallowConcurrentExecution;
@@ -69,6 +77,7 @@ import org.slf4j.LoggerFactory;
 import com.db4o.Db4oEmbedded;
 import com.db4o.ObjectContainer;
 import com.db4o.ObjectSet;
+import com.db4o.config.EmbeddedConfiguration;
 import com.db4o.ext.DatabaseClosedException;
 import com.db4o.ext.Db4oException;
 import com.db4o.ext.ExtObjectContainer;
@@ -81,7 +90,7 @@ import com.db4o.query.Query;
  * @author Kai Kreuzer
  * @since 1.0.0
  */
-public class Db4oPersistenceService implements QueryablePersistenceService {
+public class Db4oPersistenceService implements AggregatingPersistenceService {
 
 	private static final Logger logger = LoggerFactory.getLogger(Db4oPersistenceService.class);
 	
@@ -92,6 +101,14 @@ public class Db4oPersistenceService implements QueryablePersistenceService {
 
 	private static final String SCHEDULER_GROUP = "DB4O_SchedulerGroup";
 	
+	private static final String RETENTION_JOB_NAME = "Retention_DB";
+	
+	/** the number of stored objects which are activated at once while iterating a query result */
+	private static final int QUERY_CHUNK_SIZE = 100;
+	
+	/** the time span in milliseconds in which the latest states are searched first */
+	private static final long INITIAL_SEARCH_WINDOW = 60L * 60 * 1000;
+	
 	private static ObjectContainer db;
 	
 	
@@ -105,7 +122,6 @@ public class Db4oPersistenceService implements QueryablePersistenceService {
 			folder.mkdir();
 		}
 	    openDbFile();
-	    Db4oItem.configure(db.ext().configure());
 	    
 	    scheduleJob();
 	}
@@ -142,14 +158,113 @@ public class Db4oPersistenceService implements QueryablePersistenceService {
 	}
 
 	public Iterable<HistoricItem> query(FilterCriteria filter) {
+		if (filter==null) {
+			filter = new FilterCriteria();
+		}
+		long count = (long) (filter.getPageNumber() + 1) * filter.getPageSize();
+		if (filter.getOrdering()==Ordering.DESCENDING && count <= QUERY_CHUNK_SIZE) {
+			ObjectSet<HistoricItem> results = executeBackwards(filter, (int) count);
+			if (results != null) {
+				return new Db4oQueryResult(results, filter, QUERY_CHUNK_SIZE);
+			}
+		} else {
+			Query query = createQuery(filter, filter.getOrdering());
+			if (query != null) {
+				return new Db4oQueryResult(query, filter, QUERY_CHUNK_SIZE);
+			}
+		}
+		
+		return Collections.emptyList();
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * 
+	 * <p>The first or last value of the whole range is directly taken from the sorted 
+	 * query result. All other aggregations are evaluated while iterating over the result, 
+	 * so that the stored objects are only activated one after the other.</p>
+	 */
+	public Iterable<HistoricItem> aggregate(FilterCriteria filter) {
+		Aggregation aggregation = filter.getAggregation();
+		if (aggregation == null) {
+			return null;
+		}
+		
+		boolean single = filter.getBucketSize() <= 0 && (aggregation==Aggregation.FIRST || aggregation==Aggregation.LAST);
+		if (single && aggregation==Aggregation.LAST) {
+			ObjectSet<HistoricItem> results = executeBackwards(filter, 1);
+			if (results != null && results.hasNext()) {
+				return Collections.singletonList(results.next());
+			}
+			return Collections.emptyList();
+		}
+		
+		Query query = createQuery(filter, Ordering.ASCENDING);
+		if (query != null) {
+			ObjectSet<HistoricItem> results = query.execute();
+			if (single) {
+				return results.hasNext() ? Collections.singletonList(results.next()) : Collections.<HistoricItem>emptyList();
+			}
+			Aggregator aggregator = new Aggregator(filter.getItemName(), aggregation, filter.getBucketSize());
+			while (results.hasNext()) {
+				aggregator.add(results.next());
+			}
+			return aggregator.getResult(filter.getOrdering());
+		}
+		
+		return Collections.emptyList();
+	}
+	
+	/**
+	 * Executes a query for (at least) the given number of latest states that 
+	 * match the filter. Instead of sorting all states before the end date, the 
+	 * states are searched in a time window before the end date, which is 
+	 * enlarged until enough states are found. As every window is a range on the 
+	 * timestamp index, only the states within the window need to be compared
+	 * and sorted, which keeps lookups like <code>historicState</code> fast on
+	 * large databases.
+	 * 
+	 * @param filter the filter criteria to apply
+	 * @param count the number of states that are needed
+	 * @return the matching states in descending order or <code>null</code>, if the 
+	 * database is not available
+	 */
+	private ObjectSet<HistoricItem> executeBackwards(FilterCriteria filter, int count) {
+		long end = filter.getEndDate()!=null ? filter.getEndDate().getTime() : System.currentTimeMillis();
+		long begin = filter.getBeginDate()!=null ? filter.getBeginDate().getTime() : 0;
+		FilterCriteria windowFilter = new FilterCriteria()
+			.setItemName(filter.getItemName())
+			.setState(filter.getState())
+			.setOperator(filter.getOperator())
+			.setEndDate(filter.getEndDate());
+		
+		for (long window = INITIAL_SEARCH_WINDOW; ; window *= 4) {
+			boolean complete = end - window <= begin;
+			windowFilter.setBeginDate(complete ? filter.getBeginDate() : new Date(end - window));
+			Query query = createQuery(windowFilter, Ordering.DESCENDING);
+			if (query == null) {
+				return null;
+			}
+			ObjectSet<HistoricItem> results = query.execute();
+			if (complete || results.size() >= count) {
+				return results;
+			}
+		}
+	}
+	
+	/**
+	 * Creates a query with the constraints of the given filter.
+	 * 
+	 * @param filter the filter criteria to apply
+	 * @param ordering the ordering of the result
+	 * @return the query or <code>null</code>, if the database is not available
+	 */
+	private Query createQuery(FilterCriteria filter, Ordering ordering) {
 		Query query = queryWithReconnect();
 		
 		if (query != null) {
 			query.constrain(Db4oItem.class);
 			
-			if (filter==null) {
-				filter = new FilterCriteria();
-			}
 			if (filter.getBeginDate()!=null) {
 				query.descend("timestamp").constrain(filter.getBeginDate()).greater().equal();
 			}
@@ -170,24 +285,14 @@ public class Db4oPersistenceService implements QueryablePersistenceService {
 				}
 			}
 			
-			if(filter.getOrdering()==Ordering.ASCENDING) {
+			if(ordering==Ordering.ASCENDING) {
 				query.descend("timestamp").orderAscending();
 			} else {
 				query.descend("timestamp").orderDescending();
 			}
-			ObjectSet<HistoricItem> results = query.execute();
-	
-			int startIndex = filter.getPageNumber() * filter.getPageSize();
-			if (startIndex < results.size()) {
-				int endIndex = startIndex + filter.getPageSize();
-				if(endIndex > results.size()) {
-					endIndex = results.size();
-				}
-				return results.subList(startIndex, endIndex);
-			}
 		}
 		
-		return Collections.emptyList();
+		return query;
 	}
 	
 	/**
@@ -211,15 +316,17 @@ public class Db4oPersistenceService implements QueryablePersistenceService {
 	}
 
 	private static void openDbFile() {
-		db = Db4oEmbedded.openFile(Db4oEmbedded.newConfiguration(), DB_FOLDER_NAME + File.separator + DB_FILE_NAME);
+		EmbeddedConfiguration config = Db4oEmbedded.newConfiguration();
+		Db4oItem.configure(config.common());
+		db = Db4oEmbedded.openFile(config, DB_FOLDER_NAME + File.separator + DB_FILE_NAME);
 	}
 	
 
 	/**
-	 * Schedules new quartz scheduler jobs for committing transactions and 
-	 * backing up the database
+	 * Schedules new quartz scheduler jobs for committing transactions, 
+	 * backing up the database and applying the retention policy
 	 */
-	private void scheduleJob() {
+	void scheduleJob() {
 		try {
 			Scheduler sched = StdSchedulerFactory.getDefaultScheduler();
 			
@@ -248,15 +355,49 @@ public class Db4oPersistenceService implements QueryablePersistenceService {
 
 			sched.scheduleJob(backupJob, backupTrigger);
 			logger.debug("Scheduled Backup-Job with cron expression '{}'", backupInterval);
+			
+			// schedule retention-job (it is always scheduled, as the configuration 
+			// might only be delivered after the activation of this service)
+			JobDetail retentionJob = newJob(RetentionJob.class)
+					.withIdentity(RETENTION_JOB_NAME, SCHEDULER_GROUP)
+				    .build();
+
+			CronTrigger retentionTrigger = createRetentionTrigger();
+			sched.scheduleJob(retentionJob, retentionTrigger);
+			logger.debug("Scheduled Retention-Job with cron expression '{}'", retentionTrigger.getCronExpression());
 		} catch (SchedulerException e) {
 			logger.warn("Could not create Job: {}", e.getMessage());
 		}		
 	}
 
+	/**
+	 * Replaces the trigger of the retention job by one with the current retention
+	 * interval. Nothing happens, if the job has not been scheduled yet, as it will
+	 * pick up the current interval once it is scheduled.
+	 */
+	static void rescheduleRetentionJob() {
+		try {
+			Scheduler sched = StdSchedulerFactory.getDefaultScheduler();
+			CronTrigger retentionTrigger = createRetentionTrigger();
+			if (sched.rescheduleJob(retentionTrigger.getKey(), retentionTrigger) != null) {
+				logger.debug("Rescheduled Retention-Job with cron expression '{}'", retentionTrigger.getCronExpression());
+			}
+		} catch (SchedulerException e) {
+			logger.warn("Could not reschedule Retention-Job: {}", e.getMessage());
+		}
+	}
+	
+	private static CronTrigger createRetentionTrigger() {
+		return newTrigger()
+			    .withIdentity(RETENTION_JOB_NAME, SCHEDULER_GROUP)
+			    .withSchedule(CronScheduleBuilder.cronSchedule(retentionInterval))
+			    .build();
+	}
+	
 	/**
 	 * Delete all quartz scheduler jobs of the group <code>Dropbox</code>.
 	 */
-	private void cancelAllJobs() {
+	void cancelAllJobs() {
 		try {
 			Scheduler sched = StdSchedulerFactory.getDefaultScheduler();
 			Set<JobKey> jobKeys = sched.getJobKeys(jobGroupEquals(SCHEDULER_GROUP));
@@ -367,5 +508,120 @@ public class Db4oPersistenceService implements QueryablePersistenceService {
 		
 	}
 	
+	/**
+	 * A quartz scheduler job to keep the size of the db4o database bounded. It
+	 * removes all states which are older than <code>maxage</code> days and
+	 * reduces the states older than <code>downsampleage</code> days to the
+	 * first state per item and <code>downsampleinterval</code> minutes. Both
+	 * steps are indexed range queries on the timestamp, and the transaction is
+	 * committed in batches so that it doesn't grow unbounded. There can be only
+	 * one instance of a specific job type running at the same time.
+	 * 
+	 * @author Kai Kreuzer
+	 * @since 1.4.0
+	 */
+	@DisallowConcurrentExecution
+	public static class RetentionJob implements Job {
+		
+		/** the number of deleted objects after which the transaction is committed */
+		private static final int BATCH_SIZE = 1000;
+		
+		private static final long DAY = 24L * 60 * 60 * 1000;
+		
+		@Override
+		public void execute(JobExecutionContext context) throws JobExecutionException {
+			// the configuration is read on every run, so that changes apply without a restart
+			if (maxAge <= 0 && downsampleAge <= 0) {
+				return;
+			}
+			long startTime = System.currentTimeMillis();
+			Date pruneDate = maxAge > 0 ? new Date(startTime - maxAge * DAY) : null;
+			try {
+				int removed = 0;
+				int downsampled = 0;
+				if (pruneDate != null) {
+					removed = prune(pruneDate);
+				}
+				if (downsampleAge > 0 && (maxAge <= 0 || downsampleAge < maxAge)) {
+					downsampled = downsample(pruneDate, new Date(startTime - downsampleAge * DAY), downsampleInterval * 60000L);
+				}
+				db.commit();
+				logger.debug("removed {} and downsampled {} item states from db4o in {}ms", 
+					new Object[] { removed, downsampled, System.currentTimeMillis() - startTime });
+			} catch(Db4oException e) {
+				try {
+					db.rollback();
+					logger.warn("Error applying retention policy : {}", e.getMessage());
+				} catch(DatabaseClosedException dce) {
+					logger.debug("Cannot roll back transaction because database is closed: {}", e.getMessage());
+				}
+			}
+		}
+		
+		/**
+		 * Deletes all stored states which are older than the given date.
+		 * 
+		 * @param before the date before which all states are removed
+		 * @return the number of removed states
+		 */
+		protected int prune(Date before) {
+			Query query = db.query();
+			query.constrain(Db4oItem.class);
+			query.descend("timestamp").constrain(before).smaller();
+			
+			int count = 0;
+			ObjectSet<Db4oItem> results = query.execute();
+			while (results.hasNext()) {
+				delete(results.next(), ++count);
+			}
+			return count;
+		}
+		
+		/**
+		 * Keeps only the first stored state per item and interval within the given
+		 * time range and deletes all others.
+		 * 
+		 * @param from the start of the range or <code>null</code> for no lower bound
+		 * @param to the (exclusive) end of the range
+		 * @param interval the length of an interval in milliseconds
+		 * @return the number of removed states
+		 */
+		protected int downsample(Date from, Date to, long interval) {
+			if (interval <= 0) {
+				return 0;
+			}
+			Query query = db.query();
+			query.constrain(Db4oItem.class);
+			if (from != null) {
+				query.descend("timestamp").constrain(from).greater().equal();
+			}
+			query.descend("timestamp").constrain(to).smaller();
+			query.descend("timestamp").orderAscending();
+			
+			int count = 0;
+			Map<String, Long> lastIntervals = new HashMap<String, Long>();
+			ObjectSet<Db4oItem> results = query.execute();
+			while (results.hasNext()) {
+				Db4oItem item = results.next();
+				Long currentInterval = item.getTimestamp().getTime() / interval;
+				if (currentInterval.equals(lastIntervals.get(item.getName()))) {
+					delete(item, ++count);
+				} else {
+					lastIntervals.put(item.getName(), currentInterval);
+					db.deactivate(item, 1);
+				}
+			}
+			return count;
+		}
+		
+		private void delete(Db4oItem item, int count) {
+			db.delete(item);
+			if (count % BATCH_SIZE == 0) {
+				db.commit();
+			}
+		}
+		
+	}
+	
 
 }
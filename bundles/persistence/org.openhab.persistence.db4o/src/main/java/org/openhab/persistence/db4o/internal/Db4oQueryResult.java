@@ -0,0 +1,117 @@
+/**
+ * openHAB, the open Home Automation Bus.
+ * Copyright (C) 2010-2013, openHAB.org <admin@openhab.org>
+ *
+ * See the contributors.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation; either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ *
+ * Additional permission under GNU GPL version 3 section 7
+ *
+ * If you modify this Program, or any covered work, by linking or
+ * combining it with Eclipse (or a modified version of that library),
+ * containing parts covered by the terms of the Eclipse Public License
+ * (EPL), the licensors of this Program grant you additional permission
+ * to convey the resulting work.
+ */
+package org.openhab.persistence.db4o.internal;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.openhab.core.persistence.FilterCriteria;
+import org.openhab.core.persistence.HistoricItem;
+import org.openhab.core.persistence.PagedQueryResult;
+
+import com.db4o.ObjectSet;
+import com.db4o.query.Query;
+
+/**
+ * The result of a db4o query. The query is only executed when the result is
+ * iterated for the first time; the stored objects are then read chunk by chunk
+ * with the cursor of the {@link ObjectSet}, so that only the objects of the
+ * requested page are activated. The size of the result is only determined if
+ * a page other than the first one is requested, as this needs random access.
+ * 
+ * @author Kai Kreuzer
+ * @since 1.4.0
+ */
+public class Db4oQueryResult extends PagedQueryResult {
+
+	private final Query query;
+	
+	private ObjectSet<HistoricItem> results = null;
+	
+	/** the index of the next object of the cursor of {@link #results} */
+	private long position = 0;
+	
+	/**
+	 * @param query the (not yet executed) query
+	 * @param filter the filter of the query, whose paging is applied
+	 * @param chunkSize the number of objects to activate at once
+	 */
+	public Db4oQueryResult(Query query, FilterCriteria filter, int chunkSize) {
+		super(filter, chunkSize);
+		this.query = query;
+	}
+	
+	/**
+	 * @param results the result of an already executed query
+	 * @param filter the filter of the query, whose paging is applied
+	 * @param chunkSize the number of objects to activate at once
+	 */
+	public Db4oQueryResult(ObjectSet<HistoricItem> results, FilterCriteria filter, int chunkSize) {
+		super(filter, chunkSize);
+		this.query = null;
+		this.results = results;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	protected synchronized List<HistoricItem> fetch(HistoricItem last, long offset, int limit) {
+		if (isClosed()) {
+			return Collections.emptyList();
+		}
+		if (results == null) {
+			results = query.execute();
+		}
+		List<HistoricItem> chunk = new ArrayList<HistoricItem>(limit);
+		if (offset == position) {
+			while (chunk.size() < limit && results.hasNext()) {
+				chunk.add(results.next());
+			}
+			position += chunk.size();
+		} else {
+			int size = results.size();
+			for (long index = offset; index < size && chunk.size() < limit; index++) {
+				chunk.add(results.get((int) index));
+			}
+		}
+		return chunk;
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public synchronized void close() {
+		super.close();
+		results = null;
+	}
+
+}
@@ -0,0 +1,204 @@
+/**
+ * openHAB, the open Home Automation Bus.
+ * Copyright (C) 2010-2013, openHAB.org <admin@openhab.org>
+ *
+ * See the contributors.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation; either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ *
+ * Additional permission under GNU GPL version 3 section 7
+ *
+ * If you modify this Program, or any covered work, by linking or
+ * combining it with Eclipse (or a modified version of that library),
+ * containing parts covered by the terms of the Eclipse Public License
+ * (EPL), the licensors of this Program grant you additional permission
+ * to convey the resulting work.
+ */
+package org.openhab.persistence.logging.internal;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import ch.qos.logback.classic.spi.ILoggingEvent;
+
+/**
+ * This thread decouples the logging of item states from the threads which call
+ * the persistence service. Events are collected in a ring buffer per alias and 
+ * written by this single thread, which also flushes the appenders periodically.
+ * If the writer can't keep up with the updates of an alias, the oldest pending
+ * events of this alias are dropped, so that the caller is never blocked by slow 
+ * file I/O.
+ * 
+ * @author Kai Kreuzer
+ * @since 1.4.0
+ */
+public class ItemLogWriter extends Thread {
+
+	private static final Logger logger = LoggerFactory.getLogger(ItemLogWriter.class);
+	
+	private final LoggingPersistenceService service;
+	
+	private final int bufferSize;
+	
+	private final long flushInterval;
+	
+	/** the pending events per alias; also used as the lock for all fields below */
+	private final Map<String, EventBuffer> buffers = new HashMap<String, EventBuffer>();
+	
+	private boolean pending = false;
+	
+	private boolean running = true;
+	
+	/**
+	 * @param service the service which writes the events to the log files
+	 * @param bufferSize the maximum number of pending events per alias
+	 * @param flushInterval the interval in milliseconds in which the log files are flushed
+	 */
+	public ItemLogWriter(LoggingPersistenceService service, int bufferSize, long flushInterval) {
+		super("Logging Persistence Writer");
+		this.service = service;
+		this.bufferSize = bufferSize;
+		this.flushInterval = flushInterval;
+		setDaemon(true);
+	}
+	
+	/**
+	 * Queues an event to be written to the log file of the given alias.
+	 * 
+	 * @param alias the alias (i.e. log file name) to write the event to
+	 * @param event the event to write
+	 */
+	public void add(String alias, ILoggingEvent event) {
+		synchronized (buffers) {
+			EventBuffer buffer = buffers.get(alias);
+			if (buffer == null) {
+				buffer = new EventBuffer(bufferSize);
+				buffers.put(alias, buffer);
+			}
+			buffer.add(event);
+			if (!pending) {
+				pending = true;
+				buffers.notify();
+			}
+		}
+	}
+	
+	/**
+	 * Stops the writer after all pending events have been written and flushed.
+	 */
+	public void shutdown() {
+		synchronized (buffers) {
+			running = false;
+			buffers.notify();
+		}
+		try {
+			join(flushInterval + 5000);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+	
+	@Override
+	public void run() {
+		long nextFlush = System.currentTimeMillis() + flushInterval;
+		Map<String, List<ILoggingEvent>> events = new HashMap<String, List<ILoggingEvent>>();
+		boolean active = true;
+		while (active) {
+			synchronized (buffers) {
+				long wait;
+				while (running && !pending && (wait = nextFlush - System.currentTimeMillis()) > 0) {
+					try {
+						buffers.wait(wait);
+					} catch (InterruptedException e) {
+						running = false;
+					}
+				}
+				for (Entry<String, EventBuffer> entry : buffers.entrySet()) {
+					EventBuffer buffer = entry.getValue();
+					if (buffer.size > 0) {
+						List<ILoggingEvent> list = new ArrayList<ILoggingEvent>(buffer.size);
+						buffer.drainTo(list);
+						events.put(entry.getKey(), list);
+						if (buffer.dropped > 0) {
+							logger.warn("Dropped {} states for '{}' as the log file couldn't be written in time", 
+								buffer.dropped, entry.getKey());
+							buffer.dropped = 0;
+						}
+					}
+				}
+				pending = false;
+				active = running;
+			}
+			
+			for (Entry<String, List<ILoggingEvent>> entry : events.entrySet()) {
+				try {
+					for (ILoggingEvent event : entry.getValue()) {
+						service.append(entry.getKey(), event);
+					}
+				} catch (RuntimeException e) {
+					logger.error("Error writing item states to the log file of '" + entry.getKey() + "'", e);
+				}
+			}
+			events.clear();
+			if (!active || System.currentTimeMillis() >= nextFlush) {
+				service.flush();
+				nextFlush = System.currentTimeMillis() + flushInterval;
+			}
+		}
+	}
+	
+	
+	/**
+	 * A fixed-size ring buffer which overwrites the oldest event when it is full.
+	 */
+	private static class EventBuffer {
+		
+		private final ILoggingEvent[] events;
+		private int head = 0;
+		private int size = 0;
+		private int dropped = 0;
+		
+		public EventBuffer(int capacity) {
+			events = new ILoggingEvent[capacity];
+		}
+		
+		public void add(ILoggingEvent event) {
+			events[(head + size) % events.length] = event;
+			if (size < events.length) {
+				size++;
+			} else {
+				head = (head + 1) % events.length;
+				dropped++;
+			}
+		}
+		
+		public void drainTo(List<ILoggingEvent> list) {
+			for (int i = 0; i < size; i++) {
+				int index = (head + i) % events.length;
+				list.add(events[index]);
+				events[index] = null;
+			}
+			head = 0;
+			size = 0;
+		}
+	}
+	
+}
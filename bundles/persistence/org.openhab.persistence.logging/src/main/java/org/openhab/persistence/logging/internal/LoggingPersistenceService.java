@@ -29,8 +29,10 @@
 package org.openhab.persistence.logging.internal;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.util.Dictionary;
-import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
 
 import org.apache.commons.lang.StringUtils;
@@ -45,12 +47,22 @@ import ch.qos.logback.classic.LoggerContext;
 import ch.qos.logback.classic.encoder.PatternLayoutEncoder;
 import ch.qos.logback.classic.spi.ILoggingEvent;
 import ch.qos.logback.core.FileAppender;
+import ch.qos.logback.core.rolling.FixedWindowRollingPolicy;
+import ch.qos.logback.core.rolling.RollingFileAppender;
+import ch.qos.logback.core.rolling.SizeAndTimeBasedFNATP;
+import ch.qos.logback.core.rolling.SizeBasedTriggeringPolicy;
+import ch.qos.logback.core.rolling.TimeBasedRollingPolicy;
 
 
 /**
  * This is a {@link PersistenceService} implementation, which logs item states through
  * a logback file appender.
  * 
+ * <p>In asynchronous mode the states are handed over to an {@link ItemLogWriter}, 
+ * which writes them from a single thread to buffered log files. The number of
+ * simultaneously open log files is limited; the least recently used ones are closed
+ * and reopened on demand.</p>
+ * 
  * @author Kai Kreuzer
  * @since 1.0.0
  */
@@ -63,19 +75,47 @@ public class LoggingPersistenceService implements PersistenceService, ManagedSer
 	
 	private static final String DEFAULT_PATTERN ="%date{ISO8601} - %-25logger: %msg%n";
 
+	private static final int DEFAULT_BUFFER_SIZE = 100;
+	private static final int DEFAULT_FLUSH_INTERVAL = 5;
+	private static final int DEFAULT_MAX_APPENDERS = 50;
+	private static final int DEFAULT_MAX_HISTORY = 30;
+	
+	/** logback doesn't allow more than 20 files for a fixed window rolling policy */
+	private static final int MAX_WINDOW_SIZE = 20;
+
 	private String pattern = null;
+	private boolean async = false;
+	private int bufferSize = DEFAULT_BUFFER_SIZE;
+	private int flushInterval = DEFAULT_FLUSH_INTERVAL;
+	private int maxAppenders = DEFAULT_MAX_APPENDERS;
+	private String rollover = null;
+	private String maxFileSize = null;
+	private int maxHistory = DEFAULT_MAX_HISTORY;
 	private boolean initialized = false;
 	
-	private Map<String,FileAppender<ILoggingEvent>> appenders = new HashMap<String,FileAppender<ILoggingEvent>>();
+	private volatile ItemLogWriter writer = null;
+	
+	/** the open appenders in access order, so that the least recently used one is closed first */
+	private Map<String,FileAppender<ILoggingEvent>> appenders = new LinkedHashMap<String,FileAppender<ILoggingEvent>>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, FileAppender<ILoggingEvent>> eldest) {
+			if (size() > maxAppenders) {
+				eldest.getValue().stop();
+				logger.trace("Closed log file for '{}' as it is the least recently used one", eldest.getKey());
+				return true;
+			}
+			return false;
+		}
+	};
 	
 	public void activate() {
 	}
 
 	public void deactivate() {
-		for(FileAppender<ILoggingEvent> appender : appenders.values()) {
-			appender.stop();
-		}
-		appenders.clear();
+		stopWriter();
+		closeAppenders();
 	}
 
 	/**
@@ -98,20 +138,50 @@ public class LoggingPersistenceService implements PersistenceService, ManagedSer
 	 */
 	public void store(Item item, String alias) {
 		if (initialized) {
+			ItemLoggingEvent event = new ItemLoggingEvent(item);
+			ItemLogWriter currentWriter = writer;
+			if (currentWriter != null) {
+				currentWriter.add(alias, event);
+			} else {
+				append(alias, event);
+			}
+			logger.debug("Logged item '{}' to file '{}.log'", new String[] { item.getName(), alias });
+		}
+	}
+	
+	/**
+	 * Writes an event to the log file of the given alias and opens this log
+	 * file first, if necessary.
+	 * 
+	 * @param alias the alias which defines the name of the log file
+	 * @param event the event to log
+	 */
+	protected void append(String alias, ILoggingEvent event) {
+		synchronized(appenders) {
 			FileAppender<ILoggingEvent> appender = appenders.get(alias);
 			if (appender==null) {
-				synchronized(appenders) {
-					// do a second check in case one exists by now
-					if (!appenders.containsKey(alias)) {
-						appender = createNewAppender(alias);
-						appenders.put(alias, appender);
+				appender = createNewAppender(alias);
+				appenders.put(alias, appender);
+			}
+			appender.doAppend(event);
+		}
+	}
+	
+	/**
+	 * Flushes the buffered output of all open log files.
+	 */
+	protected void flush() {
+		synchronized(appenders) {
+			for(FileAppender<ILoggingEvent> appender : appenders.values()) {
+				OutputStream os = appender.getOutputStream();
+				if (os != null) {
+					try {
+						os.flush();
+					} catch (IOException e) {
+						logger.warn("Could not flush log file '{}': {}", appender.getFile(), e.getMessage());
 					}
 				}
 			}
-			
-			ItemLoggingEvent event = new ItemLoggingEvent(item);
-			appender.doAppend(event);
-			logger.debug("Logged item '{}' to file '{}.log'", new String[] { item.getName(), alias });
 		}
 	}
 
@@ -121,11 +191,19 @@ public class LoggingPersistenceService implements PersistenceService, ManagedSer
 		PatternLayoutEncoder encoder = new PatternLayoutEncoder();
 		encoder.setContext(context);
 		encoder.setPattern(pattern);
+		// in asynchronous mode the writer flushes the files periodically
+		encoder.setImmediateFlush(!async);
 		encoder.start();
 
-		FileAppender<ILoggingEvent> appender = new FileAppender<ILoggingEvent>();
+		String fileName = LOG_FOLDER + File.separator + alias;
+		FileAppender<ILoggingEvent> appender;
+		if (StringUtils.isNotBlank(rollover) || StringUtils.isNotBlank(maxFileSize)) {
+			appender = createRollingAppender(fileName, context);
+		} else {
+			appender = new FileAppender<ILoggingEvent>();
+			appender.setFile(fileName + LOG_FILEEXT);
+		}
 		appender.setAppend(true);
-		appender.setFile(LOG_FOLDER + File.separator + alias + LOG_FILEEXT);
 		appender.setEncoder(encoder);
 		appender.setContext(context);
 		appender.start();
@@ -133,6 +211,70 @@ public class LoggingPersistenceService implements PersistenceService, ManagedSer
 		return appender;
 	}
 	
+	/**
+	 * Creates an appender which rolls the log file over at the configured time 
+	 * interval and/or file size.
+	 * 
+	 * @param fileName the name of the log file without extension
+	 * @param context the logger context
+	 * @return the (not yet started) appender
+	 */
+	private FileAppender<ILoggingEvent> createRollingAppender(String fileName, LoggerContext context) {
+		RollingFileAppender<ILoggingEvent> appender = new RollingFileAppender<ILoggingEvent>();
+		// the rolling policies need to know the active file name when they are started
+		appender.setFile(fileName + LOG_FILEEXT);
+		
+		if (StringUtils.isNotBlank(rollover)) {
+			TimeBasedRollingPolicy<ILoggingEvent> policy = new TimeBasedRollingPolicy<ILoggingEvent>();
+			policy.setContext(context);
+			policy.setMaxHistory(maxHistory);
+			if (StringUtils.isNotBlank(maxFileSize)) {
+				SizeAndTimeBasedFNATP<ILoggingEvent> triggeringPolicy = new SizeAndTimeBasedFNATP<ILoggingEvent>();
+				triggeringPolicy.setMaxFileSize(maxFileSize);
+				policy.setTimeBasedFileNamingAndTriggeringPolicy(triggeringPolicy);
+				policy.setFileNamePattern(fileName + "-%d{" + rollover + "}.%i" + LOG_FILEEXT);
+			} else {
+				policy.setFileNamePattern(fileName + "-%d{" + rollover + "}" + LOG_FILEEXT);
+			}
+			policy.setParent(appender);
+			policy.start();
+			appender.setRollingPolicy(policy);
+		} else {
+			FixedWindowRollingPolicy policy = new FixedWindowRollingPolicy();
+			policy.setContext(context);
+			policy.setMinIndex(1);
+			policy.setMaxIndex(Math.max(1, Math.min(maxHistory, MAX_WINDOW_SIZE)));
+			policy.setFileNamePattern(fileName + ".%i" + LOG_FILEEXT);
+			policy.setParent(appender);
+			policy.start();
+			
+			SizeBasedTriggeringPolicy<ILoggingEvent> triggeringPolicy = new SizeBasedTriggeringPolicy<ILoggingEvent>(maxFileSize);
+			triggeringPolicy.setContext(context);
+			triggeringPolicy.start();
+			
+			appender.setRollingPolicy(policy);
+			appender.setTriggeringPolicy(triggeringPolicy);
+		}
+		
+		return appender;
+	}
+	
+	private void closeAppenders() {
+		synchronized(appenders) {
+			for(FileAppender<ILoggingEvent> appender : appenders.values()) {
+				appender.stop();
+			}
+			appenders.clear();
+		}
+	}
+	
+	private void stopWriter() {
+		if (writer != null) {
+			writer.shutdown();
+			writer = null;
+		}
+	}
+	
 	
 	/**
 	 * @{inheritDoc}
@@ -144,8 +286,40 @@ public class LoggingPersistenceService implements PersistenceService, ManagedSer
 			if (StringUtils.isBlank(pattern)) {
 				pattern = DEFAULT_PATTERN;
 			}
+			async = "true".equalsIgnoreCase((String) config.get("async"));
+			bufferSize = parseInt(config, "buffersize", DEFAULT_BUFFER_SIZE);
+			flushInterval = parseInt(config, "flushinterval", DEFAULT_FLUSH_INTERVAL);
+			maxAppenders = parseInt(config, "maxopenfiles", DEFAULT_MAX_APPENDERS);
+			rollover = (String) config.get("rollover");
+			maxFileSize = (String) config.get("maxfilesize");
+			maxHistory = parseInt(config, "maxhistory", DEFAULT_MAX_HISTORY);
+			
+			// the open files have to be recreated with the new settings
+			stopWriter();
+			closeAppenders();
+			if (async) {
+				writer = new ItemLogWriter(this, bufferSize, flushInterval * 1000L);
+				writer.start();
+			}
 			initialized = true;
 		}
 	}
 	
+	@SuppressWarnings("rawtypes")
+	private static int parseInt(Dictionary config, String key, int defaultValue) {
+		String value = (String) config.get(key);
+		if (StringUtils.isNotBlank(value)) {
+			try {
+				int intValue = Integer.parseInt(value.trim());
+				if (intValue > 0) {
+					return intValue;
+				}
+			} catch (NumberFormatException e) {
+				// fall through to the warning below
+			}
+			logger.warn("Invalid value '{}' for 'logging:{}', using default '{}'", new Object[] { value, key, defaultValue });
+		}
+		return defaultValue;
+	}
+	
 }
@@ -0,0 +1,113 @@
+/**
+ * openHAB, the open Home Automation Bus.
+ * Copyright (C) 2010-2013, openHAB.org <admin@openhab.org>
+ *
+ * See the contributors.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation; either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ *
+ * Additional permission under GNU GPL version 3 section 7
+ *
+ * If you modify this Program, or any covered work, by linking or
+ * combining it with Eclipse (or a modified version of that library),
+ * containing parts covered by the terms of the Eclipse Public License
+ * (EPL), the licensors of this Program grant you additional permission
+ * to convey the resulting work.
+ */
+package org.openhab.persistence.rrd4j.internal;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import org.openhab.core.persistence.FilterCriteria;
+import org.openhab.core.persistence.FilterCriteria.Ordering;
+import org.openhab.core.persistence.HistoricItem;
+import org.openhab.core.persistence.PagedQueryResult;
+
+/**
+ * The result of a query against a rrd4j database. The raw values of the fetched 
+ * archive rows are kept, but the historic items are only created chunk by chunk 
+ * while iterating, in the ordering of the filter and skipping rows without a value.
+ * 
+ * @author Kai Kreuzer
+ * @since 1.4.0
+ */
+public class RRD4jQueryResult extends PagedQueryResult {
+
+	private final RRD4jService service;
+	private final String itemName;
+	private final long firstTimestamp;
+	private final long step;
+	private final double[] values;
+	private final boolean ascending;
+	
+	/**
+	 * @param service the service to map the values to states
+	 * @param itemName the name of the item
+	 * @param filter the filter of the query
+	 * @param firstTimestamp the timestamp (in seconds) of the first row
+	 * @param step the step (in seconds) between the rows
+	 * @param values the values of the rows
+	 * @param chunkSize the number of items to create at once
+	 */
+	public RRD4jQueryResult(RRD4jService service, String itemName, FilterCriteria filter,
+			long firstTimestamp, long step, double[] values, int chunkSize) {
+		super(filter, chunkSize);
+		this.service = service;
+		this.itemName = itemName;
+		this.firstTimestamp = firstTimestamp;
+		this.step = step;
+		this.values = values;
+		this.ascending = filter.getOrdering() == Ordering.ASCENDING;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	protected List<HistoricItem> fetch(HistoricItem last, long offset, int limit) {
+		int position;
+		if (last == null) {
+			// skip the given number of rows with values
+			position = 0;
+			for (long skipped = 0; skipped < offset && position < values.length; position++) {
+				if (!Double.isNaN(values[index(position)])) {
+					skipped++;
+				}
+			}
+		} else {
+			// continue after the row of the last item
+			long row = step > 0 ? (last.getTimestamp().getTime() / 1000 - firstTimestamp) / step : 0;
+			position = (int) (ascending ? row : values.length - 1 - row) + 1;
+		}
+		
+		List<HistoricItem> items = new ArrayList<HistoricItem>(Math.min(limit, values.length));
+		for (; position < values.length && items.size() < limit; position++) {
+			int index = index(position);
+			double value = values[index];
+			if (!Double.isNaN(value)) {
+				items.add(new RRD4jItem(itemName, service.mapToState(value, itemName), 
+						new Date((firstTimestamp + index * step) * 1000)));
+			}
+		}
+		return items;
+	}
+
+	private int index(int position) {
+		return ascending ? position : values.length - 1 - position;
+	}
+	
+}
@@ -30,16 +30,20 @@ package org.openhab.persistence.rrd4j.internal;
 
 import java.io.File;
 import java.io.IOException;
-import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Date;
-import java.util.HashMap;
-import java.util.List;
+import java.util.Dictionary;
 import java.util.Map;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
 import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import org.apache.commons.lang.StringUtils;
 import org.openhab.core.items.Item;
 import org.openhab.core.items.ItemNotFoundException;
 import org.openhab.core.items.ItemRegistry;
@@ -50,18 +54,25 @@ import org.openhab.core.library.items.SwitchItem;
 import org.openhab.core.library.types.DecimalType;
 import org.openhab.core.library.types.OnOffType;
 import org.openhab.core.library.types.OpenClosedType;
+import org.openhab.core.persistence.AggregatingPersistenceService;
+import org.openhab.core.persistence.Aggregator;
 import org.openhab.core.persistence.FilterCriteria;
+import org.openhab.core.persistence.FilterCriteria.Aggregation;
 import org.openhab.core.persistence.FilterCriteria.Ordering;
 import org.openhab.core.persistence.HistoricItem;
 import org.openhab.core.persistence.PersistenceService;
-import org.openhab.core.persistence.QueryablePersistenceService;
 import org.openhab.core.types.State;
+import org.openhab.persistence.rrd4j.internal.RrdDbCache.RrdDbOpener;
+import org.osgi.service.cm.ConfigurationException;
+import org.osgi.service.cm.ManagedService;
 import org.rrd4j.ConsolFun;
 import org.rrd4j.DsType;
 import org.rrd4j.core.FetchData;
 import org.rrd4j.core.FetchRequest;
+import org.rrd4j.core.RrdBackendFactory;
 import org.rrd4j.core.RrdDb;
 import org.rrd4j.core.RrdDef;
+import org.rrd4j.core.RrdNioBackendFactory;
 import org.rrd4j.core.Sample;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -71,21 +82,120 @@ import org.slf4j.LoggerFactory;
  * This is the implementation of the RRD4j {@link PersistenceService}. To learn
  * more about RRD4j please visit their <a href="http://code.google.com/p/rrd4j/">website</a>.
  * 
+ * <p>The database files are kept open in a {@link RrdDbCache} between stores and queries.
+ * Unused files are closed after an idle timeout by a scheduler, which is also used to 
+ * retry stores that came too early for the step of a database.</p>
+ * <p>Aggregations which match the consolidation function of a database are read 
+ * from its consolidated archives, so that only a few rows need to be fetched.</p>
+ * 
  * @author Kai Kreuzer
  * @since 1.0.0
  */
-public class RRD4jService implements QueryablePersistenceService {
+public class RRD4jService implements AggregatingPersistenceService, ManagedService {
 
 	private static final String DATASOURCE_STATE = "state";
 
 	protected final static String DB_FOLDER = "etc/rrd4j";
 	
+	/** the number of historic items which are created at once while iterating a query result */
+	private static final int QUERY_CHUNK_SIZE = 100;
+	
+	/** the step in seconds of databases for numbers */
+	private static final int AVERAGE_STEP = 60;
+	
+	/** the archives (steps per row, rows) of databases for numbers, which are suitable for charts */
+	private static final int[][] AVERAGE_ARCHIVES = new int[][] {
+		{ 1, 480 }, // 8 hours (granularity 1 min)
+		{ 4, 360 }, // one day (granularity 4 min)
+		{ 15, 644 }, // one week (granularity 15 min)
+		{ 60, 720 }, // one month (granularity 1 hour)
+		{ 720, 730 }, // one year (granularity 12 hours)
+		{ 10080, 520 } // ten years (granularity 7 days)
+	};
+
+	/** the step in seconds of databases for all other items */
+	private static final int MAX_STEP = 1;
+
+	/** the archives (steps per row, rows) of databases for all other items, mainly detailed for the last hour */
+	private static final int[][] MAX_ARCHIVES = new int[][] {
+		{ 1, 3600 }, // 1 hour (granularity 1 sec)
+		{ 10, 1440 }, // 4 hours (granularity 10 sec)
+		{ 60, 1440 }, // one day (granularity 1 min)
+		{ 900, 2880 }, // one month (granularity 15 min)
+		{ 21600, 1460 }, // one year (granularity 6 hours)
+		{ 86400, 3650 } // ten years (granularity 1 day)
+	};
+	
 	private static final Logger logger = LoggerFactory.getLogger(RRD4jService.class);
 
-	private Map<String,Timer> timers = new HashMap<String,Timer>();
+	/** 
+	 * the minimum number of database files which are kept open, if the cache size is not configured;
+	 * the cache is enlarged to the number of existing database files, so that a strategy like 
+	 * "everyMinute" does not reopen every file on each run
+	 */
+	private static final int DEFAULT_CACHE_SIZE = 500;
+	
+	/** the default time in seconds after which an unused database file is closed */
+	private static final int DEFAULT_IDLE_TIMEOUT = 300;
+	
+	private final RrdDbCache dbCache = new RrdDbCache(DEFAULT_CACHE_SIZE);
+	
+	/** the configured cache size or 0, if the cache is sized by the number of database files */
+	private volatile int configuredCacheSize = 0;
+	
+	/** the number of database files, as far as they are known to this service */
+	private final AtomicInteger databaseCount = new AtomicInteger();
+	
+	/** the idle time in milliseconds after which unused database files are closed */
+	private long idleTimeout = DEFAULT_IDLE_TIMEOUT * 1000L;
+	
+	/** the backend used to access the database files or <code>null</code> to use the rrd4j default (NIO) */
+	private volatile RrdBackendFactory backendFactory = null;
+	
+	/** the scheduler for delayed stores and the eviction of idle database files */
+	private ScheduledExecutorService scheduler;
+	
+	private ScheduledFuture<?> evictionJob;
+	
+	/** the pending delayed stores by alias */
+	private Map<String, ScheduledFuture<?>> retries = new ConcurrentHashMap<String, ScheduledFuture<?>>();
 	
 	protected ItemRegistry itemRegistry;
 	
+	public void activate() {
+		scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "rrd4j");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		countDatabases();
+		adjustCacheSize();
+		scheduleEviction();
+	}
+	
+	public void deactivate() {
+		scheduler.shutdownNow();
+		scheduler = null;
+		retries.clear();
+		dbCache.close();
+	}
+	
+	private synchronized void scheduleEviction() {
+		if(evictionJob!=null) {
+			evictionJob.cancel(false);
+		}
+		if(scheduler!=null) {
+			long period = Math.max(1000L, idleTimeout / 2);
+			evictionJob = scheduler.scheduleWithFixedDelay(new Runnable() {
+				public void run() {
+					dbCache.evictIdle(idleTimeout);
+				}
+			}, period, period, TimeUnit.MILLISECONDS);
+		}
+	}
+	
 	public void setItemRegistry(ItemRegistry itemRegistry) {
 		this.itemRegistry = itemRegistry;
 	}
@@ -109,6 +219,10 @@ public class RRD4jService implements QueryablePersistenceService {
 		ConsolFun function = getConsolidationFunction(item);
 		RrdDb db = getDB(name, function);
 		if(db!=null) {
+			ScheduledFuture<?> retry = retries.remove(name);
+			if(retry!=null) {
+				retry.cancel(false);
+			}
 			long now = System.currentTimeMillis()/1000;
 			if(function!=ConsolFun.AVERAGE) {
 				try {
@@ -144,30 +258,25 @@ public class RRD4jService implements QueryablePersistenceService {
 				if(e.getMessage().contains("at least one second step is required")) {
 
 					// we try to store the value one second later
-					TimerTask task = new TimerTask() {
-						public void run() {
-							store(item, name);
+					ScheduledExecutorService scheduler = this.scheduler;
+					if(scheduler!=null) {
+						try {
+							retries.put(name, scheduler.schedule(new Runnable() {
+								public void run() {
+									store(item, name);
+								}
+							}, 1, TimeUnit.SECONDS));
+						} catch (RejectedExecutionException ree) {
+							// this happens if the service is deactivated
 						}
-					};
-					Timer timer = timers.get(name);
-					if(timer!=null) {
-						timer.cancel();
-						timers.remove(name);
 					}
-					timer = new Timer();
-					timers.put(name, timer);
-					timer.schedule(task, 1000);
 				} else {
 					logger.warn("Could not persist '{}' to rrd4j database: {}", new String[] { name, e.getMessage() });
 				}
 			} catch (Exception e) {
 				logger.warn("Could not persist '{}' to rrd4j database: {}", new String[] { name, e.getMessage() });
 			}
-            try {
-				db.close();
-			} catch (IOException e) {
-				logger.debug("Error closing rrd4j database: {}", e.getMessage());
-			}
+			releaseDB(db);
 		}
 	}
 
@@ -214,77 +323,187 @@ public class RRD4jService implements QueryablePersistenceService {
 				}
 				FetchRequest request = db.createFetchRequest(consolidationFunction, start, end, 1);
 
-				List<HistoricItem> items = new ArrayList<HistoricItem>();
+				FetchData result = request.fetchData();
+				long step = result.getRowCount() > 1 ? result.getStep() : 0;
+				return new RRD4jQueryResult(this, itemName, filter, result.getFirstTimestamp(), step, 
+						result.getValues(DATASOURCE_STATE), QUERY_CHUNK_SIZE);
+			} catch (IOException e) {
+				logger.warn("Could not query rrd4j database for item '{}': {}", new String[] { itemName, e.getMessage() });
+			} finally {
+				releaseDB(db);
+			}
+		}
+		return Collections.emptyList();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * 
+	 * <p>Only the aggregation which corresponds to the consolidation function of the
+	 * database (AVG for numbers, MAX for all other items) is supported and a begin date
+	 * is required. The values are fetched from the archive whose step is closest to the
+	 * bucket size (or to the whole time range).</p>
+	 */
+	@Override
+	public Iterable<HistoricItem> aggregate(FilterCriteria filter) {
+		String itemName = filter.getItemName();
+		ConsolFun consolidationFunction = getConsolidationFunction(itemName);
+		Aggregation aggregation = filter.getAggregation();
+		if(filter.getBeginDate()==null 
+				|| !((aggregation==Aggregation.AVG && consolidationFunction==ConsolFun.AVERAGE) 
+						|| (aggregation==Aggregation.MAX && consolidationFunction==ConsolFun.MAX))) {
+			return null;
+		}
+		RrdDb db = getDB(itemName, consolidationFunction);
+		if(db!=null) {
+			long start = filter.getBeginDate().getTime()/1000;
+			long end = filter.getEndDate()==null ? System.currentTimeMillis()/1000 - 1 : filter.getEndDate().getTime()/1000;
+			// without buckets, the values are read from the same archive as by query(), i.e. the most detailed
+			// one which covers the time range, so that e.g. the number of values of an average is consistent
+			long resolution = filter.getBucketSize() > 0 ? filter.getBucketSize()/1000 : 1;
+			
+			try {
+				FetchRequest request = db.createFetchRequest(consolidationFunction, start, end, Math.max(1, resolution));
+
+				Aggregator aggregator = new Aggregator(itemName, aggregation, filter.getBucketSize());
 				FetchData result = request.fetchData();
 				long ts = result.getFirstTimestamp();
 				long step = result.getRowCount() > 1 ? result.getStep() : 0;
 				for(double value : result.getValues(DATASOURCE_STATE)) {
 					if(!Double.isNaN(value)) {
-						RRD4jItem rrd4jItem = new RRD4jItem(itemName, mapToState(value, itemName), new Date(ts * 1000));
-						items.add(rrd4jItem);
+						aggregator.add(new RRD4jItem(itemName, mapToState(value, itemName), new Date(ts * 1000)));
 					}
 					ts += step;
 				}
-				return items;
+				return aggregator.getResult(filter.getOrdering());
 			} catch (IOException e) {
 				logger.warn("Could not query rrd4j database for item '{}': {}", new String[] { itemName, e.getMessage() });
-			}	
+			} finally {
+				releaseDB(db);
+			}
 		}
 		return Collections.emptyList();
 	}
 
-	protected synchronized RrdDb getDB(String alias, ConsolFun function) {
-		RrdDb db = null;
+	/**
+	 * Returns the database for the given alias, creating the file if it does not exist.
+	 * The database must be passed to {@link #releaseDB(RrdDb)} after use.
+	 * 
+	 * @param alias the alias (or item name) of the database
+	 * @param function the consolidation function to use if the database is created
+	 * @return the database or <code>null</code> if it could not be opened
+	 */
+	protected RrdDb getDB(String alias, final ConsolFun function) {
         File file = new File(DB_FOLDER + File.separator + alias + ".rrd");
-    	try {
-            if (file.exists()) {
-            	// recreate the RrdDb instance from the file
-            	db = new RrdDb(file.getAbsolutePath());
-            } else {
-            	File folder = new File(DB_FOLDER);
-            	if(!folder.exists()) {
-            		folder.mkdir();
-            	}
-            	// create a new database file
-                db = new RrdDb(getRrdDef(function, file));
-            }
-		} catch (IOException e) {
-			logger.error("Could not create rrd4j database file '{}': {}", new String[] { file.getAbsolutePath(), e.getMessage() });
-		} catch(RejectedExecutionException e) {
-			// this happens if the system is shut down
-			logger.debug("Could not create rrd4j database file '{}': {}", new String[] { file.getAbsolutePath(), e.getMessage() });
+        return dbCache.acquire(file.getAbsolutePath(), new RrdDbOpener() {
+			public RrdDb open(String path) {
+				RrdDb db = null;
+		        File file = new File(path);
+		    	try {
+		            if (file.exists()) {
+		            	// recreate the RrdDb instance from the file
+		            	db = backendFactory!=null ? new RrdDb(path, backendFactory) : new RrdDb(path);
+		            } else {
+		            	File folder = new File(DB_FOLDER);
+		            	if(!folder.exists()) {
+		            		folder.mkdir();
+		            	}
+		            	// create a new database file
+		            	RrdDef rrdDef = getRrdDef(function, file);
+		                db = backendFactory!=null ? new RrdDb(rrdDef, backendFactory) : new RrdDb(rrdDef);
+		                databaseCount.incrementAndGet();
+		                adjustCacheSize();
+		            }
+				} catch (IOException e) {
+					logger.error("Could not create rrd4j database file '{}': {}", new String[] { path, e.getMessage() });
+				} catch(RejectedExecutionException e) {
+					// this happens if the system is shut down
+					logger.debug("Could not create rrd4j database file '{}': {}", new String[] { path, e.getMessage() });
+				}
+				return db;
+			}
+		});
+	}
+	
+	/**
+	 * Releases a database which has been returned by {@link #getDB(String, ConsolFun)}.
+	 * 
+	 * @param db the database to release
+	 */
+	protected void releaseDB(RrdDb db) {
+		dbCache.release(db);
+	}
+	
+	/**
+	 * Counts the existing database files.
+	 */
+	private void countDatabases() {
+		File[] files = new File(DB_FOLDER).listFiles();
+		int count = 0;
+		if(files!=null) {
+			for(File file : files) {
+				if(file.getName().endsWith(".rrd")) {
+					count++;
+				}
+			}
 		}
-		return db;
+		databaseCount.set(count);
+	}
+	
+	/**
+	 * Sets the capacity of the cache to the configured size or, if there is none, 
+	 * to the number of database files.
+	 */
+	private void adjustCacheSize() {
+		int cacheSize = configuredCacheSize;
+		if(cacheSize <= 0) {
+			cacheSize = Math.max(DEFAULT_CACHE_SIZE, databaseCount.get());
+		}
+		dbCache.setCapacity(cacheSize);
 	}
 
 	private RrdDef getRrdDef(ConsolFun function, File file) {
     	RrdDef rrdDef = new RrdDef(file.getAbsolutePath());
     	if(function==ConsolFun.AVERAGE) {
     		// for measurement values, we define archives that are suitable for charts
-    		rrdDef.setStep(60);
+    		rrdDef.setStep(AVERAGE_STEP);
 	        rrdDef.setStartTime(System.currentTimeMillis()/1000-1);
 	        rrdDef.addDatasource(DATASOURCE_STATE, DsType.GAUGE, 60, Double.NaN, Double.NaN);
-	        rrdDef.addArchive(function, 0.5, 1, 480); // 8 hours (granularity 1 min)
-	        rrdDef.addArchive(function, 0.5, 4, 360); // one day (granularity 4 min)
-	        rrdDef.addArchive(function, 0.5, 15, 644); // one week (granularity 15 min)
-	        rrdDef.addArchive(function, 0.5, 60, 720); // one month (granularity 1 hour)
-	        rrdDef.addArchive(function, 0.5, 720, 730); // one year (granularity 12 hours)
-	        rrdDef.addArchive(function, 0.5, 10080, 520); // ten years (granularity 7 days)
+	        for(int[] archive : AVERAGE_ARCHIVES) {
+	        	rrdDef.addArchive(function, 0.5, archive[0], archive[1]);
+	        }
     	} else {
     		// for other things, we mainly provide a high level of detail for the last hour
-    		rrdDef.setStep(1);
+    		rrdDef.setStep(MAX_STEP);
 	        rrdDef.setStartTime(System.currentTimeMillis()/1000-1);
 	        rrdDef.addDatasource(DATASOURCE_STATE, DsType.GAUGE, 3600, Double.NaN, Double.NaN);
-	        rrdDef.addArchive(function, .999, 1, 3600); // 1 hour (granularity 1 sec)
-	        rrdDef.addArchive(function, .999, 10, 1440); // 4 hours (granularity 10 sec)
-	        rrdDef.addArchive(function, .999, 60, 1440); // one day (granularity 1 min)
-	        rrdDef.addArchive(function, .999, 900, 2880); // one month (granularity 15 min)
-	        rrdDef.addArchive(function, .999, 21600, 1460); // one year (granularity 6 hours)
-	        rrdDef.addArchive(function, .999, 86400, 3650); // ten years (granularity 1 day)
+	        for(int[] archive : MAX_ARCHIVES) {
+	        	rrdDef.addArchive(function, .999, archive[0], archive[1]);
+	        }
     	}
 		return rrdDef;
 	}
 
+	/**
+	 * Returns the step of the finest archive which covers the given time span, 
+	 * i.e. the interval in which new values appear in a chart of this time span.
+	 * 
+	 * @param item the item whose database is used
+	 * @param timeSpan the time span in seconds
+	 * @return the step of the archive in seconds
+	 */
+	static public long getArchiveStep(Item item, long timeSpan) {
+		boolean average = getConsolidationFunction(item)==ConsolFun.AVERAGE;
+		int step = average ? AVERAGE_STEP : MAX_STEP;
+		int[][] archives = average ? AVERAGE_ARCHIVES : MAX_ARCHIVES;
+		for(int[] archive : archives) {
+			if((long) step * archive[0] * archive[1] >= timeSpan) {
+				return (long) step * archive[0];
+			}
+		}
+		return (long) step * archives[archives.length - 1][0];
+	}
+
 	static public ConsolFun getConsolidationFunction(Item item) {
 		if(item instanceof NumberItem) {
 			return ConsolFun.AVERAGE;
@@ -307,7 +526,7 @@ public class RRD4jService implements QueryablePersistenceService {
 		return ConsolFun.MAX;
 	}
 
-	private State mapToState(double value, String itemName) {
+	/* default */ State mapToState(double value, String itemName) {
 		if(itemRegistry!=null) {
 			try {
 				Item item = itemRegistry.getItem(itemName);
@@ -323,5 +542,65 @@ public class RRD4jService implements QueryablePersistenceService {
 		// just return a DecimalType as a fallback
 		return new DecimalType(value);
 	}
+
+	/**
+	 * @{inheritDoc}
+	 */
+	@SuppressWarnings("rawtypes")
+	public void updated(Dictionary config) throws ConfigurationException {
+		int cacheSize = 0;
+		int idleTimeoutSeconds = DEFAULT_IDLE_TIMEOUT;
+		RrdBackendFactory factory = null;
+		if(config!=null) {
+			cacheSize = parseInt(config, "cachesize", 0);
+			idleTimeoutSeconds = parseInt(config, "idletimeout", DEFAULT_IDLE_TIMEOUT);
+
+			String backend = (String) config.get("backend");
+			if(StringUtils.isNotBlank(backend)) {
+				try {
+					factory = RrdBackendFactory.getFactory(backend.trim().toUpperCase());
+				} catch (IllegalArgumentException e) {
+					throw new ConfigurationException("backend", "Unknown rrd4j backend '" + backend + "', valid values are e.g. 'NIO' and 'FILE'.");
+				}
+			}
+			
+			String syncInterval = (String) config.get("syncinterval");
+			if(StringUtils.isNotBlank(syncInterval)) {
+				RrdNioBackendFactory.setSyncPeriod(parseInt(config, "syncinterval", RrdNioBackendFactory.DEFAULT_SYNC_PERIOD));
+			}
+		}
+		
+		if(factory!=backendFactory) {
+			// files which are already open must be reopened with the new backend
+			backendFactory = factory;
+			dbCache.evictIdle(0);
+		}
+		configuredCacheSize = cacheSize;
+		countDatabases();
+		adjustCacheSize();
+		if(cacheSize > 0 && databaseCount.get() > cacheSize) {
+			logger.warn("The rrd4j cache size of {} is less than the number of database files ({}), " +
+					"so database files will be reopened frequently", cacheSize, databaseCount.get());
+		}
+		idleTimeout = idleTimeoutSeconds * 1000L;
+		scheduleEviction();
+	}
+
+	@SuppressWarnings("rawtypes")
+	private int parseInt(Dictionary config, String key, int defaultValue) throws ConfigurationException {
+		String value = (String) config.get(key);
+		if(StringUtils.isBlank(value)) {
+			return defaultValue;
+		}
+		try {
+			int intValue = Integer.parseInt(value.trim());
+			if(intValue <= 0) {
+				throw new ConfigurationException(key, "The value must be a positive number.");
+			}
+			return intValue;
+		} catch(NumberFormatException e) {
+			throw new ConfigurationException(key, "The value '" + value + "' is not a valid number.");
+		}
+	}
 	
 }
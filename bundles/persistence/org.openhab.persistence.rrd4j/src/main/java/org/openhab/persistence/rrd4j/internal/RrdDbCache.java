@@ -0,0 +1,259 @@
+/**
+ * openHAB, the open Home Automation Bus.
+ * Copyright (C) 2010-2013, openHAB.org <admin@openhab.org>
+ *
+ * See the contributors.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation; either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ *
+ * Additional permission under GNU GPL version 3 section 7
+ *
+ * If you modify this Program, or any covered work, by linking or
+ * combining it with Eclipse (or a modified version of that library),
+ * containing parts covered by the terms of the Eclipse Public License
+ * (EPL), the licensors of this Program grant you additional permission
+ * to convey the resulting work.
+ */
+package org.openhab.persistence.rrd4j.internal;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.rrd4j.core.RrdDb;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A cache of open {@link RrdDb} handles, so that the database files do not need to be 
+ * opened and parsed again for every store or query. Handles are reference counted; a 
+ * handle which is not in use is closed when it has been idle for a certain time or when
+ * the cache exceeds its capacity (least recently used handles are closed first).
+ * 
+ * <p>{@link RrdDb} instances are thread-safe, so a handle can be used by several threads
+ * at the same time. Databases are opened outside of the lock of the cache, so that other
+ * databases can be acquired meanwhile; threads which ask for a database that is just being
+ * opened wait for it.</p>
+ * 
+ * @author Kai Kreuzer
+ * @since 1.4.0
+ */
+public class RrdDbCache {
+
+	private static final Logger logger = LoggerFactory.getLogger(RrdDbCache.class);
+
+	/**
+	 * Opens a database if it is not found in the cache.
+	 */
+	public interface RrdDbOpener {
+		
+		/**
+		 * @param path the path of the database file
+		 * @return the opened database or <code>null</code> if it could not be opened
+		 */
+		RrdDb open(String path);
+	}
+	
+	private int capacity;
+	
+	/** the open handles by path in access order, so that the least recently used handle comes first */
+	private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+
+	private boolean closed = false;
+
+	private long hits = 0;
+	
+	private long misses = 0;
+	
+	/**
+	 * @param capacity the number of handles which are kept open at most, if they are not in use
+	 */
+	public RrdDbCache(int capacity) {
+		this.capacity = capacity;
+	}
+	
+	/**
+	 * Returns the database with the given path, opening it if it is not already open. 
+	 * Each successful call must be followed by a call to {@link #release(RrdDb)}.
+	 * 
+	 * @param path the path of the database file
+	 * @param opener opens the database if it is not yet in the cache
+	 * @return the database or <code>null</code> if it could not be opened
+	 */
+	public RrdDb acquire(String path, RrdDbOpener opener) {
+		Entry entry;
+		synchronized (this) {
+			entry = entries.get(path);
+			while(entry!=null && entry.db==null) {
+				// another thread is opening the database
+				try {
+					wait();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return null;
+				}
+				entry = entries.get(path);
+			}
+			if(entry!=null) {
+				hits++;
+				entry.references++;
+				return entry.db;
+			}
+			misses++;
+			if(closed) {
+				// do not keep any handle after the cache has been closed
+				entry = null;
+			} else {
+				// a placeholder, which is in use until the database has been opened
+				entry = new Entry();
+				entry.references++;
+				entries.put(path, entry);
+			}
+		}
+		
+		RrdDb db = null;
+		try {
+			db = opener.open(path);
+		} finally {
+			if(entry!=null) {
+				synchronized (this) {
+					if(entries.get(path)==entry) {
+						if(db!=null) {
+							entry.db = db;
+							evict(capacity, Long.MIN_VALUE);
+						} else {
+							entries.remove(path);
+						}
+					}
+					notifyAll();
+				}
+			}
+		}
+		return db;
+	}
+	
+	/**
+	 * Releases a database which has been returned by {@link #acquire(String, RrdDbOpener)}.
+	 * 
+	 * @param db the database to release
+	 */
+	public synchronized void release(RrdDb db) {
+		Entry entry = entries.get(db.getPath());
+		if(entry!=null && entry.db==db) {
+			entry.references--;
+			entry.lastAccess = System.currentTimeMillis();
+			evict(capacity, Long.MIN_VALUE);
+		} else {
+			// the database is not (or no longer) cached
+			close(db);
+		}
+	}
+	
+	/**
+	 * Changes the number of handles which are kept open at most, if they are not in use.
+	 * 
+	 * @param capacity the new capacity
+	 */
+	public synchronized void setCapacity(int capacity) {
+		this.capacity = capacity;
+		evict(capacity, Long.MIN_VALUE);
+	}
+	
+	/**
+	 * Closes all handles which are not in use and have not been accessed for the given time.
+	 * 
+	 * @param idleTime the idle time in milliseconds
+	 */
+	public synchronized void evictIdle(long idleTime) {
+		evict(0, System.currentTimeMillis() - idleTime);
+	}
+	
+	/**
+	 * Closes all handles, even if they are still in use.
+	 */
+	public void close() {
+		List<Entry> closedEntries;
+		synchronized (this) {
+			closed = true;
+			closedEntries = new ArrayList<Entry>(entries.values());
+			entries.clear();
+			notifyAll();
+		}
+		for(Entry entry : closedEntries) {
+			if(entry.db!=null) {
+				close(entry.db);
+			}
+		}
+		logger.debug("Closed {} rrd4j databases (cache hits: {}, misses: {})", 
+				new Object[] { closedEntries.size(), hits, misses });
+	}
+	
+	/**
+	 * @return the number of currently open handles
+	 */
+	public synchronized int size() {
+		return entries.size();
+	}
+	
+	/**
+	 * @return the number of requests which could be served by an already open handle
+	 */
+	public synchronized long getHitCount() {
+		return hits;
+	}
+	
+	/**
+	 * @return the number of requests for which a database had to be opened
+	 */
+	public synchronized long getMissCount() {
+		return misses;
+	}
+	
+	/**
+	 * Closes unused handles (least recently used first), until only <code>maxSize</code> 
+	 * handles are left, and all unused handles which have been accessed before <code>accessedBefore</code>.
+	 */
+	private void evict(int maxSize, long accessedBefore) {
+		int size = entries.size();
+		Iterator<Entry> iterator = entries.values().iterator();
+		while(iterator.hasNext()) {
+			Entry entry = iterator.next();
+			if(entry.references<=0 && (size > maxSize || entry.lastAccess < accessedBefore)) {
+				iterator.remove();
+				size--;
+				close(entry.db);
+			}
+		}
+	}
+	
+	private static void close(RrdDb db) {
+		try {
+			db.close();
+		} catch (IOException e) {
+			logger.debug("Error closing rrd4j database: {}", e.getMessage());
+		}
+	}
+	
+	private static class Entry {
+		/** the database or <code>null</code>, while it is being opened */
+		private RrdDb db;
+		private int references = 0;
+		private long lastAccess = System.currentTimeMillis();
+	}
+
+}
@@ -0,0 +1,263 @@
+/**
+ * openHAB, the open Home Automation Bus.
+ * Copyright (C) 2010-2013, openHAB.org <admin@openhab.org>
+ *
+ * See the contributors.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation; either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ *
+ * Additional permission under GNU GPL version 3 section 7
+ *
+ * If you modify this Program, or any covered work, by linking or
+ * combining it with Eclipse (or a modified version of that library),
+ * containing parts covered by the terms of the Eclipse Public License
+ * (EPL), the licensors of this Program grant you additional permission
+ * to convey the resulting work.
+ */
+package org.openhab.persistence.rrd4j.internal.charts;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A cache for rendered chart images. 
+ * 
+ * <p>Charts are rendered by a small pool of threads with a bounded queue. Concurrent 
+ * requests for the same chart wait for the same render, and a rendered chart is 
+ * served from the cache until it expires, i.e. until new values can appear in it.
+ * The least recently used charts are dropped if the cache exceeds its capacity.</p>
+ * 
+ * @author Kai Kreuzer
+ * @since 1.4.0
+ */
+public class ChartCache {
+
+	private static final Logger logger = LoggerFactory.getLogger(ChartCache.class);
+
+	/**
+	 * A rendered chart image.
+	 */
+	public static class Chart {
+		
+		private final byte[] image;
+		private final String etag;
+		private final long expires;
+		
+		/**
+		 * @param image the encoded image
+		 * @param etag the entity tag of the image
+		 * @param expires the time (in milliseconds) when the chart becomes outdated
+		 */
+		public Chart(byte[] image, String etag, long expires) {
+			this.image = image;
+			this.etag = etag;
+			this.expires = expires;
+		}
+		
+		public byte[] getImage() {
+			return image;
+		}
+		
+		public String getEtag() {
+			return etag;
+		}
+		
+		public long getExpires() {
+			return expires;
+		}
+		
+		public boolean isExpired() {
+			return System.currentTimeMillis() >= expires;
+		}
+	}
+	
+	private final int capacity;
+	
+	/** the rendered charts by key in access order, so that the least recently used chart comes first */
+	private final LinkedHashMap<String, Chart> charts = new LinkedHashMap<String, Chart>(16, 0.75f, true);
+
+	/** the renders which are currently queued or running by key */
+	private final ConcurrentMap<String, FutureTask<Chart>> renders = new ConcurrentHashMap<String, FutureTask<Chart>>();
+	
+	private final ThreadPoolExecutor renderPool;
+	
+	private final AtomicLong hits = new AtomicLong();
+	private long renderCount = 0;
+	private long renderTime = 0;
+	private long maxRenderTime = 0;
+	
+	/**
+	 * @param capacity the number of charts which are cached at most
+	 * @param renderThreads the number of charts which are rendered at the same time
+	 * @param queueSize the number of renders which may wait for a thread
+	 */
+	public ChartCache(int capacity, int renderThreads, int queueSize) {
+		this.capacity = capacity;
+		this.renderPool = new ThreadPoolExecutor(renderThreads, renderThreads, 60, TimeUnit.SECONDS, 
+				new LinkedBlockingQueue<Runnable>(queueSize), new ThreadFactory() {
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "rrd4j chart renderer");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+	
+	/**
+	 * Returns the chart with the given key. If it is not cached or has expired, it is
+	 * rendered by the render pool, unless a render for the same key is already running.
+	 * 
+	 * @param key the key of the chart
+	 * @param renderer renders the chart, if necessary
+	 * @param timeout the time in milliseconds to wait for the render
+	 * @return the chart
+	 * @throws ExecutionException if the rendering failed
+	 * @throws TimeoutException if the rendering did not finish in time
+	 * @throws RejectedExecutionException if too many charts are waiting to be rendered
+	 * @throws InterruptedException if the thread has been interrupted while waiting
+	 */
+	public Chart get(final String key, Callable<Chart> renderer, long timeout) 
+			throws ExecutionException, TimeoutException, InterruptedException {
+		synchronized (charts) {
+			Chart chart = charts.get(key);
+			if (chart != null && !chart.isExpired()) {
+				hits.incrementAndGet();
+				return chart;
+			}
+		}
+		
+		FutureTask<Chart> render = new FutureTask<Chart>(new RenderTask(key, renderer));
+		FutureTask<Chart> running = renders.putIfAbsent(key, render);
+		if (running == null) {
+			running = render;
+			try {
+				renderPool.execute(render);
+			} catch (RejectedExecutionException e) {
+				renders.remove(key, render);
+				throw e;
+			}
+		}
+		return running.get(timeout, TimeUnit.MILLISECONDS);
+	}
+	
+	/**
+	 * Stops the render pool and drops all cached charts.
+	 */
+	public void shutdown() {
+		renderPool.shutdownNow();
+		synchronized (charts) {
+			charts.clear();
+		}
+	}
+	
+	/**
+	 * @return the number of requests which have been served from the cache
+	 */
+	public long getHitCount() {
+		return hits.get();
+	}
+
+	/**
+	 * @return the number of rendered charts
+	 */
+	public synchronized long getRenderCount() {
+		return renderCount;
+	}
+	
+	/**
+	 * @return the average time in milliseconds needed to render a chart
+	 */
+	public synchronized long getAverageRenderTime() {
+		return renderCount > 0 ? renderTime / renderCount : 0;
+	}
+
+	/**
+	 * @return the maximum time in milliseconds needed to render a chart
+	 */
+	public synchronized long getMaxRenderTime() {
+		return maxRenderTime;
+	}
+	
+	/**
+	 * @return the number of renders which are waiting for a thread
+	 */
+	public int getQueueSize() {
+		return renderPool.getQueue().size();
+	}
+	
+	private synchronized void recordRender(long duration) {
+		renderCount++;
+		renderTime += duration;
+		if (duration > maxRenderTime) {
+			maxRenderTime = duration;
+		}
+	}
+	
+	private void put(String key, Chart chart) {
+		synchronized (charts) {
+			charts.put(key, chart);
+			Iterator<Map.Entry<String, Chart>> it = charts.entrySet().iterator();
+			while (charts.size() > capacity && it.hasNext()) {
+				it.next();
+				it.remove();
+			}
+		}
+	}
+	
+	/**
+	 * Renders a chart, caches it and records the render time.
+	 */
+	private class RenderTask implements Callable<Chart> {
+		
+		private final String key;
+		private final Callable<Chart> renderer;
+
+		public RenderTask(String key, Callable<Chart> renderer) {
+			this.key = key;
+			this.renderer = renderer;
+		}
+		
+		public Chart call() throws Exception {
+			long start = System.currentTimeMillis();
+			try {
+				Chart chart = renderer.call();
+				long duration = System.currentTimeMillis() - start;
+				recordRender(duration);
+				logger.debug("Rendered chart '{}' in {}ms", key, duration);
+				put(key, chart);
+				return chart;
+			} finally {
+				renders.remove(key);
+			}
+		}
+	}
+	
+}
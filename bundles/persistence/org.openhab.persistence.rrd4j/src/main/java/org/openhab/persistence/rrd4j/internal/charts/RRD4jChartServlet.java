@@ -30,18 +30,24 @@ package org.openhab.persistence.rrd4j.internal.charts;
 
 import java.awt.Color;
 import java.awt.Font;
-import java.awt.image.BufferedImage;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.util.HashMap;
 import java.util.Hashtable;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeoutException;
+import java.util.zip.CRC32;
 
 import javax.servlet.Servlet;
 import javax.servlet.ServletConfig;
 import javax.servlet.ServletException;
 import javax.servlet.ServletRequest;
 import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 
 import org.openhab.core.items.GroupItem;
 import org.openhab.core.items.Item;
@@ -49,6 +55,7 @@ import org.openhab.core.items.ItemNotFoundException;
 import org.openhab.core.library.items.NumberItem;
 import org.openhab.io.net.http.SecureHttpContext;
 import org.openhab.persistence.rrd4j.internal.RRD4jService;
+import org.openhab.persistence.rrd4j.internal.charts.ChartCache.Chart;
 import org.openhab.ui.items.ItemUIRegistry;
 import org.osgi.service.http.HttpContext;
 import org.osgi.service.http.HttpService;
@@ -68,6 +75,10 @@ import org.slf4j.LoggerFactory;
  * 	<li>items: A comma separated list of item names to display
  * 	<li>groups: A comma separated list of group names, whose members should be displayed 
  * </ul>
+ * 
+ * <p>Rendered charts are cached until new values can appear in them, which depends on the
+ * step of the archives used for the period. Each chart has an ETag, so that clients which
+ * already have the current image get a "304 Not Modified" response.</p>
  *  
  * @author Kai Kreuzer
  * @since 1.0.0
@@ -80,6 +91,18 @@ public class RRD4jChartServlet implements Servlet {
 	/** the URI of this servlet */
 	public static final String SERVLET_NAME = "/rrdchart.png";
 
+	/** the number of rendered charts which are cached at most */
+	private static final int CACHE_SIZE = 50;
+	
+	/** the number of charts which are rendered at the same time */
+	private static final int RENDER_THREADS = 2;
+	
+	/** the number of charts which may wait to be rendered */
+	private static final int RENDER_QUEUE_SIZE = 20;
+	
+	/** the time in milliseconds to wait for a chart to be rendered */
+	private static final long RENDER_TIMEOUT = 30000;
+
 	protected static final Color[] LINECOLORS = new Color[] { 
 		Color.RED, Color.GREEN, Color.BLUE, 
 		Color.MAGENTA, Color.ORANGE, Color.CYAN, 
@@ -108,6 +131,8 @@ public class RRD4jChartServlet implements Servlet {
 	
 	protected HttpService httpService;
 	protected ItemUIRegistry itemUIRegistry;
+	
+	protected ChartCache chartCache;
 
 	public void setHttpService(HttpService httpService) {
 		this.httpService = httpService;
@@ -126,6 +151,7 @@ public class RRD4jChartServlet implements Servlet {
 	}
 
 	protected void activate() {
+		chartCache = new ChartCache(CACHE_SIZE, RENDER_THREADS, RENDER_QUEUE_SIZE);
 		try {
 			logger.debug("Starting up rrd chart servlet at " + SERVLET_NAME);
 
@@ -141,34 +167,14 @@ public class RRD4jChartServlet implements Servlet {
 
 	protected void deactivate() {
 		httpService.unregister(SERVLET_NAME);
+		logger.debug("Rendered {} charts (average {}ms, maximum {}ms), served {} charts from the cache", 
+				new Object[] { chartCache.getRenderCount(), chartCache.getAverageRenderTime(), 
+					chartCache.getMaxRenderTime(), chartCache.getHitCount() });
+		chartCache.shutdown();
 	}
 
 	public void service(ServletRequest req, ServletResponse res)
 			throws ServletException, IOException {
-		RrdGraphDef graphDef = new RrdGraphDef();
-
-		configureImageParameters(graphDef, req);
-		configureContents(graphDef, req);
-
-		try {
-			RrdGraph graph = new RrdGraph(graphDef);
-			BufferedImage bi = new BufferedImage(graph.getRrdGraphInfo().getWidth(), graph.getRrdGraphInfo().getHeight(), BufferedImage.TYPE_INT_RGB);
-			graph.render(bi.getGraphics());
-			res.setContentType("image/png");
-			javax.imageio.ImageIO.write(bi, "png", res.getOutputStream());
-		} catch(FileNotFoundException e) {
-			throw new ServletException("Could not read database files for all requested items.", e);
-		}
-
-	}
-
-	/**
-	 * Sets the overall layout and rendering parameters for the chart
-	 * 
-	 * @param graphDef the graph definition to fill
-	 * @param req the HTTP request to read the parameters from
-	 */
-	protected void configureImageParameters(RrdGraphDef graphDef, ServletRequest req) {
 		int width = 480;
 		try {
 			width = Integer.parseInt(req.getParameter("w"));
@@ -177,12 +183,127 @@ public class RRD4jChartServlet implements Servlet {
 		try {
 			height = Integer.parseInt(req.getParameter("h"));
 		} catch(Exception e) {}
-		Long period = PERIODS.get(req.getParameter("period"));
-		if(period==null) {
+		String periodName = req.getParameter("period");
+		if(!PERIODS.containsKey(periodName)) {
 			// use a day as the default period
-			period = PERIODS.get("D");
+			periodName = "D";
+		}
+		String itemList = req.getParameter("items");
+		String groupList = req.getParameter("groups");
+		
+		String key = itemList + ";" + groupList + ";" + periodName + ";" + width + "x" + height;
+		Chart chart = getChart(key, itemList, groupList, PERIODS.get(periodName), width, height, res);
+		if(chart==null) {
+			return;
+		}
+		
+		if(res instanceof HttpServletResponse) {
+			HttpServletResponse httpRes = (HttpServletResponse) res;
+			httpRes.setHeader("ETag", chart.getEtag());
+			long maxAge = Math.max(0, (chart.getExpires() - System.currentTimeMillis()) / 1000);
+			httpRes.setHeader("Cache-Control", "max-age=" + maxAge);
+			if(req instanceof HttpServletRequest 
+					&& matchesEtag(((HttpServletRequest) req).getHeader("If-None-Match"), chart.getEtag())) {
+				httpRes.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+				return;
+			}
+		}
+		byte[] image = chart.getImage();
+		res.setContentType("image/png");
+		res.setContentLength(image.length);
+		res.getOutputStream().write(image);
+	}
+
+	/**
+	 * Returns the chart from the cache or renders it. 
+	 * 
+	 * @return the chart or <code>null</code>, if an error has already been sent as the response
+	 */
+	private Chart getChart(String key, final String itemList, final String groupList, final long period, 
+			final int width, final int height, ServletResponse res) throws ServletException, IOException {
+		try {
+			return chartCache.get(key, new Callable<Chart>() {
+				public Chart call() throws Exception {
+					return renderChart(itemList, groupList, period, width, height);
+				}
+			}, RENDER_TIMEOUT);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if(cause instanceof ServletException) {
+				throw (ServletException) cause;
+			} else if(cause instanceof FileNotFoundException) {
+				throw new ServletException("Could not read database files for all requested items.", cause);
+			} else {
+				throw new ServletException("Could not render the chart.", cause);
+			}
+		} catch (RejectedExecutionException e) {
+			if(res instanceof HttpServletResponse) {
+				((HttpServletResponse) res).sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, 
+						"Too many charts are waiting to be rendered.");
+				return null;
+			}
+			throw new ServletException("Too many charts are waiting to be rendered.");
+		} catch (TimeoutException e) {
+			throw new ServletException("The chart could not be rendered within " + RENDER_TIMEOUT + "ms.");
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new ServletException("Interrupted while waiting for the chart to be rendered.");
 		}
+	}
+	
+	/**
+	 * Renders a chart as a PNG image.
+	 * 
+	 * @return the rendered chart, which expires when the next value is added to the archives it shows
+	 */
+	protected Chart renderChart(String itemList, String groupList, long period, int width, int height) 
+			throws ServletException, IOException {
+		RrdGraphDef graphDef = new RrdGraphDef();
+
+		configureImageParameters(graphDef, period, width, height);
+		long step = configureContents(graphDef, itemList, groupList, period);
 		
+		// the graph is rendered and encoded in memory, as no file name is set
+		RrdGraph graph = new RrdGraph(graphDef);
+		byte[] image = graph.getRrdGraphInfo().getBytes();
+		
+		CRC32 crc = new CRC32();
+		crc.update(image);
+		String etag = "\"" + Long.toHexString(crc.getValue()) + "-" + image.length + "\"";
+		
+		long now = System.currentTimeMillis() / 1000;
+		long expires = (now / step + 1) * step * 1000;
+		return new Chart(image, etag, expires);
+	}
+	
+	/**
+	 * Checks if the value of an If-None-Match header matches the given entity tag.
+	 */
+	private static boolean matchesEtag(String ifNoneMatch, String etag) {
+		if(ifNoneMatch==null) {
+			return false;
+		}
+		for(String candidate : ifNoneMatch.split(",")) {
+			candidate = candidate.trim();
+			if(candidate.startsWith("W/")) {
+				candidate = candidate.substring(2);
+			}
+			if(candidate.equals("*") || candidate.equals(etag)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Sets the overall layout and rendering parameters for the chart
+	 * 
+	 * @param graphDef the graph definition to fill
+	 * @param period the time span of the chart in seconds (as a negative number)
+	 * @param width the width of the image in pixels
+	 * @param height the height of the image in pixels
+	 */
+	protected void configureImageParameters(RrdGraphDef graphDef, long period, int width, int height) {
 		graphDef.setWidth(width);
 		graphDef.setHeight(height);
 		graphDef.setAntiAliasing(true);
@@ -197,24 +318,27 @@ public class RRD4jChartServlet implements Servlet {
 	 * Adds the content for the chart
 	 * 
 	 * @param graphDef the graph definition to fill
-	 * @param req the HTTP request to read the parameters from
+	 * @param itemList a comma separated list of item names or <code>null</code>
+	 * @param groupList a comma separated list of group names or <code>null</code>
+	 * @param period the time span of the chart in seconds (as a negative number)
+	 * @return the smallest step (in seconds) of the archives shown in the chart
 	 */
-	protected void configureContents(RrdGraphDef graphDef, ServletRequest req) throws ServletException {
+	protected long configureContents(RrdGraphDef graphDef, String itemList, String groupList, long period) throws ServletException {
 		int counter = 0;
-		String itemList = req.getParameter("items");
+		long step = Long.MAX_VALUE;
 		if(itemList!=null) {
 			String[] itemNames = itemList.split(",");
 			for(String itemName : itemNames) {
 				try {
 					Item item = itemUIRegistry.getItem(itemName);
 					addLine(graphDef, item, counter++);
+					step = Math.min(step, RRD4jService.getArchiveStep(item, -period));
 				} catch (ItemNotFoundException e) {
 					throw new ServletException("Item '" + itemName + "' does not exist!");
 				}
 			}
 		}
 		
-		String groupList = req.getParameter("groups");
 		if(groupList!=null) {
 			String[] groupNames = groupList.split(",");
 			for(String groupName : groupNames) {
@@ -224,6 +348,7 @@ public class RRD4jChartServlet implements Servlet {
 						GroupItem groupItem = (GroupItem) item;
 						for(Item member : groupItem.getMembers()) {
 							addLine(graphDef, member, counter++);
+							step = Math.min(step, RRD4jService.getArchiveStep(member, -period));
 						}
 					} else {
 						throw new ServletException("Item '" + groupName + "' is no group item!");
@@ -237,6 +362,7 @@ public class RRD4jChartServlet implements Servlet {
 		if(counter==0) {
 			throw new ServletException("At least one item must be specified using either the 'items' or 'groups' parameter in the request!");
 		}
+		return step;
 	}
 
 	/**
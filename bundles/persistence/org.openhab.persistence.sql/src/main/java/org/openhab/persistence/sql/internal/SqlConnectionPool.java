@@ -0,0 +1,266 @@
+/**
+ * openHAB, the open Home Automation Bus.
+ * Copyright (C) 2010-2013, openHAB.org <admin@openhab.org>
+ *
+ * See the contributors.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation; either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ *
+ * Additional permission under GNU GPL version 3 section 7
+ *
+ * If you modify this Program, or any covered work, by linking or
+ * combining it with Eclipse (or a modified version of that library),
+ * containing parts covered by the terms of the Eclipse Public License
+ * (EPL), the licensors of this Program grant you additional permission
+ * to convey the resulting work.
+ */
+package org.openhab.persistence.sql.internal;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A simple pool of JDBC connections. Connections are opened lazily up to the
+ * configured pool size and each connection keeps its own cache of 
+ * {@link PreparedStatement}s, so that the statements for an item table are
+ * only prepared once per connection.
+ * 
+ * <p>Connections which caused an error should be passed to 
+ * {@link #discard(PooledConnection)}, so that they are closed and replaced by
+ * new ones.</p>
+ * 
+ * @author Kai Kreuzer
+ * @since 1.4.0
+ */
+public class SqlConnectionPool {
+
+	private static final Logger logger = LoggerFactory.getLogger(SqlConnectionPool.class);
+
+	/** the maximum number of prepared statements which are cached per connection */
+	private static final int STATEMENT_CACHE_SIZE = 100;
+	
+	private final String url;
+	private final String user;
+	private final String password;
+	private final long timeout;
+
+	private final Semaphore permits;
+	
+	private final LinkedList<PooledConnection> idleConnections = new LinkedList<PooledConnection>();
+	
+	/** is increased on every reset, so that connections of an older generation are not reused */
+	private int generation = 0;
+	
+	private volatile boolean closed = false;
+	
+	/**
+	 * Creates a new connection pool. The JDBC driver must already be loaded.
+	 * 
+	 * @param url the database url
+	 * @param user the database user
+	 * @param password the database password
+	 * @param size the maximum number of open connections
+	 * @param timeout the maximum time in milliseconds to wait for a free connection
+	 */
+	public SqlConnectionPool(String url, String user, String password, int size, long timeout) {
+		this.url = url;
+		this.user = user;
+		this.password = password;
+		this.timeout = timeout;
+		this.permits = new Semaphore(size, true);
+	}
+	
+	/**
+	 * Takes a connection from the pool. If no idle connection is available, a new one is 
+	 * opened as long as the maximum pool size has not been reached, otherwise this method
+	 * waits for a connection to be returned to the pool.
+	 * 
+	 * @return a connection, which must be passed to either {@link #release(PooledConnection)} 
+	 * 	or {@link #discard(PooledConnection)} afterwards
+	 * @throws SQLException if no connection could be opened or if no connection became 
+	 * 	available in time
+	 */
+	public PooledConnection acquire() throws SQLException {
+		if(closed) {
+			throw new SQLException("The connection pool has been closed.");
+		}
+		try {
+			if(!permits.tryAcquire(timeout, TimeUnit.MILLISECONDS)) {
+				throw new SQLException("No database connection became available within " + timeout + "ms.");
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new SQLException("Interrupted while waiting for a database connection.");
+		}
+
+		PooledConnection connection;
+		int currentGeneration;
+		synchronized (idleConnections) {
+			connection = idleConnections.poll();
+			currentGeneration = generation;
+		}
+		if(connection!=null) {
+			return connection;
+		}
+		
+		try {
+			logger.debug("SQL: Opening new connection to database {}", url);
+			return new PooledConnection(DriverManager.getConnection(url, user, password), currentGeneration);
+		} catch (SQLException e) {
+			permits.release();
+			throw e;
+		} catch (RuntimeException e) {
+			permits.release();
+			throw e;
+		}
+	}
+	
+	/**
+	 * Returns a connection to the pool, so that it can be reused.
+	 * 
+	 * @param connection the connection to return
+	 */
+	public void release(PooledConnection connection) {
+		boolean reuse;
+		synchronized (idleConnections) {
+			reuse = !closed && connection.generation == generation;
+			if(reuse) {
+				idleConnections.addFirst(connection);
+			}
+		}
+		if(!reuse) {
+			connection.close();
+		}
+		permits.release();
+	}
+
+	/**
+	 * Closes a broken connection and frees its place in the pool.
+	 * 
+	 * @param connection the connection to discard
+	 */
+	public void discard(PooledConnection connection) {
+		connection.close();
+		permits.release();
+	}
+	
+	/**
+	 * Closes all idle connections; connections which are currently in use are 
+	 * closed as soon as they are returned to the pool.
+	 */
+	public void reset() {
+		LinkedList<PooledConnection> connections;
+		synchronized (idleConnections) {
+			generation++;
+			connections = new LinkedList<PooledConnection>(idleConnections);
+			idleConnections.clear();
+		}
+		for(PooledConnection connection : connections) {
+			connection.close();
+		}
+	}
+	
+	/**
+	 * Closes the pool and all its connections.
+	 */
+	public void close() {
+		closed = true;
+		reset();
+	}
+	
+	
+	/**
+	 * A connection of the pool together with its prepared statements.
+	 */
+	public static class PooledConnection {
+		
+		private final Connection connection;
+		
+		private final int generation;
+
+		private final Map<String, PreparedStatement> statements = 
+			new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true) {
+				private static final long serialVersionUID = 1L;
+				@Override
+				protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+					if(size() > STATEMENT_CACHE_SIZE) {
+						closeStatement(eldest.getValue());
+						return true;
+					}
+					return false;
+				}
+			};
+		
+		private PooledConnection(Connection connection, int generation) {
+			this.connection = connection;
+			this.generation = generation;
+		}
+		
+		/**
+		 * @return the underlying JDBC connection
+		 */
+		public Connection getConnection() {
+			return connection;
+		}
+		
+		/**
+		 * Returns a prepared statement for the given SQL, which is only prepared 
+		 * on the first call for this connection.
+		 * 
+		 * @param sql the SQL statement to prepare
+		 * @return the (cached) prepared statement
+		 * @throws SQLException if the statement could not be prepared
+		 */
+		public PreparedStatement prepareStatement(String sql) throws SQLException {
+			PreparedStatement statement = statements.get(sql);
+			if(statement==null) {
+				statement = connection.prepareStatement(sql);
+				statements.put(sql, statement);
+			}
+			return statement;
+		}
+		
+		private void close() {
+			for(PreparedStatement statement : statements.values()) {
+				closeStatement(statement);
+			}
+			statements.clear();
+			try {
+				connection.close();
+			} catch (SQLException e) {
+				logger.debug("SQL: Failed to close database connection: {}", e.getMessage());
+			}
+		}
+		
+		private static void closeStatement(PreparedStatement statement) {
+			try {
+				statement.close();
+			} catch (SQLException e) {
+				logger.debug("SQL: Failed to close prepared statement: {}", e.getMessage());
+			}
+		}
+	}
+
+}
@@ -28,20 +28,24 @@
  */
 package org.openhab.persistence.sql.internal;
 
-import java.text.SimpleDateFormat;
-import java.sql.Connection;
-import java.sql.DriverManager;
+import java.sql.BatchUpdateException;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.sql.Timestamp;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Date;
 import java.util.Dictionary;
 import java.util.Enumeration;
 import java.util.Formatter;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -49,12 +53,18 @@ import org.apache.commons.lang.StringUtils;
 import org.openhab.core.items.Item;
 import org.openhab.core.items.ItemRegistry;
 import org.openhab.core.library.types.DecimalType;
+import org.openhab.core.library.types.OnOffType;
+import org.openhab.core.persistence.AggregatingPersistenceService;
+import org.openhab.core.persistence.Aggregator;
+import org.openhab.core.persistence.BatchPersistenceService;
 import org.openhab.core.persistence.FilterCriteria;
+import org.openhab.core.persistence.FilterCriteria.Aggregation;
+import org.openhab.core.persistence.FilterCriteria.Ordering;
 import org.openhab.core.persistence.HistoricItem;
+import org.openhab.core.persistence.PersistenceEntry;
 import org.openhab.core.persistence.PersistenceService;
-import org.openhab.core.persistence.QueryablePersistenceService;
-import org.openhab.core.persistence.FilterCriteria.Ordering;
 import org.openhab.core.types.State;
+import org.openhab.persistence.sql.internal.SqlConnectionPool.PooledConnection;
 import org.osgi.service.cm.ConfigurationException;
 import org.osgi.service.cm.ManagedService;
 import org.slf4j.Logger;
@@ -63,33 +73,55 @@ import org.slf4j.LoggerFactory;
 /**
  * This is the implementation of the SQL {@link PersistenceService}.
  * 
+ * <p>The database is accessed through a {@link SqlConnectionPool}, so that 
+ * concurrent stores and queries do not share a single connection. Item states
+ * are written with JDBC batch inserts through prepared statements, and query 
+ * results are read in chunks while they are iterated. Aggregations are evaluated by
+ * the database.</p>
+ * 
  * @author Henrik Sjöstrand
  * @author Thomas.Eichstaedt-Engelen
  * @author Chris Jackson
  * @since 1.1.0
  */
-public class SqlPersistenceService implements QueryablePersistenceService, ManagedService {
+public class SqlPersistenceService implements AggregatingPersistenceService, BatchPersistenceService, ManagedService {
 
 	private static final Pattern EXTRACT_CONFIG_PATTERN = Pattern.compile("^(.*?)\\.([0-9.a-zA-Z]+)$");
 
 	private static final Logger logger = LoggerFactory.getLogger(SqlPersistenceService.class);
 
+	/** the default number of database connections */
+	private static final int DEFAULT_POOL_SIZE = 4;
+	
+	/** the maximum time in milliseconds to wait for a free database connection */
+	private static final long CONNECTION_TIMEOUT = 10000;
+	
+	/** the number of rows which are read at once when iterating over a query result */
+	private static final int QUERY_CHUNK_SIZE = 500;
+
 	private String driverClass;
 	private String url;
 	private String user;
 	private String password;
+	private int poolSize = DEFAULT_POOL_SIZE;
 
 	private boolean initialized = false;
 	protected ItemRegistry itemRegistry;
 	
 	// Error counter - used to reconnect to database on error
-	private int errCnt;
+	private volatile int errCnt;
 	private int errReconnectThreshold = 0;
 
-	private Connection connection = null;
+	private volatile SqlConnectionPool connectionPool = null;
+	
+	/** true, if the Items table has been read since the connection pool has been created */
+	private volatile boolean tablesLoaded = false;
 
-	private Map<String, String> sqlTables = new HashMap<String, String>();
+	private Map<String, String> sqlTables = new ConcurrentHashMap<String, String>();
 	private Map<String, String> sqlTypes = new HashMap<String, String>();
+	
+	/** serializes the creation of item tables, so that no item gets two tables */
+	private final Object tableLock = new Object();
 
 	public void activate() {
 		// Initialise the type array
@@ -124,161 +156,283 @@ public class SqlPersistenceService implements QueryablePersistenceService, Manag
 		return "sql";
 	}
 
-	private String getTable(Item item) {
-		Statement statement = null;
-		String sqlCmd = null;
-		int rowId = 0;
-		
+	private String getTable(PooledConnection connection, Item item) {
 		String itemName = item.getName();
-
 		String tableName = sqlTables.get(itemName);
 
 		// Table already exists - return the name
 		if (tableName != null)
 			return tableName;
 
-		// Create a new entry in the Items table. This is the translation of
-		// item name to table
-		try {
-			sqlCmd = new String("INSERT INTO Items (ItemName) VALUES ('" + itemName + "')");
-
-			statement = connection.createStatement();
-			statement.executeUpdate(sqlCmd, Statement.RETURN_GENERATED_KEYS);
-
-			ResultSet resultSet = statement.getGeneratedKeys();
-			if (resultSet != null && resultSet.next()) {
-				rowId = resultSet.getInt(1);
-			}
-
-			if (rowId == 0) {
-				throw new SQLException("SQL: Creating table for item '" + itemName + "' failed.");
-			}
-
-			// Create the table name
-			tableName = new String("Item" + rowId);
-			logger.debug("SQL: new item " + itemName + " is Item" + rowId);
-		} catch (SQLException e) {
-			logger.error("SQL: Could not create table for item '" + itemName + "': "	+ e.getMessage());
-		} finally {
-			if (statement != null) {
-				try {
-					statement.close();
-				} catch (SQLException logOrIgnore) {
+		synchronized (tableLock) {
+			// the table might have been created while we were waiting for the lock
+			tableName = sqlTables.get(itemName);
+			if (tableName != null)
+				return tableName;
+			
+			// Create a new entry in the Items table. This is the translation of
+			// item name to table
+			int rowId = 0;
+			PreparedStatement statement = null;
+			try {
+				statement = connection.getConnection().prepareStatement(
+						"INSERT INTO Items (ItemName) VALUES (?)", Statement.RETURN_GENERATED_KEYS);
+				statement.setString(1, itemName);
+				statement.executeUpdate();
+	
+				ResultSet resultSet = statement.getGeneratedKeys();
+				if (resultSet != null && resultSet.next()) {
+					rowId = resultSet.getInt(1);
 				}
-			}
-		}
-
-		// An error occurred!
-		if (tableName == null)
-			return null;
-
-		// Default the type to double
-		String mysqlType = new String("DOUBLE");
-		String itemType = item.getClass().toString().toUpperCase();
-		itemType = itemType.substring(itemType.lastIndexOf('.')+1);
-		if(sqlTypes.get(itemType) != null) {
-			mysqlType = sqlTypes.get(itemType);
-		}
-
-		// We have a rowId, create the table for the data
-		sqlCmd = new String("CREATE TABLE " + tableName + " (Time DATETIME, Value " + mysqlType + ", PRIMARY KEY(Time));");
-		logger.debug("SQL: " + sqlCmd);
-		
-		try {
-			statement = connection.createStatement();
-			statement.executeUpdate(sqlCmd);
-
-			logger.debug("SQL: Table created for item '" + itemName + "' with datatype " + mysqlType + " in SQL database.");
-			sqlTables.put(itemName, tableName);
-		} catch (Exception e) {
-			logger.error("SQL: Could not create table for item '" + itemName + "' with statement '" + sqlCmd + "': "
-					+ e.getMessage());
-		} finally {
-			if (statement != null) {
-				try {
-					statement.close();
-				} catch (Exception hidden) {
+	
+				if (rowId == 0) {
+					throw new SQLException("SQL: Creating table for item '" + itemName + "' failed.");
 				}
+	
+				// Create the table name
+				tableName = "Item" + rowId;
+				logger.debug("SQL: new item {} is Item{}", itemName, rowId);
+			} catch (SQLException e) {
+				logger.error("SQL: Could not create table for item '" + itemName + "': "	+ e.getMessage());
+				return null;
+			} finally {
+				closeStatement(statement);
+			}
+	
+			// Default the type to double
+			String mysqlType = "DOUBLE";
+			String itemType = item.getClass().toString().toUpperCase();
+			itemType = itemType.substring(itemType.lastIndexOf('.')+1);
+			if(sqlTypes.get(itemType) != null) {
+				mysqlType = sqlTypes.get(itemType);
+			}
+	
+			// We have a rowId, create the table for the data
+			String sqlCmd = "CREATE TABLE " + tableName + " (Time DATETIME, Value " + mysqlType + ", PRIMARY KEY(Time));";
+			logger.debug("SQL: " + sqlCmd);
+			
+			Statement createStatement = null;
+			try {
+				createStatement = connection.getConnection().createStatement();
+				createStatement.executeUpdate(sqlCmd);
+	
+				logger.debug("SQL: Table created for item '" + itemName + "' with datatype " + mysqlType + " in SQL database.");
+				sqlTables.put(itemName, tableName);
+			} catch (Exception e) {
+				logger.error("SQL: Could not create table for item '" + itemName + "' with statement '" + sqlCmd + "': "
+						+ e.getMessage());
+			} finally {
+				closeStatement(createStatement);
 			}
+	
+			return tableName;
 		}
-
-		return tableName;
 	}
 
 	/**
 	 * @{inheritDoc
 	 */
 	public void store(Item item, String alias) {
-		if (initialized) {
+		store(Collections.singletonList(new PersistenceEntry(item, alias, item.getState(), new Date())));
+	}
 
-			if (!isConnected())
-				connectToDatabase();
+	/**
+	 * @{inheritDoc
+	 */
+	public void store(Item item) {
+		store(item, null);
+	}
 
-			if (isConnected()) {
+	/**
+	 * @{inheritDoc
+	 */
+	public void store(List<PersistenceEntry> entries) {
+		if (!initialized || entries.isEmpty()) {
+			return;
+		}
+		
+		SqlConnectionPool pool = getConnectionPool();
+		PooledConnection connection = null;
+		try {
+			if (pool != null) {
+				connection = pool.acquire();
+			}
+		} catch (SQLException e) {
+			logger.warn("SQL: Failed to get a database connection: {}", e.getMessage());
+		}
+		if (connection == null) {
+			logger.warn(
+					"SQL: No connection to database. Can not persist {} item states! Will retry connecting to database next time.",
+					entries.size());
+			return;
+		}
 
-				String tableName = getTable(item);
+		boolean valid = true;
+		try {
+			// group the entries by their tables, so that each table is written with one batch
+			Map<String, List<PersistenceEntry>> entriesByTable = new LinkedHashMap<String, List<PersistenceEntry>>();
+			for (PersistenceEntry entry : entries) {
+				String tableName = getTable(connection, entry.getItem());
 				if (tableName == null) {
-					logger.error("Unable to store item '{}'.", item.getName());
-					return;
+					logger.error("Unable to store item '{}'.", entry.getItem().getName());
+					continue;
 				}
-
-				String sqlCmd = null;
-				Statement statement = null;
+				List<PersistenceEntry> tableEntries = entriesByTable.get(tableName);
+				if (tableEntries == null) {
+					tableEntries = new ArrayList<PersistenceEntry>();
+					entriesByTable.put(tableName, tableEntries);
+				}
+				tableEntries.add(entry);
+			}
+			
+			for (Entry<String, List<PersistenceEntry>> tableEntries : entriesByTable.entrySet()) {
+				String sqlCmd = "INSERT INTO " + tableEntries.getKey() + " (Time, Value) VALUES(?,?)";
+				PreparedStatement statement = null;
 				try {
-					statement = connection.createStatement();
-					sqlCmd = new String("INSERT INTO " + tableName + " (TIME, VALUE) VALUES(NOW(),'" + item.getState().toString() + "');");
-					statement.executeUpdate(sqlCmd);
-
-					logger.debug("SQL: Stored item '{}' as '{}'[{}] in SQL database at {}.", item.getName(),
-							item.getState().toString(), item.getState().toString(), (new java.util.Date()).toString());
-					logger.debug("SQL: {}", sqlCmd);
+					statement = connection.prepareStatement(sqlCmd);
+					// the statement is cached, so it might still hold the rows of a failed batch
+					statement.clearBatch();
+					for (PersistenceEntry entry : tableEntries.getValue()) {
+						statement.setTimestamp(1, new Timestamp(entry.getTimestamp().getTime()));
+						statement.setString(2, entry.getState().toString());
+						statement.addBatch();
+					}
+					statement.executeBatch();
 
+					if (logger.isDebugEnabled()) {
+						for (PersistenceEntry entry : tableEntries.getValue()) {
+							logger.debug("SQL: Stored item '{}' as '{}' in SQL database at {}.", new Object[] { 
+									entry.getItem().getName(), entry.getState().toString(), entry.getTimestamp() });
+						}
+					}
+	
 					// Success
 					errCnt = 0;
-				} catch (Exception e) {
+				} catch (BatchUpdateException e) {
+					// a single row, e.g. a second state of the item within the same second, fails the whole
+					// batch - so we store the rows which have not been stored yet one by one
+					logger.debug("SQL: Batch insert with statement '{}' failed, storing the item states one by one: {}", 
+							sqlCmd, e.getMessage());
+					if (!storeOneByOne(connection, statement, sqlCmd, 
+							getUnstoredEntries(tableEntries.getValue(), e.getUpdateCounts()))) {
+						valid = false;
+						break;
+					}
+				} catch (SQLException e) {
 					errCnt++;
-
-					logger.error("SQL: Could not store item '{}' in database with statement '{}': {}",
-							item.getName(), sqlCmd, e.getMessage());
-				} finally {
-					if (statement != null) {
-						try {
-							statement.close();
-						} catch (Exception hidden) {
-						}
+					logger.error("SQL: Could not store {} item states in database with statement '{}': {}",
+							new Object[] { tableEntries.getValue().size(), sqlCmd, e.getMessage() });
+					if (!isValid(connection)) {
+						valid = false;
+						break;
 					}
 				}
+			}
+		} finally {
+			if (valid) {
+				pool.release(connection);
 			} else {
-				logger.warn(
-						"SQL: No connection to database. Can not persist item '{}'! Will retry connecting to database next time.",
-						item);
+				pool.discard(connection);
 			}
+			checkErrorThreshold();
 		}
 	}
 
 	/**
-	 * @{inheritDoc
+	 * Determines the entries of a failed batch which have not been stored. Depending on the driver,
+	 * the update counts either cover all entries of the batch or only those before the failed one.
+	 * 
+	 * @param entries the entries of the batch
+	 * @param updateCounts the update counts of the batch
+	 * @return the entries which still need to be stored
 	 */
-	public void store(Item item) {
-		store(item, null);
+	private List<PersistenceEntry> getUnstoredEntries(List<PersistenceEntry> entries, int[] updateCounts) {
+		if (updateCounts == null) {
+			return entries;
+		}
+		List<PersistenceEntry> unstoredEntries = new ArrayList<PersistenceEntry>();
+		for (int i = 0; i < entries.size(); i++) {
+			if (i >= updateCounts.length || updateCounts[i] == Statement.EXECUTE_FAILED) {
+				unstoredEntries.add(entries.get(i));
+			}
+		}
+		return unstoredEntries;
+	}
+
+	/**
+	 * Stores entries with one insert per row, so that a failing row does not affect the others.
+	 * 
+	 * @return false, if the connection has become unusable
+	 */
+	private boolean storeOneByOne(PooledConnection connection, PreparedStatement statement, String sqlCmd,
+			List<PersistenceEntry> entries) {
+		boolean stored = false;
+		for (PersistenceEntry entry : entries) {
+			try {
+				statement.setTimestamp(1, new Timestamp(entry.getTimestamp().getTime()));
+				statement.setString(2, entry.getState().toString());
+				statement.executeUpdate();
+				stored = true;
+				logger.debug("SQL: Stored item '{}' as '{}' in SQL database at {}.", new Object[] { 
+						entry.getItem().getName(), entry.getState().toString(), entry.getTimestamp() });
+			} catch (SQLException e) {
+				if (!isValid(connection)) {
+					errCnt++;
+					logger.error("SQL: Could not store item states in database with statement '{}': {}", sqlCmd, e.getMessage());
+					return false;
+				}
+				logger.warn("SQL: Could not store item '{}' as '{}' at {}: {}", new Object[] { 
+						entry.getItem().getName(), entry.getState().toString(), entry.getTimestamp(), e.getMessage() });
+			}
+		}
+		if (stored) {
+			errCnt = 0;
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the connection pool and makes sure that the database has been initialized.
+	 * 
+	 * @return the connection pool or <code>null</code>, if there is no usable connection to the database
+	 */
+	private SqlConnectionPool getConnectionPool() {
+		SqlConnectionPool pool = connectionPool;
+		if (pool != null && !tablesLoaded) {
+			initializeDatabase(pool);
+		}
+		return tablesLoaded ? pool : null;
 	}
 
 	/**
-	 * Checks if we have a database connection
+	 * Checks if a connection can still be used
 	 * 
-	 * @return true if connection has been established, false otherwise
+	 * @return true if the connection is still valid, false otherwise
 	 */
-	private boolean isConnected() {
-		// Error check. If we have 'errReconnectThreshold' errors in a row, then reconnect to the database
+	private boolean isValid(PooledConnection connection) {
+		try {
+			return connection.getConnection().isValid(1);
+		} catch (SQLException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Error check. If we have 'errReconnectThreshold' errors in a row, then reconnect to the database
+	 */
+	private void checkErrorThreshold() {
 		if(errReconnectThreshold != 0 && errCnt > errReconnectThreshold) {
-			logger.debug("SQL: Error count exceeded " + errReconnectThreshold + ". Disconnecting database.");
-			disconnectFromDatabase();
+			logger.debug("SQL: Error count exceeded " + errReconnectThreshold + ". Reconnecting to database.");
+			errCnt = 0;
+			SqlConnectionPool pool = connectionPool;
+			if (pool != null) {
+				pool.reset();
+			}
 		}
-		return connection != null;
 	}
 
 	/**
-	 * Connects to the database
+	 * Creates the connection pool for the database
 	 */
 	private void connectToDatabase() {
 		try {
@@ -287,49 +441,71 @@ public class SqlPersistenceService implements QueryablePersistenceService, Manag
 			
 			logger.debug("SQL: Attempting to connect to database " + url);
 			Class.forName(driverClass).newInstance();
-			connection = DriverManager.getConnection(url, user, password);
-			logger.debug("SQL: Connected to database " + url);
+			SqlConnectionPool pool = new SqlConnectionPool(url, user, password, poolSize, CONNECTION_TIMEOUT);
+			connectionPool = pool;
+			initializeDatabase(pool);
+		} catch (Exception e) {
+			logger.error("SQL: Failed connecting to the SQL database using: driverClass=" + driverClass + ", url=" + url
+					+ ", user=" + user + ", password=" + password, e);
+		}
+	}
 
-			Statement st = connection.createStatement();
-			int result = st.executeUpdate("SHOW TABLES LIKE 'Items'");
-			st.close();
-			if (result == 0) {
-				st = connection.createStatement();
-				st.executeUpdate(
-						"CREATE TABLE Items (ItemId INT NOT NULL AUTO_INCREMENT,ItemName VARCHAR(200) NOT NULL,PRIMARY KEY (ItemId));",
-						Statement.RETURN_GENERATED_KEYS);
-				st.close();
-			}
+	/**
+	 * Creates the Items table if necessary and reads the mapping of item names to tables.
+	 */
+	private synchronized void initializeDatabase(SqlConnectionPool pool) {
+		if (tablesLoaded) {
+			return;
+		}
+		PooledConnection connection = null;
+		Statement st = null;
+		try {
+			connection = pool.acquire();
+			st = connection.getConnection().createStatement();
+			st.executeUpdate(
+					"CREATE TABLE IF NOT EXISTS Items (ItemId INT NOT NULL AUTO_INCREMENT,ItemName VARCHAR(200) NOT NULL,PRIMARY KEY (ItemId));");
 
 			// Retrieve the table array
-			st = connection.createStatement();
-
-			// Turn use of the cursor on.
-			st.setFetchSize(50);
 			ResultSet rs = st.executeQuery("SELECT ItemId, ItemName FROM Items");
 			while (rs.next()) {
 				sqlTables.put(rs.getString(2), "Item" + rs.getInt(1));
 			}
 			rs.close();
-			st.close();
-		} catch (Exception e) {
-			logger.error("SQL: Failed connecting to the SQL database using: driverClass=" + driverClass + ", url=" + url
-					+ ", user=" + user + ", password=" + password, e);
+			tablesLoaded = true;
+			logger.debug("SQL: Connected to database " + url);
+		} catch (SQLException e) {
+			logger.error("SQL: Failed to read the item tables from the SQL database: {}", e.getMessage());
+		} finally {
+			closeStatement(st);
+			if (connection != null) {
+				if (tablesLoaded) {
+					pool.release(connection);
+				} else {
+					pool.discard(connection);
+				}
+			}
 		}
 	}
 
 	/**
-	 * Disconnects from the database
+	 * Closes all connections to the database
 	 */
 	private void disconnectFromDatabase() {
-		if (isConnected()) {
+		SqlConnectionPool pool = connectionPool;
+		if (pool != null) {
+			connectionPool = null;
+			tablesLoaded = false;
+			pool.close();
+			logger.debug("SQL: Disconnected from database " + url);
+		}
+	}
+	
+	private static void closeStatement(Statement statement) {
+		if (statement != null) {
 			try {
-				connection.close();
-				logger.debug("SQL: Disconnected from database " + url);
-			} catch (Exception e) {
-				logger.warn("SQL: Failed disconnecting from the SQL database", e);
+				statement.close();
+			} catch (SQLException hidden) {
 			}
-			connection = null;
 		}
 	}
 
@@ -348,7 +524,6 @@ public class SqlPersistenceService implements QueryablePersistenceService, Manag
 	protected String formatAlias(String alias, Object... values) {
 		return String.format(alias, values);
 	}
-
 	/**
 	 * @{inheritDoc
 	 */
@@ -407,6 +582,21 @@ public class SqlPersistenceService implements QueryablePersistenceService, Manag
 				errReconnectThreshold = Integer.parseInt(errorThresholdString);
 			}
 
+			String poolSizeString = (String) config.get("poolSize");
+			if (StringUtils.isNotBlank(poolSizeString)) {
+				try {
+					poolSize = Integer.parseInt(poolSizeString.trim());
+				} catch (NumberFormatException e) {
+					poolSize = 0;
+				}
+				if (poolSize <= 0) {
+					throw new ConfigurationException("sql:poolSize", 
+							"The SQL pool size '" + poolSizeString + "' must be a positive number.");
+				}
+			} else {
+				poolSize = DEFAULT_POOL_SIZE;
+			}
+
 			disconnectFromDatabase();
 			connectToDatabase();
 
@@ -418,95 +608,269 @@ public class SqlPersistenceService implements QueryablePersistenceService, Manag
 
 	@Override
 	public Iterable<HistoricItem> query(FilterCriteria filter) {
-		if (initialized) {
-			if (!isConnected()) {
-				connectToDatabase();
+		if (initialized && getConnectionPool() != null) {
+			String itemName = filter.getItemName();
+
+			String table = sqlTables.get(itemName);
+			if (table == null) {
+				logger.error("SQL: Unable to find table for query '" + itemName + "'.");
+				return Collections.emptyList();
 			}
 
-			SimpleDateFormat mysqlDateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
-			if (isConnected()) {
-				String itemName = filter.getItemName();
+			return new SqlQueryResult(this, table, filter, QUERY_CHUNK_SIZE);
+		}
+		return Collections.emptyList();
+	}
 
-				String table= sqlTables.get(itemName);
-				if (table == null) {
-					logger.error("SQL: Unable to find table for query '" + itemName + "'.");
-					return Collections.emptyList();
-				}
+	/**
+	 * Reads a chunk of rows from an item table for a {@link SqlQueryResult}. Errors
+	 * are logged and counted like for all other statements.
+	 * 
+	 * @param table the item table to read
+	 * @param filter the filter criteria of the query
+	 * @param after if not <code>null</code>, only rows after this timestamp (in the order of the filter) are read 
+	 * @param offset the number of rows to skip
+	 * @param limit the maximum number of rows to read
+	 * @return the rows as historic items or an empty list, if the query failed
+	 */
+	/* default */ List<HistoricItem> readChunk(String table, FilterCriteria filter, Date after, long offset, int limit) {
+		if (!initialized || getConnectionPool() == null) {
+			return Collections.emptyList();
+		}
+		try {
+			long timerStart = System.currentTimeMillis();
 
-				String filterString = new String();
+			List<HistoricItem> chunk = queryChunk(table, filter, after, offset, limit);
 
-				if (filter.getBeginDate()!=null) {
-					if(filterString.isEmpty())
-						filterString += " WHERE";
-					else
-						filterString += " AND";
-					filterString += " TIME>'" + mysqlDateFormat.format(filter.getBeginDate()) + "'";
-				}
-				if (filter.getEndDate()!=null) {
-					if(filterString.isEmpty())
-						filterString += " WHERE";
-					else
-						filterString += " AND";
-					filterString += " TIME<'" + mysqlDateFormat.format(filter.getEndDate().getTime()) + "'";
-				}
+			long timerStop = System.currentTimeMillis();
+			logger.debug("SQL: query returned {} rows in {}ms", chunk.size(), timerStop - timerStart);
+			
+			// Success
+			errCnt = 0;
 
-				if(filter.getOrdering()==Ordering.ASCENDING) {
-					filterString += " ORDER BY 'Time' ASC";
-				} else {
-					filterString += " ORDER BY Time DESC";
-				}
+			return chunk;
+		} catch (SQLException e) {
+			errCnt++;
+			logger.error("SQL: Error running querying : " + e.getMessage());
+			checkErrorThreshold();
+		}
+		return Collections.emptyList();
+	}
 
-				if(filter.getPageSize() != 0x7fffffff)
-					filterString += " LIMIT " + filter.getPageNumber() * filter.getPageSize() + "," + filter.getPageSize();
-				
-				try {
-					long timerStart = System.currentTimeMillis();
+	/**
+	 * Reads a chunk of rows from an item table.
+	 * 
+	 * @param table the item table to read
+	 * @param filter the filter criteria of the query
+	 * @param after if not <code>null</code>, only rows after this timestamp (in the order of the filter) are read 
+	 * @param offset the number of rows to skip
+	 * @param limit the maximum number of rows to read
+	 * @return the rows as historic items
+	 * @throws SQLException if the query fails
+	 */
+	private List<HistoricItem> queryChunk(String table, FilterCriteria filter, Date after, long offset, int limit) 
+			throws SQLException {
+		boolean ascending = filter.getOrdering() == Ordering.ASCENDING;
+		
+		List<Object> parameters = new ArrayList<Object>(5);
+		StringBuilder queryString = new StringBuilder("SELECT Time, Value FROM ").append(table);
+		appendConditions(queryString, filter, parameters);
+		if (after != null) {
+			queryString.append(parameters.isEmpty() ? " WHERE" : " AND").append(ascending ? " Time>?" : " Time<?");
+			parameters.add(new Timestamp(after.getTime()));
+		}
+		queryString.append(ascending ? " ORDER BY Time ASC" : " ORDER BY Time DESC");
+		queryString.append(" LIMIT ? OFFSET ?");
+		parameters.add(limit);
+		parameters.add(offset);
+		
+		return readItems(queryString.toString(), parameters, filter.getItemName(), null, Math.min(limit, QUERY_CHUNK_SIZE));
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * 
+	 * <p>All aggregations are evaluated by the database. Time buckets are aligned to
+	 * full seconds, as the item tables do not store milliseconds; for other bucket sizes
+	 * and for the first or last value per bucket, <code>null</code> is returned.</p>
+	 */
+	@Override
+	public Iterable<HistoricItem> aggregate(FilterCriteria filter) {
+		Aggregation aggregation = filter.getAggregation();
+		if (aggregation == null) {
+			return null;
+		}
+		long bucketSize = filter.getBucketSize();
+		if (bucketSize > 0 && (bucketSize % 1000 != 0 
+				|| aggregation == Aggregation.FIRST || aggregation == Aggregation.LAST)) {
+			return null;
+		}
+		if (initialized && getConnectionPool() != null) {
+			String itemName = filter.getItemName();
 
-					// Retrieve the table array
-					Statement st = connection.createStatement();
+			String table = sqlTables.get(itemName);
+			if (table == null) {
+				logger.error("SQL: Unable to find table for query '" + itemName + "'.");
+				return Collections.emptyList();
+			}
 
-					String queryString = new String();
-					queryString = "SELECT Time, Value FROM " + table;
-					if(!filterString.isEmpty())
-						queryString += filterString;
-					
-					logger.debug("SQL: "+queryString);
+			boolean ascending = filter.getOrdering() == Ordering.ASCENDING;
+			List<Object> parameters = new ArrayList<Object>(3);
+			StringBuilder queryString = new StringBuilder();
+			if (bucketSize <= 0 && aggregation != Aggregation.COUNT && aggregation != Aggregation.SUM 
+					&& aggregation != Aggregation.AVG && aggregation != Aggregation.CHANGED) {
+				// a single row is selected, so we can return it including its timestamp
+				queryString.append("SELECT Time, Value FROM ").append(table);
+				appendConditions(queryString, filter, parameters);
+				switch (aggregation) {
+					case MIN:
+						queryString.append(" ORDER BY Value ASC, Time ASC");
+						break;
+					case MAX:
+						queryString.append(" ORDER BY Value DESC, Time ASC");
+						break;
+					case LAST:
+						queryString.append(" ORDER BY Time DESC");
+						break;
+					default:
+						queryString.append(" ORDER BY Time ASC");
+						break;
+				}
+				queryString.append(" LIMIT 1");
+			} else {
+				queryString.append("SELECT MIN(Time), ").append(getAggregateFunction(aggregation));
+				if (bucketSize > 0) {
+					queryString.append(", FLOOR(UNIX_TIMESTAMP(Time)/?) AS Bucket");
+					parameters.add(bucketSize / 1000);
+				}
+				queryString.append(" FROM ").append(table);
+				appendConditions(queryString, filter, parameters);
+				if (bucketSize > 0) {
+					queryString.append(" GROUP BY Bucket ORDER BY Bucket").append(ascending ? " ASC" : " DESC");
+				}
+			}
 
-					// Turn use of the cursor on.
-					st.setFetchSize(50);
+			try {
+				long timerStart = System.currentTimeMillis();
 
-					ResultSet rs = st.executeQuery(queryString);
+				List<HistoricItem> result = readItems(queryString.toString(), parameters, itemName, aggregation, 16);
 
-					long count = 0;
-					double value;
-					List<HistoricItem> items = new ArrayList<HistoricItem>();
-					while (rs.next()) {
-						count++;
+				long timerStop = System.currentTimeMillis();
+				logger.debug("SQL: aggregation returned {} rows in {}ms", result.size(), timerStop - timerStart);
 
-						//TODO: Make this type specific ???
-						value = rs.getDouble(2);
-						State v = new DecimalType(value);
+				// Success
+				errCnt = 0;
 
-						SqlItem sqlItem = new SqlItem(itemName, v, rs.getTimestamp(1));
-						items.add(sqlItem);
-					}
+				return result;
+			} catch (SQLException e) {
+				errCnt++;
+				logger.error("SQL: Error running aggregation : " + e.getMessage());
+				checkErrorThreshold();
+			}
+		}
+		return Collections.emptyList();
+	}
+	
+	private static String getAggregateFunction(Aggregation aggregation) {
+		switch (aggregation) {
+			case COUNT:
+				return "COUNT(*)";
+			// the number of values is selected with the sum and the average, so that they can be weighted
+			case SUM:
+				return "SUM(Value), COUNT(Value)";
+			case AVG:
+				return "AVG(Value), COUNT(Value)";
+			case MIN:
+				return "MIN(Value)";
+			case MAX:
+				return "MAX(Value)";
+			default:
+				return "COUNT(DISTINCT Value)";
+		}
+	}
 
-					rs.close();
-					st.close();
+	/**
+	 * Appends the conditions of the filter on the time range to a query.
+	 */
+	private static void appendConditions(StringBuilder queryString, FilterCriteria filter, List<Object> parameters) {
+		boolean first = true;
+		if (filter.getBeginDate() != null) {
+			queryString.append(" WHERE Time>?");
+			parameters.add(new Timestamp(filter.getBeginDate().getTime()));
+			first = false;
+		}
+		if (filter.getEndDate() != null) {
+			queryString.append(first ? " WHERE" : " AND").append(" Time<?");
+			parameters.add(new Timestamp(filter.getEndDate().getTime()));
+		}
+	}
 
-					long timerStop = System.currentTimeMillis();
-					logger.debug("SQL: query returned {} rows in {}ms", count, timerStop - timerStart);
-					
-					// Success
-					errCnt = 0;
+	/**
+	 * Runs a query which returns the timestamp in the first and the value in the second
+	 * column and converts the rows into historic items. Rows without a timestamp (as returned 
+	 * by aggregations without any matching row) are skipped.
+	 * 
+	 * @param queryString the query to run
+	 * @param parameters the parameters of the query
+	 * @param itemName the name of the item
+	 * @param aggregation the aggregation of the query, if any
+	 * @param expectedSize the expected number of rows
+	 * @return the rows as historic items
+	 * @throws SQLException if the query fails
+	 */
+	private List<HistoricItem> readItems(String queryString, List<Object> parameters, String itemName, 
+			Aggregation aggregation, int expectedSize) throws SQLException {
+		logger.debug("SQL: {}", queryString);
 
-					return items;
-				} catch (SQLException e) {
-					errCnt++;
-					logger.error("SQL: Error running querying : " + e.getMessage());
+		SqlConnectionPool pool = connectionPool;
+		if (pool == null) {
+			throw new SQLException("There is no connection to the database.");
+		}
+		PooledConnection connection = pool.acquire();
+		boolean valid = true;
+		try {
+			PreparedStatement statement = connection.prepareStatement(queryString);
+			int index = 1;
+			for (Object parameter : parameters) {
+				statement.setObject(index++, parameter);
+			}
+
+			List<HistoricItem> items = new ArrayList<HistoricItem>(expectedSize);
+			ResultSet rs = statement.executeQuery();
+			try {
+				while (rs.next()) {
+					Timestamp time = rs.getTimestamp(1);
+					if (time == null) {
+						continue;
+					}
+					State v;
+					if (aggregation == Aggregation.COUNT) {
+						v = new DecimalType(rs.getLong(2));
+					} else if (aggregation == Aggregation.CHANGED) {
+						v = rs.getLong(2) > 1 ? OnOffType.ON : OnOffType.OFF;
+					} else {
+						// plain values as well as sums, averages, minima and maxima are read as decimal numbers
+						v = new DecimalType(rs.getDouble(2));
+					}
+					if (aggregation == Aggregation.SUM || aggregation == Aggregation.AVG) {
+						items.add(Aggregator.createHistoricAggregate(itemName, v, time, rs.getInt(3)));
+					} else {
+						items.add(new SqlItem(itemName, v, time));
+					}
 				}
+			} finally {
+				rs.close();
+			}
+			return items;
+		} catch (SQLException e) {
+			valid = isValid(connection);
+			throw e;
+		} finally {
+			if (valid) {
+				pool.release(connection);
+			} else {
+				pool.discard(connection);
 			}
 		}
-		return Collections.emptyList();
 	}
 }
@@ -0,0 +1,81 @@
+/**
+ * openHAB, the open Home Automation Bus.
+ * Copyright (C) 2010-2013, openHAB.org <admin@openhab.org>
+ *
+ * See the contributors.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation; either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ *
+ * Additional permission under GNU GPL version 3 section 7
+ *
+ * If you modify this Program, or any covered work, by linking or
+ * combining it with Eclipse (or a modified version of that library),
+ * containing parts covered by the terms of the Eclipse Public License
+ * (EPL), the licensors of this Program grant you additional permission
+ * to convey the resulting work.
+ */
+package org.openhab.persistence.sql.internal;
+
+import java.util.Date;
+import java.util.List;
+
+import org.openhab.core.persistence.FilterCriteria;
+import org.openhab.core.persistence.HistoricItem;
+import org.openhab.core.persistence.PagedQueryResult;
+
+/**
+ * The result of a query against an item table. Rows are not read all at once, 
+ * but in chunks while iterating; each further chunk is requested with a short
+ * query which continues after the timestamp of the last row of the previous 
+ * chunk (which is possible as the timestamp is the primary key of the table).
+ * Thus no database connection is held between the chunks and abandoned 
+ * iterations do not leak any resources.
+ * 
+ * @author Kai Kreuzer
+ * @since 1.4.0
+ */
+public class SqlQueryResult extends PagedQueryResult {
+
+	private final SqlPersistenceService service;
+	private final String table;
+	private final FilterCriteria filter;
+	
+	/**
+	 * @param service the service to load the chunks from
+	 * @param table the item table to query
+	 * @param filter the filter of the query
+	 * @param chunkSize the number of rows to read per chunk
+	 */
+	public SqlQueryResult(SqlPersistenceService service, String table, FilterCriteria filter, int chunkSize) {
+		super(filter, chunkSize);
+		this.service = service;
+		this.table = table;
+		this.filter = filter;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	protected List<HistoricItem> fetch(HistoricItem last, long offset, int limit) {
+		if (last == null) {
+			return service.readChunk(table, filter, null, offset, limit);
+		} else {
+			Date after = last.getTimestamp();
+			return service.readChunk(table, filter, after, 0, limit);
+		}
+	}
+
+}
@@ -0,0 +1,108 @@
+/**
+ * openHAB, the open Home Automation Bus.
+ * Copyright (C) 2010-2013, openHAB.org <admin@openhab.org>
+ *
+ * See the contributors.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation; either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ *
+ * Additional permission under GNU GPL version 3 section 7
+ *
+ * If you modify this Program, or any covered work, by linking or
+ * combining it with Eclipse (or a modified version of that library),
+ * containing parts covered by the terms of the Eclipse Public License
+ * (EPL), the licensors of this Program grant you additional permission
+ * to convey the resulting work.
+ */
+package org.openhab.ui.internal.items;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class IconIndexTest {
+
+	private File folder;
+	
+	@Before
+	public void createFolder() throws IOException {
+		folder = File.createTempFile("icons", "");
+		folder.delete();
+		folder.mkdir();
+		for(String icon : new String[] { "light", "light-on", "slider-0", "slider-50", "slider-100", "blinds-30", "text-007" }) {
+			new File(folder, icon + ".png").createNewFile();
+		}
+		new File(folder, "readme.txt").createNewFile();
+	}
+	
+	@After
+	public void deleteFolder() {
+		for(File file : folder.listFiles()) {
+			file.delete();
+		}
+		folder.delete();
+	}
+	
+	@Test
+	public void exists() {
+		IconIndex index = new IconIndex(folder, ".png", IconIndex.DEFAULT_CHECK_INTERVAL);
+		assertTrue(index.exists("light"));
+		assertTrue(index.exists("light-on"));
+		assertFalse(index.exists("light-off"));
+		assertFalse(index.exists("readme"));
+	}
+
+	@Test
+	public void getPercentValue() {
+		IconIndex index = new IconIndex(folder, ".png", IconIndex.DEFAULT_CHECK_INTERVAL);
+		assertEquals(0, index.getPercentValue("slider", 0));
+		assertEquals(0, index.getPercentValue("slider", 40));
+		assertEquals(50, index.getPercentValue("slider", 50));
+		assertEquals(50, index.getPercentValue("slider", 70));
+		assertEquals(100, index.getPercentValue("slider", 100));
+		assertEquals(-1, index.getPercentValue("blinds", 20));
+		assertEquals(30, index.getPercentValue("blinds", 80));
+		assertEquals(-1, index.getPercentValue("light", 50));
+		assertEquals(-1, index.getPercentValue("text", 10));
+		assertEquals(-1, index.getPercentValue("slider", -1));
+	}
+
+	@Test
+	public void rescanAfterChange() throws IOException {
+		IconIndex index = new IconIndex(folder, ".png", 0);
+		assertFalse(index.exists("light-off"));
+		new File(folder, "light-off.png").createNewFile();
+		// make sure the folder modification time changes, even on file systems with a coarse resolution
+		folder.setLastModified(folder.lastModified() + 2000);
+		assertTrue(index.exists("light-off"));
+	}
+
+	@Test
+	public void invalidate() throws IOException {
+		IconIndex index = new IconIndex(folder, ".png", IconIndex.DEFAULT_CHECK_INTERVAL);
+		assertEquals(-1, index.getPercentValue("blinds", 20));
+		new File(folder, "blinds-0.png").createNewFile();
+		index.invalidate();
+		assertEquals(0, index.getPercentValue("blinds", 20));
+	}
+
+}
@@ -33,6 +33,9 @@ import static org.junit.Assert.assertNull;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
+import java.util.HashMap;
+import java.util.Map;
+
 import junit.framework.Assert;
 
 import org.junit.Before;
@@ -44,6 +47,8 @@ import org.openhab.core.library.types.DateTimeType;
 import org.openhab.core.library.types.DecimalType;
 import org.openhab.core.library.types.OnOffType;
 import org.openhab.core.library.types.StringType;
+import org.openhab.core.transform.TransformationException;
+import org.openhab.core.transform.TransformationService;
 import org.openhab.core.types.UnDefType;
 import org.openhab.model.sitemap.Sitemap;
 import org.openhab.model.sitemap.SitemapFactory;
@@ -270,6 +275,75 @@ public class ItemUIRegistryImplTest {
 		assertEquals("Label [State]", label);
 	}
 	
+	@Test
+	public void getLabel_labelWithBoundTransformationService() throws ItemNotFoundException, TransformationException {
+		String testLabel = "Label [MAP(de.map):%s]";
+		Widget w = mock(Widget.class);
+		Item item = mock(Item.class);
+		TransformationService transformation = mock(TransformationService.class);
+		Map<String, Object> properties = new HashMap<String, Object>();
+		properties.put("openhab.transform", "MAP");
+		when(w.getLabel()).thenReturn(testLabel);
+		when(w.getItem()).thenReturn("Item");
+		when(registry.getItem("Item")).thenReturn(item);
+		when(item.getState()).thenReturn(OnOffType.ON);
+		when(transformation.transform("de.map", "ON")).thenReturn("an");
+		uiRegistry.addTransformationService(transformation, properties);
+		try {
+			String label = uiRegistry.getLabel(w);
+			assertEquals("Label [an]", label);
+		} finally {
+			uiRegistry.removeTransformationService(transformation, properties);
+		}
+	}
+
+	@Test
+	public void getLabel_labelWithFormattedTransformationPattern() throws ItemNotFoundException, TransformationException {
+		String testLabel = "Label [MAP(%1$s.map):%1$s]";
+		Widget w = mock(Widget.class);
+		Item item = mock(Item.class);
+		TransformationService transformation = mock(TransformationService.class);
+		Map<String, Object> properties = new HashMap<String, Object>();
+		properties.put("openhab.transform", "MAP");
+		when(w.getLabel()).thenReturn(testLabel);
+		when(w.getItem()).thenReturn("Item");
+		when(registry.getItem("Item")).thenReturn(item);
+		when(item.getState()).thenReturn(new StringType("de"));
+		when(transformation.transform("de.map", "de")).thenReturn("deutsch");
+		uiRegistry.addTransformationService(transformation, properties);
+		try {
+			String label = uiRegistry.getLabel(w);
+			assertEquals("Label [deutsch]", label);
+		} finally {
+			uiRegistry.removeTransformationService(transformation, properties);
+		}
+	}
+
+	@Test
+	public void getLabel_labelWithChangingState() throws ItemNotFoundException {
+		String testLabel = "Label [%.1f °C]";
+		Widget w = mock(Widget.class);
+		Item item = mock(Item.class);
+		when(w.getLabel()).thenReturn(testLabel);
+		when(w.getItem()).thenReturn("Item");
+		when(registry.getItem("Item")).thenReturn(item);
+		when(item.getState()).thenReturn(UnDefType.UNDEF);
+		assertEquals("Label [- °C]", uiRegistry.getLabel(w));
+		when(item.getState()).thenReturn(new DecimalType(21.54));
+		assertEquals("Label [21.5 °C]", uiRegistry.getLabel(w));
+		when(item.getState()).thenReturn(UnDefType.NULL);
+		assertEquals("Label [- °C]", uiRegistry.getLabel(w));
+	}
+
+	@Test
+	public void getLabel_labelWithoutItem() {
+		String testLabel = "Label [%s] of [x]";
+		Widget w = mock(Widget.class);
+		when(w.getLabel()).thenReturn(testLabel);
+		String label = uiRegistry.getLabel(w);
+		assertEquals("Label [%s] of [x]", label);
+	}
+
 	@Test
 	public void getLabel_groupLabelWithValue() throws ItemNotFoundException {
 		String testLabel = "Label [%d]";
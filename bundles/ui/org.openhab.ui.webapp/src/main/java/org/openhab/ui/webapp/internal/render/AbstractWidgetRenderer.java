@@ -36,6 +36,7 @@ import java.util.HashMap;
 import java.util.Map;
 
 import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang.StringUtils;
 import org.openhab.model.sitemap.Widget;
 import org.openhab.ui.items.ItemUIRegistry;
 import org.openhab.ui.webapp.internal.WebAppActivator;
@@ -72,6 +73,9 @@ abstract public class AbstractWidgetRenderer implements WidgetRenderer {
 	/* a local cache so we do not have to read the snippets over and over again from the bundle */
 	protected static final Map<String, String> snippetCache = new HashMap<String, String>(); 
 
+	/* the compiled snippets, so that they only need to be parsed once */
+	protected static final Map<String, SnippetTemplate> templateCache = new HashMap<String, SnippetTemplate>(); 
+
 	public void setItemUIRegistry(ItemUIRegistry itemUIRegistry) {
 		this.itemUIRegistry = itemUIRegistry;
 	}
@@ -116,6 +120,29 @@ abstract public class AbstractWidgetRenderer implements WidgetRenderer {
 		}
 		return snippet;
 	}
+
+	/**
+	 * This method provides the compiled html snippet for a given elementType of the sitemap model.
+	 * 
+	 * @param elementType the name of the model type (e.g. "Group" or "Switch")
+	 * @return the compiled html snippet to be filled with the values of its placeholders
+	 * @throws RenderException if snippet could not be read 
+	 */
+	protected SnippetTemplate getTemplate(String elementType) throws RenderException {
+		elementType = elementType.toLowerCase();
+		synchronized(templateCache) {
+			SnippetTemplate template = templateCache.get(elementType);
+			if(template==null) {
+				String snippet = getSnippet(elementType);
+				if(snippet==null) {
+					throw new RenderException("Cannot load snippet for element type '" + elementType + "'");
+				}
+				template = SnippetTemplate.compile(snippet);
+				templateCache.put(elementType, template);
+			}
+			return template;
+		}
+	}
  
 	/**
 	 * Retrieves the label for a widget and formats it for the WebApp.Net framework
@@ -128,7 +155,7 @@ abstract public class AbstractWidgetRenderer implements WidgetRenderer {
 		String label = itemUIRegistry.getLabel(w);
 		
 		// insert the span between the left and right side of the label, if state section exists 
-		label = label.replaceAll("\\[", "<span>").replaceAll("\\]", "</span>");
+		label = StringUtils.replace(StringUtils.replace(label, "[", "<span>"), "]", "</span>");
 
 		return label;
 	}
@@ -28,7 +28,6 @@
  */
 package org.openhab.ui.webapp.internal.render;
 
-import org.apache.commons.lang.StringUtils;
 import org.eclipse.emf.common.util.EList;
 import org.openhab.core.items.GroupItem;
 import org.openhab.core.items.Item;
@@ -80,21 +79,21 @@ public class ChartRenderer extends AbstractWidgetRenderer {
 			
 			String url = "/rrdchart.png?" + itemParam + "&period=" + chart.getPeriod() + "&random=1";
 			
-			String snippet = getSnippet("image");			
+			String widgetId = itemUIRegistry.getWidgetId(w);
+			SnippetTemplate.Values snippet = getTemplate("image").values();
 
 			if(chart.getRefresh()>0) {
-				snippet = StringUtils.replace(snippet, "%setrefresh%", "<script type=\"text/javascript\">imagesToRefreshOnPage=1</script>");
-				snippet = StringUtils.replace(snippet, "%refresh%", "id=\"%id%\" onload=\"setTimeout('reloadImage(\\'%url%\\', \\'%id%\\')', " + chart.getRefresh() + ")\"");
+				snippet.set("setrefresh", "<script type=\"text/javascript\">imagesToRefreshOnPage=1</script>");
+				snippet.set("refresh", "id=\"" + widgetId + "\" onload=\"setTimeout('reloadImage(\\'" + url + "\\', \\'" + widgetId + "\\')', " + chart.getRefresh() + ")\"");
 			} else {
-				snippet = StringUtils.replace(snippet, "%setrefresh%", "");
-				snippet = StringUtils.replace(snippet, "%refresh%", "");
+				snippet.set("setrefresh", "");
+				snippet.set("refresh", "");
 			}
 
-			snippet = StringUtils.replace(snippet, "%id%", itemUIRegistry.getWidgetId(w));
-			snippet = StringUtils.replace(snippet, "%url%", url);
-			snippet = StringUtils.replace(snippet, "%refresh%", Integer.toString(chart.getRefresh()));
+			snippet.set("id", widgetId);
+			snippet.set("url", url);
 			
-			sb.append(snippet);
+			snippet.appendTo(sb);
 		} catch (ItemNotFoundException e) {
 			logger.warn("Chart cannot be rendered as item '{}' does not exist.", chart.getItem());
 		}
@@ -30,7 +30,6 @@ package org.openhab.ui.webapp.internal.render;
 
 import java.awt.Color;
 
-import org.apache.commons.lang.StringUtils;
 import org.eclipse.emf.common.util.EList;
 import org.openhab.core.library.types.HSBType;
 import org.openhab.core.types.State;
@@ -68,7 +67,7 @@ public class ColorpickerRenderer extends AbstractWidgetRenderer {
 		
 		String snippetName = "colorpicker";
 
-		String snippet = getSnippet(snippetName);
+		SnippetTemplate.Values snippet = getTemplate(snippetName).values();
 
 		// set the default send-update frequency to 200ms  
 		String frequency = cp.getFrequency()==0 ? "200" : Integer.toString(cp.getFrequency());
@@ -87,16 +86,16 @@ public class ColorpickerRenderer extends AbstractWidgetRenderer {
 			purelabel = purelabel.substring(0, label.indexOf("<span>"));
 		}
 
-		snippet = StringUtils.replace(snippet, "%id%", itemUIRegistry.getWidgetId(cp));
-		snippet = StringUtils.replace(snippet, "%icon%", escapeURLPath(itemUIRegistry.getIcon(cp)));
-		snippet = StringUtils.replace(snippet, "%item%", w.getItem());
-		snippet = StringUtils.replace(snippet, "%label%", label);
-		snippet = StringUtils.replace(snippet, "%purelabel%", purelabel);
-		snippet = StringUtils.replace(snippet, "%state%", hexValue);
-		snippet = StringUtils.replace(snippet, "%frequency%", frequency);
-		snippet = StringUtils.replace(snippet, "%servletname%", WebAppServlet.SERVLET_NAME);
+		snippet.set("id", itemUIRegistry.getWidgetId(cp));
+		snippet.set("icon", escapeURLPath(itemUIRegistry.getIcon(cp)));
+		snippet.set("item", w.getItem());
+		snippet.set("label", label);
+		snippet.set("purelabel", purelabel);
+		snippet.set("state", hexValue);
+		snippet.set("frequency", frequency);
+		snippet.set("servletname", WebAppServlet.SERVLET_NAME);
 
-		sb.append(snippet);
+		snippet.appendTo(sb);
 		return null;
 	}
 }
@@ -29,7 +29,6 @@
 package org.openhab.ui.webapp.internal.render;
 
 import org.apache.commons.lang.StringEscapeUtils;
-import org.apache.commons.lang.StringUtils;
 import org.eclipse.emf.common.util.EList;
 import org.openhab.model.sitemap.Frame;
 import org.openhab.model.sitemap.Widget;
@@ -56,11 +55,11 @@ public class FrameRenderer extends AbstractWidgetRenderer {
 	 * {@inheritDoc}
 	 */
 	public EList<Widget> renderWidget(Widget w, StringBuilder sb) throws RenderException {
-		String snippet = getSnippet("frame");
+		SnippetTemplate.Values snippet = getTemplate("frame").values();
 
-		snippet = StringUtils.replace(snippet, "%label%", StringEscapeUtils.escapeHtml(getLabel(w)));
+		snippet.set("label", StringEscapeUtils.escapeHtml(getLabel(w)));
 		
-		sb.append(snippet);
+		snippet.appendTo(sb);
 		return ((Frame)w).getChildren();
 	}
 }
@@ -28,7 +28,6 @@
  */
 package org.openhab.ui.webapp.internal.render;
 
-import org.apache.commons.lang.StringUtils;
 import org.eclipse.emf.common.util.EList;
 import org.openhab.model.sitemap.Group;
 import org.openhab.model.sitemap.Widget;
@@ -56,13 +55,13 @@ public class GroupRenderer extends AbstractWidgetRenderer {
 	 * {@inheritDoc}
 	 */
 	public EList<Widget> renderWidget(Widget w, StringBuilder sb) throws RenderException {
-		String snippet = getSnippet("group");
+		SnippetTemplate.Values snippet = getTemplate("group").values();
 
-		snippet = StringUtils.replace(snippet, "%id%", itemUIRegistry.getWidgetId(w));
-		snippet = StringUtils.replace(snippet, "%icon%", escapeURLPath(itemUIRegistry.getIcon(w)));
-		snippet = StringUtils.replace(snippet, "%label%", getLabel(w));
+		snippet.set("id", itemUIRegistry.getWidgetId(w));
+		snippet.set("icon", escapeURLPath(itemUIRegistry.getIcon(w)));
+		snippet.set("label", getLabel(w));
 
-		sb.append(snippet);
+		snippet.appendTo(sb);
 		return null;
 	}
 }
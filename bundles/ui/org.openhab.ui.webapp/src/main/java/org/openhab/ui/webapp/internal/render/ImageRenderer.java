@@ -30,7 +30,6 @@ package org.openhab.ui.webapp.internal.render;
 
 import java.util.Date;
 
-import org.apache.commons.lang.StringUtils;
 import org.eclipse.emf.common.util.EList;
 import org.openhab.model.sitemap.Image;
 import org.openhab.model.sitemap.Widget;
@@ -59,26 +58,25 @@ public class ImageRenderer extends AbstractWidgetRenderer {
 	 */
 	public EList<Widget> renderWidget(Widget w, StringBuilder sb) throws RenderException {
 		Image image = (Image) w;
-		String snippet = (image.getChildren().size() > 0) ? 
-				getSnippet("image_link") : getSnippet("image");			
+		SnippetTemplate.Values snippet = (image.getChildren().size() > 0) ? 
+				getTemplate("image_link").values() : getTemplate("image").values();			
+
+		String widgetId = itemUIRegistry.getWidgetId(w);
+		String sitemap = w.eResource().getURI().path();
+		String url = "proxy?sitemap=" + sitemap + "&widgetId=" + widgetId + "&t=" + (new Date()).getTime();
 
 		if(image.getRefresh()>0) {
-			snippet = StringUtils.replace(snippet, "%setrefresh%", "<script type=\"text/javascript\">imagesToRefreshOnPage=1</script>");
-			snippet = StringUtils.replace(snippet, "%refresh%", "id=\"%id%\" onload=\"setTimeout('reloadImage(\\'%url%\\', \\'%id%\\')', " + image.getRefresh() + ")\"");
+			snippet.set("setrefresh", "<script type=\"text/javascript\">imagesToRefreshOnPage=1</script>");
+			snippet.set("refresh", "id=\"" + widgetId + "\" onload=\"setTimeout('reloadImage(\\'" + url + "\\', \\'" + widgetId + "\\')', " + image.getRefresh() + ")\"");
 		} else {
-			snippet = StringUtils.replace(snippet, "%setrefresh%", "");
-			snippet = StringUtils.replace(snippet, "%refresh%", "");
+			snippet.set("setrefresh", "");
+			snippet.set("refresh", "");
 		}
 		
-		String widgetId = itemUIRegistry.getWidgetId(w);
-		snippet = StringUtils.replace(snippet, "%id%", widgetId);
-		
-		String sitemap = w.eResource().getURI().path();
-		
-		String url = "proxy?sitemap=" + sitemap + "&widgetId=" + widgetId + "&t=" + (new Date()).getTime();
-		snippet = StringUtils.replace(snippet, "%url%", url);
+		snippet.set("id", widgetId);
+		snippet.set("url", url);
 		
-		sb.append(snippet);
+		snippet.appendTo(sb);
 		return null;
 	}
 }
@@ -29,15 +29,27 @@
 package org.openhab.ui.webapp.internal.render;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
 
-import org.apache.commons.lang.StringEscapeUtils;
-import org.apache.commons.lang.StringUtils;
 import org.eclipse.emf.common.util.EList;
 import org.eclipse.emf.ecore.EObject;
+import org.openhab.core.items.GenericItem;
+import org.openhab.core.items.Item;
+import org.openhab.core.items.ItemNotFoundException;
+import org.openhab.core.items.ItemRegistryChangeListener;
+import org.openhab.core.items.StateChangeListener;
+import org.openhab.core.types.State;
 import org.openhab.model.sitemap.Frame;
+import org.openhab.model.sitemap.Image;
 import org.openhab.model.sitemap.Sitemap;
 import org.openhab.model.sitemap.Widget;
+import org.openhab.ui.items.ItemUIRegistry;
 import org.openhab.ui.webapp.internal.servlet.WebAppServlet;
 import org.openhab.ui.webapp.render.RenderException;
 import org.openhab.ui.webapp.render.WidgetRenderer;
@@ -51,22 +63,66 @@ import org.slf4j.LoggerFactory;
  * It provides the HTML header and skeleton and delegates the rendering of
  * widgets on the page to the dedicated widget renderers.
  * 
+ * Rendered pages are cached until the state of any item on the page changes,
+ * so that the same page does not have to be rendered again for every request.
+ * Pages are identified by their sitemap and id and are only reused for the same
+ * instance of the sitemap model. Pages with labels that are transformed (e.g. with
+ * a map file) are not cached, as the transformation might change at any time.
+ * 
  * @author Kai Kreuzer
  * @since 0.6.0
  *
  */
-public class PageRenderer extends AbstractWidgetRenderer {
+public class PageRenderer extends AbstractWidgetRenderer implements ItemRegistryChangeListener {
 
 	private final static Logger logger = LoggerFactory.getLogger(PageRenderer.class);
 
+	private static final String CHILDREN_PLACEHOLDER = "%children%";
+
+	/* the maximum number of rendered pages to keep in the cache */
+	private static final int MAX_CACHED_PAGES = 100;
+
+	/* matches labels whose state is formatted with a transformation, e.g. "Window [MAP(window.map):%s]" */
+	private static final Pattern TRANSFORMATION_PATTERN = Pattern.compile("\\[.*?\\(.*\\):.*\\]");
+
 	List<WidgetRenderer> widgetRenderers = new ArrayList<WidgetRenderer>();
 
+	/* the rendered pages in the order of their last usage */
+	private final Map<String, CachedPage> pageCache = new LinkedHashMap<String, CachedPage>(16, 0.75f, true) {
+		private static final long serialVersionUID = -1516348476208414285L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, CachedPage> eldest) {
+			if(size() > MAX_CACHED_PAGES) {
+				eldest.getValue().dispose();
+				return true;
+			}
+			return false;
+		}
+	};
+
 	public void addWidgetRenderer(WidgetRenderer widgetRenderer) {
 		widgetRenderers.add(widgetRenderer);
+		clearPageCache();
 	}
 
 	public void removeWidgetRenderer(WidgetRenderer widgetRenderer) {
 		widgetRenderers.remove(widgetRenderer);
+		clearPageCache();
+	}
+
+	@Override
+	public void setItemUIRegistry(ItemUIRegistry itemUIRegistry) {
+		super.setItemUIRegistry(itemUIRegistry);
+		itemUIRegistry.addItemRegistryChangeListener(this);
+		clearPageCache();
+	}
+
+	@Override
+	public void unsetItemUIRegistry(ItemUIRegistry itemUIRegistry) {
+		itemUIRegistry.removeItemRegistryChangeListener(this);
+		super.unsetItemUIRegistry(itemUIRegistry);
+		clearPageCache();
 	}
 
 	/**
@@ -74,96 +130,125 @@ public class PageRenderer extends AbstractWidgetRenderer {
 	 * 
 	 * @param id the id of the parent widget whose children are about to appear on this page
 	 * @param sitemap the sitemap to use
+	 * @param sitemapModel the model of the sitemap, which identifies the version of the page
 	 * @param label the title of this page
 	 * @param children a list of widgets that should appear on this page
 	 * @param async true, if this is an asynchronous request. This will use a different HTML skeleton
-	 * @return a string builder with the produced HTML code
+	 * @return the produced HTML code
 	 * @throws RenderException if an error occurs during the processing
 	 */
-	public StringBuilder processPage(String id, String sitemap, String label, EList<Widget> children, boolean async) throws RenderException {
+	public CharSequence processPage(String id, String sitemap, Sitemap sitemapModel, String label, EList<Widget> children, boolean async) throws RenderException {
 		
-		String snippet = getSnippet(async ? "layer" : "main");
-		snippet = snippet.replaceAll("%id%", id);
+		// the children of dynamic pages (e.g. groups) are created for every request, so 
+		// the page is identified by its id and the identity of the sitemap model
+		String pageKey = sitemap + "/" + id + (async ? "/async" : "");
+		CachedPage page = null;
+		synchronized(pageCache) {
+			page = pageCache.get(pageKey);
+			if(page!=null && page.sitemapModel==sitemapModel && page.label.equals(label)) {
+				return page.html;
+			}
+		}
+
+		// we start listening before rendering, so that no state change gets lost
+		Set<GenericItem> items = new HashSet<GenericItem>();
+		page = collectItems(children, items) ? new CachedPage(pageKey, sitemapModel, label, items) : null;
+
+		String elementType = async ? "layer" : "main";
+		SnippetTemplate.Values snippet = getTemplate(elementType).values();
+		snippet.set("id", id);
 
 		// if the label contains a value span, we remove this span as
 		// the title of a page/layer cannot deal with this
 		// Note: we can have a span here, if the parent widget had a label
 		// with some value defined (e.g. "Windows [%d]"), which getLabel()
 		// will convert into a "Windows <span>5</span>".
-		if(label.contains("[") && label.endsWith("]")) {
-			label = label.replace("[", "").replace("]", "");
+		String title = label;
+		if(title.contains("[") && title.endsWith("]")) {
+			title = title.replace("[", "").replace("]", "");
 		}
-		snippet = StringUtils.replace(snippet, "%label%", label);
-		snippet = StringUtils.replace(snippet, "%servletname%", WebAppServlet.SERVLET_NAME);
-		snippet = StringUtils.replace(snippet, "%sitemap%", sitemap);
+		snippet.set("label", title);
+		snippet.set("servletname", WebAppServlet.SERVLET_NAME);
+		snippet.set("sitemap", sitemap);
 
-		String[] parts = snippet.split("%children%");
+		StringBuilder sb = new StringBuilder(8192);
+		snippet.appendTo(sb);
+		String postChildren = cutAtChildren(sb, 0, elementType);
+		processChildren(sb, children);
+		sb.append(postChildren);
 
-		StringBuilder pre_children = new StringBuilder(parts[0]);
-		StringBuilder post_children = new StringBuilder(parts[1]);
-		
-		if(parts.length==2) {
-			processChildren(pre_children, post_children, children);
-		} else if(parts.length > 2){
-			logger.error("Snippet '{}' contains multiple %children% sections, but only one is allowed!", async ? "layer" : "main");
+		if(page!=null) {
+			page.html = sb.toString();
+			synchronized(pageCache) {
+				if(page.valid) {
+					CachedPage oldPage = pageCache.put(pageKey, page);
+					if(oldPage!=null && oldPage!=page) {
+						oldPage.dispose();
+					}
+				} else {
+					page.dispose();
+				}
+			}
+			return page.html;
 		}
-		return pre_children.append(post_children);
+		return sb;
 	}
 
-	private void processChildren(StringBuilder sb_pre, StringBuilder sb_post,
-			EList<Widget> children) throws RenderException {
+	private void processChildren(StringBuilder sb, EList<Widget> children) throws RenderException {
 		
 		// put a single frame around all children widgets, if there are no explicit frames 
 		if(!children.isEmpty()) {
 			EObject firstChild = children.get(0);
 			EObject parent = firstChild.eContainer();
 			if(!(firstChild instanceof Frame || parent instanceof Frame || parent instanceof Sitemap || parent instanceof List)) {
-				String frameSnippet = getSnippet("frame");
-				frameSnippet = StringUtils.replace(frameSnippet, "%label%", "");
-				
-				String[] parts = frameSnippet.split("%children%");
-				if(parts.length>1) {
-					sb_pre.append(parts[0]);
-				}
-				if(parts.length>2) {
-					sb_post.insert(0, parts[1]);
-				} 
-				if(parts.length > 2){
-					logger.error("Snippet 'frame' contains multiple %children% sections, but only one is allowed!");
+				int start = sb.length();
+				getTemplate("frame").values().set("label", "").appendTo(sb);
+				if(sb.indexOf(CHILDREN_PLACEHOLDER, start) >= 0) {
+					cutAtChildren(sb, start, "frame");
+				} else {
+					sb.setLength(start);
 				}
 			}
 		}
 
 		for(Widget w : children) {
-			StringBuilder new_pre = new StringBuilder();
-			StringBuilder new_post = new StringBuilder();
-			StringBuilder widgetSB = new StringBuilder();
-			EList<Widget> nextChildren = renderWidget(w, widgetSB);
+			int start = sb.length();
+			EList<Widget> nextChildren = renderWidget(w, sb);
 			if(nextChildren!=null) {
-				String[] parts = widgetSB.toString().split("%children%");
-				// no %children% placeholder found or at the end
-				if(parts.length==1) {
-					new_pre.append(widgetSB);
-				}
-				// %children% section found 
-				if(parts.length>1) {
-					new_pre.append(parts[0]);
-					new_post.insert(0, parts[1]);
-				} 
-				// multiple %children% sections found -> log an error and ignore all code starting from the second occurance
-				if(parts.length > 2){
-					String widgetType = w.eClass().getInstanceTypeName().substring(w.eClass().getInstanceTypeName().lastIndexOf(".")+1);
-					logger.error("Snippet for widget '{}' contains multiple %children% sections, but only one is allowed!", widgetType);
-				}
-				processChildren(new_pre, new_post, nextChildren);
-				sb_pre.append(new_pre);
-				sb_pre.append(new_post);
-			} else {
-				sb_pre.append(widgetSB);
+				String widgetType = w.eClass().getInstanceTypeName().substring(w.eClass().getInstanceTypeName().lastIndexOf(".")+1);
+				String postChildren = cutAtChildren(sb, start, widgetType);
+				processChildren(sb, nextChildren);
+				sb.append(postChildren);
 			}
 		}
 		
 	}
+	
+	/**
+	 * Removes the %children% placeholder and everything after it from a rendered snippet.
+	 * 
+	 * @param sb the string builder that holds the rendered snippet
+	 * @param start the position of the rendered snippet in the string builder
+	 * @param elementType the name of the snippet for logging purposes
+	 * @return the html code that follows the placeholder or an empty string, if there is no placeholder 
+	 */
+	private String cutAtChildren(StringBuilder sb, int start, String elementType) {
+		int index = sb.indexOf(CHILDREN_PLACEHOLDER, start);
+		if(index < 0) {
+			return "";
+		}
+		int postStart = index + CHILDREN_PLACEHOLDER.length();
+		int postEnd = sb.indexOf(CHILDREN_PLACEHOLDER, postStart);
+		if(postEnd >= 0) {
+			// multiple %children% sections found -> log an error and ignore all code starting from the second occurance
+			logger.error("Snippet '{}' contains multiple %children% sections, but only one is allowed!", elementType);
+		} else {
+			postEnd = sb.length();
+		}
+		String postChildren = sb.substring(postStart, postEnd);
+		sb.setLength(index);
+		return postChildren;
+	}
 
 	/**
 	 * {@inheritDoc}
@@ -183,4 +268,137 @@ public class PageRenderer extends AbstractWidgetRenderer {
 	public boolean canRender(Widget w) {
 		return false;		
 	}
+
+	/**
+	 * Collects all items that are shown by a list of widgets, so that a rendered
+	 * page can be invalidated when one of them changes its state.
+	 * 
+	 * @param widgets the widgets to collect the items for
+	 * @param items the set to add the items to
+	 * @return <code>true</code>, if the rendered widgets only depend on these items
+	 * and thus can be cached, <code>false</code> otherwise (e.g. for images or 
+	 * transformed labels)
+	 */
+	private boolean collectItems(EList<Widget> widgets, Set<GenericItem> items) {
+		if(itemUIRegistry==null) {
+			return false;
+		}
+		for(Widget widget : widgets) {
+			if(widget instanceof Image) {
+				// images are requested with a timestamp, so that the browser reloads them
+				return false;
+			}
+			String itemName = widget.getItem();
+			if(itemName!=null) {
+				String rawLabel = widget.getLabel()!=null ? widget.getLabel() : itemUIRegistry.getLabel(itemName);
+				if(rawLabel!=null && TRANSFORMATION_PATTERN.matcher(rawLabel).find()) {
+					// the result of a transformation can change without any state change
+					return false;
+				}
+				try {
+					Item item = itemUIRegistry.getItem(itemName);
+					if(item instanceof GenericItem) {
+						items.add((GenericItem) item);
+					}
+				} catch (ItemNotFoundException e) {
+					// ignore, the widget will be rendered without a state
+				}
+			} else if(widget instanceof Frame) {
+				if(!collectItems(((Frame) widget).getChildren(), items)) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * Removes all pages from the cache.
+	 */
+	private void clearPageCache() {
+		synchronized(pageCache) {
+			for(CachedPage page : pageCache.values()) {
+				page.dispose();
+			}
+			pageCache.clear();
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public void allItemsChanged(Collection<String> oldItemNames) {
+		clearPageCache();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public void itemAdded(Item item) {
+		clearPageCache();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public void itemRemoved(Item item) {
+		clearPageCache();
+	}
+
+	/**
+	 * This is a rendered page, which removes itself from the cache as soon as any
+	 * item on the page changes its state.
+	 * 
+	 * @author Kai Kreuzer
+	 * @since 1.4.0
+	 */
+	private class CachedPage implements StateChangeListener {
+
+		private final String pageKey;
+		private final Sitemap sitemapModel;
+		private final String label;
+		private final Set<GenericItem> items;
+		private String html;
+		private volatile boolean valid = true;
+
+		public CachedPage(String pageKey, Sitemap sitemapModel, String label, Set<GenericItem> items) {
+			this.pageKey = pageKey;
+			this.sitemapModel = sitemapModel;
+			this.label = label;
+			this.items = items;
+			for(GenericItem item : items) {
+				item.addStateChangeListener(this);
+			}
+		}
+
+		/**
+		 * {@inheritDoc}
+		 */
+		public void stateChanged(Item item, State oldState, State newState) {
+			valid = false;
+			synchronized(pageCache) {
+				if(pageCache.get(pageKey)==this) {
+					pageCache.remove(pageKey);
+				}
+			}
+			dispose();
+		}
+
+		/**
+		 * {@inheritDoc}
+		 */
+		public void stateUpdated(Item item, State state) {
+			// the page only needs to be rendered again on a change
+		}
+
+		/**
+		 * Stops listening to the items of this page.
+		 */
+		public void dispose() {
+			valid = false;
+			for(GenericItem item : items) {
+				item.removeStateChangeListener(this);
+			}
+		}
+	}
 }
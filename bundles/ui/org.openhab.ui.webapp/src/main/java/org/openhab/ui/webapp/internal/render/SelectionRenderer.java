@@ -28,7 +28,6 @@
  */
 package org.openhab.ui.webapp.internal.render;
 
-import org.apache.commons.lang.StringUtils;
 import org.eclipse.emf.common.util.EList;
 import org.openhab.model.sitemap.Mapping;
 import org.openhab.model.sitemap.Selection;
@@ -56,30 +55,31 @@ public class SelectionRenderer extends AbstractWidgetRenderer {
 	 * {@inheritDoc}
 	 */
 	public EList<Widget> renderWidget(Widget w, StringBuilder sb) throws RenderException {
-		String snippet = getSnippet("selection");
+		SnippetTemplate.Values snippet = getTemplate("selection").values();
 
-		snippet = StringUtils.replace(snippet, "%icon%", escapeURLPath(itemUIRegistry.getIcon(w)));
-		snippet = StringUtils.replace(snippet, "%label_header%", getLabel(w));
+		snippet.set("icon", escapeURLPath(itemUIRegistry.getIcon(w)));
+		snippet.set("label_header", getLabel(w));
 		
 		String state = itemUIRegistry.getState(w).toString();
 		Selection selection = (Selection) w;
 		
+		SnippetTemplate rowTemplate = getTemplate("selection_row");
 		StringBuilder rowSB = new StringBuilder();
 		for(Mapping mapping : selection.getMappings()) {
-			String rowSnippet = getSnippet("selection_row");
-			rowSnippet = StringUtils.replace(rowSnippet, "%item%", w.getItem()!=null ? w.getItem() : "");
-			rowSnippet = StringUtils.replace(rowSnippet, "%cmd%", mapping.getCmd()!=null ? mapping.getCmd() : "");
-			rowSnippet = StringUtils.replace(rowSnippet, "%label%", mapping.getLabel()!=null ? mapping.getLabel() : "");
+			SnippetTemplate.Values rowSnippet = rowTemplate.values();
+			rowSnippet.set("item", w.getItem()!=null ? w.getItem() : "");
+			rowSnippet.set("cmd", mapping.getCmd()!=null ? mapping.getCmd() : "");
+			rowSnippet.set("label", mapping.getLabel()!=null ? mapping.getLabel() : "");
 			if(state.equals(mapping.getCmd())) {
-				rowSnippet = StringUtils.replace(rowSnippet, "%checked%", "checked=\"true\"");
+				rowSnippet.set("checked", "checked=\"true\"");
 			} else {
-				rowSnippet = StringUtils.replace(rowSnippet, "%checked%", "");
+				rowSnippet.set("checked", "");
 			}
-			rowSB.append(rowSnippet);
+			rowSnippet.appendTo(rowSB);
 		}
-		snippet = StringUtils.replace(snippet, "%rows%", rowSB.toString());
+		snippet.set("rows", rowSB.toString());
 		
-		sb.append(snippet);
+		snippet.appendTo(sb);
 		return null;
 	}
 }
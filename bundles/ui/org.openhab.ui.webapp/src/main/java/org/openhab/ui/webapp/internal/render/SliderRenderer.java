@@ -28,7 +28,6 @@
  */
 package org.openhab.ui.webapp.internal.render;
 
-import org.apache.commons.lang.StringUtils;
 import org.eclipse.emf.common.util.EList;
 import org.openhab.model.sitemap.Slider;
 import org.openhab.model.sitemap.Widget;
@@ -64,21 +63,21 @@ public class SliderRenderer extends AbstractWidgetRenderer {
 		
 		String snippetName = "slider";
 
-		String snippet = getSnippet(snippetName);
+		SnippetTemplate.Values snippet = getTemplate(snippetName).values();
 
 		// set the default send-update frequency to 200ms  
 		String frequency = s.getFrequency()==0 ? "200" : Integer.toString(s.getFrequency());
 
-		snippet = StringUtils.replace(snippet, "%id%", itemUIRegistry.getWidgetId(s));
-		snippet = StringUtils.replace(snippet, "%icon%", escapeURLPath(itemUIRegistry.getIcon(s)));
-		snippet = StringUtils.replace(snippet, "%item%", w.getItem());
-		snippet = StringUtils.replace(snippet, "%label%", getLabel(s));
-		snippet = StringUtils.replace(snippet, "%state%", itemUIRegistry.getState(s).toString());
-		snippet = StringUtils.replace(snippet, "%frequency%", frequency);
-		snippet = StringUtils.replace(snippet, "%switch%", s.isSwitchEnabled() ? "1" : "0");
-		snippet = StringUtils.replace(snippet, "%servletname%", WebAppServlet.SERVLET_NAME);
+		snippet.set("id", itemUIRegistry.getWidgetId(s));
+		snippet.set("icon", escapeURLPath(itemUIRegistry.getIcon(s)));
+		snippet.set("item", w.getItem());
+		snippet.set("label", getLabel(s));
+		snippet.set("state", itemUIRegistry.getState(s).toString());
+		snippet.set("frequency", frequency);
+		snippet.set("switch", s.isSwitchEnabled() ? "1" : "0");
+		snippet.set("servletname", WebAppServlet.SERVLET_NAME);
 
-		sb.append(snippet);
+		snippet.appendTo(sb);
 		return null;
 	}
 }
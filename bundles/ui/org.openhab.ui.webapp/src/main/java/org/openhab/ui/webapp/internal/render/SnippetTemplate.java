@@ -0,0 +1,179 @@
+/**
+ * openHAB, the open Home Automation Bus.
+ * Copyright (C) 2010-2013, openHAB.org <admin@openhab.org>
+ *
+ * See the contributors.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation; either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ *
+ * Additional permission under GNU GPL version 3 section 7
+ *
+ * If you modify this Program, or any covered work, by linking or
+ * combining it with Eclipse (or a modified version of that library),
+ * containing parts covered by the terms of the Eclipse Public License
+ * (EPL), the licensors of this Program grant you additional permission
+ * to convey the resulting work.
+ */
+package org.openhab.ui.webapp.internal.render;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This is a compiled form of an html snippet. The snippet is split once into its
+ * static text parts and its placeholders (like <code>%label%</code>), so that 
+ * rendering a widget only needs to append the parts and the values of the
+ * placeholders instead of searching and copying the whole snippet for every
+ * single placeholder.
+ * 
+ * <p>Placeholders without a value are rendered as they are, so that they can
+ * still be processed later on (as it is done for <code>%children%</code>).</p>
+ * 
+ * @author Kai Kreuzer
+ * @since 1.4.0
+ */
+public class SnippetTemplate {
+
+	/** the static text parts; there is one more part than placeholders */
+	private final String[] parts;
+	
+	/** the names of the placeholders in the order of their occurrence */
+	private final String[] placeholders;
+	
+	/** the positions of each placeholder name within {@link #placeholders} */
+	private final Map<String, int[]> positions;
+	
+	private SnippetTemplate(String[] parts, String[] placeholders) {
+		this.parts = parts;
+		this.placeholders = placeholders;
+		this.positions = new HashMap<String, int[]>();
+		for(int i = 0; i < placeholders.length; i++) {
+			int[] oldPositions = positions.get(placeholders[i]);
+			int[] newPositions;
+			if(oldPositions==null) {
+				newPositions = new int[] { i };
+			} else {
+				newPositions = new int[oldPositions.length + 1];
+				System.arraycopy(oldPositions, 0, newPositions, 0, oldPositions.length);
+				newPositions[oldPositions.length] = i;
+			}
+			positions.put(placeholders[i], newPositions);
+		}
+	}
+	
+	/**
+	 * Compiles a snippet into a template. A placeholder is a name consisting of
+	 * letters, digits and underscores that is enclosed in percent signs; all 
+	 * other percent signs (e.g. in "width:90%") are treated as text. 
+	 * 
+	 * @param snippet the html snippet to compile
+	 * @return the compiled template
+	 */
+	public static SnippetTemplate compile(String snippet) {
+		List<String> parts = new ArrayList<String>();
+		List<String> placeholders = new ArrayList<String>();
+		int textStart = 0;
+		int index = snippet.indexOf('%');
+		while(index >= 0) {
+			int nameEnd = index + 1;
+			while(nameEnd < snippet.length() && isNameChar(snippet.charAt(nameEnd))) {
+				nameEnd++;
+			}
+			if(nameEnd > index + 1 && nameEnd < snippet.length() && snippet.charAt(nameEnd)=='%') {
+				parts.add(snippet.substring(textStart, index));
+				placeholders.add(snippet.substring(index + 1, nameEnd));
+				textStart = nameEnd + 1;
+				index = snippet.indexOf('%', textStart);
+			} else {
+				// this is no placeholder, but the second percent sign might start one
+				index = snippet.indexOf('%', index + 1);
+			}
+		}
+		parts.add(snippet.substring(textStart));
+		return new SnippetTemplate(parts.toArray(new String[parts.size()]), placeholders.toArray(new String[placeholders.size()]));
+	}
+	
+	private static boolean isNameChar(char c) {
+		return Character.isLetterOrDigit(c) || c=='_';
+	}
+	
+	/**
+	 * Creates a new, empty set of placeholder values for this template.
+	 * 
+	 * @return the values to fill in and render
+	 */
+	public Values values() {
+		return new Values();
+	}
+	
+	
+	/**
+	 * This holds the values of the placeholders for a single rendering of the
+	 * template.
+	 */
+	public class Values {
+		
+		private final String[] values = new String[placeholders.length];
+		
+		private Values() {
+		}
+		
+		/**
+		 * Sets the value of a placeholder; unknown placeholders are ignored.
+		 * 
+		 * @param placeholder the name of the placeholder without percent signs
+		 * @param value the value to insert
+		 * @return these values to allow chained calls
+		 */
+		public Values set(String placeholder, String value) {
+			int[] indexes = positions.get(placeholder);
+			if(indexes!=null) {
+				for(int index : indexes) {
+					values[index] = value;
+				}
+			}
+			return this;
+		}
+		
+		/**
+		 * Renders the template with these values.
+		 * 
+		 * @param sb the string builder to append the rendered html to
+		 * @return the given string builder
+		 */
+		public StringBuilder appendTo(StringBuilder sb) {
+			for(int i = 0; i < placeholders.length; i++) {
+				sb.append(parts[i]);
+				if(values[i]!=null) {
+					sb.append(values[i]);
+				} else {
+					sb.append('%').append(placeholders[i]).append('%');
+				}
+			}
+			return sb.append(parts[placeholders.length]);
+		}
+		
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public String toString() {
+			return appendTo(new StringBuilder()).toString();
+		}
+	}
+	
+}
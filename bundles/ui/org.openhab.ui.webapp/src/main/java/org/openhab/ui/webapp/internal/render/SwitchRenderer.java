@@ -28,7 +28,6 @@
  */
 package org.openhab.ui.webapp.internal.render;
 
-import org.apache.commons.lang.StringUtils;
 import org.eclipse.emf.common.util.EList;
 import org.openhab.core.items.GroupItem;
 import org.openhab.core.items.Item;
@@ -91,13 +90,13 @@ public class SwitchRenderer extends AbstractWidgetRenderer {
 			snippetName = "switch";
 		}
 
-		String snippet = getSnippet(snippetName);
+		SnippetTemplate.Values snippet = getTemplate(snippetName).values();
 
-		snippet = StringUtils.replace(snippet, "%id%", itemUIRegistry.getWidgetId(w));
-		snippet = StringUtils.replace(snippet, "%icon%", escapeURLPath(itemUIRegistry.getIcon(w)));
-		snippet = StringUtils.replace(snippet, "%item%", w.getItem());
-		snippet = StringUtils.replace(snippet, "%label%", getLabel(w));
-		snippet = StringUtils.replace(snippet, "%servletname%", WebAppServlet.SERVLET_NAME);
+		snippet.set("id", itemUIRegistry.getWidgetId(w));
+		snippet.set("icon", escapeURLPath(itemUIRegistry.getIcon(w)));
+		snippet.set("item", w.getItem());
+		snippet.set("label", getLabel(w));
+		snippet.set("servletname", WebAppServlet.SERVLET_NAME);
 		
 		State state = itemUIRegistry.getState(w);
 		
@@ -106,28 +105,29 @@ public class SwitchRenderer extends AbstractWidgetRenderer {
 				state = ((PercentType) state).intValue() > 0 ? OnOffType.ON : OnOffType.OFF;
 			}
 			if(state.equals(OnOffType.ON)) {
-				snippet = snippet.replaceAll("%checked%", "checked=true");
+				snippet.set("checked", "checked=true");
 			} else {
-				snippet = snippet.replaceAll("%checked%", "");
+				snippet.set("checked", "");
 			}
 		} else {
+			SnippetTemplate buttonTemplate = getTemplate("button");
 			StringBuilder buttons = new StringBuilder();
 			for(Mapping mapping : s.getMappings()) {
-				String button = getSnippet("button");
-				button = StringUtils.replace(button, "%item%",w.getItem());
-				button = StringUtils.replace(button, "%cmd%", mapping.getCmd());
-				button = StringUtils.replace(button, "%label%", mapping.getLabel());
+				SnippetTemplate.Values button = buttonTemplate.values();
+				button.set("item", w.getItem());
+				button.set("cmd", mapping.getCmd());
+				button.set("label", mapping.getLabel());
 				if(s.getMappings().size()>1 && state.toString().equals(mapping.getCmd())) {
-					button = StringUtils.replace(button, "%type%", "Warn"); // button with red color
+					button.set("type", "Warn"); // button with red color
 				} else {
-					button = StringUtils.replace(button, "%type%", "Action"); // button with blue color
+					button.set("type", "Action"); // button with blue color
 				}
-				buttons.insert(0, button);
+				buttons.insert(0, button.toString());
 			}
-			snippet = StringUtils.replace(snippet, "%buttons%", buttons.toString());
+			snippet.set("buttons", buttons.toString());
 		}
 		
-		sb.append(snippet);
+		snippet.appendTo(sb);
 		return null;
 	}
 }
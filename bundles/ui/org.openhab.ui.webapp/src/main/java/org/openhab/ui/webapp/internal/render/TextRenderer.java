@@ -28,7 +28,6 @@
  */
 package org.openhab.ui.webapp.internal.render;
 
-import org.apache.commons.lang.StringUtils;
 import org.eclipse.emf.common.util.EList;
 import org.openhab.model.sitemap.Text;
 import org.openhab.model.sitemap.Widget;
@@ -57,14 +56,14 @@ public class TextRenderer extends AbstractWidgetRenderer {
 	 */
 	public EList<Widget> renderWidget(Widget w, StringBuilder sb) throws RenderException {
 		Text text = (Text) w;
-		String snippet = (text.getChildren().size() > 0) ? 
-			getSnippet("text_link") : getSnippet("text");			
+		SnippetTemplate.Values snippet = (text.getChildren().size() > 0) ? 
+			getTemplate("text_link").values() : getTemplate("text").values();			
 			
-		snippet = StringUtils.replace(snippet, "%id%", itemUIRegistry.getWidgetId(w));
-		snippet = StringUtils.replace(snippet, "%icon%", escapeURLPath(itemUIRegistry.getIcon(w)));
-		snippet = StringUtils.replace(snippet, "%label%", getLabel(w));
+		snippet.set("id", itemUIRegistry.getWidgetId(w));
+		snippet.set("icon", escapeURLPath(itemUIRegistry.getIcon(w)));
+		snippet.set("label", getLabel(w));
 		
-		sb.append(snippet);
+		snippet.appendTo(sb);
 		return null;
 	}
 }
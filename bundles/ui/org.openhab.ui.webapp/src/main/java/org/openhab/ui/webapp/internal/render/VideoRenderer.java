@@ -28,7 +28,6 @@
  */
 package org.openhab.ui.webapp.internal.render;
 
-import org.apache.commons.lang.StringUtils;
 import org.eclipse.emf.common.util.EList;
 import org.openhab.model.sitemap.Video;
 import org.openhab.model.sitemap.Widget;
@@ -56,15 +55,15 @@ public class VideoRenderer extends AbstractWidgetRenderer {
 	 * {@inheritDoc}
 	 */
 	public EList<Widget> renderWidget(Widget w, StringBuilder sb) throws RenderException {
-		String snippet = getSnippet("video");			
+		SnippetTemplate.Values snippet = getTemplate("video").values();			
 
 		String widgetId = itemUIRegistry.getWidgetId(w);		
 		String sitemap = w.eResource().getURI().path();
 		
 		String url = "proxy?sitemap=" + sitemap + "&widgetId=" + widgetId;
-		snippet = StringUtils.replace(snippet, "%url%", url);
+		snippet.set("url", url);
 		
-		sb.append(snippet);
+		snippet.appendTo(sb);
 		return null;
 	}
 }
@@ -28,7 +28,6 @@
  */
 package org.openhab.ui.webapp.internal.render;
 
-import org.apache.commons.lang.StringUtils;
 import org.eclipse.emf.common.util.EList;
 import org.openhab.model.sitemap.Webview;
 import org.openhab.model.sitemap.Widget;
@@ -57,17 +56,17 @@ public class WebviewRenderer extends AbstractWidgetRenderer {
 	 */
 	public EList<Widget> renderWidget(Widget w, StringBuilder sb) throws RenderException {
 		Webview webview = (Webview) w;
-		String snippet = getSnippet("webview");			
+		SnippetTemplate.Values snippet = getTemplate("webview").values();			
 
 		int height = webview.getHeight();
 		if(height==0) {
 			height = 1;
 		}
 		
-		snippet = StringUtils.replace(snippet, "%url%", webview.getUrl());
-		snippet = StringUtils.replace(snippet, "%height%", Integer.toString(height*36));
+		snippet.set("url", webview.getUrl());
+		snippet.set("height", Integer.toString(height*36));
 		
-		sb.append(snippet);
+		snippet.appendTo(sb);
 		return null;
 	}
 }
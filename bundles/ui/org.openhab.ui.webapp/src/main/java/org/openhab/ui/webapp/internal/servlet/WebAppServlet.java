@@ -29,16 +29,23 @@
 package org.openhab.ui.webapp.internal.servlet;
 
 import java.io.IOException;
-import java.util.Date;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Hashtable;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.servlet.ServletException;
 import javax.servlet.ServletRequest;
 import javax.servlet.ServletResponse;
 
 import org.eclipse.emf.common.util.EList;
+import org.eclipse.jetty.continuation.Continuation;
+import org.eclipse.jetty.continuation.ContinuationListener;
+import org.eclipse.jetty.continuation.ContinuationSupport;
 import org.openhab.core.items.GenericItem;
 import org.openhab.core.items.Item;
 import org.openhab.core.items.ItemNotFoundException;
@@ -77,6 +84,12 @@ public class WebAppServlet extends BaseServlet {
 	private PageRenderer renderer;
 	protected SitemapProvider sitemapProvider;
 	
+	/** the subscriptions of all pages which are currently observed by polling requests */
+	private final Map<String, PageSubscription> subscriptions = new HashMap<String, PageSubscription>();
+	
+	/** the number of polling requests which are currently suspended */
+	private final AtomicInteger parkedRequests = new AtomicInteger();
+	
 	
 	public void setSitemapProvider(SitemapProvider sitemapProvider) {
 		this.sitemapProvider = sitemapProvider;
@@ -107,9 +120,29 @@ public class WebAppServlet extends BaseServlet {
 	protected void deactivate() {
 		httpService.unregister(WEBAPP_ALIAS + SERVLET_NAME);
 		httpService.unregister(WEBAPP_ALIAS);
+		
+		// let all suspended clients reconnect and release the item listeners
+		List<PageSubscription> activeSubscriptions;
+		synchronized(subscriptions) {
+			activeSubscriptions = new ArrayList<PageSubscription>(subscriptions.values());
+			subscriptions.clear();
+		}
+		for(PageSubscription subscription : activeSubscriptions) {
+			subscription.resumeAll();
+		}
 		logger.info("Stopped Classic UI");
 	}
 	
+	/**
+	 * Returns the number of polling requests, which are currently suspended 
+	 * while waiting for a state change.
+	 * 
+	 * @return the number of suspended polling requests
+	 */
+	public int getParkedRequestCount() {
+		return parkedRequests.get();
+	}
+	
 	/**
 	 * {@inheritDoc}
 	 */
@@ -126,7 +159,7 @@ public class WebAppServlet extends BaseServlet {
 		// if there are no parameters, display the "default" sitemap
 		if(sitemapName==null) sitemapName = "default";
 		
-		StringBuilder result = new StringBuilder();
+		CharSequence result = "";
 		
 		Sitemap sitemap = sitemapProvider.getSitemap(sitemapName);
 		try {
@@ -138,12 +171,11 @@ public class WebAppServlet extends BaseServlet {
 				// we are at the homepage, so we render the children of the sitemap root node
 				String label = sitemap.getLabel()!=null ? sitemap.getLabel() : sitemapName;
 				EList<Widget> children = sitemap.getChildren();
-				if(poll && waitForChanges(children)==false) {
-					// we have reached the timeout, so we do not return any content as nothing has changed
-					res.getWriter().append(getTimeoutResponse()).close();
+				if(poll && waitForChanges(sitemap, sitemapName + "/Home", children, req, res)) {
+					// the request has been suspended or we have reached the timeout
 					return;
 				}
-				result.append(renderer.processPage("Home", sitemapName, label, sitemap.getChildren(), async));
+				result = renderer.processPage("Home", sitemapName, sitemap, label, sitemap.getChildren(), async);
 			} else if(!widgetId.equals("Colorpicker")) {
 				// we are on some subpage, so we have to render the children of the widget that has been selected
 				Widget w = renderer.getItemUIRegistry().getWidget(sitemap, widgetId);
@@ -154,12 +186,11 @@ public class WebAppServlet extends BaseServlet {
 						throw new RenderException("Widget '" + w + "' can not have any content");
 					}
 					EList<Widget> children = renderer.getItemUIRegistry().getChildren((LinkableWidget) w);
-					if(poll && waitForChanges(children)==false) {
-						// we have reached the timeout, so we do not return any content as nothing has changed
-						res.getWriter().append(getTimeoutResponse()).close();
+					if(poll && waitForChanges(sitemap, sitemapName + "/" + widgetId, children, req, res)) {
+						// the request has been suspended or we have reached the timeout
 						return;
 					}
-					result.append(renderer.processPage(renderer.getItemUIRegistry().getWidgetId(w), sitemapName, label, children, async));
+					result = renderer.processPage(renderer.getItemUIRegistry().getWidgetId(w), sitemapName, sitemap, label, children, async);
 				}
 			}
 		} catch(RenderException e) {
@@ -184,32 +215,68 @@ public class WebAppServlet extends BaseServlet {
 	}
 
 	/**
-	 * This method only returns when a change has occurred to any item on the page to display
+	 * Suspends a polling request until a change has occurred to any item on the page 
+	 * to display. Instead of blocking a thread, the request is parked as a continuation,
+	 * which is resumed by the state change itself or expires after the timeout. In both
+	 * cases the request is dispatched again, so this method is called a second time.
 	 * 
+	 * @param sitemap the sitemap model the page belongs to
+	 * @param pageId the unique id of the page within all sitemaps
 	 * @param widgets the widgets of the page to observe
+	 * @param req the polling request
+	 * @param res the response for the polling request
+	 * @return <code>true</code>, if the request has been suspended or answered because 
+	 * of a timeout, <code>false</code>, if the page should be rendered as a change has occurred
 	 */
-	private boolean waitForChanges(EList<Widget> widgets) {
-		long startTime = (new Date()).getTime();
-		boolean timeout = false;
-		BlockingStateChangeListener listener = new BlockingStateChangeListener();
-		// let's get all items for these widgets
-		Set<GenericItem> items = getAllItems(widgets);
-		for(GenericItem item : items) {			
-			item.addStateChangeListener(listener);
+	private boolean waitForChanges(Sitemap sitemap, String pageId, EList<Widget> widgets, ServletRequest req, ServletResponse res) throws IOException {
+		Continuation continuation = ContinuationSupport.getContinuation(req);
+		if(continuation.isExpired()) {
+			// we have reached the timeout, so we do not return any content as nothing has changed
+			res.getWriter().append(getTimeoutResponse()).close();
+			return true;
+		}
+		if(!continuation.isInitial()) {
+			// we have been resumed because of a state change
+			return false;
 		}
-		while(!listener.hasChangeOccurred() && !timeout) {
-			timeout = (new Date()).getTime() - startTime > TIMEOUT_IN_MS;
-			try {
-				Thread.sleep(300);
-			} catch (InterruptedException e) {
-				timeout = true;
-				break;
+		
+		continuation.setTimeout(TIMEOUT_IN_MS);
+		continuation.suspend();
+		boolean parked;
+		synchronized(subscriptions) {
+			PageSubscription subscription = subscriptions.get(pageId);
+			parked = subscription!=null && subscription.park(continuation, sitemap);
+			if(!parked) {
+				// all clients of the same page share the item listener of a single subscription
+				subscription = new PageSubscription(pageId, sitemap, getAllItems(widgets));
+				subscriptions.put(pageId, subscription);
+				parked = subscription.park(continuation, sitemap);
+				if(!parked) {
+					// do not keep the listeners of a subscription nobody waits for
+					subscription.resumeAll();
+				}
 			}
 		}
-		for(GenericItem item : items) {
-			item.removeStateChangeListener(listener);
+		if(!parked) {
+			// nobody would resume the request, so we render the page right away
+			continuation.resume();
+			return true;
+		}
+		logger.debug("Suspended polling request for page '{}' ({} requests parked)", pageId, parkedRequests.get());
+		return true;
+	}
+	
+	/**
+	 * Removes a subscription from the active ones, if it has not been replaced yet.
+	 * 
+	 * @param subscription the subscription to remove
+	 */
+	private void removeSubscription(PageSubscription subscription) {
+		synchronized(subscriptions) {
+			if(subscriptions.get(subscription.pageId)==subscription) {
+				subscriptions.remove(subscription.pageId);
+			}
 		}
-		return !timeout;
 	}
 
 	/**
@@ -244,37 +311,120 @@ public class WebAppServlet extends BaseServlet {
 	}
 
 	/**
-	 * This is a state change listener, which is merely used to determine, if a state
-	 * change has occurred on one of a list of items.
+	 * This is a state change listener for all items of a page, which is shared by all 
+	 * polling requests for this page. The first state change resumes all suspended
+	 * requests and ends the subscription; a request that expires is simply removed.
+	 * Subscriptions are identified by the sitemap name and the page id, as the widget
+	 * lists of dynamic pages (e.g. groups) are newly created for every request. To pick 
+	 * up changes of the sitemap or the items, a subscription doesn't accept requests for
+	 * another instance of the sitemap model and no new requests at all once it has 
+	 * existed for longer than the polling timeout.
 	 * 
 	 * @author Kai Kreuzer
-	 *
+	 * @since 1.4.0
 	 */
-	private static class BlockingStateChangeListener implements StateChangeListener {
+	private class PageSubscription implements StateChangeListener, ContinuationListener {
+		
+		private final String pageId;
+		private final Sitemap sitemap;
+		private final Set<GenericItem> items;
+		private final long creationTime = System.currentTimeMillis();
+		
+		private final List<Continuation> continuations = new ArrayList<Continuation>();
+		private boolean closed = false;
+		
+		public PageSubscription(String pageId, Sitemap sitemap, Set<GenericItem> items) {
+			this.pageId = pageId;
+			this.sitemap = sitemap;
+			this.items = items;
+			for(GenericItem item : items) {
+				item.addStateChangeListener(this);
+			}
+		}
+		
+		/**
+		 * Adds a suspended request to this subscription.
+		 * 
+		 * @param continuation the continuation of the suspended request
+		 * @param pageSitemap the sitemap model of the page the request is waiting for
+		 * @return <code>false</code>, if the request could not be added as the 
+		 * subscription is closed or outdated
+		 */
+		public synchronized boolean park(Continuation continuation, Sitemap pageSitemap) {
+			if(closed || pageSitemap!=sitemap || System.currentTimeMillis() - creationTime > TIMEOUT_IN_MS) {
+				return false;
+			}
+			continuation.addContinuationListener(this);
+			continuations.add(continuation);
+			parkedRequests.incrementAndGet();
+			return true;
+		}
 		
-		private boolean changed = false;
+		/**
+		 * Resumes all suspended requests and removes the listener from the items.
+		 */
+		public void resumeAll() {
+			List<Continuation> resumable;
+			synchronized(this) {
+				if(closed) {
+					return;
+				}
+				closed = true;
+				resumable = new ArrayList<Continuation>(continuations);
+				continuations.clear();
+				parkedRequests.addAndGet(-resumable.size());
+			}
+			for(GenericItem item : items) {
+				item.removeStateChangeListener(this);
+			}
+			removeSubscription(this);
+			for(Continuation continuation : resumable) {
+				continuation.resume();
+			}
+		}
 		
 		/**
 		 * {@inheritDoc}
 		 */
 		public void stateChanged(Item item, State oldState, State newState) {
-			changed = true;
+			resumeAll();
 		}
 
 		/**
-		 * determines, whether a state change has occurred since its creation
-		 * 
-		 * @return true, if a state has changed
+		 * {@inheritDoc}
+		 */
+		public void stateUpdated(Item item, State state) {
+			// ignore if the state did not change
+		}
+		
+		/**
+		 * {@inheritDoc}
 		 */
-		public boolean hasChangeOccurred() {
-			return changed;
+		public void onTimeout(Continuation continuation) {
+			boolean unused;
+			synchronized(this) {
+				if(!continuations.remove(continuation)) {
+					return;
+				}
+				parkedRequests.decrementAndGet();
+				unused = continuations.isEmpty() && !closed;
+				if(unused) {
+					closed = true;
+				}
+			}
+			if(unused) {
+				// nobody is waiting anymore, so we do not need to observe the items
+				for(GenericItem item : items) {
+					item.removeStateChangeListener(this);
+				}
+				removeSubscription(this);
+			}
 		}
 
 		/**
 		 * {@inheritDoc}
 		 */
-		public void stateUpdated(Item item, State state) {
-			// ignore if the state did not change
+		public void onComplete(Continuation continuation) {
 		}
 	}
 	
@@ -0,0 +1,210 @@
+/**
+ * openHAB, the open Home Automation Bus.
+ * Copyright (C) 2010-2013, openHAB.org <admin@openhab.org>
+ *
+ * See the contributors.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation; either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ *
+ * Additional permission under GNU GPL version 3 section 7
+ *
+ * If you modify this Program, or any covered work, by linking or
+ * combining it with Eclipse (or a modified version of that library),
+ * containing parts covered by the terms of the Eclipse Public License
+ * (EPL), the licensors of this Program grant you additional permission
+ * to convey the resulting work.
+ */
+package org.openhab.ui.internal.items;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * This class keeps an in-memory index of the icons available in an image folder,
+ * so that icon resolution does not need to hit the file system on every widget
+ * render.
+ * 
+ * For every icon family (the part of an icon name before a numeric suffix like
+ * "-50"), a lookup table is precomputed that maps each percent value to the
+ * biggest available icon value that is still smaller or equal to it.
+ * 
+ * The folder is scanned once on first access. Afterwards, its modification
+ * time is checked at most once per check interval and the index is rebuilt
+ * when icons have been added, removed or renamed.
+ * 
+ * @author Kai Kreuzer
+ * @since 1.4.0
+ *
+ */
+class IconIndex {
+
+	/* the default interval in milliseconds in which the folder is checked for changes */
+	static final long DEFAULT_CHECK_INTERVAL = 5000L;
+
+	private static final int MAX_PERCENT = 100;
+	
+	private final File folder;
+	
+	private final String extension;
+	
+	private final long checkInterval;
+
+	private volatile Snapshot snapshot;
+	
+	private volatile long lastCheck;
+	
+	IconIndex(File folder, String extension, long checkInterval) {
+		this.folder = folder;
+		this.extension = extension;
+		this.checkInterval = checkInterval;
+	}
+
+	/**
+	 * Checks whether an icon with the given name exists in the folder.
+	 * 
+	 * @param icon the icon name without file extension
+	 * @return true, if the icon exists
+	 */
+	boolean exists(String icon) {
+		if(icon.indexOf('/') >= 0 || icon.indexOf(File.separatorChar) >= 0) {
+			// icons in sub folders are not indexed
+			return new File(folder, icon + extension).exists();
+		}
+		return getSnapshot().icons.contains(icon);
+	}
+	
+	/**
+	 * Determines the biggest value for which an icon "<code>family-value</code>"
+	 * exists and which is still smaller or equal to the given percent value.
+	 * 
+	 * @param family the icon name without state information
+	 * @param percent the percent value to look up
+	 * @return the value of the icon to use or -1, if there is none
+	 */
+	int getPercentValue(String family, int percent) {
+		if(percent < 0) {
+			return -1;
+		}
+		int[] lookup = getSnapshot().percentLookups.get(family);
+		if(lookup == null) {
+			return -1;
+		}
+		return lookup[Math.min(percent, MAX_PERCENT)];
+	}
+
+	/**
+	 * Forces a rescan of the folder on the next access.
+	 */
+	void invalidate() {
+		snapshot = null;
+	}
+
+	private Snapshot getSnapshot() {
+		Snapshot current = snapshot;
+		long now = System.currentTimeMillis();
+		if(current != null && now - lastCheck < checkInterval) {
+			return current;
+		}
+		synchronized(this) {
+			current = snapshot;
+			if(current == null || now - lastCheck >= checkInterval) {
+				long lastModified = folder.lastModified();
+				if(current == null || current.lastModified != lastModified) {
+					current = scan(lastModified);
+					snapshot = current;
+				}
+				lastCheck = now;
+			}
+		}
+		return current;
+	}
+	
+	private Snapshot scan(long lastModified) {
+		Set<String> icons = new HashSet<String>();
+		Map<String, int[]> percentLookups = new HashMap<String, int[]>();
+		String[] files = folder.list();
+		if(files != null) {
+			for(String file : files) {
+				if(!file.endsWith(extension)) continue;
+				String icon = file.substring(0, file.length() - extension.length());
+				icons.add(icon);
+				
+				int value = getPercentSuffix(icon);
+				if(value >= 0) {
+					String family = icon.substring(0, icon.lastIndexOf('-'));
+					int[] lookup = percentLookups.get(family);
+					if(lookup == null) {
+						lookup = new int[MAX_PERCENT + 1];
+						Arrays.fill(lookup, -1);
+						percentLookups.put(family, lookup);
+					}
+					lookup[value] = value;
+				}
+			}
+		}
+		// fill the gaps with the nearest smaller value
+		for(int[] lookup : percentLookups.values()) {
+			for(int i = 1; i <= MAX_PERCENT; i++) {
+				if(lookup[i] < 0) {
+					lookup[i] = lookup[i - 1];
+				}
+			}
+		}
+		return new Snapshot(lastModified, Collections.unmodifiableSet(icons), percentLookups);
+	}
+
+	/**
+	 * Returns the numeric suffix of an icon name like "<code>slider-50</code>",
+	 * if it is a percent value in its canonical form, or -1 otherwise.
+	 */
+	private static int getPercentSuffix(String icon) {
+		int index = icon.lastIndexOf('-');
+		if(index <= 0 || index == icon.length() - 1) {
+			return -1;
+		}
+		String suffix = icon.substring(index + 1);
+		if(suffix.length() > 3) {
+			return -1;
+		}
+		for(int i = 0; i < suffix.length(); i++) {
+			if(!Character.isDigit(suffix.charAt(i))) {
+				return -1;
+			}
+		}
+		int value = Integer.parseInt(suffix);
+		if(value > MAX_PERCENT || !String.valueOf(value).equals(suffix)) {
+			return -1;
+		}
+		return value;
+	}
+
+	private static class Snapshot {
+		final long lastModified;
+		final Set<String> icons;
+		final Map<String, int[]> percentLookups;
+		
+		Snapshot(long lastModified, Set<String> icons, Map<String, int[]> percentLookups) {
+			this.lastModified = lastModified;
+			this.icons = icons;
+			this.percentLookups = percentLookups;
+		}
+	}
+	
+}
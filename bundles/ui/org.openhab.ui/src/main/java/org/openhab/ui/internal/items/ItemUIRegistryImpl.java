@@ -32,7 +32,10 @@ import java.io.File;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -98,10 +101,31 @@ public class ItemUIRegistryImpl implements ItemUIRegistry {
 	/* RegEx to identify format patterns */
 	protected static final String IDENTIFY_FORMAT_PATTERN_PATTERN = "%(\\d\\$)?(<)?(\\.\\d)?[a-zA-Z]{1,2}";
 
+	/* the maximum number of compiled label formats to keep */
+	protected static final int LABEL_FORMAT_CACHE_SIZE = 2000;
+
+	/* the service property that holds the type of a transformation service */
+	protected static final String TRANSFORMATION_TYPE_PROPERTY = "openhab.transform";
+
 	protected Set<ItemUIProvider> itemUIProviders = new HashSet<ItemUIProvider>();
 
 	protected ItemRegistry itemRegistry;
 
+	/* the in-memory index of the available icons */
+	protected IconIndex iconIndex = new IconIndex(new File(IMAGE_LOCATION), IMAGE_EXT, IconIndex.DEFAULT_CHECK_INTERVAL);
+
+	/* the compiled label formats, keyed by the label text */
+	protected Map<String, LabelFormat> labelFormats = new LinkedHashMap<String, LabelFormat>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, LabelFormat> eldest) {
+			return size() > LABEL_FORMAT_CACHE_SIZE;
+		}
+	};
+
+	/* the available transformation services, keyed by their type */
+	protected Map<String, TransformationService> transformationServices = new ConcurrentHashMap<String, TransformationService>();
+
 	public ItemUIRegistryImpl() {}
 
 	public void setItemRegistry(ItemRegistry itemRegistry) {
@@ -120,6 +144,20 @@ public class ItemUIRegistryImpl implements ItemUIRegistry {
 		itemUIProviders.remove(itemUIProvider);
 	}
 
+	public void addTransformationService(TransformationService transformationService, Map<String, Object> properties) {
+		Object type = properties.get(TRANSFORMATION_TYPE_PROPERTY);
+		if(type!=null) {
+			transformationServices.put(type.toString(), transformationService);
+		}
+	}
+
+	public void removeTransformationService(TransformationService transformationService, Map<String, Object> properties) {
+		Object type = properties.get(TRANSFORMATION_TYPE_PROPERTY);
+		if(type!=null && transformationServices.get(type.toString())==transformationService) {
+			transformationServices.remove(type.toString());
+		}
+	}
+
 	/**
 	 * {@inheritDoc}
 	 */
@@ -226,17 +264,18 @@ public class ItemUIRegistryImpl implements ItemUIRegistry {
 	 */
 	public String getLabel(Widget w) {
 		String label = getLabelFromWidget(w);
+		LabelFormat format = getLabelFormat(label);
+		
+		if(!format.hasPattern()) {
+			return format.isGenericTransformation() ? transform(label) : label;
+		}
 		
 		// now insert the value, if the state is a string or decimal value and there is some formatting pattern defined in the label 
 		// (i.e. it contains at least a %)
+		String value = format.getPattern();
 		String itemName = w.getItem();
-		if(itemName!=null && label.contains("[")) {
-			
-			int indexOpenBracket = label.indexOf("[");
-			int indexCloseBracket = label.indexOf("]");
-			
+		if(itemName!=null) {
 			State state = null;
-			String formatPattern = label.substring(indexOpenBracket + 1, indexCloseBracket);
 			try {
 				Item item = getItem(itemName);
 				// TODO: TEE: we should find a more generic solution here! When
@@ -244,7 +283,7 @@ public class ItemUIRegistryImpl implements ItemUIRegistry {
 				// and will cause an 'java.util.IllegalFormatConversionException:
 				// d != java.lang.String' later on when trying to format a String
 				// as %d (number).
-				if (label.contains("%d")) {
+				if (format.isDecimal()) {
 					// a number is requested
 					state = item.getState();
 					if(!(state instanceof DecimalType)) {
@@ -258,17 +297,42 @@ public class ItemUIRegistryImpl implements ItemUIRegistry {
 			}
 
 			if (state==null || state instanceof UnDefType) {
-				formatPattern = formatUndefined(formatPattern);
+				value = format.getUndefinedValue();
+				if(value==null) {
+					value = formatUndefined(format.getPattern());
+					format.setUndefinedValue(value);
+				}
 			} else if (state instanceof Type) {
-				formatPattern = ((Type) state).format(formatPattern);
+				value = ((Type) state).format(format.getPattern());
 			}
-
-			label = label.substring(0, indexOpenBracket + 1) + formatPattern + label.substring(indexCloseBracket);
 		}
 		
-		label = transform(label);
+		if(format.getTransformationType()!=null) {
+			value = transform(format.getTransformationType(), format.getTransformationPattern(), value);
+		}
+		label = format.getPrefix() + value + format.getSuffix();
 		
-		return label;
+		return format.isGenericTransformation() ? transform(label) : label;
+	}
+
+	/**
+	 * Returns the compiled format of the given label text. As the formats are
+	 * kept by their label text, a changed label (e.g. after a sitemap or item
+	 * model has been reloaded) is compiled anew and outdated formats are evicted
+	 * once the cache is full.
+	 * 
+	 * @param label the label text
+	 * @return the compiled label format
+	 */
+	protected LabelFormat getLabelFormat(String label) {
+		synchronized(labelFormats) {
+			LabelFormat format = labelFormats.get(label);
+			if(format==null) {
+				format = new LabelFormat(label);
+				labelFormats.put(label, format);
+			}
+			return format;
+		}
 	}
 
 	private String getLabelFromWidget(Widget w) {
@@ -317,24 +381,34 @@ public class ItemUIRegistryImpl implements ItemUIRegistry {
 				String type = matcher.group(1);
 				String pattern = matcher.group(2);
 				String value = matcher.group(3);
-				TransformationService transformation = 
-					TransformationHelper.getTransformationService(UIActivator.getContext(), type);
-				if(transformation!=null) {
-					try {
-						label = label.substring(0, label.indexOf("[")+1) + transformation.transform(pattern, value) + "]";
-					} catch (TransformationException e) {
-						logger.error("transformation throws exception [transformation="
-								+ transformation + ", value=" + value + "]", e);
-						label = label.substring(0, label.indexOf("[")+1) + value + "]";
-					}
-				} else {
-					logger.warn("couldn't transform value in label because transformationService of type '{}' is unavailable", type);
-					label = label.substring(0, label.indexOf("[")+1) + value + "]";
-				}
+				label = label.substring(0, label.indexOf("[")+1) + transform(type, pattern, value) + "]";
 			}
 		}
 		return label;
 	}
+
+	/*
+	 * executes the transformation of the given type on the value; if this fails,
+	 * the value is returned unchanged.
+	 */
+	private String transform(String type, String pattern, String value) {
+		TransformationService transformation = transformationServices.get(type);
+		if(transformation==null) {
+			transformation = TransformationHelper.getTransformationService(UIActivator.getContext(), type);
+		}
+		if(transformation!=null) {
+			try {
+				return transformation.transform(pattern, value);
+			} catch (TransformationException e) {
+				logger.error("transformation throws exception [transformation="
+						+ transformation + ", value=" + value + "]", e);
+				return value;
+			}
+		} else {
+			logger.warn("couldn't transform value in label because transformationService of type '{}' is unavailable", type);
+			return value;
+		}
+	}
 	
 	/**
 	 * {@inheritDoc}
@@ -367,11 +441,9 @@ public class ItemUIRegistryImpl implements ItemUIRegistry {
 					// Example: if there are icons *-0.png, *-50.png and *-100.png, we choose *-0.png, if the state
 					// is 40, and *-50.png, if the state is 70.
 					int iconState = ((PercentType) state).toBigDecimal().intValue();
-					String testIcon;
-					do {
-						testIcon = icon + "-" + String.valueOf(iconState--);
-					} while(!iconExists(testIcon) && iconState>=0);
-					icon = testIcon;
+					int iconValue = iconIndex.getPercentValue(icon, iconState);
+					// if there is no such icon, we keep the state icon, which is handled by the fallback below
+					icon += "-" + String.valueOf(iconValue>=0 ? iconValue : iconState);
 				} else {
 					// for all other types, just add the string representation of the state
 					icon += "-" + state.toString().toLowerCase();
@@ -487,13 +559,7 @@ public class ItemUIRegistryImpl implements ItemUIRegistry {
 	 * {@inheritDoc}
 	 */
 	public boolean iconExists(String icon) {
-		String iconLocation = IMAGE_LOCATION + icon + IMAGE_EXT;
-		File file = new File(iconLocation);
-		if(file.exists()) {
-			return true;
-		} else {
-			return false;
-		}
+		return iconIndex.exists(icon);
 	}
 
 	private Class<? extends Item> getItemType(String itemName) {
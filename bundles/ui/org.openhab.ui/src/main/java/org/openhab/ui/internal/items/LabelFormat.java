@@ -0,0 +1,187 @@
+/**
+ * openHAB, the open Home Automation Bus.
+ * Copyright (C) 2010-2013, openHAB.org <admin@openhab.org>
+ *
+ * See the contributors.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation; either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ *
+ * Additional permission under GNU GPL version 3 section 7
+ *
+ * If you modify this Program, or any covered work, by linking or
+ * combining it with Eclipse (or a modified version of that library),
+ * containing parts covered by the terms of the Eclipse Public License
+ * (EPL), the licensors of this Program grant you additional permission
+ * to convey the resulting work.
+ */
+package org.openhab.ui.internal.items;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A precompiled representation of a widget label. The label text is parsed
+ * only once into a static prefix, the format pattern in square brackets, a
+ * static suffix and an optional transformation reference (e.g.
+ * "<code>[MAP(en.map):%s]</code>"), so that rendering a label only requires
+ * formatting the current state.
+ * 
+ * @author Kai Kreuzer
+ * @since 1.4.0
+ *
+ */
+class LabelFormat {
+
+	/* RegEx to parse a transformation function inside the square brackets <code>'(.*?)\((.*)\):(.*)'</code> */
+	private static final Pattern TRANSFORMFUNCTION_PATTERN = Pattern.compile("(.*?)\\((.*)\\):(.*)");
+
+	private final String label;
+	
+	private final String prefix;
+	
+	private final String pattern;
+	
+	private final String suffix;
+	
+	private final boolean decimal;
+	
+	private final String transformationType;
+	
+	private final String transformationPattern;
+	
+	private final boolean genericTransformation;
+
+	/* the formatted value for an undefined state, computed on first use */
+	private volatile String undefinedValue;
+
+	LabelFormat(String label) {
+		this.label = label;
+		this.decimal = label.contains("%d");
+		
+		int indexOpenBracket = label.indexOf("[");
+		int indexCloseBracket = label.indexOf("]");
+		if(indexOpenBracket < 0 || indexCloseBracket < indexOpenBracket) {
+			// there is no well-formed value section, so the label is static
+			this.prefix = null;
+			this.pattern = null;
+			this.suffix = null;
+			this.transformationType = null;
+			this.transformationPattern = null;
+			this.genericTransformation = indexOpenBracket >= 0 && label.endsWith("]");
+			return;
+		}
+		
+		String prefix = label.substring(0, indexOpenBracket + 1);
+		String pattern = label.substring(indexOpenBracket + 1, indexCloseBracket);
+		String suffix = label.substring(indexCloseBracket);
+		String transformationType = null;
+		String transformationPattern = null;
+		boolean genericTransformation = false;
+		
+		if(label.endsWith("]")) {
+			Matcher matcher = TRANSFORMFUNCTION_PATTERN.matcher(pattern);
+			boolean isTransformation = suffix.equals("]") && matcher.matches();
+			if(isTransformation && !matcher.group(1).contains("%") && !matcher.group(2).contains("%")) {
+				// only the value part of the transformation needs to be formatted
+				transformationType = matcher.group(1);
+				transformationPattern = matcher.group(2);
+				pattern = matcher.group(3);
+			} else if(isTransformation || pattern.contains("[") || !suffix.equals("]")) {
+				// the transformation reference itself is formatted or the bracket nesting is unusual,
+				// so leave it to the full label transformation
+				genericTransformation = true;
+			}
+		}
+		
+		this.prefix = prefix;
+		this.pattern = pattern;
+		this.suffix = suffix;
+		this.transformationType = transformationType;
+		this.transformationPattern = transformationPattern;
+		this.genericTransformation = genericTransformation;
+	}
+
+	/**
+	 * @return the label text this format has been compiled from
+	 */
+	String getLabel() {
+		return label;
+	}
+	
+	/**
+	 * @return true, if the label contains a value section in square brackets
+	 */
+	boolean hasPattern() {
+		return prefix != null;
+	}
+
+	/**
+	 * @return the label text up to and including the opening bracket
+	 */
+	String getPrefix() {
+		return prefix;
+	}
+
+	/**
+	 * @return the format pattern of the value, without any transformation reference
+	 */
+	String getPattern() {
+		return pattern;
+	}
+
+	/**
+	 * @return the label text starting with the closing bracket
+	 */
+	String getSuffix() {
+		return suffix;
+	}
+
+	/**
+	 * @return true, if the format pattern requires a decimal value
+	 */
+	boolean isDecimal() {
+		return decimal;
+	}
+
+	/**
+	 * @return the type of the transformation service to use or null, if there is none
+	 */
+	String getTransformationType() {
+		return transformationType;
+	}
+
+	/**
+	 * @return the pattern to pass to the transformation service
+	 */
+	String getTransformationPattern() {
+		return transformationPattern;
+	}
+
+	/**
+	 * @return true, if the formatted label has to be checked for a transformation as a whole
+	 */
+	boolean isGenericTransformation() {
+		return genericTransformation;
+	}
+
+	String getUndefinedValue() {
+		return undefinedValue;
+	}
+
+	void setUndefinedValue(String undefinedValue) {
+		this.undefinedValue = undefinedValue;
+	}
+
+}